@@ -2,6 +2,7 @@ package com.linkedin.helix;
 
 import static com.linkedin.helix.PropertyType.ALERTS;
 import static com.linkedin.helix.PropertyType.ALERT_HISTORY;
+import static com.linkedin.helix.PropertyType.ALERT_HISTORY_CHECKPOINT;
 import static com.linkedin.helix.PropertyType.ALERT_STATUS;
 import static com.linkedin.helix.PropertyType.CONFIGS;
 import static com.linkedin.helix.PropertyType.CONTROLLER;
@@ -535,6 +536,11 @@ public class PropertyKey
       return new PropertyKey(ALERT_HISTORY, AlertHistory.class, _clusterName);
     }
 
+    public PropertyKey alertHistoryCheckpoint()
+    {
+      return new PropertyKey(ALERT_HISTORY_CHECKPOINT, AlertHistory.class, _clusterName);
+    }
+
     public PropertyKey healthReport(String instanceName, String id)
     {
       return new PropertyKey(HEALTHREPORT,
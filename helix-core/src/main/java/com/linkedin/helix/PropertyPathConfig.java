@@ -138,6 +138,8 @@ public class PropertyPathConfig
     addEntry(PropertyType.ALERTS, 1, "/{clusterName}/CONTROLLER/ALERTS");
     addEntry(PropertyType.ALERT_STATUS, 1, "/{clusterName}/CONTROLLER/ALERT_STATUS");
     addEntry(PropertyType.ALERT_HISTORY, 1, "/{clusterName}/CONTROLLER/ALERT_HISTORY");
+    addEntry(PropertyType.ALERT_HISTORY_CHECKPOINT, 1,
+        "/{clusterName}/CONTROLLER/ALERT_HISTORY_CHECKPOINT");
     // @formatter:on
 
   }
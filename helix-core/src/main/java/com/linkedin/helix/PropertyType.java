@@ -53,7 +53,8 @@ public enum PropertyType
   PERSISTENTSTATS(Type.CONTROLLER, true, false, false, false),
   ALERTS(Type.CONTROLLER, true, false, false, false),
   ALERT_STATUS(Type.CONTROLLER, true, false, false, false),
-  ALERT_HISTORY(Type.CONTROLLER, true, false, false, false);
+  ALERT_HISTORY(Type.CONTROLLER, true, false, false, false),
+  ALERT_HISTORY_CHECKPOINT(Type.CONTROLLER, true, false, false, false);
 
   // @formatter:on
 
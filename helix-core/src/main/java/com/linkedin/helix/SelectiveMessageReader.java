@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix;
+
+import java.util.List;
+
+import com.linkedin.helix.model.Message;
+
+/**
+ * Implemented by message listeners that keep their own view of a messages folder, so
+ * only new or rewritten message znodes are read. The callback handler passes the
+ * messages returned here to the listener instead of reading all of the children.
+ */
+public interface SelectiveMessageReader
+{
+  /**
+   * @param accessor
+   * @param messagesKey
+   *          key of the messages folder
+   * @return the messages to be handled by the listener
+   */
+  public List<Message> readNewMessages(HelixDataAccessor accessor, PropertyKey messagesKey);
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix;
+
+import com.linkedin.helix.HelixConstants.ChangeType;
+
+/**
+ * Implemented by change listeners that read the changed children themselves, e.g. only
+ * the children that changed, or only when they are needed. For such change types the
+ * callback handler does not read the children and passes null to the listener.
+ */
+public interface SelectiveReadListener
+{
+  /**
+   * @return false if the children of the change type should not be read for the
+   *         listener
+   */
+  public boolean prefetchChildren(ChangeType changeType);
+}
@@ -9,8 +9,15 @@ public class ZNRecordBucketizer
 {
   private static Logger LOG = Logger.getLogger(ZNRecordBucketizer.class);
   final int             _bucketSize;
+  // bucketize by key hash, _bucketSize is the number of buckets
+  final boolean         _byHash;
 
   public ZNRecordBucketizer(int bucketSize)
+  {
+    this(bucketSize, false);
+  }
+
+  private ZNRecordBucketizer(int bucketSize, boolean byHash)
   {
     if (bucketSize <= 0)
     {
@@ -20,6 +27,20 @@ public class ZNRecordBucketizer
     }
 
     _bucketSize = bucketSize;
+    _byHash = byHash;
+  }
+
+  /**
+   * Bucketizer for keys that have no partition#, e.g. stat names. Keys are spread over
+   * a fixed number of buckets named "b{hash % bucketNum}", so a key always lands in the
+   * same bucket no matter how many keys there are
+   * 
+   * @param bucketNum
+   * @return
+   */
+  public static ZNRecordBucketizer hashBucketizer(int bucketNum)
+  {
+    return new ZNRecordBucketizer(bucketNum, true);
   }
 
   /**
@@ -36,6 +57,11 @@ public class ZNRecordBucketizer
       return null;
     }
 
+    if (_byHash)
+    {
+      return "b" + (key.hashCode() & Integer.MAX_VALUE) % _bucketSize;
+    }
+
     int idx = key.lastIndexOf('_');
     if (idx < 0)
     {
@@ -66,6 +92,15 @@ public class ZNRecordBucketizer
       map.put(record.getId(), record);
       return map;
     }
+
+    if (_byHash)
+    {
+      // always return all buckets, so buckets whose keys are all removed get overwritten
+      for (int i = 0; i < _bucketSize; i++)
+      {
+        map.put("b" + i, new ZNRecord("b" + i));
+      }
+    }
         
     // bucketize list field
     for (String partitionName : record.getListFields().keySet())
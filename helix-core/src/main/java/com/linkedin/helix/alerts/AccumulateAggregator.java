@@ -26,8 +26,8 @@ public class AccumulateAggregator extends Aggregator {
 	}
 	
 	@Override
-	public void merge(Tuple<String> currValTup, Tuple<String> newValTup,
-			Tuple<String> currTimeTup, Tuple<String> newTimeTup, String... args) {
+	public void merge(NumericTuple currValTup, NumericTuple newValTup,
+			NumericTuple currTimeTup, NumericTuple newTimeTup, String... args) {
 	
 		double currVal = 0;
 		double currTime = -1;
@@ -43,11 +43,11 @@ public class AccumulateAggregator extends Aggregator {
 		
 		//old tuples may be empty, indicating no value/time exist
 		if (currValTup.size() > 0 && currTimeTup.size() > 0) {
-			currVal = Double.parseDouble(currValTup.iterator().next());
-			currTime = Double.parseDouble(currTimeTup.iterator().next());
+			currVal = currValTup.getElement(0);
+			currTime = currTimeTup.getElement(0);
 		}
-		newVal = Double.parseDouble(newValTup.iterator().next());
-		newTime = Double.parseDouble(newTimeTup.iterator().next());
+		newVal = newValTup.getElement(0);
+		newTime = newTimeTup.getElement(0);
 		
 		if (newTime > currTime) { //if old doesn't exist, we end up here
 			mergedVal = currVal+newVal; //if old doesn't exist, it has value "0"
@@ -59,9 +59,9 @@ public class AccumulateAggregator extends Aggregator {
 		}
 	
 		currValTup.clear();
-		currValTup.add(Double.toString(mergedVal));
+		currValTup.add(mergedVal);
 		currTimeTup.clear();
-		currTimeTup.add(Double.toString(mergedTime));
+		currTimeTup.add(mergedTime);
 	}
 
 	
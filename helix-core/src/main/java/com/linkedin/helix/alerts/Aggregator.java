@@ -27,8 +27,24 @@ public abstract class Aggregator {
 	/*
 	 * Take curr and new values.  Update curr.
 	 */
-	public abstract void merge(Tuple<String> currVal, Tuple<String> newVal, 
-			Tuple<String> currTime, Tuple<String> newTime, String... args);
+	public abstract void merge(NumericTuple currVal, NumericTuple newVal, 
+			NumericTuple currTime, NumericTuple newTime, String... args);
+	
+	/*
+	 * String form of merge, curr tuples are replaced with the merged values
+	 */
+	public void merge(Tuple<String> currVal, Tuple<String> newVal, 
+			Tuple<String> currTime, Tuple<String> newTime, String... args)
+	{
+		NumericTuple numCurrVal = NumericTuple.fromTuple(currVal);
+		NumericTuple numCurrTime = NumericTuple.fromTuple(currTime);
+		merge(numCurrVal, NumericTuple.fromTuple(newVal), numCurrTime,
+				NumericTuple.fromTuple(newTime), args);
+		currVal.clear();
+		currVal.addAll(numCurrVal.toTuple());
+		currTime.clear();
+		currTime.addAll(numCurrTime.toTuple());
+	}
 	
 	public int getRequiredNumArgs()
 	{
@@ -22,6 +22,7 @@ public class Alert {
 	String _expression;
 	String _comparator;
 	Tuple<String> _constant;
+	NumericTuple _numericConstant;
 	
 	public Alert(String name, String expression, String comparator, Tuple<String> constant)
 	{
@@ -50,4 +51,12 @@ public class Alert {
 	{
 		return _constant;
 	}
+	
+	public NumericTuple getNumericConstant()
+	{
+		if (_numericConstant == null) {
+			_numericConstant = NumericTuple.fromTuple(_constant);
+		}
+		return _numericConstant;
+	}
 }
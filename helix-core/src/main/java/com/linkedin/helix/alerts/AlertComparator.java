@@ -22,6 +22,11 @@ public abstract class AlertComparator {
 		
 	}
 	
-	public abstract boolean evaluate(Tuple<String> leftTup, Tuple<String> rightTup);
+	public abstract boolean evaluate(NumericTuple leftTup, NumericTuple rightTup);
+	
+	public boolean evaluate(Tuple<String> leftTup, Tuple<String> rightTup)
+	{
+		return evaluate(NumericTuple.fromTuple(leftTup), NumericTuple.fromTuple(rightTup));
+	}
 	
 }
@@ -0,0 +1,319 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.alerts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.linkedin.helix.HelixException;
+
+/**
+ * Fixed-size history of one actual alert, the (timestamp, value, fired) of each
+ * evaluation kept in primitive arrays used as a ring. Running sums are kept along with
+ * the entries, so the count, sum and number of fired evaluations of any window of
+ * recent entries are a subtraction of two running sums.
+ */
+public class AlertHistoryBuffer
+{
+  public static final String TIMES_NAME = "times";
+  public static final String VALUES_NAME = "values";
+  public static final String FIRED_NAME = "fired";
+
+  final long[] _times;
+  final double[] _values;
+  final boolean[] _fired;
+  // running sums up to and including the entry in the same slot
+  final double[] _valueSums;
+  final long[] _firedCounts;
+
+  // sequence number of the next entry, entries [_next - size(), _next) are kept
+  long _next = 0;
+  // running sums up to the entry before the oldest kept
+  double _evictedValueSum = 0;
+  long _evictedFiredCount = 0;
+
+  public AlertHistoryBuffer(int capacity)
+  {
+    if (capacity <= 0)
+    {
+      throw new HelixException("Invalid alert history capacity: " + capacity);
+    }
+    _times = new long[capacity];
+    _values = new double[capacity];
+    _fired = new boolean[capacity];
+    _valueSums = new double[capacity];
+    _firedCounts = new long[capacity];
+  }
+
+  public int capacity()
+  {
+    return _times.length;
+  }
+
+  public int size()
+  {
+    return (int) Math.min(_next, _times.length);
+  }
+
+  /**
+   * Number of entries added since creation, including those evicted. Entry n added is
+   * kept while n >= getAddedCount() - capacity()
+   */
+  public long getAddedCount()
+  {
+    return _next;
+  }
+
+  public void add(long time, double value, boolean fired)
+  {
+    int slot = (int) (_next % _times.length);
+    if (_next >= _times.length)
+    {
+      // the slot holds the oldest entry
+      _evictedValueSum = _valueSums[slot];
+      _evictedFiredCount = _firedCounts[slot];
+    }
+    double valueSum = value;
+    long firedCount = fired ? 1 : 0;
+    if (_next > 0)
+    {
+      int prev = (int) ((_next - 1) % _times.length);
+      valueSum += _valueSums[prev];
+      firedCount += _firedCounts[prev];
+    }
+    _times[slot] = time;
+    _values[slot] = value;
+    _fired[slot] = fired;
+    _valueSums[slot] = valueSum;
+    _firedCounts[slot] = firedCount;
+    _next++;
+  }
+
+  /**
+   * @param i
+   *          0 for the oldest entry kept, size() - 1 for the newest
+   */
+  public long getTime(int i)
+  {
+    return _times[slot(i)];
+  }
+
+  public double getValue(int i)
+  {
+    return _values[slot(i)];
+  }
+
+  public boolean isFired(int i)
+  {
+    return _fired[slot(i)];
+  }
+
+  int slot(int i)
+  {
+    if (i < 0 || i >= size())
+    {
+      throw new IndexOutOfBoundsException("index: " + i + ", size: " + size());
+    }
+    return (int) ((_next - size() + i) % _times.length);
+  }
+
+  /**
+   * Aggregates of the newest entryNum entries, or all entries kept if fewer
+   */
+  public Window getWindow(int entryNum)
+  {
+    int size = size();
+    int count = Math.max(0, Math.min(entryNum, size));
+    if (count == 0)
+    {
+      return new Window(0, 0, 0, 0, 0);
+    }
+    int newest = slot(size - 1);
+    int first = size - count;
+    double valueSum = _valueSums[newest];
+    long firedCount = _firedCounts[newest];
+    if (first == 0)
+    {
+      valueSum -= _evictedValueSum;
+      firedCount -= _evictedFiredCount;
+    }
+    else
+    {
+      int beforeFirst = slot(first - 1);
+      valueSum -= _valueSums[beforeFirst];
+      firedCount -= _firedCounts[beforeFirst];
+    }
+    return new Window(count, valueSum, firedCount, getTime(first), getTime(size - 1));
+  }
+
+  /**
+   * Aggregates of the entries with timestamp not older than startTime. Entries are
+   * assumed added in time order
+   */
+  public Window getWindowSince(long startTime)
+  {
+    // binary search the oldest entry in the window
+    int lo = 0;
+    int hi = size();
+    while (lo < hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      if (getTime(mid) < startTime)
+      {
+        lo = mid + 1;
+      }
+      else
+      {
+        hi = mid;
+      }
+    }
+    return getWindow(size() - lo);
+  }
+
+  /**
+   * Compact form for checkpointing: timestamps as deltas to the previous entry, values
+   * and fired flags, one comma separated string each
+   */
+  public Map<String, String> toFields()
+  {
+    return toFields(0);
+  }
+
+  /**
+   * Same as toFields(), with the entries added since the fromCount-th entry only, e.g.
+   * the entries added since the last checkpoint
+   *
+   * @param fromCount
+   *          getAddedCount() at the last checkpoint
+   */
+  public Map<String, String> toFields(long fromCount)
+  {
+    StringBuilder times = new StringBuilder();
+    StringBuilder values = new StringBuilder();
+    StringBuilder fired = new StringBuilder();
+    long prevTime = 0;
+    int first = (int) Math.max(0, size() - Math.max(0, _next - fromCount));
+    for (int i = first; i < size(); i++)
+    {
+      if (i > first)
+      {
+        times.append(',');
+        values.append(',');
+      }
+      long time = getTime(i);
+      times.append(time - prevTime);
+      prevTime = time;
+      values.append(formatValue(getValue(i)));
+      fired.append(isFired(i) ? '1' : '0');
+    }
+    Map<String, String> fields = new HashMap<String, String>();
+    fields.put(TIMES_NAME, times.toString());
+    fields.put(VALUES_NAME, values.toString());
+    fields.put(FIRED_NAME, fired.toString());
+    return fields;
+  }
+
+  /**
+   * Add the entries of a checkpoint written by toFields(). Only the newest entries are
+   * kept if the checkpoint has more entries than the capacity
+   */
+  public void addFields(Map<String, String> fields)
+  {
+    String times = fields.get(TIMES_NAME);
+    String values = fields.get(VALUES_NAME);
+    String fired = fields.get(FIRED_NAME);
+    if (times == null || values == null || fired == null || times.length() == 0)
+    {
+      return;
+    }
+    String[] timeDeltas = times.split(",");
+    String[] valueStrs = values.split(",");
+    if (timeDeltas.length != valueStrs.length || timeDeltas.length != fired.length())
+    {
+      throw new HelixException("Inconsistent alert history checkpoint, times: "
+          + timeDeltas.length + ", values: " + valueStrs.length + ", fired: "
+          + fired.length());
+    }
+    long time = 0;
+    for (int i = 0; i < timeDeltas.length; i++)
+    {
+      time += Long.parseLong(timeDeltas[i]);
+      add(time, Double.parseDouble(valueStrs[i]), fired.charAt(i) == '1');
+    }
+  }
+
+  static String formatValue(double value)
+  {
+    if (value == Math.rint(value) && Math.abs(value) < 1e15)
+    {
+      return String.valueOf((long) value);
+    }
+    return String.valueOf(value);
+  }
+
+  public static class Window
+  {
+    private final int _count;
+    private final double _valueSum;
+    private final long _firedCount;
+    private final long _startTime;
+    private final long _endTime;
+
+    Window(int count, double valueSum, long firedCount, long startTime, long endTime)
+    {
+      _count = count;
+      _valueSum = valueSum;
+      _firedCount = firedCount;
+      _startTime = startTime;
+      _endTime = endTime;
+    }
+
+    public int getCount()
+    {
+      return _count;
+    }
+
+    public double getValueSum()
+    {
+      return _valueSum;
+    }
+
+    public double getMeanValue()
+    {
+      return _count == 0 ? 0 : _valueSum / _count;
+    }
+
+    public long getFiredCount()
+    {
+      return _firedCount;
+    }
+
+    public double getFiredRatio()
+    {
+      return _count == 0 ? 0 : (double) _firedCount / _count;
+    }
+
+    public long getStartTime()
+    {
+      return _startTime;
+    }
+
+    public long getEndTime()
+    {
+      return _endTime;
+    }
+  }
+}
@@ -0,0 +1,477 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.alerts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import com.linkedin.helix.AccessOption;
+import com.linkedin.helix.BaseDataAccessor;
+import com.linkedin.helix.HelixManager;
+import com.linkedin.helix.PropertyType;
+import com.linkedin.helix.ZNRecord;
+
+/**
+ * Keeps the recent evaluations of every actual alert in memory, in an
+ * AlertHistoryBuffer per alert, so a long history is available for diagnosis without
+ * writing zookeeper on each pipeline. The number of actual alerts tracked is capped,
+ * since wildcard alerts expand to one actual alert per partition.
+ * <p>
+ * Once per checkpoint interval the entries added since the last checkpoint are
+ * appended to zookeeper as new segment znodes under the checkpoint node. Segments whose
+ * entries have all been evicted from the buffers are removed, so only the tail the
+ * buffers still hold is kept. The segments are read back in order when the holder is
+ * created, e.g. after a controller fail-over.
+ */
+public class AlertHistoryHolder
+{
+  private static final Logger logger = Logger.getLogger(AlertHistoryHolder.class
+      .getName());
+
+  // with a health report every minute, about 12 hours per alert
+  public static final int DEFAULT_CAPACITY = 720;
+  public static final long DEFAULT_CHECKPOINT_INTERVAL = 5 * 60 * 1000;
+  // about 24KB of heap per actual alert with the default capacity
+  public static final int DEFAULT_MAX_ACTUAL_ALERTS = 1000;
+
+  public static final String ALERT_NAME = "alert";
+  public static final String ACTUAL_ALERT_NAME = "actualAlert";
+  static final String KEY_DELIM = "|";
+  static final String SEGMENT_PREFIX = "segment_";
+  // a checkpoint is split over more segments past this size
+  static final int SEGMENT_SIZE_TARGET = ZNRecord.SIZE_LIMIT / 2;
+  // segments kept at most, the oldest are removed beyond
+  static final int MAX_SEGMENT_NUM = 1024;
+
+  final BaseDataAccessor<ZNRecord> _baseAccessor;
+  final String _checkpointPath;
+  final int _capacity;
+  final long _checkpointInterval;
+  final int _maxActualAlerts;
+  long _lastCheckpointTime;
+  int _segmentSizeTarget = SEGMENT_SIZE_TARGET;
+
+  // alert -> actual alert -> history
+  final Map<String, Map<String, AlertHistoryBuffer>> _histories =
+      new TreeMap<String, Map<String, AlertHistoryBuffer>>();
+  int _actualAlertNum = 0;
+
+  // alert|actual alert -> added count of its history at the last checkpoint
+  final Map<String, Long> _checkpointedCounts = new HashMap<String, Long>();
+  // segments in zookeeper, oldest first
+  final LinkedList<Segment> _segments = new LinkedList<Segment>();
+  long _nextSegmentId = 0;
+  boolean _checkpointNodeCreated = false;
+
+  static class Segment
+  {
+    final String _name;
+    // alert|actual alert -> added count of its history after the entries of the segment
+    final Map<String, Long> _endCounts = new HashMap<String, Long>();
+
+    Segment(String name)
+    {
+      _name = name;
+    }
+  }
+
+  public AlertHistoryHolder(HelixManager manager)
+  {
+    this(manager, DEFAULT_CAPACITY, DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_MAX_ACTUAL_ALERTS);
+  }
+
+  public AlertHistoryHolder(HelixManager manager,
+                            int capacity,
+                            long checkpointInterval,
+                            int maxActualAlerts)
+  {
+    _baseAccessor = manager.getHelixDataAccessor().getBaseDataAccessor();
+    _checkpointPath =
+        manager.getHelixDataAccessor().keyBuilder().alertHistoryCheckpoint().getPath();
+    _capacity = capacity;
+    _checkpointInterval = checkpointInterval;
+    _maxActualAlerts = maxActualAlerts;
+    _lastCheckpointTime = System.currentTimeMillis();
+    loadCheckpoint();
+  }
+
+  static String getSegmentName(long segmentId)
+  {
+    // zero padded, so names sort in the order segments are written
+    return String.format("%s%012d", SEGMENT_PREFIX, segmentId);
+  }
+
+  static String getKey(String alertName, String actualAlertName)
+  {
+    return alertName + KEY_DELIM + actualAlertName;
+  }
+
+  /**
+   * Read back the segments of the last checkpoint, oldest first
+   */
+  synchronized void loadCheckpoint()
+  {
+    List<String> childNames = _baseAccessor.getChildNames(_checkpointPath, 0);
+    if (childNames == null)
+    {
+      return;
+    }
+    _checkpointNodeCreated = true;
+
+    List<String> segmentNames = new ArrayList<String>();
+    for (String childName : childNames)
+    {
+      if (childName.startsWith(SEGMENT_PREFIX))
+      {
+        segmentNames.add(childName);
+      }
+    }
+    Collections.sort(segmentNames);
+    List<String> paths = new ArrayList<String>();
+    for (String segmentName : segmentNames)
+    {
+      paths.add(_checkpointPath + "/" + segmentName);
+    }
+    List<ZNRecord> records = _baseAccessor.get(paths, null, 0);
+
+    int entryNum = 0;
+    for (int i = 0; i < segmentNames.size(); i++)
+    {
+      String segmentName = segmentNames.get(i);
+      Segment segment = new Segment(segmentName);
+      _segments.add(segment);
+      try
+      {
+        _nextSegmentId =
+            Math.max(_nextSegmentId,
+                     Long.parseLong(segmentName.substring(SEGMENT_PREFIX.length())) + 1);
+      }
+      catch (NumberFormatException e)
+      {
+        logger.warn("Invalid alert history segment name: " + segmentName);
+      }
+
+      ZNRecord record = records.get(i);
+      if (record == null)
+      {
+        continue;
+      }
+      for (Map<String, String> fields : record.getMapFields().values())
+      {
+        String alertName = fields.get(ALERT_NAME);
+        String actualAlertName = fields.get(ACTUAL_ALERT_NAME);
+        if (alertName == null || actualAlertName == null)
+        {
+          continue;
+        }
+        AlertHistoryBuffer history = getOrCreateHistory(alertName, actualAlertName);
+        if (history == null)
+        {
+          continue;
+        }
+        try
+        {
+          history.addFields(fields);
+        }
+        catch (Exception e)
+        {
+          logger.warn("Skip invalid alert history segment " + segmentName + " of "
+              + alertName + ", " + actualAlertName, e);
+          continue;
+        }
+        String key = getKey(alertName, actualAlertName);
+        segment._endCounts.put(key, history.getAddedCount());
+        _checkpointedCounts.put(key, history.getAddedCount());
+        entryNum++;
+      }
+    }
+    logger.info("Loaded " + entryNum + " alert history entries from " + _segments.size()
+        + " segments");
+  }
+
+  /**
+   * Add the evaluation of all alerts at time. The histories of alerts that are no longer
+   * evaluated are dropped
+   *
+   * @return true if an alert is fired or cleared since the last evaluation, or if it
+   *         can't be told since some actual alerts are not tracked
+   */
+  public synchronized boolean record(Map<String, Map<String, AlertValueAndStatus>> alertStatus,
+                                     long time)
+  {
+    boolean firedChanged = false;
+
+    // drop alerts no longer evaluated
+    Iterator<Map.Entry<String, Map<String, AlertHistoryBuffer>>> iter =
+        _histories.entrySet().iterator();
+    while (iter.hasNext())
+    {
+      Map.Entry<String, Map<String, AlertHistoryBuffer>> entry = iter.next();
+      Map<String, AlertValueAndStatus> actualAlerts = alertStatus.get(entry.getKey());
+      Iterator<Map.Entry<String, AlertHistoryBuffer>> actualIter =
+          entry.getValue().entrySet().iterator();
+      while (actualIter.hasNext())
+      {
+        Map.Entry<String, AlertHistoryBuffer> actualEntry = actualIter.next();
+        if (actualAlerts == null || !actualAlerts.containsKey(actualEntry.getKey()))
+        {
+          firedChanged |= isLastFired(actualEntry.getValue());
+          _checkpointedCounts.remove(getKey(entry.getKey(), actualEntry.getKey()));
+          actualIter.remove();
+          _actualAlertNum--;
+        }
+      }
+      if (entry.getValue().isEmpty())
+      {
+        iter.remove();
+      }
+    }
+
+    int untrackedNum = 0;
+    for (String alertName : alertStatus.keySet())
+    {
+      Map<String, AlertValueAndStatus> actualAlerts = alertStatus.get(alertName);
+      if (actualAlerts == null)
+      {
+        continue;
+      }
+      for (String actualAlertName : actualAlerts.keySet())
+      {
+        AlertHistoryBuffer history = getOrCreateHistory(alertName, actualAlertName);
+        if (history == null)
+        {
+          untrackedNum++;
+          continue;
+        }
+        AlertValueAndStatus valueAndStatus = actualAlerts.get(actualAlertName);
+        NumericTuple value = valueAndStatus.getNumericValue();
+        firedChanged |= valueAndStatus.isFired() != isLastFired(history);
+        history.add(time, (value == null || value.size() == 0) ? 0 : value.getElement(0),
+            valueAndStatus.isFired());
+      }
+    }
+
+    if (untrackedNum > 0)
+    {
+      logger.warn("Alert history is kept for " + _maxActualAlerts
+          + " actual alerts at most, " + untrackedNum + " actual alerts not tracked");
+      firedChanged = true;
+    }
+    return firedChanged;
+  }
+
+  private static boolean isLastFired(AlertHistoryBuffer history)
+  {
+    return history.size() > 0 && history.isFired(history.size() - 1);
+  }
+
+  /**
+   * Append the entries added since the last checkpoint to zookeeper, if the checkpoint
+   * interval has passed since the last checkpoint
+   *
+   * @return true if written
+   */
+  public synchronized boolean checkpoint(long now)
+  {
+    if (now - _lastCheckpointTime < _checkpointInterval)
+    {
+      return false;
+    }
+    _lastCheckpointTime = now;
+
+    if (!_checkpointNodeCreated)
+    {
+      ZNRecord meta = new ZNRecord(PropertyType.ALERT_HISTORY_CHECKPOINT.toString());
+      if (!_baseAccessor.set(_checkpointPath, meta, AccessOption.PERSISTENT))
+      {
+        logger.error("Fail to create alert history checkpoint " + _checkpointPath);
+        return false;
+      }
+      _checkpointNodeCreated = true;
+    }
+
+    // new entries of each alert, split into segments of bounded size
+    List<Segment> segments = new ArrayList<Segment>();
+    List<String> paths = new ArrayList<String>();
+    List<ZNRecord> records = new ArrayList<ZNRecord>();
+    Segment segment = null;
+    ZNRecord record = null;
+    int size = 0;
+    for (String alertName : _histories.keySet())
+    {
+      Map<String, AlertHistoryBuffer> histories = _histories.get(alertName);
+      for (String actualAlertName : histories.keySet())
+      {
+        String key = getKey(alertName, actualAlertName);
+        AlertHistoryBuffer history = histories.get(actualAlertName);
+        Long checkpointedCount = _checkpointedCounts.get(key);
+        if (checkpointedCount != null && checkpointedCount == history.getAddedCount())
+        {
+          continue;
+        }
+
+        Map<String, String> fields =
+            history.toFields(checkpointedCount == null ? 0 : checkpointedCount);
+        fields.put(ALERT_NAME, alertName);
+        fields.put(ACTUAL_ALERT_NAME, actualAlertName);
+        Map<String, Map<String, String>> mapField =
+            Collections.singletonMap(key, fields);
+        int fieldSize = BucketizedRecordWriter.estimateSize(mapField);
+        if (segment == null || size + fieldSize > _segmentSizeTarget)
+        {
+          segment = new Segment(getSegmentName(_nextSegmentId++));
+          record = new ZNRecord(segment._name);
+          size = 0;
+          segments.add(segment);
+          paths.add(_checkpointPath + "/" + segment._name);
+          records.add(record);
+        }
+        record.setMapField(key, fields);
+        segment._endCounts.put(key, history.getAddedCount());
+        size += fieldSize;
+      }
+    }
+
+    int entryNum = 0;
+    if (!paths.isEmpty())
+    {
+      boolean[] success =
+          _baseAccessor.setChildren(paths, records, AccessOption.PERSISTENT);
+      for (int i = 0; i < segments.size(); i++)
+      {
+        if (success != null && success[i])
+        {
+          _segments.add(segments.get(i));
+          _checkpointedCounts.putAll(segments.get(i)._endCounts);
+          entryNum += segments.get(i)._endCounts.size();
+        }
+        else
+        {
+          // the entries are written with the next checkpoint
+          logger.error("Fail to write alert history segment " + paths.get(i));
+        }
+      }
+    }
+
+    int removedNum = removeEvictedSegments();
+    logger.info("Checkpointed new history of " + entryNum + " alerts in "
+        + segments.size() + " segments, removed " + removedNum + " segments");
+    return true;
+  }
+
+  /**
+   * Remove the segments whose entries have all been evicted from the buffers, or whose
+   * alerts are no longer evaluated. Segments beyond MAX_SEGMENT_NUM are removed oldest
+   * first
+   */
+  int removeEvictedSegments()
+  {
+    List<String> paths = new ArrayList<String>();
+    Iterator<Segment> iter = _segments.iterator();
+    while (iter.hasNext())
+    {
+      Segment segment = iter.next();
+      if (_segments.size() - paths.size() > MAX_SEGMENT_NUM || !isKept(segment))
+      {
+        paths.add(_checkpointPath + "/" + segment._name);
+        iter.remove();
+      }
+    }
+    if (!paths.isEmpty())
+    {
+      _baseAccessor.remove(paths, 0);
+    }
+    return paths.size();
+  }
+
+  private boolean isKept(Segment segment)
+  {
+    for (String key : segment._endCounts.keySet())
+    {
+      int delimIdx = key.indexOf(KEY_DELIM);
+      AlertHistoryBuffer history =
+          getHistory(key.substring(0, delimIdx), key.substring(delimIdx + 1));
+      if (history != null
+          && segment._endCounts.get(key) > history.getAddedCount() - history.capacity())
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public synchronized AlertHistoryBuffer getHistory(String alertName, String actualAlertName)
+  {
+    Map<String, AlertHistoryBuffer> histories = _histories.get(alertName);
+    return histories == null ? null : histories.get(actualAlertName);
+  }
+
+  /**
+   * @return actual alert -> aggregates of the evaluations since startTime
+   */
+  public synchronized Map<String, AlertHistoryBuffer.Window> getWindowsSince(String alertName,
+                                                                           long startTime)
+  {
+    Map<String, AlertHistoryBuffer.Window> windows =
+        new TreeMap<String, AlertHistoryBuffer.Window>();
+    Map<String, AlertHistoryBuffer> histories = _histories.get(alertName);
+    if (histories != null)
+    {
+      for (String actualAlertName : histories.keySet())
+      {
+        windows.put(actualAlertName, histories.get(actualAlertName)
+            .getWindowSince(startTime));
+      }
+    }
+    return windows;
+  }
+
+  /**
+   * @return the history, or null if the actual alert is not tracked and the max number
+   *         of actual alerts is reached
+   */
+  AlertHistoryBuffer getOrCreateHistory(String alertName, String actualAlertName)
+  {
+    Map<String, AlertHistoryBuffer> histories = _histories.get(alertName);
+    AlertHistoryBuffer history = histories == null ? null : histories.get(actualAlertName);
+    if (history != null)
+    {
+      return history;
+    }
+    if (_actualAlertNum >= _maxActualAlerts)
+    {
+      return null;
+    }
+
+    if (histories == null)
+    {
+      histories = new TreeMap<String, AlertHistoryBuffer>();
+      _histories.put(alertName, histories);
+    }
+    history = new AlertHistoryBuffer(_capacity);
+    histories.put(actualAlertName, history);
+    _actualAlertNum++;
+    return history;
+  }
+}
@@ -48,15 +48,15 @@ public class AlertProcessor
     _statsHolder = sh;
   }
 
-  public static Map<String, List<Tuple<String>>> initAlertStatTuples(Alert alert)
+  public static Map<String, List<NumericTuple>> initAlertStatTuples(Alert alert)
   {
     // get the stats out of the alert
     String[] alertStats = ExpressionParser.getBaseStats(alert.getExpression());
     // init a tuple list for each alert stat
-    Map<String, List<Tuple<String>>> alertStatTuples = new HashMap<String, List<Tuple<String>>>();
+    Map<String, List<NumericTuple>> alertStatTuples = new HashMap<String, List<NumericTuple>>();
     for (String currAlertStat : alertStats)
     {
-      List<Tuple<String>> currList = new ArrayList<Tuple<String>>();
+      List<NumericTuple> currList = new ArrayList<NumericTuple>();
       alertStatTuples.put(currAlertStat, currList);
     }
     return alertStatTuples;
@@ -102,10 +102,10 @@ public class AlertProcessor
 
   // XXX: major change here. return ArrayList of Stats instead of ArrayList of
   // Tuple<String>'s
-  public static Map<String, ArrayList<Tuple<String>>> populateAlertStatTuples(
+  public static Map<String, ArrayList<NumericTuple>> populateAlertStatTuples(
       String[] alertStats, List<Stat> persistentStats)
   {
-    Map<String, ArrayList<Tuple<String>>> tupleSets = new HashMap<String, ArrayList<Tuple<String>>>();
+    Map<String, ArrayList<NumericTuple>> tupleSets = new HashMap<String, ArrayList<NumericTuple>>();
 
     // check each persistentStat, alertStat pair
     for (Stat persistentStat : persistentStats)
@@ -138,7 +138,7 @@ public class AlertProcessor
           }
           if (!tupleSets.containsKey(alertKey))
           { // don't have an entry for alertKey yet, create one
-            ArrayList<Tuple<String>> tuples = new ArrayList<Tuple<String>>(
+            ArrayList<NumericTuple> tuples = new ArrayList<NumericTuple>(
                 alertStats.length);
             for (int j = 0; j < alertStats.length; j++)
             { // init all entries to null
@@ -156,8 +156,8 @@ public class AlertProcessor
     List<String> selectedKeysToRemove = new ArrayList<String>();
     for (String setKey : tupleSets.keySet())
     {
-      ArrayList<Tuple<String>> tupleSet = tupleSets.get(setKey);
-      for (Tuple<String> tup : tupleSet)
+      ArrayList<NumericTuple> tupleSet = tupleSets.get(setKey);
+      for (NumericTuple tup : tupleSet)
       {
         if (tup == null)
         {
@@ -176,29 +176,29 @@ public class AlertProcessor
     return tupleSets;
   }
 
-  public static List<Iterator<Tuple<String>>> convertTupleRowsToTupleColumns(
-      Map<String, ArrayList<Tuple<String>>> tupleMap)
+  public static List<Iterator<NumericTuple>> convertTupleRowsToTupleColumns(
+      Map<String, ArrayList<NumericTuple>> tupleMap)
   {
     // input is a map of key -> list of tuples. each tuple list is same length
     // output should be a list of iterators. each column in input becomes
     // iterator in output
 
-    ArrayList<ArrayList<Tuple<String>>> columns = new ArrayList<ArrayList<Tuple<String>>>();
-    ArrayList<Iterator<Tuple<String>>> columnIters = new ArrayList<Iterator<Tuple<String>>>();
+    ArrayList<ArrayList<NumericTuple>> columns = new ArrayList<ArrayList<NumericTuple>>();
+    ArrayList<Iterator<NumericTuple>> columnIters = new ArrayList<Iterator<NumericTuple>>();
     for (String currStat : tupleMap.keySet())
     {
-      List<Tuple<String>> currSet = tupleMap.get(currStat);
+      List<NumericTuple> currSet = tupleMap.get(currStat);
       for (int i = 0; i < currSet.size(); i++)
       {
         if (columns.size() < (i + 1))
         {
-          ArrayList<Tuple<String>> col = new ArrayList<Tuple<String>>();
+          ArrayList<NumericTuple> col = new ArrayList<NumericTuple>();
           columns.add(col);
         }
         columns.get(i).add(currSet.get(i));
       }
     }
-    for (ArrayList<Tuple<String>> al : columns)
+    for (ArrayList<NumericTuple> al : columns)
     {
       columnIters.add(al.iterator());
     }
@@ -206,16 +206,16 @@ public class AlertProcessor
 
   }
 
-  public static Iterator<Tuple<String>> executeOperatorPipeline(
-      List<Iterator<Tuple<String>>> tupleIters, String[] operators)
+  public static Iterator<NumericTuple> executeOperatorPipeline(
+      List<Iterator<NumericTuple>> tupleIters, String[] operators)
   {
-    List<Iterator<Tuple<String>>> nextIters = tupleIters;
+    List<Iterator<NumericTuple>> nextIters = tupleIters;
     if (operators != null)
     {
       for (String opName : operators)
       {
         Operator op = ExpressionParser.getOperator(opName);
-        nextIters = op.execute(nextIters);
+        nextIters = op.executeNumeric(nextIters);
       }
     }
 
@@ -233,15 +233,15 @@ public class AlertProcessor
    * return the triggered alerts
    */
   public static ArrayList<AlertValueAndStatus> executeComparator(
-      Iterator<Tuple<String>> tuples, String comparatorName,
-      Tuple<String> constant)
+      Iterator<NumericTuple> tuples, String comparatorName,
+      NumericTuple constant)
   {
     ArrayList<AlertValueAndStatus> results = new ArrayList<AlertValueAndStatus>();
     AlertComparator cmp = AlertParser.getComparator(comparatorName);
 
     while (tuples.hasNext())
     {
-      Tuple<String> currTup = tuples.next();
+      NumericTuple currTup = tuples.next();
       boolean fired = cmp.evaluate(currTup, constant);
       results.add(new AlertValueAndStatus(currTup, fired));
       // results.add(cmp.evaluate(currTup, constant));
@@ -305,7 +305,7 @@ public class AlertProcessor
 
     String[] alertStats = ExpressionParser.getBaseStats(alert.getExpression());
 
-    Map<String, ArrayList<Tuple<String>>> alertsToTupleRows = populateAlertStatTuples(
+    Map<String, ArrayList<NumericTuple>> alertsToTupleRows = populateAlertStatTuples(
         alertStats, persistedStats);
 
     if (alertsToTupleRows.size() == 0)
@@ -313,15 +313,15 @@ public class AlertProcessor
       return null;
     }
     // convert to operator friendly format
-    List<Iterator<Tuple<String>>> tupleIters = convertTupleRowsToTupleColumns(alertsToTupleRows);
+    List<Iterator<NumericTuple>> tupleIters = convertTupleRowsToTupleColumns(alertsToTupleRows);
     // get the operators
     String[] operators = ExpressionParser.getOperators(alert.getExpression());
     // do operator pipeline
-    Iterator<Tuple<String>> opResultTuples = executeOperatorPipeline(
+    Iterator<NumericTuple> opResultTuples = executeOperatorPipeline(
         tupleIters, operators);
     // execute comparator for tuple list
     ArrayList<AlertValueAndStatus> evalResults = executeComparator(
-        opResultTuples, alert.getComparator(), alert.getConstant());
+        opResultTuples, alert.getComparator(), alert.getNumericConstant());
 
     // stitch alert bindings back together with final result
     // XXX: there is a non-critical bug here. if we have an aggregating
@@ -338,15 +338,6 @@ public class AlertProcessor
   public static Map<String, Map<String, AlertValueAndStatus>> executeAllAlerts(
       List<Alert> alerts, List<Stat> stats)
   {
-    Map<String, Map<String, AlertValueAndStatus>> alertsResults = new HashMap<String, Map<String, AlertValueAndStatus>>();
-
-    for (Alert alert : alerts)
-    {
-      HashMap<String, AlertValueAndStatus> result = executeAlert(alert, stats);
-      // TODO: decide if sticking null results in here is ok
-      alertsResults.put(alert.getName(), result);
-    }
-
-    return alertsResults;
+    return new CompiledAlerts(alerts).execute(stats);
   }
 }
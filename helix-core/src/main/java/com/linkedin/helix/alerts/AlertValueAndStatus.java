@@ -20,6 +20,7 @@ public class AlertValueAndStatus {
 	public final static String FIRED_NAME = "fired";
 	
 	private Tuple<String> value;
+	private NumericTuple numericValue;
 	private boolean fired;
 	
 	public AlertValueAndStatus(Tuple<String> value, boolean fired)
@@ -28,10 +29,36 @@ public class AlertValueAndStatus {
 		this.fired = fired;
 	}
 
+	public AlertValueAndStatus(NumericTuple value, boolean fired)
+	{
+		this.numericValue = value;
+		this.fired = fired;
+	}
+
 	public Tuple<String> getValue() {
+		if (value == null && numericValue != null) {
+			value = numericValue.toTuple();
+		}
 		return value;
 	}
 
+	public NumericTuple getNumericValue() {
+		if (numericValue == null && value != null) {
+			numericValue = NumericTuple.fromTuple(value);
+		}
+		return numericValue;
+	}
+
+	/*
+	 * Comma separated value, as stored in zookeeper
+	 */
+	public String getValueString() {
+		if (numericValue != null) {
+			return numericValue.toString();
+		}
+		return value == null ? null : value.toString();
+	}
+
 	public boolean isFired() {
 		return fired;
 	}
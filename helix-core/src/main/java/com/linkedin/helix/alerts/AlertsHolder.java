@@ -45,10 +45,18 @@ public class AlertsHolder {
 	HashSet<String> alerts;
 	StatsHolder _statsHolder;
 
+	// alerts compiled from _compiledAlertsMap, a copy of _alertsMap
+	CompiledAlerts _compiledAlerts;
+	Map<String, Map<String,String>> _compiledAlertsMap;
+
   private final HelixManager _manager;
 
   private Builder _keyBuilder;
 
+  // _alertStatusMap is authoritative, only changed buckets are written. Starts with
+  // DEFAULT_BUCKET_NUM buckets, more are added as the alert status grows
+  BucketizedRecordWriter _alertStatusWriter;
+
 	public AlertsHolder(HelixManager manager, HealthDataCache cache)
 	{
 	  this(manager, cache, new StatsHolder(manager, cache));
@@ -61,6 +69,8 @@ public class AlertsHolder {
     _cache = cache;
     _statsHolder = statHolder;
     _keyBuilder = new PropertyKey.Builder(_manager.getClusterName());
+    _alertStatusWriter = new BucketizedRecordWriter(_accessor, _keyBuilder.alertStatus(),
+        BucketizedRecordWriter.DEFAULT_BUCKET_NUM);
     updateCache(_cache);
   }
 
@@ -104,14 +114,9 @@ public class AlertsHolder {
 
 	public void persistAlertStatus()
 	{
-		//XXX: Am I using _accessor too directly here?
-	  AlertStatus alertStatus = _accessor.getProperty(_keyBuilder.alertStatus());
-		if (alertStatus == null) {
-		  alertStatus = new AlertStatus(AlertStatus.nodeName); //TODO: fix naming of this record, if it matters
-		}
-		alertStatus.getRecord().setMapFields(_alertStatusMap);
-		boolean retVal = _accessor.setProperty(_keyBuilder.alertStatus(), alertStatus);
-		logger.debug("persistAlerts retVal: "+retVal);
+		//TODO: fix naming of this record, if it matters
+		int bucketsWritten = _alertStatusWriter.write(AlertStatus.nodeName, _alertStatusMap);
+		logger.debug("persistAlertStatus buckets written: "+bucketsWritten);
 	}
 
 	//read alerts from cm state
@@ -167,13 +172,13 @@ public class AlertsHolder {
 	    }
 	  }
 
-	  AlertStatus alertStatus = _accessor.getProperty(_keyBuilder.alertStatus());
+	  AlertStatus alertStatus = _cache.getAlertStatus();
 	  int alertStatusSize = 0;
 	  if (alertStatus != null) {
 	    alertStatusSize = alertStatus.getMapFields().size();
 	  }
 	  //no need to persist alerts if there are none to persist and none are currently persisted
-	 if (_alertStatusMap.size() > 0  || alertStatusSize > 0) {
+	 if (_alertStatusMap.size() > 0  || alertStatusSize > 0 || _alertStatusWriter.hasWritten()) {
 	  persistAlertStatus(); //save statuses in zk
 	 }
 	}
@@ -189,7 +194,7 @@ public class AlertsHolder {
 			}
 			AlertValueAndStatus vs = alertStatus.get(alertName);
 			Map<String,String> alertFields = new HashMap<String,String>();
-			alertFields.put(AlertValueAndStatus.VALUE_NAME, vs.getValue().toString());
+			alertFields.put(AlertValueAndStatus.VALUE_NAME, vs.getValueString());
 			alertFields.put(AlertValueAndStatus.FIRED_NAME, String.valueOf(vs.isFired()));
 			_alertStatusMap.put(mapAlertKey, alertFields);
 		}
@@ -274,8 +279,27 @@ public class AlertsHolder {
     {
       _alertsMap = new HashMap<String, Map<String,String>>();
     }
+    _alertStatusWriter.onRecordRead(_cache.getAlertStatus());
   }
   
+  /*
+   * Alerts compiled once, recompiled only when the alerts change
+   */
+  public CompiledAlerts getCompiledAlerts() throws HelixException
+  {
+    if (_compiledAlerts == null || !_alertsMap.equals(_compiledAlertsMap))
+    {
+      Map<String, Map<String,String>> alertsMap = new HashMap<String, Map<String,String>>();
+      for (String alert : _alertsMap.keySet())
+      {
+        alertsMap.put(alert, new HashMap<String,String>(_alertsMap.get(alert)));
+      }
+      _compiledAlerts = new CompiledAlerts(getAlertList());
+      _compiledAlertsMap = alertsMap;
+    }
+    return _compiledAlerts;
+  }
+
   public Map<String, Map<String,String>> getAlertsMap()
   {
     return _alertsMap;
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.alerts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.linkedin.helix.AccessOption;
+import com.linkedin.helix.BaseDataAccessor;
+import com.linkedin.helix.HelixDataAccessor;
+import com.linkedin.helix.HelixProperty;
+import com.linkedin.helix.PropertyKey;
+import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.ZNRecordBucketizer;
+
+/**
+ * Writes the map fields of a controller record, e.g. persistent stats or alert status,
+ * as a parent znode with hash buckets as children, the same layout the data accessor
+ * reads back for bucketized properties. Remembers what was written, and only writes the
+ * buckets whose contents changed since the last write. The number of buckets doubles as
+ * the record grows, so buckets stay well under the znode size limit.
+ */
+class BucketizedRecordWriter
+{
+  private static final Logger logger = Logger.getLogger(BucketizedRecordWriter.class
+      .getName());
+
+  public static final int DEFAULT_BUCKET_NUM = 16;
+  // average bucket size to grow at, leaves room for skew of the hash
+  static final int BUCKET_SIZE_TARGET = ZNRecord.SIZE_LIMIT / 4;
+  static final int MAX_BUCKET_NUM = 1024;
+
+  final HelixDataAccessor _accessor;
+  final PropertyKey _key;
+  int _bucketNum;
+  ZNRecordBucketizer _bucketizer;
+
+  // bucket name -> map fields last written, null if parent and all buckets need a write
+  Map<String, Map<String, Map<String, String>>> _writtenBuckets = null;
+
+  BucketizedRecordWriter(HelixDataAccessor accessor, PropertyKey key, int bucketNum)
+  {
+    _accessor = accessor;
+    _key = key;
+    _bucketNum = bucketNum;
+    _bucketizer = ZNRecordBucketizer.hashBucketizer(bucketNum);
+  }
+
+  /*
+   * Check the record read back from zk, if it is not laid out in our buckets (not
+   * written yet, or rewritten by someone else) the next write writes everything
+   */
+  void onRecordRead(HelixProperty persisted)
+  {
+    // continue with the buckets of a bigger record, so none of them is left stale
+    if (persisted != null && persisted.getBucketSize() > _bucketNum)
+    {
+      resize(persisted.getBucketSize());
+    }
+    if (persisted == null || persisted.getBucketSize() != _bucketNum)
+    {
+      _writtenBuckets = null;
+    }
+  }
+
+  int getBucketNum()
+  {
+    return _bucketNum;
+  }
+
+  /**
+   * Change the number of buckets, the next write writes the parent and all buckets. Only
+   * grow the number of buckets; buckets beyond a smaller number are not removed, and would
+   * still be read back
+   */
+  void resize(int bucketNum)
+  {
+    if (bucketNum == _bucketNum)
+    {
+      return;
+    }
+    _bucketNum = bucketNum;
+    _bucketizer = ZNRecordBucketizer.hashBucketizer(bucketNum);
+    _writtenBuckets = null;
+  }
+
+  boolean hasWritten()
+  {
+    return _writtenBuckets != null;
+  }
+
+  /**
+   * @return number of buckets written
+   */
+  int write(String recordId, Map<String, Map<String, String>> mapFields)
+  {
+    BaseDataAccessor<ZNRecord> baseAccessor = _accessor.getBaseDataAccessor();
+    String parentPath = _key.getPath();
+    ZNRecord record = new ZNRecord(recordId);
+    record.setMapFields(mapFields);
+
+    int size = estimateSize(mapFields);
+    int bucketNum = _bucketNum;
+    while (bucketNum < MAX_BUCKET_NUM && bucketNum * (long) BUCKET_SIZE_TARGET < size)
+    {
+      bucketNum *= 2;
+    }
+    Map<String, ZNRecord> buckets;
+    while (true)
+    {
+      if (bucketNum > _bucketNum)
+      {
+        logger.info("Grow " + parentPath + " from " + _bucketNum + " to " + bucketNum
+            + " buckets, about " + size + " bytes");
+        resize(bucketNum);
+      }
+      buckets = _bucketizer.bucketize(record);
+      // a skewed hash may still put too much in one bucket
+      if (bucketNum >= MAX_BUCKET_NUM || getMaxBucketSize(buckets) <= ZNRecord.SIZE_LIMIT)
+      {
+        break;
+      }
+      bucketNum *= 2;
+    }
+
+    if (_writtenBuckets == null)
+    {
+      HelixProperty meta = new HelixProperty(recordId);
+      meta.setBucketSize(_bucketNum);
+      if (!baseAccessor.set(parentPath, meta.getRecord(), AccessOption.PERSISTENT))
+      {
+        logger.error("Fail to write " + parentPath);
+        return 0;
+      }
+      _writtenBuckets = new HashMap<String, Map<String, Map<String, String>>>();
+    }
+
+    List<String> bucketNames = new ArrayList<String>();
+    List<String> paths = new ArrayList<String>();
+    List<ZNRecord> bucketRecords = new ArrayList<ZNRecord>();
+    for (String bucketName : buckets.keySet())
+    {
+      ZNRecord bucketRecord = buckets.get(bucketName);
+      if (!bucketRecord.getMapFields().equals(_writtenBuckets.get(bucketName)))
+      {
+        int bucketSize = estimateSize(bucketRecord.getMapFields());
+        if (bucketSize > ZNRecord.SIZE_LIMIT)
+        {
+          // zk would reject it, and fail the other buckets of the batch with it
+          logger.error("Skip writing " + parentPath + "/" + bucketName + ", about "
+              + bucketSize + " bytes is over the znode size limit with " + _bucketNum
+              + " buckets");
+          _writtenBuckets.remove(bucketName);
+          continue;
+        }
+        bucketNames.add(bucketName);
+        paths.add(parentPath + "/" + bucketName);
+        bucketRecords.add(bucketRecord);
+      }
+    }
+    if (paths.isEmpty())
+    {
+      return 0;
+    }
+
+    boolean[] success = baseAccessor.setChildren(paths, bucketRecords, AccessOption.PERSISTENT);
+    for (int i = 0; i < bucketNames.size(); i++)
+    {
+      if (success != null && success[i])
+      {
+        // copy, field maps of the caller may change in place
+        Map<String, Map<String, String>> written = new HashMap<String, Map<String, String>>();
+        Map<String, Map<String, String>> fields = bucketRecords.get(i).getMapFields();
+        for (String key : fields.keySet())
+        {
+          written.put(key, new HashMap<String, String>(fields.get(key)));
+        }
+        _writtenBuckets.put(bucketNames.get(i), written);
+      }
+      else
+      {
+        // write again next time
+        logger.error("Fail to write " + paths.get(i));
+        _writtenBuckets.remove(bucketNames.get(i));
+      }
+    }
+    logger.debug("Wrote " + paths.size() + " of " + buckets.size() + " buckets of "
+        + parentPath);
+    return paths.size();
+  }
+
+  private static int getMaxBucketSize(Map<String, ZNRecord> buckets)
+  {
+    int maxSize = 0;
+    for (ZNRecord bucket : buckets.values())
+    {
+      maxSize = Math.max(maxSize, estimateSize(bucket.getMapFields()));
+    }
+    return maxSize;
+  }
+
+  /**
+   * Upper bound of the serialized size of map fields, with quotes, separators and
+   * indentation
+   */
+  static int estimateSize(Map<String, Map<String, String>> mapFields)
+  {
+    int size = 16;
+    for (String key : mapFields.keySet())
+    {
+      size += key.length() + 16;
+      Map<String, String> fields = mapFields.get(key);
+      for (String field : fields.keySet())
+      {
+        String value = fields.get(field);
+        size += field.length() + (value == null ? 4 : value.length()) + 16;
+      }
+    }
+    return size;
+  }
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.alerts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.linkedin.helix.HelixException;
+
+/**
+ * Alerts compiled into an immutable DAG. Leaves are the distinct alert stats, e.g.
+ * accumulate()(dbFoo.partition*.latency), shared by all alerts using them. Each
+ * alert node holds its operators, comparator and constant resolved once.
+ * 
+ * Each execution makes a single pass over the persistent stats to fill the leaves.
+ * The leaves a stat name matches are computed once per stat name. An alert is only
+ * re-evaluated if the tuples of one of its leaves changed since the last execution.
+ */
+public class CompiledAlerts
+{
+  private static Logger logger = Logger.getLogger(CompiledAlerts.class);
+
+  static class StatNode
+  {
+    final String _alertStat;
+    final String _aggType;
+
+    // alert key -> stat value of the last execution
+    Map<String, NumericTuple> _values = new HashMap<String, NumericTuple>();
+    boolean _changed = true;
+
+    StatNode(String alertStat)
+    {
+      _alertStat = alertStat;
+      _aggType = (alertStat.split("\\)"))[0];
+    }
+  }
+
+  static class StatMatch
+  {
+    final int _node;
+    final String _alertKey;
+
+    StatMatch(int node, String alertKey)
+    {
+      _node = node;
+      _alertKey = alertKey;
+    }
+  }
+
+  static class AlertNode
+  {
+    final Alert _alert;
+    final int[] _statNodes;
+    final Operator[] _operators;
+    final AlertComparator _comparator;
+    final NumericTuple _constant;
+
+    HashMap<String, AlertValueAndStatus> _result;
+
+    AlertNode(Alert alert, int[] statNodes)
+    {
+      _alert = alert;
+      _statNodes = statNodes;
+      String[] opNames = ExpressionParser.getOperators(alert.getExpression());
+      if (opNames == null)
+      {
+        _operators = new Operator[0];
+      }
+      else
+      {
+        _operators = new Operator[opNames.length];
+        for (int i = 0; i < opNames.length; i++)
+        {
+          _operators[i] = ExpressionParser.getOperator(opNames[i]);
+        }
+      }
+      _comparator = AlertParser.getComparator(alert.getComparator());
+      _constant = alert.getNumericConstant();
+    }
+  }
+
+  private static final StatMatch[] NO_MATCH = new StatMatch[0];
+
+  private final List<StatNode> _statNodes = new ArrayList<StatNode>();
+  // alert stat -> index of its leaf
+  private final Map<String, Integer> _statNodeIndex = new HashMap<String, Integer>();
+  // stat part of alert stats -> index of the leaf, for wildcard matches
+  private final StatNameIndex<Integer> _statNameIndex = new StatNameIndex<Integer>();
+  private final List<AlertNode> _alertNodes = new ArrayList<AlertNode>();
+
+  // persistent stat name -> leaves it matches
+  private Map<String, StatMatch[]> _matchCache = new HashMap<String, StatMatch[]>();
+
+  public CompiledAlerts(List<Alert> alerts) throws HelixException
+  {
+    for (Alert alert : alerts)
+    {
+      String[] alertStats = ExpressionParser.getBaseStats(alert.getExpression());
+      int[] nodes = new int[alertStats.length];
+      for (int i = 0; i < alertStats.length; i++)
+      {
+        Integer index = _statNodeIndex.get(alertStats[i]);
+        if (index == null)
+        {
+          index = _statNodes.size();
+          _statNodes.add(new StatNode(alertStats[i]));
+          _statNodeIndex.put(alertStats[i], index);
+          _statNameIndex.add(ExpressionParser.getSingleAggregatorStat(alertStats[i]),
+              index);
+        }
+        nodes[i] = index;
+      }
+      _alertNodes.add(new AlertNode(alert, nodes));
+    }
+    logger.info("Compiled " + _alertNodes.size() + " alerts, " + _statNodes.size()
+        + " distinct alert stats");
+  }
+
+  /*
+   * Same result as AlertProcessor.executeAllAlerts() on the alerts compiled
+   */
+  public synchronized Map<String, Map<String, AlertValueAndStatus>> execute(
+      List<Stat> persistedStats)
+  {
+    fillStatNodes(persistedStats);
+
+    Map<String, Map<String, AlertValueAndStatus>> alertsResults =
+        new HashMap<String, Map<String, AlertValueAndStatus>>();
+    for (AlertNode alertNode : _alertNodes)
+    {
+      boolean changed = (alertNode._result == null);
+      for (int node : alertNode._statNodes)
+      {
+        changed |= _statNodes.get(node)._changed;
+      }
+      if (changed)
+      {
+        alertNode._result = executeAlert(alertNode);
+      }
+      // TODO: decide if sticking null results in here is ok
+      alertsResults.put(alertNode._alert.getName(), alertNode._result);
+    }
+    return alertsResults;
+  }
+
+  private void fillStatNodes(List<Stat> persistedStats)
+  {
+    List<Map<String, NumericTuple>> values = new ArrayList<Map<String, NumericTuple>>(
+        _statNodes.size());
+    for (int i = 0; i < _statNodes.size(); i++)
+    {
+      values.add(new HashMap<String, NumericTuple>());
+    }
+
+    // only keep matches of stats that still exist
+    Map<String, StatMatch[]> matchCache = new HashMap<String, StatMatch[]>();
+    for (Stat stat : persistedStats)
+    {
+      String statName = stat.getName();
+      // ignore stats with wildcards, they don't have values...they are just
+      // there to catch new actual stats
+      if (ExpressionParser.statContainsWildcards(statName))
+      {
+        continue;
+      }
+      StatMatch[] matches = _matchCache.get(statName);
+      if (matches == null)
+      {
+        matches = matchStat(statName);
+      }
+      matchCache.put(statName, matches);
+      for (StatMatch match : matches)
+      {
+        values.get(match._node).put(match._alertKey, stat.getValue());
+      }
+    }
+    _matchCache = matchCache;
+
+    for (int i = 0; i < _statNodes.size(); i++)
+    {
+      StatNode statNode = _statNodes.get(i);
+      statNode._changed = !isSame(statNode._values, values.get(i));
+      statNode._values = values.get(i);
+    }
+  }
+
+  /*
+   * Same as ExpressionParser.isAlertStatExactMatch() or isAlertStatWildcardMatch()
+   * on each leaf
+   */
+  private StatMatch[] matchStat(String stat)
+  {
+    List<StatMatch> matches = new ArrayList<StatMatch>();
+    Integer exactMatch = _statNodeIndex.get(stat);
+    if (exactMatch != null)
+    {
+      matches.add(new StatMatch(exactMatch, AlertProcessor.noWildcardAlertKey));
+    }
+
+    String statAggType = (stat.split("\\)"))[0];
+    String statName = ExpressionParser.getSingleAggregatorStat(stat);
+    for (Integer index : _statNameIndex.getWildcardMatches(statName))
+    {
+      if (!index.equals(exactMatch) && _statNodes.get(index)._aggType.equals(statAggType))
+      {
+        matches.add(new StatMatch(index, statName));
+      }
+    }
+    return matches.size() == 0 ? NO_MATCH : matches.toArray(new StatMatch[matches.size()]);
+  }
+
+  /*
+   * Stat tuples are replaced, not updated in place, when stats merge
+   */
+  private static boolean isSame(Map<String, NumericTuple> oldValues,
+      Map<String, NumericTuple> newValues)
+  {
+    if (oldValues.size() != newValues.size())
+    {
+      return false;
+    }
+    for (Map.Entry<String, NumericTuple> entry : newValues.entrySet())
+    {
+      if (oldValues.get(entry.getKey()) != entry.getValue())
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private HashMap<String, AlertValueAndStatus> executeAlert(AlertNode alertNode)
+  {
+    int numStats = alertNode._statNodes.length;
+    Map<String, ArrayList<NumericTuple>> tupleRows =
+        new HashMap<String, ArrayList<NumericTuple>>();
+    for (int i = 0; i < numStats; i++)
+    {
+      Map<String, NumericTuple> values = _statNodes.get(alertNode._statNodes[i])._values;
+      for (Map.Entry<String, NumericTuple> entry : values.entrySet())
+      {
+        ArrayList<NumericTuple> tuples = tupleRows.get(entry.getKey());
+        if (tuples == null)
+        {
+          tuples = new ArrayList<NumericTuple>(numStats);
+          for (int j = 0; j < numStats; j++)
+          {
+            tuples.add(null);
+          }
+          tupleRows.put(entry.getKey(), tuples);
+        }
+        tuples.set(i, entry.getValue());
+      }
+    }
+
+    // discard any rows with null vals
+    Iterator<ArrayList<NumericTuple>> rowIter = tupleRows.values().iterator();
+    while (rowIter.hasNext())
+    {
+      if (rowIter.next().contains(null))
+      {
+        rowIter.remove();
+      }
+    }
+    if (tupleRows.size() == 0)
+    {
+      return null;
+    }
+
+    List<Iterator<NumericTuple>> nextIters =
+        AlertProcessor.convertTupleRowsToTupleColumns(tupleRows);
+    for (Operator op : alertNode._operators)
+    {
+      nextIters = op.executeNumeric(nextIters);
+    }
+    if (nextIters.size() != 1)
+    {
+      throw new HelixException("operator pipeline produced " + nextIters.size()
+          + " tuple sets instead of exactly 1");
+    }
+
+    ArrayList<AlertValueAndStatus> evalResults = new ArrayList<AlertValueAndStatus>();
+    Iterator<NumericTuple> opResultTuples = nextIters.get(0);
+    while (opResultTuples.hasNext())
+    {
+      NumericTuple currTup = opResultTuples.next();
+      boolean fired = alertNode._comparator.evaluate(currTup, alertNode._constant);
+      evalResults.add(new AlertValueAndStatus(currTup, fired));
+    }
+    return AlertProcessor.generateResultMap(tupleRows.keySet(), evalResults);
+  }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.alerts;
+
+import com.linkedin.helix.HelixException;
+
+/**
+ * Persistent stat with its aggregator type and arguments parsed once, e.g.
+ * window(5)(dbFoo.partition10.latency)
+ */
+public class CompiledStat
+{
+  private final String _name;
+  private final Aggregator _aggregator;
+  private final String[] _aggArgs;
+
+  public CompiledStat(String name) throws HelixException
+  {
+    _name = name;
+    _aggregator = ExpressionParser.getAggregator(ExpressionParser.getAggregatorStr(name));
+    _aggArgs = ExpressionParser.getAggregatorArgs(name);
+  }
+
+  public String getName()
+  {
+    return _name;
+  }
+
+  /*
+   * Merge incoming value and timestamp into curr tuples
+   */
+  public void merge(NumericTuple currVal, NumericTuple newVal, NumericTuple currTime,
+      NumericTuple newTime)
+  {
+    _aggregator.merge(currVal, newVal, currTime, newTime, _aggArgs);
+  }
+}
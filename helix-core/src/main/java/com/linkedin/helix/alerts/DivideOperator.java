@@ -28,7 +28,7 @@ public class DivideOperator extends Operator {
 	}
 
 	@Override
-	public List<Iterator<Tuple<String>>> execute(List<Iterator<Tuple<String>>> input) {
+	public List<Iterator<NumericTuple>> executeNumeric(List<Iterator<NumericTuple>> input) {
 		// TODO Auto-generated method stub
 		return null;
 	}
@@ -27,7 +27,7 @@ public class ExpandOperator extends Operator {
 	}
 
 	@Override
-	public List<Iterator<Tuple<String>>> execute(List<Iterator<Tuple<String>>> input) {
+	public List<Iterator<NumericTuple>> executeNumeric(List<Iterator<NumericTuple>> input) {
 		//TODO: confirm this is a no-op operator
 		return input;
 	}
@@ -15,21 +15,17 @@
  */
 package com.linkedin.helix.alerts;
 
-import java.util.Iterator;
-
 public class GreaterAlertComparator extends AlertComparator {
 
 	@Override
 	/*
 	 * Returns true if any element left tuple exceeds any element in right tuple
 	 */
-	public boolean evaluate(Tuple<String> leftTup, Tuple<String> rightTup) {
-		Iterator<String> leftIter = leftTup.iterator();
-		while (leftIter.hasNext()) {
-			double leftVal = Double.parseDouble(leftIter.next());
-			Iterator<String> rightIter = rightTup.iterator();
-			while (rightIter.hasNext()) {
-				double rightVal = Double.parseDouble(rightIter.next());
+	public boolean evaluate(NumericTuple leftTup, NumericTuple rightTup) {
+		for (int i = 0; i < leftTup.size(); i++) {
+			double leftVal = leftTup.getElement(i);
+			for (int j = 0; j < rightTup.size(); j++) {
+				double rightVal = rightTup.getElement(j);
 				if (leftVal > rightVal) {
 					return true;
 				}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.alerts;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Tuple of doubles backed by a primitive array. The alerts engine works on numeric
+ * tuples, the comma separated string form is only used for the values stored in
+ * zookeeper.
+ */
+public class NumericTuple {
+	double[] _elements;
+	int _size;
+
+	public NumericTuple()
+	{
+		this(1);
+	}
+
+	public NumericTuple(int capacity)
+	{
+		_elements = new double[Math.max(capacity, 1)];
+		_size = 0;
+	}
+
+	public int size()
+	{
+		return _size;
+	}
+
+	public double getElement(int ind)
+	{
+		if (ind < 0 || ind >= _size) {
+			throw new IndexOutOfBoundsException("Index: " + ind + ", Size: " + _size);
+		}
+		return _elements[ind];
+	}
+
+	public void add(double entry)
+	{
+		ensureCapacity(_size + 1);
+		_elements[_size++] = entry;
+	}
+
+	public void addAll(NumericTuple incoming)
+	{
+		ensureCapacity(_size + incoming._size);
+		System.arraycopy(incoming._elements, 0, _elements, _size, incoming._size);
+		_size += incoming._size;
+	}
+
+	/*
+	 * Drop the n oldest (first) elements
+	 */
+	public void removeFirst(int n)
+	{
+		if (n <= 0) {
+			return;
+		}
+		if (n >= _size) {
+			_size = 0;
+			return;
+		}
+		System.arraycopy(_elements, n, _elements, 0, _size - n);
+		_size -= n;
+	}
+
+	public void clear()
+	{
+		_size = 0;
+	}
+
+	public NumericTuple copy()
+	{
+		NumericTuple tup = new NumericTuple(_size);
+		tup.addAll(this);
+		return tup;
+	}
+
+	public double[] toArray()
+	{
+		return Arrays.copyOf(_elements, _size);
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity > _elements.length) {
+			_elements = Arrays.copyOf(_elements, Math.max(capacity, _elements.length * 2));
+		}
+	}
+
+	/*
+	 * Parse the comma separated form, null if in is null
+	 */
+	public static NumericTuple fromString(String in)
+	{
+		if (in == null) {
+			return null;
+		}
+		NumericTuple tup = new NumericTuple();
+		int start = 0;
+		int len = in.length();
+		while (start < len) {
+			int end = in.indexOf(',', start);
+			if (end < 0) {
+				end = len;
+			}
+			if (end > start) {
+				tup.add(Double.parseDouble(in.substring(start, end)));
+			}
+			start = end + 1;
+		}
+		return tup;
+	}
+
+	/*
+	 * Convert a string tuple, each element may itself be comma separated
+	 */
+	public static NumericTuple fromTuple(Tuple<String> in)
+	{
+		if (in == null) {
+			return null;
+		}
+		NumericTuple tup = new NumericTuple(in.size());
+		Iterator<String> it = in.iterator();
+		while (it.hasNext()) {
+			String element = it.next();
+			if (element.indexOf(',') < 0) {
+				tup.add(Double.parseDouble(element));
+			}
+			else {
+				tup.addAll(fromString(element));
+			}
+		}
+		return tup;
+	}
+
+	public Tuple<String> toTuple()
+	{
+		Tuple<String> tup = new Tuple<String>();
+		for (int i = 0; i < _size; i++) {
+			tup.add(String.valueOf(_elements[i]));
+		}
+		return tup;
+	}
+
+	public String toString()
+	{
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < _size; i++) {
+			if (i > 0) {
+				out.append(",");
+			}
+			out.append(_elements[i]);
+		}
+		return out.toString();
+	}
+}
@@ -15,6 +15,7 @@
  */
 package com.linkedin.helix.alerts;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -30,7 +31,7 @@ public abstract class Operator {
 		
 	}
 	
-	public Tuple<String> multiplyTuples(Tuple<String> tup1, Tuple<String> tup2)
+	public NumericTuple multiplyTuples(NumericTuple tup1, NumericTuple tup2)
 	{
 		if (tup1 == null) {
 			return tup2;
@@ -38,14 +39,11 @@ public abstract class Operator {
 		if (tup2 == null) {
 			return tup1;
 		}
-		Tuple<String>outputTup = new Tuple<String>();
-		
 
-		//sum staggers if the tuples are same length
-		//e.g. 1,2,3 + 4,5 = 1,6,8
-		//so this is a bit tricky
-		Tuple<String>largerTup;
-		Tuple<String>smallerTup;
+		//product staggers if the tuples are same length
+		//e.g. 1,2,3 * 4,5 = 1,8,15
+		NumericTuple largerTup;
+		NumericTuple smallerTup;
 		if (tup1.size() >= tup2.size()) {
 			largerTup = tup1;
 			smallerTup = tup2;
@@ -55,22 +53,20 @@ public abstract class Operator {
 			smallerTup = tup1;
 		}		
 		int gap = largerTup.size() - smallerTup.size();
+		NumericTuple outputTup = new NumericTuple(largerTup.size());
 		
 		for (int i=0; i< largerTup.size();i++) {
 			if (i < gap) {
 				outputTup.add(largerTup.getElement(i));
 			}
 			else {
-				double elementProduct = 0;
-				elementProduct = Double.parseDouble(largerTup.getElement(i)) *
-						Double.parseDouble(smallerTup.getElement(i-gap));
-				outputTup.add(String.valueOf(elementProduct));
+				outputTup.add(largerTup.getElement(i) * smallerTup.getElement(i-gap));
 			}
 		}
 		return outputTup;
 	}
 	
-	public Tuple<String> sumTuples(Tuple<String> tup1, Tuple<String> tup2)
+	public NumericTuple sumTuples(NumericTuple tup1, NumericTuple tup2)
 	{
 		if (tup1 == null) {
 			return tup2;
@@ -78,14 +74,12 @@ public abstract class Operator {
 		if (tup2 == null) {
 			return tup1;
 		}
-		Tuple<String>outputTup = new Tuple<String>();
-		
 
 		//sum staggers if the tuples are same length
 		//e.g. 1,2,3 + 4,5 = 1,6,8
 		//so this is a bit tricky
-		Tuple<String>largerTup;
-		Tuple<String>smallerTup;
+		NumericTuple largerTup;
+		NumericTuple smallerTup;
 		if (tup1.size() >= tup2.size()) {
 			largerTup = tup1;
 			smallerTup = tup2;
@@ -95,21 +89,51 @@ public abstract class Operator {
 			smallerTup = tup1;
 		}		
 		int gap = largerTup.size() - smallerTup.size();
+		NumericTuple outputTup = new NumericTuple(largerTup.size());
 		
 		for (int i=0; i< largerTup.size();i++) {
 			if (i < gap) {
 				outputTup.add(largerTup.getElement(i));
 			}
 			else {
-				double elementSum = 0;
-				elementSum = Double.parseDouble(largerTup.getElement(i)) +
-						Double.parseDouble(smallerTup.getElement(i-gap));
-				outputTup.add(String.valueOf(elementSum));
+				outputTup.add(largerTup.getElement(i) + smallerTup.getElement(i-gap));
 			}
 		}
 		return outputTup;
 	}
 	
-	public abstract List<Iterator<Tuple<String>>> execute(List<Iterator<Tuple<String>>> input);
+	public abstract List<Iterator<NumericTuple>> executeNumeric(List<Iterator<NumericTuple>> input);
+	
+	/*
+	 * String form of executeNumeric
+	 */
+	public List<Iterator<Tuple<String>>> execute(List<Iterator<Tuple<String>>> input)
+	{
+		List<Iterator<NumericTuple>> numInput = null;
+		if (input != null) {
+			numInput = new ArrayList<Iterator<NumericTuple>>(input.size());
+			for (Iterator<Tuple<String>> it : input) {
+				List<NumericTuple> tuples = new ArrayList<NumericTuple>();
+				while (it.hasNext()) {
+					tuples.add(NumericTuple.fromTuple(it.next()));
+				}
+				numInput.add(tuples.iterator());
+			}
+		}
+		
+		List<Iterator<NumericTuple>> numOutput = executeNumeric(numInput);
+		if (numOutput == null) {
+			return null;
+		}
+		List<Iterator<Tuple<String>>> output = new ArrayList<Iterator<Tuple<String>>>(numOutput.size());
+		for (Iterator<NumericTuple> it : numOutput) {
+			List<Tuple<String>> tuples = new ArrayList<Tuple<String>>();
+			while (it.hasNext()) {
+				NumericTuple tup = it.next();
+				tuples.add(tup == null ? null : tup.toTuple());
+			}
+			output.add(tuples.iterator());
+		}
+		return output;
+	}
 }
-
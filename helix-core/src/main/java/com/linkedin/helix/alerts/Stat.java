@@ -17,10 +17,10 @@ package com.linkedin.helix.alerts;
 
 public class Stat {
 	String _name;
-	Tuple<String> _value;
-	Tuple<String> _timestamp;
+	NumericTuple _value;
+	NumericTuple _timestamp;
 	
-	public Stat(String name, Tuple<String> value, Tuple<String> timestamp)
+	public Stat(String name, NumericTuple value, NumericTuple timestamp)
 	{
 		_name = name;
 		_value = value;
@@ -32,12 +32,12 @@ public class Stat {
 		return _name;
 	}
 	
-	public Tuple<String> getValue()
+	public NumericTuple getValue()
 	{
 		return _value;
 	}
 	
-	public Tuple<String> getTimestamp()
+	public NumericTuple getTimestamp()
 	{
 		return _timestamp;
 	}
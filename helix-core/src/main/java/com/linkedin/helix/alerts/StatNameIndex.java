@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.alerts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Index of dotted stat name patterns, e.g. dbFoo.partition*.latency, to find the
+ * patterns matching a stat name.
+ * 
+ * A wildcard at the end of a token matches the rest of the token and any tokens
+ * after it, same as ExpressionParser.isWildcardMatch(). Wildcard patterns are kept
+ * in a token trie, so matching a stat name costs time proportional to its number of
+ * tokens instead of the number of patterns.
+ */
+public class StatNameIndex<T>
+{
+  static class Node<T>
+  {
+    // literal token -> child
+    Map<String, Node<T>> _children;
+    // token prefix before the wildcard -> child
+    Map<String, Node<T>> _wildcardChildren;
+    // values of the patterns ending at this node
+    List<T> _values;
+  }
+
+  // pattern -> values, for exact matches
+  private final Map<String, List<T>> _exact = new HashMap<String, List<T>>();
+  private final Node<T> _root = new Node<T>();
+  // patterns with a wildcard not at the end of a token, matched as regex
+  private final List<Pattern> _irregularPatterns = new ArrayList<Pattern>();
+  private final List<T> _irregularValues = new ArrayList<T>();
+
+  public void add(String pattern, T value)
+  {
+    List<T> values = _exact.get(pattern);
+    if (values == null)
+    {
+      values = new ArrayList<T>(1);
+      _exact.put(pattern, values);
+    }
+    values.add(value);
+
+    if (!ExpressionParser.statContainsWildcards(pattern))
+    {
+      return;
+    }
+
+    String[] tokens = split(pattern);
+    for (String token : tokens)
+    {
+      int wildcardPos = token.indexOf('*');
+      if (wildcardPos >= 0 && wildcardPos != token.length() - 1)
+      {
+        String regex = pattern.replace(".", "\\.").replace("*", ".*");
+        _irregularPatterns.add(Pattern.compile(regex));
+        _irregularValues.add(value);
+        return;
+      }
+    }
+
+    Node<T> node = _root;
+    for (String token : tokens)
+    {
+      boolean wildcard = token.endsWith(ExpressionParser.wildcardChar);
+      String key = wildcard ? token.substring(0, token.length() - 1) : token;
+      Map<String, Node<T>> children;
+      if (wildcard)
+      {
+        if (node._wildcardChildren == null)
+        {
+          node._wildcardChildren = new HashMap<String, Node<T>>();
+        }
+        children = node._wildcardChildren;
+      }
+      else
+      {
+        if (node._children == null)
+        {
+          node._children = new HashMap<String, Node<T>>();
+        }
+        children = node._children;
+      }
+      Node<T> child = children.get(key);
+      if (child == null)
+      {
+        child = new Node<T>();
+        children.put(key, child);
+      }
+      node = child;
+    }
+    if (node._values == null)
+    {
+      node._values = new ArrayList<T>(1);
+    }
+    node._values.add(value);
+  }
+
+  /*
+   * Values of the patterns equal to statName
+   */
+  public List<T> getExactMatches(String statName)
+  {
+    List<T> values = _exact.get(statName);
+    if (values == null)
+    {
+      return Collections.emptyList();
+    }
+    return values;
+  }
+
+  /*
+   * Values of the wildcard patterns statName matches
+   */
+  public Set<T> getWildcardMatches(String statName)
+  {
+    Set<T> values = new LinkedHashSet<T>();
+    match(_root, split(statName), 0, values);
+    for (int i = 0; i < _irregularPatterns.size(); i++)
+    {
+      if (_irregularPatterns.get(i).matcher(statName).matches())
+      {
+        values.add(_irregularValues.get(i));
+      }
+    }
+    return values;
+  }
+
+  public int size()
+  {
+    int size = 0;
+    for (List<T> values : _exact.values())
+    {
+      size += values.size();
+    }
+    return size;
+  }
+
+  public void clear()
+  {
+    _exact.clear();
+    _root._children = null;
+    _root._wildcardChildren = null;
+    _root._values = null;
+    _irregularPatterns.clear();
+    _irregularValues.clear();
+  }
+
+  private void match(Node<T> node, String[] tokens, int pos, Set<T> values)
+  {
+    if (pos == tokens.length)
+    {
+      if (node._values != null)
+      {
+        values.addAll(node._values);
+      }
+      return;
+    }
+
+    if (node._children != null)
+    {
+      Node<T> child = node._children.get(tokens[pos]);
+      if (child != null)
+      {
+        match(child, tokens, pos + 1, values);
+      }
+    }
+
+    if (node._wildcardChildren != null)
+    {
+      for (Map.Entry<String, Node<T>> entry : node._wildcardChildren.entrySet())
+      {
+        if (tokens[pos].startsWith(entry.getKey()))
+        {
+          // the wildcard takes the rest of this token and 0 or more tokens after it
+          for (int end = pos + 1; end <= tokens.length; end++)
+          {
+            match(entry.getValue(), tokens, end, values);
+          }
+        }
+      }
+    }
+  }
+
+  /*
+   * Split on '.', keeping empty tokens
+   */
+  static String[] split(String statName)
+  {
+    List<String> tokens = new ArrayList<String>();
+    int start = 0;
+    while (true)
+    {
+      int end = statName.indexOf('.', start);
+      if (end < 0)
+      {
+        tokens.add(statName.substring(start));
+        break;
+      }
+      tokens.add(statName.substring(start, end));
+      start = end + 1;
+    }
+    return tokens.toArray(new String[tokens.size()]);
+  }
+}
@@ -15,26 +15,39 @@
  */
 package com.linkedin.helix.alerts;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import org.I0Itec.zkclient.DataUpdater;
 import org.apache.log4j.Logger;
 
+import com.linkedin.helix.AccessOption;
+import com.linkedin.helix.BaseDataAccessor;
 import com.linkedin.helix.HelixDataAccessor;
 import com.linkedin.helix.HelixException;
 import com.linkedin.helix.HelixManager;
+import com.linkedin.helix.HelixProperty;
 import com.linkedin.helix.PropertyKey;
 import com.linkedin.helix.PropertyKey.Builder;
+import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.ZNRecordBucketizer;
 import com.linkedin.helix.controller.stages.HealthDataCache;
 import com.linkedin.helix.model.PersistentStats;
 
 public class StatsHolder
 {
-  enum MatchResult {WILDCARDMATCH, EXACTMATCH, NOMATCH};
-  
   private static final Logger logger = Logger.getLogger(StatsHolder.class
       .getName());
 
@@ -45,18 +58,55 @@ public class StatsHolder
   HealthDataCache _cache;
 
   Map<String, Map<String, String>> _statMap;
-  Map<String, Map<String, MatchResult>> _statAlertMatchResult;
+
+  // stat part of the persistent stats in _statMap -> persistent stat, e.g.
+  // dbFoo.partition*.latency -> accumulate()(dbFoo.partition*.latency)
+  final StatNameIndex<String> _statIndex = new StatNameIndex<String>();
+  final Set<String> _indexedStats = new HashSet<String>();
+
+  // stat name -> parsed value and timestamp of the stat in _statMap. Merges update the
+  // parsed tuples only, strings are written back to _statMap in persistStats()
+  final Map<String, ParsedStat> _parsedStats = new HashMap<String, ParsedStat>();
+  final Set<String> _changedStats = new HashSet<String>();
+  final Map<String, CompiledStat> _compiledStats = new HashMap<String, CompiledStat>();
+  // bumped whenever the set of persistent stats changes
+  int _statSetVersion = 0;
+
+  static class ParsedStat
+  {
+    // zk strings the tuples were parsed from, null if changed since
+    final String _valueStr;
+    final String _timeStr;
+    final Stat _stat;
+
+    ParsedStat(String valueStr, String timeStr, Stat stat)
+    {
+      _valueStr = valueStr;
+      _timeStr = timeStr;
+      _stat = stat;
+    }
+
+    boolean isParsedFrom(Map<String, String> statFields)
+    {
+      return _valueStr != null && _valueStr.equals(statFields.get(VALUE_NAME))
+          && _timeStr != null && _timeStr.equals(statFields.get(TIMESTAMP_NAME));
+    }
+  }
 
   private Builder _keyBuilder;
   // PersistentStats _persistentStats;
+  // _statMap is authoritative between refreshes, only changed buckets are written.
+  // Starts with DEFAULT_BUCKET_NUM buckets, more are added as the stats grow
+  BucketizedRecordWriter _statsWriter;
 
   public StatsHolder(HelixManager manager, HealthDataCache cache)
   {
     _accessor = manager.getHelixDataAccessor();
     _cache = cache;
     _keyBuilder = new PropertyKey.Builder(manager.getClusterName());
+    _statsWriter = new BucketizedRecordWriter(_accessor, _keyBuilder.persistantStat(),
+        BucketizedRecordWriter.DEFAULT_BUCKET_NUM);
     updateCache(_cache);
-    _statAlertMatchResult = new HashMap<String, Map<String, MatchResult>>();
     
   }
 
@@ -69,18 +119,10 @@ public class StatsHolder
 
   public void persistStats()
   {
-    // XXX: Am I using _accessor too directly here?
     // took around 35 ms from desktop to ESV4 machine
-    PersistentStats stats = _accessor.getProperty(_keyBuilder.persistantStat());
-    if (stats == null)
-    {
-      stats = new PersistentStats(PersistentStats.nodeName); // TODO: fix naming of
-                                                         // this record, if it
-                                                         // matters
-    }
-    stats.getRecord().setMapFields(_statMap);
-    boolean retVal = _accessor.setProperty(_keyBuilder.persistantStat(),
-        stats);
+    formatChangedStats();
+    // TODO: fix naming of this record, if it matters
+    _statsWriter.write(PersistentStats.nodeName, _statMap);
   }
 
   public void getStatsFromCache(boolean refresh)
@@ -96,6 +138,8 @@ public class StatsHolder
     else {
       _statMap = new HashMap<String,Map<String,String>>();
     }
+    _statsWriter.onRecordRead(persistentStatRecord);
+    onStatMapReloaded();
     /*
 		if (_cache.getPersistentStats() != null) {
 
@@ -132,32 +176,42 @@ public class StatsHolder
     {
       throw new HelixException("incoming stat for merge is null");
     }
-    // get agg type and arguments, then get agg object
-    String aggTypeStr = ExpressionParser.getAggregatorStr(statName);
-    String[] aggArgs = ExpressionParser.getAggregatorArgs(statName);
-    Aggregator agg = ExpressionParser.getAggregator(aggTypeStr);
+    Stat mergedStat = mergeStats(statName,
+        new Stat(statName, NumericTuple.fromString(existingStat.get(VALUE_NAME)),
+            NumericTuple.fromString(existingStat.get(TIMESTAMP_NAME))),
+        NumericTuple.fromString(incomingStat.get(VALUE_NAME)),
+        NumericTuple.fromString(incomingStat.get(TIMESTAMP_NAME)));
+
+    Map<String, String> mergedMap = new HashMap<String, String>();
+    mergedMap.put(TIMESTAMP_NAME, mergedStat.getTimestamp().toString());
+    mergedMap.put(VALUE_NAME, mergedStat.getValue().toString());
+    return mergedMap;
+  }
+
+  /*
+   * Merge incoming value and timestamp into a copy of existing stat
+   */
+  Stat mergeStats(String statName, Stat existingStat, NumericTuple incomingValue,
+      NumericTuple incomingTime) throws HelixException
+  {
+    return mergeStats(getCompiledStat(statName), existingStat, incomingValue,
+        incomingTime);
+  }
+
+  static Stat mergeStats(CompiledStat compiledStat, Stat existingStat,
+      NumericTuple incomingValue, NumericTuple incomingTime) throws HelixException
+  {
     // XXX: some of below lines might fail with null exceptions
 
-    // get timestamps, values out of zk maps
-    String existingTime = existingStat.get(TIMESTAMP_NAME);
-    String existingVal = existingStat.get(VALUE_NAME);
-    String incomingTime = incomingStat.get(TIMESTAMP_NAME);
-    String incomingVal = incomingStat.get(VALUE_NAME);
-    // parse values into tuples, if the values exist. else, tuples are null
-    Tuple<String> existingTimeTuple = (existingTime != null) ? Tuple
-        .fromString(existingTime) : null;
-    Tuple<String> existingValueTuple = (existingVal != null) ? Tuple
-        .fromString(existingVal) : null;
-    Tuple<String> incomingTimeTuple = (incomingTime != null) ? Tuple
-        .fromString(incomingTime) : null;
-    Tuple<String> incomingValueTuple = (incomingVal != null) ? Tuple
-        .fromString(incomingVal) : null;
+    // tuples of existing stat may be shared with alert results, merge into copies
+    NumericTuple existingValueTuple = (existingStat.getValue() != null) ? existingStat
+        .getValue().copy() : null;
+    NumericTuple existingTimeTuple = (existingStat.getTimestamp() != null) ? existingStat
+        .getTimestamp().copy() : null;
 
     // dp merge
-    agg.merge(existingValueTuple, incomingValueTuple, existingTimeTuple,
-        incomingTimeTuple, aggArgs);
-    // put merged tuples back in map
-    Map<String, String> mergedMap = new HashMap<String, String>();
+    compiledStat.merge(existingValueTuple, incomingValue, existingTimeTuple,
+        incomingTime);
     if (existingTimeTuple.size() == 0)
     {
       throw new HelixException("merged time tuple has size zero");
@@ -166,10 +220,7 @@ public class StatsHolder
     {
       throw new HelixException("merged value tuple has size zero");
     }
-
-    mergedMap.put(TIMESTAMP_NAME, existingTimeTuple.toString());
-    mergedMap.put(VALUE_NAME, existingValueTuple.toString());
-    return mergedMap;
+    return new Stat(compiledStat.getName(), existingValueTuple, existingTimeTuple);
   }
 
   /*
@@ -185,61 +236,241 @@ public class StatsHolder
     // TODO: consider locking stats here
     //refreshStats(); //will have refreshed by now during stage
 
-    Map<String, Map<String, String>> pendingAdds = new HashMap<String, Map<String, String>>();
-    
-    if(!_statAlertMatchResult.containsKey(incomingStatName))
+    // parse the incoming stat once for all the persisted stats it matches
+    NumericTuple incomingValue = NumericTuple.fromString(statFields.get(VALUE_NAME));
+    NumericTuple incomingTime = NumericTuple.fromString(statFields.get(TIMESTAMP_NAME));
+
+    Map<String, Stat> pendingAdds = new HashMap<String, Stat>();
+
+    // exact match on stat and stat portion of persisted stat, just update
+    List<String> exactMatches = _statIndex.getExactMatches(incomingStatName);
+    for (String key : exactMatches)
+    {
+      processExactMatch(key, incomingValue, incomingTime);
+    }
+    // wildcard match
+    for (String key : _statIndex.getWildcardMatches(incomingStatName))
+    {
+      if (!exactMatches.contains(key))
+      {
+        processWildcardMatch(incomingStatName, key, incomingValue, incomingTime,
+            pendingAdds);
+      }
+    }
+    for (String statToAdd : pendingAdds.keySet())
     {
-      _statAlertMatchResult.put(incomingStatName, new HashMap<String, MatchResult>());
+      // strings are filled in by persistStats()
+      _statMap.put(statToAdd, getEmptyStat());
+      indexStat(statToAdd);
+      setStat(statToAdd, pendingAdds.get(statToAdd));
     }
-    Map<String, MatchResult> resultMap = _statAlertMatchResult.get(incomingStatName);
-    // traverse through all persistent stats
-    for (String key : _statMap.keySet())
+  } 
+  
+  /**
+   * Apply the stats of a batch of health reports, same result as calling
+   * {@link #applyStat(String, Map)} for each stat of each report in order.
+   * <p>
+   * Incoming stats are parsed and matched against the persistent stats in parallel.
+   * The matched persistent stats are then split into partitions that are merged in
+   * parallel, each partition into its own map, and the partition maps are merged back
+   * into the holder at the end. If any merge fails, nothing is applied.
+   *
+   * @param reports
+   *          incoming stat name -> stat fields, one map per health report
+   * @param executor
+   *          thread pool to run on, if null apply the stats in the calling thread
+   */
+  public void applyStats(List<Map<String, Map<String, String>>> reports,
+      ExecutorService executor) throws HelixException
+  {
+    if (executor == null)
     {
-      if(resultMap.containsKey(key))
+      for (Map<String, Map<String, String>> report : reports)
       {
-        MatchResult cachedMatchResult = resultMap.get(key);
-        if(cachedMatchResult == MatchResult.EXACTMATCH)
+        for (String key : report.keySet())
         {
-          processExactMatch(key, statFields);
+          applyStat(key, report.get(key));
         }
-        else if(cachedMatchResult == MatchResult.WILDCARDMATCH)
+      }
+      return;
+    }
+
+    // parse and match the incoming stats, one task per report
+    List<Callable<List<IncomingStat>>> matchTasks = new ArrayList<Callable<List<IncomingStat>>>();
+    for (final Map<String, Map<String, String>> report : reports)
+    {
+      matchTasks.add(new Callable<List<IncomingStat>>()
+      {
+        @Override
+        public List<IncomingStat> call() throws Exception
         {
-          processWildcardMatch(incomingStatName, key,statFields, pendingAdds);
+          return matchReport(report);
         }
-        // don't care about NOMATCH
+      });
+    }
+
+    // split by persistent stat, a persistent stat only lives in one partition so its
+    // merges keep the order of the reports. aggregators are compiled up front, so merge
+    // tasks only read holder state
+    final int partitionNum = Runtime.getRuntime().availableProcessors();
+    final Map<String, CompiledStat> compiledStats = new HashMap<String, CompiledStat>();
+    List<List<IncomingStat>> partitions = new ArrayList<List<IncomingStat>>();
+    for (int i = 0; i < partitionNum; i++)
+    {
+      partitions.add(new ArrayList<IncomingStat>());
+    }
+    for (List<IncomingStat> matched : invokeAll(executor, matchTasks))
+    {
+      for (IncomingStat incomingStat : matched)
+      {
+        if (!compiledStats.containsKey(incomingStat._target))
+        {
+          compiledStats.put(incomingStat._target, getCompiledStat(incomingStat._target));
+        }
+        int partition = (incomingStat._target.hashCode() & Integer.MAX_VALUE) % partitionNum;
+        partitions.get(partition).add(incomingStat);
+      }
+    }
+
+    // merge, one task per partition
+    List<Callable<Map<String, Stat>>> mergeTasks = new ArrayList<Callable<Map<String, Stat>>>();
+    for (final List<IncomingStat> partition : partitions)
+    {
+      if (partition.isEmpty())
+      {
+        continue;
+      }
+      mergeTasks.add(new Callable<Map<String, Stat>>()
+      {
+        @Override
+        public Map<String, Stat> call() throws Exception
+        {
+          return mergePartition(partition, compiledStats);
+        }
+      });
+    }
+    List<Map<String, Stat>> mergedPartitions = invokeAll(executor, mergeTasks);
+
+    for (Map<String, Stat> mergedStats : mergedPartitions)
+    {
+      for (String statName : mergedStats.keySet())
+      {
+        if (!_statMap.containsKey(statName))
+        {
+          // strings are filled in by persistStats()
+          _statMap.put(statName, getEmptyStat());
+          indexStat(statName);
+        }
+        setStat(statName, mergedStats.get(statName));
+      }
+    }
+  }
+
+  static class IncomingStat
+  {
+    final NumericTuple _value;
+    final NumericTuple _time;
+    // persistent stat to merge into, existing or to be added
+    final String _target;
+
+    IncomingStat(NumericTuple value, NumericTuple time, String target)
+    {
+      _value = value;
+      _time = time;
+      _target = target;
+    }
+  }
+
+  /*
+   * Persistent stats each stat of the report merges into: exact matches, and
+   * substitutions of wildcard matches which are exact matches once added
+   */
+  List<IncomingStat> matchReport(Map<String, Map<String, String>> report)
+  {
+    List<IncomingStat> incomingStats = new ArrayList<IncomingStat>();
+    for (String incomingStatName : report.keySet())
+    {
+      List<String> exactMatches = _statIndex.getExactMatches(incomingStatName);
+      Set<String> wildcardMatches = _statIndex.getWildcardMatches(incomingStatName);
+      if (exactMatches.isEmpty() && wildcardMatches.isEmpty())
+      {
         continue;
       }
-      // exact match on stat and stat portion of persisted stat, just update
-      if (ExpressionParser.isIncomingStatExactMatch(key, incomingStatName))
+      Set<String> targets = new LinkedHashSet<String>(exactMatches);
+      for (String key : wildcardMatches)
       {
-        processExactMatch(key, statFields);
-        resultMap.put(key, MatchResult.EXACTMATCH);
+        if (!exactMatches.contains(key))
+        {
+          targets.add(ExpressionParser.getWildcardStatSubstitution(key, incomingStatName));
+        }
       }
-      // wildcard match
-      else if (ExpressionParser.isIncomingStatWildcardMatch(key,
-          incomingStatName))
+      Map<String, String> statFields = report.get(incomingStatName);
+      NumericTuple incomingValue = NumericTuple.fromString(statFields.get(VALUE_NAME));
+      NumericTuple incomingTime = NumericTuple.fromString(statFields.get(TIMESTAMP_NAME));
+      for (String target : targets)
       {
-        processWildcardMatch(incomingStatName, key,statFields, pendingAdds);
-        resultMap.put(key, MatchResult.WILDCARDMATCH);
+        incomingStats.add(new IncomingStat(incomingValue, incomingTime, target));
       }
-      else
+    }
+    return incomingStats;
+  }
+
+  Map<String, Stat> mergePartition(List<IncomingStat> incomingStats,
+      Map<String, CompiledStat> compiledStats)
+  {
+    Map<String, Stat> mergedStats = new HashMap<String, Stat>();
+    for (IncomingStat incomingStat : incomingStats)
+    {
+      String target = incomingStat._target;
+      Stat existingStat = mergedStats.get(target);
+      if (existingStat == null)
       {
-        resultMap.put(key, MatchResult.NOMATCH);
+        existingStat = _statMap.containsKey(target) ? peekStat(target) : new Stat(target,
+            new NumericTuple(), new NumericTuple());
       }
+      mergedStats.put(target, mergeStats(compiledStats.get(target), existingStat,
+          incomingStat._value, incomingStat._time));
     }
-    _statMap.putAll(pendingAdds);
-  } 
-  
-  void processExactMatch(String key, Map<String, String> statFields)
+    return mergedStats;
+  }
+
+  static <T> List<T> invokeAll(ExecutorService executor,
+      List<? extends Callable<T>> tasks) throws HelixException
+  {
+    List<T> results = new ArrayList<T>();
+    try
+    {
+      for (Future<T> future : executor.invokeAll(tasks))
+      {
+        results.add(future.get());
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new HelixException("Interrupted while applying stats");
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof HelixException)
+      {
+        throw (HelixException) e.getCause();
+      }
+      throw new HelixException(e.getCause());
+    }
+    return results;
+  }
+
+  void processExactMatch(String key, NumericTuple incomingValue,
+      NumericTuple incomingTime)
   {
-    Map<String, String> mergedStat = mergeStats(key, _statMap.get(key),
-        statFields);
-    // update in place, no problem with hash map
-    _statMap.put(key, mergedStat);
+    Stat mergedStat = mergeStats(key, getStat(key), incomingValue, incomingTime);
+    setStat(key, mergedStat);
   }
   
   void processWildcardMatch(String incomingStatName, String key, 
-      Map<String, String> statFields,  Map<String, Map<String, String>> pendingAdds)
+      NumericTuple incomingValue, NumericTuple incomingTime,
+      Map<String, Stat> pendingAdds)
   {
 
     // make sure incoming stat doesn't already exist, either in previous
@@ -256,14 +487,141 @@ public class StatsHolder
         && !pendingAdds.containsKey(statToAdd))
     {
       // add this stat to persisted stats
-      Map<String, String> mergedStat = mergeStats(statToAdd,
-          getEmptyStat(), statFields);
+      Stat emptyStat = new Stat(statToAdd, new NumericTuple(), new NumericTuple());
+      Stat mergedStat = mergeStats(statToAdd, emptyStat, incomingValue, incomingTime);
       // add to pendingAdds so we don't mess up ongoing traversal of
       // _statMap
       pendingAdds.put(statToAdd, mergedStat);
     }
   }
 
+  /*
+   * Aggregator of a persistent stat, parsed from the stat name only once
+   */
+  CompiledStat getCompiledStat(String statName) throws HelixException
+  {
+    CompiledStat compiledStat = _compiledStats.get(statName);
+    if (compiledStat == null)
+    {
+      compiledStat = new CompiledStat(statName);
+      _compiledStats.put(statName, compiledStat);
+    }
+    return compiledStat;
+  }
+
+  /*
+   * Parsed value and timestamp of a stat in _statMap, parse only if the zk strings
+   * changed since last time
+   */
+  Stat getStat(String statName)
+  {
+    ParsedStat parsedStat = _parsedStats.get(statName);
+    if (parsedStat != null && _changedStats.contains(statName))
+    {
+      return parsedStat._stat;
+    }
+
+    Map<String, String> statFields = _statMap.get(statName);
+    if (parsedStat != null && parsedStat.isParsedFrom(statFields))
+    {
+      return parsedStat._stat;
+    }
+    String valueStr = statFields.get(VALUE_NAME);
+    String timeStr = statFields.get(TIMESTAMP_NAME);
+    Stat stat = new Stat(statName, NumericTuple.fromString(valueStr),
+        NumericTuple.fromString(timeStr));
+    _parsedStats.put(statName, new ParsedStat(valueStr, timeStr, stat));
+    return stat;
+  }
+
+  /*
+   * Same as getStat() but never updates _parsedStats, safe for concurrent readers
+   */
+  Stat peekStat(String statName)
+  {
+    ParsedStat parsedStat = _parsedStats.get(statName);
+    Map<String, String> statFields = _statMap.get(statName);
+    if (parsedStat != null
+        && (_changedStats.contains(statName) || parsedStat.isParsedFrom(statFields)))
+    {
+      return parsedStat._stat;
+    }
+    return new Stat(statName, NumericTuple.fromString(statFields.get(VALUE_NAME)),
+        NumericTuple.fromString(statFields.get(TIMESTAMP_NAME)));
+  }
+
+  void setStat(String statName, Stat stat)
+  {
+    _parsedStats.put(statName, new ParsedStat(null, null, stat));
+    _changedStats.add(statName);
+  }
+
+  /*
+   * Write the strings of changed stats back to _statMap
+   */
+  void formatChangedStats()
+  {
+    for (String statName : _changedStats)
+    {
+      Stat stat = _parsedStats.get(statName)._stat;
+      Map<String, String> statFields = new HashMap<String, String>();
+      String valueStr = stat.getValue().toString();
+      String timeStr = stat.getTimestamp().toString();
+      statFields.put(TIMESTAMP_NAME, timeStr);
+      statFields.put(VALUE_NAME, valueStr);
+      _statMap.put(statName, statFields);
+      _parsedStats.put(statName, new ParsedStat(valueStr, timeStr, stat));
+    }
+    _changedStats.clear();
+  }
+
+  /*
+   * _statMap is replaced by the stats read from zk, unpersisted merges are dropped
+   */
+  void onStatMapReloaded()
+  {
+    _changedStats.clear();
+    _parsedStats.keySet().retainAll(_statMap.keySet());
+    _compiledStats.keySet().retainAll(_statMap.keySet());
+
+    // stats are rarely added or removed, re-index only if they are
+    if (!_indexedStats.equals(_statMap.keySet()))
+    {
+      _statSetVersion++;
+      _statIndex.clear();
+      _indexedStats.clear();
+      for (String stat : _statMap.keySet())
+      {
+        indexStat(stat);
+      }
+    }
+  }
+
+  /**
+   * Changes whenever a persistent stat is added or removed. Health reports that were
+   * applied before a change may match stats that did not exist then.
+   */
+  public int getStatSetVersion()
+  {
+    return _statSetVersion;
+  }
+
+  void indexStat(String stat)
+  {
+    if (!_indexedStats.add(stat))
+    {
+      return;
+    }
+    try
+    {
+      _statIndex.add(ExpressionParser.getSingleAggregatorStat(stat), stat);
+    }
+    catch (HelixException e)
+    {
+      logger.error("Fail to index persistent stat " + stat, e);
+    }
+  }
+
   // add parsing of stat (or is that in expression holder?) at least add
   // validate
   public void addStat(String exp) throws HelixException
@@ -280,6 +638,7 @@ public class StatsHolder
         continue;
       }
       _statMap.put(stat, getEmptyStat()); // add new stat to map
+      indexStat(stat);
     }
   }
 
@@ -302,6 +661,150 @@ public class StatsHolder
   }
 
 
+  /**
+   * Add the base stats of exp to the persistent stats record at statsPath. Once the
+   * controller has written the stats in hash buckets, each stat is added to its bucket,
+   * since the parent map fields are not rewritten by the controller.
+   */
+  public static void addStats(BaseDataAccessor<ZNRecord> baseAccessor, String statsPath,
+      String exp) throws HelixException
+  {
+    final Map<String, Map<String, String>> newStatMap = parseStat(exp);
+    ZNRecord statsRec = baseAccessor.get(statsPath, null, 0);
+    int bucketSize = (statsRec == null) ? 0 : new HelixProperty(statsRec).getBucketSize();
+    if (bucketSize <= 0)
+    {
+      baseAccessor.update(statsPath, new DataUpdater<ZNRecord>()
+      {
+        @Override
+        public ZNRecord update(ZNRecord currentData)
+        {
+          if (currentData == null)
+          {
+            // TODO: fix naming of this record, if it matters
+            currentData = new ZNRecord(PersistentStats.nodeName);
+          }
+          addAbsentStats(currentData, newStatMap);
+          return currentData;
+        }
+      }, AccessOption.PERSISTENT);
+      return;
+    }
+
+    Map<String, Map<String, Map<String, String>>> bucketStats = groupByBucket(newStatMap,
+        bucketSize);
+    for (final String bucketName : bucketStats.keySet())
+    {
+      final Map<String, Map<String, String>> stats = bucketStats.get(bucketName);
+      baseAccessor.update(statsPath + "/" + bucketName, new DataUpdater<ZNRecord>()
+      {
+        @Override
+        public ZNRecord update(ZNRecord currentData)
+        {
+          if (currentData == null)
+          {
+            currentData = new ZNRecord(bucketName);
+          }
+          addAbsentStats(currentData, stats);
+          return currentData;
+        }
+      }, AccessOption.PERSISTENT);
+    }
+  }
+
+  /**
+   * Drop the base stats of exp from the persistent stats record at statsPath, from the
+   * hash bucket of each stat if the controller has written the stats in buckets.
+   */
+  public static void dropStats(BaseDataAccessor<ZNRecord> baseAccessor, String statsPath,
+      String exp) throws HelixException
+  {
+    final Map<String, Map<String, String>> dropStatMap = parseStat(exp);
+    ZNRecord statsRec = baseAccessor.get(statsPath, null, 0);
+    if (statsRec == null)
+    {
+      throw new HelixException("No stats record in ZK, nothing to drop");
+    }
+
+    // stats added before the record was bucketized may still be in the parent
+    if (!Collections.disjoint(statsRec.getMapFields().keySet(), dropStatMap.keySet()))
+    {
+      baseAccessor.update(statsPath, new DataUpdater<ZNRecord>()
+      {
+        @Override
+        public ZNRecord update(ZNRecord currentData)
+        {
+          if (currentData == null)
+          {
+            throw new HelixException("No stats record in ZK, nothing to drop");
+          }
+          currentData.getMapFields().keySet().removeAll(dropStatMap.keySet());
+          return currentData;
+        }
+      }, AccessOption.PERSISTENT);
+    }
+
+    int bucketSize = new HelixProperty(statsRec).getBucketSize();
+    if (bucketSize <= 0)
+    {
+      return;
+    }
+    Map<String, Map<String, Map<String, String>>> bucketStats = groupByBucket(dropStatMap,
+        bucketSize);
+    for (String bucketName : bucketStats.keySet())
+    {
+      final Set<String> stats = bucketStats.get(bucketName).keySet();
+      String bucketPath = statsPath + "/" + bucketName;
+      ZNRecord bucketRec = baseAccessor.get(bucketPath, null, 0);
+      if (bucketRec == null || Collections.disjoint(bucketRec.getMapFields().keySet(), stats))
+      {
+        continue;
+      }
+      baseAccessor.update(bucketPath, new DataUpdater<ZNRecord>()
+      {
+        @Override
+        public ZNRecord update(ZNRecord currentData)
+        {
+          if (currentData != null)
+          {
+            currentData.getMapFields().keySet().removeAll(stats);
+          }
+          return currentData;
+        }
+      }, AccessOption.PERSISTENT);
+    }
+  }
+
+  static void addAbsentStats(ZNRecord statsRec, Map<String, Map<String, String>> newStatMap)
+  {
+    Map<String, Map<String, String>> currStatMap = statsRec.getMapFields();
+    for (String newStat : newStatMap.keySet())
+    {
+      if (!currStatMap.containsKey(newStat))
+      {
+        currStatMap.put(newStat, newStatMap.get(newStat));
+      }
+    }
+  }
+
+  static Map<String, Map<String, Map<String, String>>> groupByBucket(
+      Map<String, Map<String, String>> statMap, int bucketSize)
+  {
+    ZNRecordBucketizer bucketizer = ZNRecordBucketizer.hashBucketizer(bucketSize);
+    Map<String, Map<String, Map<String, String>>> bucketStats =
+        new HashMap<String, Map<String, Map<String, String>>>();
+    for (String stat : statMap.keySet())
+    {
+      String bucketName = bucketizer.getBucketName(stat);
+      if (!bucketStats.containsKey(bucketName))
+      {
+        bucketStats.put(bucketName, new HashMap<String, Map<String, String>>());
+      }
+      bucketStats.get(bucketName).put(stat, statMap.get(stat));
+    }
+    return bucketStats;
+  }
+
   public static Map<String, String> getEmptyStat()
   {
     Map<String, String> statFields = new HashMap<String, String>();
@@ -315,25 +818,18 @@ public class StatsHolder
     List<Stat> stats = new LinkedList<Stat>();
     for (String stat : _statMap.keySet())
     {
-      Map<String, String> statFields = _statMap.get(stat);
-      Tuple<String> valTup = Tuple.fromString(statFields.get(VALUE_NAME));
-      Tuple<String> timeTup = Tuple.fromString(statFields.get(TIMESTAMP_NAME));
-      Stat s = new Stat(stat, valTup, timeTup);
-      stats.add(s);
+      stats.add(getStat(stat));
     }
     return stats;
   }
 
-  public Map<String, Tuple<String>> getStatsMap()
+  public Map<String, NumericTuple> getStatsMap()
   {
     //refreshStats(); //don't refresh, stage will have refreshed by this time
-    HashMap<String, Tuple<String>> stats = new HashMap<String, Tuple<String>>();
+    HashMap<String, NumericTuple> stats = new HashMap<String, NumericTuple>();
     for (String stat : _statMap.keySet())
     {
-      Map<String, String> statFields = _statMap.get(stat);
-      Tuple<String> valTup = Tuple.fromString(statFields.get(VALUE_NAME));
-      Tuple<String> timeTup = Tuple.fromString(statFields.get(TIMESTAMP_NAME));
-      stats.put(stat, valTup);
+      stats.put(stat, getStat(stat).getValue());
     }
     return stats;
   }
@@ -350,5 +846,7 @@ public class StatsHolder
     {
       _statMap = new HashMap<String, Map<String, String>>();
     }
+    _statsWriter.onRecordRead(persistentStatRecord);
+    onStatMapReloaded();
   }
 }
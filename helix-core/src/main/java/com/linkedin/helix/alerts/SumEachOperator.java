@@ -30,14 +30,14 @@ public class SumEachOperator extends Operator {
 
 	//for each column, generate sum
 	@Override
-	public List<Iterator<Tuple<String>>> execute(List<Iterator<Tuple<String>>> input) {
-		List<Iterator<Tuple<String>>> out = new ArrayList<Iterator<Tuple<String>>>();
-		for (Iterator<Tuple<String>> currIt : input) {
-			Tuple<String> currSum = null;
+	public List<Iterator<NumericTuple>> executeNumeric(List<Iterator<NumericTuple>> input) {
+		List<Iterator<NumericTuple>> out = new ArrayList<Iterator<NumericTuple>>();
+		for (Iterator<NumericTuple> currIt : input) {
+			NumericTuple currSum = null;
 			while (currIt.hasNext()) {
 				currSum = sumTuples(currSum, currIt.next());
 			}
-			ArrayList<Tuple<String>> currOutList = new ArrayList<Tuple<String>>();
+			ArrayList<NumericTuple> currOutList = new ArrayList<NumericTuple>();
 			currOutList.add(currSum);
 			out.add(currOutList.iterator());
 		}
@@ -29,7 +29,7 @@ public class SumOperator extends Operator {
 	}
 
 	
-	public List<Iterator<Tuple<String>>> singleSetToIter(ArrayList<Tuple<String>> input) 
+	public List<Iterator<NumericTuple>> singleSetToIter(ArrayList<NumericTuple> input) 
 	{
 		List out = new ArrayList();
 		out.add(input.iterator());
@@ -37,14 +37,14 @@ public class SumOperator extends Operator {
 	}
 	
 	@Override
-	public List<Iterator<Tuple<String>>> execute(List<Iterator<Tuple<String>>> input) {
-		ArrayList<Tuple<String>> output = new ArrayList<Tuple<String>>();
+	public List<Iterator<NumericTuple>> executeNumeric(List<Iterator<NumericTuple>> input) {
+		ArrayList<NumericTuple> output = new ArrayList<NumericTuple>();
 		if (input == null || input.size() == 0) {
 			return singleSetToIter(output);
 		}
 		while (true) { //loop through set of iters, return when 1 runs out (not completing the row in progress)
-			Tuple<String> rowSum = null;
-			for (Iterator<Tuple<String>> it : input) {
+			NumericTuple rowSum = null;
+			for (Iterator<NumericTuple> it : input) {
 				if (!it.hasNext()) { //when any iterator runs out, we are done
 					return singleSetToIter(output);
 				}
@@ -15,9 +15,6 @@
  */
 package com.linkedin.helix.alerts;
 
-import java.util.Iterator;
-
-
 public class WindowAggregator extends Aggregator {
 
 	
@@ -35,54 +32,29 @@ public class WindowAggregator extends Aggregator {
 	}
 
 	@Override
-	public void merge(Tuple<String> currValTup, Tuple<String> newValTup,
-			Tuple<String> currTimeTup, Tuple<String> newTimeTup, String... args) {
+	public void merge(NumericTuple currValTup, NumericTuple newValTup,
+			NumericTuple currTimeTup, NumericTuple newTimeTup, String... args) {
 		
-		_windowSize = Integer.parseInt(args[0]);
+		// aggregator instances are shared, keep per stat args local
+		int windowSize = Integer.parseInt(args[0]);
 		
-		//figure out how many curr tuple values we displace
-		Tuple<String> mergedTimeTuple = new Tuple<String>();
-		Tuple<String> mergedValTuple = new Tuple<String>();
-		
-		Iterator<String> currTimeIter = currTimeTup.iterator();
-		Iterator<String> currValIter = currValTup.iterator();
-		Iterator<String> newTimeIter = newTimeTup.iterator();
-		Iterator<String> newValIter = newValTup.iterator();
-		int currCtr = 0;
-		//traverse current vals
+		//newest curr time
 		double currTime = -1;
-		double currVal;
-		while (currTimeIter.hasNext()) {
-			currTime = Double.parseDouble(currTimeIter.next());
-			currVal = Double.parseDouble(currValIter.next());
-			currCtr++;
-			//number of evicted currVals equal to total size of both minus _windowSize
-			if (currCtr > (newTimeTup.size()+currTimeTup.size()-_windowSize)) { //non-evicted element, just bump down
-				mergedTimeTuple.add(String.valueOf(currTime));
-				mergedValTuple.add(String.valueOf(currVal));
-			}
+		if (currTimeTup.size() > 0) {
+			currTime = currTimeTup.getElement(currTimeTup.size()-1);
 		}
-
-		double newVal;
-		double newTime;
-		while (newTimeIter.hasNext()) {
-			newVal = Double.parseDouble(newValIter.next());
-			newTime = Double.parseDouble(newTimeIter.next());
-			if (newTime <= currTime) { //oldest new time older than newest curr time.  we will not apply new tuple!
+		for (int i = 0; i < newTimeTup.size(); i++) {
+			if (newTimeTup.getElement(i) <= currTime) { //oldest new time older than newest curr time.  we will not apply new tuple!
 				return; //curr tuples remain the same
 			}
-			currCtr++;
-			if (currCtr > (newTimeTup.size()+currTimeTup.size()-_windowSize)) { //non-evicted element
-				mergedTimeTuple.add(String.valueOf(newTime));
-				mergedValTuple.add(String.valueOf(newVal));
-			}
 		}
-		 //set curr tuples to merged tuples
-		currTimeTup.clear();
-		currTimeTup.addAll(mergedTimeTuple);
-		currValTup.clear();
-		currValTup.addAll(mergedValTuple);
-		//TODO: see if we can do merger in place on curr
+		
+		//number of evicted currVals equal to total size of both minus _windowSize
+		int numEvicted = newTimeTup.size()+currTimeTup.size()-windowSize;
+		currTimeTup.addAll(newTimeTup);
+		currValTup.addAll(newValTup);
+		currTimeTup.removeFirst(numEvicted);
+		currValTup.removeFirst(numEvicted);
 	}
 
 	
@@ -378,7 +378,8 @@ public class GenericHelixController implements
     /**
      * When there are more participant ( > 20, can be in hundreds), This callback can be
      * called quite frequently as each participant reports health stat every minute. Thus
-     * we change the health check pipeline to run in a timer callback.
+     * the health check pipeline is run by HealthStatsAggregationTask, which observes
+     * health reports itself and aggregates them in batches.
      */
   }
 
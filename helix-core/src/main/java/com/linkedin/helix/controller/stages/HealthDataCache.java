@@ -15,14 +15,21 @@
  */
 package com.linkedin.helix.controller.stages;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.zookeeper.data.Stat;
+
+import com.linkedin.helix.BaseDataAccessor;
 import com.linkedin.helix.DataAccessor;
 import com.linkedin.helix.HelixDataAccessor;
+import com.linkedin.helix.PropertyKey;
 import com.linkedin.helix.PropertyKey.Builder;
 import com.linkedin.helix.PropertyType;
+import com.linkedin.helix.ZNRecord;
 import com.linkedin.helix.model.AlertStatus;
 import com.linkedin.helix.model.Alerts;
 import com.linkedin.helix.model.HealthStat;
@@ -34,6 +41,8 @@ public class HealthDataCache
   Map<String, LiveInstance> _liveInstanceMap;
 
   Map<String, Map<String, HealthStat>> _healthStatMap;
+  // instance -> health reports that are new or changed since last refresh
+  Map<String, Map<String, HealthStat>> _changedHealthStatMap;
   HealthStat _globalStats; // DON'T THINK I WILL USE THIS ANYMORE
   PersistentStats _persistentStats;
   Alerts _alerts;
@@ -55,6 +64,7 @@ public class HealthDataCache
           PropertyType.HEALTHREPORT, instanceName));
     }
     _healthStatMap = Collections.unmodifiableMap(hsMap);
+    _changedHealthStatMap = _healthStatMap;
     _persistentStats = accessor.getProperty(PersistentStats.class,
         PropertyType.PERSISTENTSTATS);
     _alerts = accessor.getProperty(Alerts.class, PropertyType.ALERTS);
@@ -96,6 +106,26 @@ public class HealthDataCache
     }
   }
 
+  /**
+   * Health reports of the instance that are new or have been updated since the
+   * previous refresh, a subset of {@link #getHealthStats(String)}
+   */
+  public Map<String, HealthStat> getChangedHealthStats(String instanceName)
+  {
+    Map<String, HealthStat> map = null;
+    if (_changedHealthStatMap != null)
+    {
+      map = _changedHealthStatMap.get(instanceName);
+    }
+    if (map != null)
+    {
+      return map;
+    } else
+    {
+      return Collections.emptyMap();
+    }
+  }
+
   public Map<String, LiveInstance> getLiveInstances()
   {
     return _liveInstanceMap;
@@ -107,17 +137,26 @@ public class HealthDataCache
     _liveInstanceMap = accessor.getChildValuesMap(keyBuilder.liveInstances());
 
     Map<String, Map<String, HealthStat>> hsMap = new HashMap<String, Map<String, HealthStat>>();
+    Map<String, Map<String, HealthStat>> changedMap =
+        new HashMap<String, Map<String, HealthStat>>();
 
     for (String instanceName : _liveInstanceMap.keySet())
     {
-      // xxx clearly getting znodes for the instance here...so get the
-      // timestamp!
-
-      Map<String, HealthStat> childValuesMap = accessor
-          .getChildValuesMap(keyBuilder.healthReports(instanceName));
+      Map<String, HealthStat> prevReports = null;
+      if (_healthStatMap != null)
+      {
+        prevReports = _healthStatMap.get(instanceName);
+      }
+      Map<String, HealthStat> changedReports = new HashMap<String, HealthStat>();
+      Map<String, HealthStat> childValuesMap =
+          readHealthReports(accessor, keyBuilder.healthReports(instanceName),
+                            prevReports,
+                            changedReports);
       hsMap.put(instanceName, childValuesMap);
+      changedMap.put(instanceName, changedReports);
     }
     _healthStatMap = Collections.unmodifiableMap(hsMap);
+    _changedHealthStatMap = Collections.unmodifiableMap(changedMap);
     _persistentStats = accessor.getProperty(keyBuilder.persistantStat());
     _alerts = accessor.getProperty(keyBuilder.alerts());
     _alertStatus = accessor.getProperty(keyBuilder.alertStatus());
@@ -126,4 +165,91 @@ public class HealthDataCache
 
   }
 
+  /**
+   * Read the health reports of an instance. Participants update a few reports at a
+   * time, so only the stats of the report znodes are read in one batch, and only the
+   * reports whose version or modified time differs from the previous refresh are
+   * fetched again.
+   */
+  Map<String, HealthStat> readHealthReports(HelixDataAccessor accessor,
+                                            PropertyKey reportsKey,
+                                            Map<String, HealthStat> prevReports,
+                                            Map<String, HealthStat> changedReports)
+  {
+    BaseDataAccessor<ZNRecord> baseAccessor = accessor.getBaseDataAccessor();
+    if (prevReports == null || prevReports.isEmpty() || baseAccessor == null)
+    {
+      Map<String, HealthStat> reports = accessor.getChildValuesMap(reportsKey);
+      changedReports.putAll(reports);
+      return reports;
+    }
+
+    String parentPath = reportsKey.getPath();
+    List<String> reportNames = accessor.getChildNames(reportsKey);
+    Map<String, HealthStat> reports = new HashMap<String, HealthStat>();
+    if (reportNames == null || reportNames.isEmpty())
+    {
+      return reports;
+    }
+
+    List<String> paths = new ArrayList<String>();
+    for (String reportName : reportNames)
+    {
+      paths.add(parentPath + "/" + reportName);
+    }
+    Stat[] stats = baseAccessor.getStats(paths, 0);
+    if (stats == null || stats.length != paths.size())
+    {
+      Map<String, HealthStat> allReports = accessor.getChildValuesMap(reportsKey);
+      changedReports.putAll(allReports);
+      return allReports;
+    }
+
+    List<String> readPaths = new ArrayList<String>();
+    for (int i = 0; i < paths.size(); i++)
+    {
+      if (stats[i] == null)
+      {
+        // removed in between
+        continue;
+      }
+      HealthStat prevReport = prevReports.get(reportNames.get(i));
+      if (prevReport != null
+          && prevReport.getRecord().getVersion() == stats[i].getVersion()
+          && prevReport.getRecord().getModifiedTime() == stats[i].getMtime())
+      {
+        reports.put(reportNames.get(i), prevReport);
+      }
+      else
+      {
+        readPaths.add(paths.get(i));
+      }
+    }
+
+    if (readPaths.size() > 0)
+    {
+      List<Stat> readStats = new ArrayList<Stat>();
+      List<ZNRecord> records = baseAccessor.get(readPaths, readStats, 0);
+      for (int i = 0; i < readPaths.size(); i++)
+      {
+        ZNRecord record = records.get(i);
+        if (record == null)
+        {
+          continue;
+        }
+        Stat stat = readStats.get(i);
+        if (stat != null)
+        {
+          record.setVersion(stat.getVersion());
+          record.setCreationTime(stat.getCtime());
+          record.setModifiedTime(stat.getMtime());
+        }
+        HealthStat report = new HealthStat(record);
+        reports.put(record.getId(), report);
+        changedReports.put(record.getId(), report);
+      }
+    }
+    return reports;
+  }
+
 }
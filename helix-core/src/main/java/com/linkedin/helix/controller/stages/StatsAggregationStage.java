@@ -16,11 +16,15 @@
 package com.linkedin.helix.controller.stages;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.Logger;
 
@@ -30,13 +34,13 @@ import com.linkedin.helix.HelixProperty;
 import com.linkedin.helix.PropertyKey.Builder;
 import com.linkedin.helix.PropertyType;
 import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.alerts.AlertHistoryHolder;
 import com.linkedin.helix.alerts.AlertParser;
-import com.linkedin.helix.alerts.AlertProcessor;
 import com.linkedin.helix.alerts.AlertValueAndStatus;
 import com.linkedin.helix.alerts.AlertsHolder;
 import com.linkedin.helix.alerts.ExpressionParser;
+import com.linkedin.helix.alerts.NumericTuple;
 import com.linkedin.helix.alerts.StatsHolder;
-import com.linkedin.helix.alerts.Tuple;
 import com.linkedin.helix.controller.pipeline.AbstractBaseStage;
 import com.linkedin.helix.controller.pipeline.StageContext;
 import com.linkedin.helix.controller.pipeline.StageException;
@@ -67,10 +71,31 @@ public class StatsAggregationStage extends AbstractBaseStage
 
   StatsHolder _statsHolder = null;
   AlertsHolder _alertsHolder = null;
+  // recent evaluations of every alert, kept in memory and checkpointed periodically
+  AlertHistoryHolder _alertHistoryHolder = null;
   Map<String, Map<String, AlertValueAndStatus>> _alertStatus;
-  Map<String, Tuple<String>> _statStatus;
+  Map<String, NumericTuple> _statStatus;
   ClusterAlertMBeanCollection _alertBeanCollection = new ClusterAlertMBeanCollection();
   Map<String, String> _alertActionTaken = new HashMap<String, String>();
+  // ALERT_HISTORY record, read on the first update
+  ZNRecord _alertFiredHistory = null;
+  // stat set version of the holder when health reports were last applied, all reports
+  // are applied again once stats are added or removed
+  int _appliedStatSetVersion = -1;
+
+  // aggregates health reports of instances in parallel
+  static final ExecutorService AGGREGATION_POOL =
+      Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+          new ThreadFactory()
+          {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+              Thread thread = new Thread(r, "StatsAggregation");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
 
   public final String PARTICIPANT_STAT_REPORT_NAME = StatHealthReportProvider.REPORT_NAME;
   public final String ESPRESSO_STAT_REPORT_NAME = "RestQueryStats";
@@ -89,7 +114,7 @@ public class StatsAggregationStage extends AbstractBaseStage
     return _alertStatus;
   }
 
-  public Map<String, Tuple<String>> getStatStatus()
+  public Map<String, NumericTuple> getStatStatus()
   {
     return _statStatus;
   }
@@ -162,6 +187,7 @@ public class StatsAggregationStage extends AbstractBaseStage
     {
       _statsHolder = new StatsHolder(manager, cache);
       _alertsHolder = new AlertsHolder(manager, cache, _statsHolder);
+      _alertHistoryHolder = new AlertHistoryHolder(manager);
     }
     else
     {
@@ -180,6 +206,11 @@ public class StatsAggregationStage extends AbstractBaseStage
     Map<String, LiveInstance> liveInstances = cache.getLiveInstances();
 
     long currTime = System.currentTimeMillis();
+    // a health report that has not changed since last pipeline was already applied, its
+    // stats are not newer than the persisted ones
+    boolean applyAllReports = (_statsHolder.getStatSetVersion() != _appliedStatSetVersion);
+    List<Map<String, Map<String, String>>> reports =
+        new ArrayList<Map<String, Map<String, String>>>();
     // for each live node, read node's stats
     long readInstancesStart = System.currentTimeMillis();
     for (LiveInstance instance : liveInstances.values())
@@ -193,33 +224,35 @@ public class StatsAggregationStage extends AbstractBaseStage
       // find participants stats
       long modTime = -1;
       // TODO: get healthreport child node modified time and reportAgeStat based on that
-      boolean reportedAge = false;
       for (HealthStat participantStat : stats.values())
       {
-        if (participantStat != null && !reportedAge)
+        if (participantStat != null)
         {
           // generate and report stats for how old this node's report is
           modTime = participantStat.getLastModifiedTimeStamp();
           reportAgeStat(instance, modTime, currTime);
-          reportedAge = true;
+          break;
         }
-        // System.out.println(modTime);
+      }
+
+      if (!applyAllReports)
+      {
+        stats = cache.getChangedHealthStats(instanceName);
+      }
+      for (HealthStat participantStat : stats.values())
+      {
         // XXX: need to convert participantStat to a better format
         // need to get instanceName in here
-
         if (participantStat != null)
         {
           // String timestamp = String.valueOf(instance.getModifiedTime()); WANT
           // REPORT LEVEL TS
-          Map<String, Map<String, String>> statMap =
-              participantStat.getHealthFields(instanceName);
-          for (String key : statMap.keySet())
-          {
-            _statsHolder.applyStat(key, statMap.get(key));
-          }
+          reports.add(participantStat.getHealthFields(instanceName));
         }
       }
     }
+    _statsHolder.applyStats(reports, AGGREGATION_POOL);
+    _appliedStatSetVersion = _statsHolder.getStatSetVersion();
     // Call _statsHolder.persistStats() once per pipeline. This will
     // write the updated persisted stats into zookeeper
     _statsHolder.persistStats();
@@ -236,8 +269,7 @@ public class StatsAggregationStage extends AbstractBaseStage
     long alertExecuteStartTime = System.currentTimeMillis();
     // execute alerts, populate _alertStatus
     _alertStatus =
-        AlertProcessor.executeAllAlerts(_alertsHolder.getAlertList(),
-                                        _statsHolder.getStatsList());
+        _alertsHolder.getCompiledAlerts().execute(_statsHolder.getStatsList());
     logger.info("done executing alerts: "
         + (System.currentTimeMillis() - alertExecuteStartTime));
     for (String originAlertName : _alertStatus.keySet())
@@ -247,9 +279,15 @@ public class StatsAggregationStage extends AbstractBaseStage
                                      manager.getClusterName());
     }
 
+    boolean firedChanged = _alertHistoryHolder.record(_alertStatus, currTime);
+    _alertHistoryHolder.checkpoint(currTime);
+
     executeAlertActions(manager);
-    // Write alert fire history to zookeeper
-    updateAlertHistory(manager);
+    // Write alert fire history to zookeeper, only when some alert is fired or cleared
+    if (firedChanged)
+    {
+      updateAlertHistory(manager);
+    }
     long writeAlertStartTime = System.currentTimeMillis();
     // write out alert status (to zk)
     _alertsHolder.addAlertStatusSet(_alertStatus);
@@ -427,16 +465,15 @@ public class StatsAggregationStage extends AbstractBaseStage
       HelixDataAccessor accessor = manager.getHelixDataAccessor();
       Builder keyBuilder = accessor.keyBuilder();
 
-      HelixProperty property = accessor.getProperty(keyBuilder.alertHistory());
-      ZNRecord alertFiredHistory;
-      if(property == null)
+      // read once, the controller is the only writer
+      if (_alertFiredHistory == null)
       {
-        alertFiredHistory = new ZNRecord(PropertyType.ALERT_HISTORY.toString());
-      }
-      else
-      {
-        alertFiredHistory = property.getRecord();
+        HelixProperty property = accessor.getProperty(keyBuilder.alertHistory());
+        _alertFiredHistory =
+            property == null ? new ZNRecord(PropertyType.ALERT_HISTORY.toString())
+                : property.getRecord();
       }
+      ZNRecord alertFiredHistory = _alertFiredHistory;
       while(alertFiredHistory.getMapFields().size() >= ALERT_HISTORY_SIZE)
       {
         // ZNRecord uses TreeMap which is sorted ascending internally
@@ -450,6 +487,11 @@ public class StatsAggregationStage extends AbstractBaseStage
     }
   }
 
+  public AlertHistoryHolder getAlertHistoryHolder()
+  {
+    return _alertHistoryHolder;
+  }
+
   public ClusterAlertMBeanCollection getClusterAlertMBeanCollection()
   {
     return _alertBeanCollection;
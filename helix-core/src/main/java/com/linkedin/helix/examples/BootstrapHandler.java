@@ -68,7 +68,7 @@ public class BootstrapHandler extends StateModelFactory<StateModel>
           .setMsgSubType(BootstrapProcess.REQUEST_BOOTSTRAP_URL);
       requestBackupUriRequest.setMsgState(MessageState.NEW);
       Criteria recipientCriteria = new Criteria();
-      recipientCriteria.setInstanceName("*");
+      recipientCriteria.setInstanceName("%");
       recipientCriteria.setRecipientInstanceType(InstanceType.PARTICIPANT);
       recipientCriteria.setResource(message.getResourceName());
       recipientCriteria.setPartition(message.getPartitionName());
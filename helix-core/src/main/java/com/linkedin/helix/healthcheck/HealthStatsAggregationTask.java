@@ -15,48 +15,93 @@
  */
 package com.linkedin.helix.healthcheck;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
 import java.util.Timer;
+import java.util.TimerTask;
 
 import org.apache.log4j.Logger;
 
 import com.linkedin.helix.ConfigAccessor;
 import com.linkedin.helix.ConfigScope;
 import com.linkedin.helix.ConfigScopeBuilder;
+import com.linkedin.helix.HealthStateChangeListener;
+import com.linkedin.helix.HelixConstants.ChangeType;
 import com.linkedin.helix.HelixDataAccessor;
 import com.linkedin.helix.HelixManager;
 import com.linkedin.helix.HelixTimerTask;
+import com.linkedin.helix.LiveInstanceChangeListener;
+import com.linkedin.helix.NotificationContext;
+import com.linkedin.helix.PropertyKey.Builder;
+import com.linkedin.helix.SelectiveReadListener;
 import com.linkedin.helix.controller.pipeline.Pipeline;
 import com.linkedin.helix.controller.pipeline.Stage;
 import com.linkedin.helix.controller.stages.ClusterEvent;
 import com.linkedin.helix.controller.stages.ReadHealthDataStage;
 import com.linkedin.helix.controller.stages.StatsAggregationStage;
+import com.linkedin.helix.model.HealthStat;
+import com.linkedin.helix.model.LiveInstance;
 import com.linkedin.helix.monitoring.mbeans.ClusterAlertMBeanCollection;
 import com.linkedin.helix.monitoring.mbeans.HelixStageLatencyMonitor;
 
-public class HealthStatsAggregationTask extends HelixTimerTask
+/**
+ * Runs the health stats aggregation pipeline when participants report. Health report
+ * changes of live instances only mark the instances dirty, the pipeline runs once no
+ * report has arrived for the quiet period, or once the max delay has passed since the
+ * first unaggregated report, whichever comes first. Without any report the pipeline
+ * still runs once per idle period, so alerts on report staleness keep firing.
+ */
+public class HealthStatsAggregationTask extends HelixTimerTask implements
+    HealthStateChangeListener, LiveInstanceChangeListener, SelectiveReadListener
 {
   private static final Logger LOG = Logger.getLogger(HealthStatsAggregationTask.class);
 
   public final static int DEFAULT_HEALTH_CHECK_LATENCY = 30 * 1000;
+  public final static int DEFAULT_QUIET_PERIOD = 5 * 1000;
+  public final static int DEFAULT_MAX_DELAY = DEFAULT_HEALTH_CHECK_LATENCY;
+  public final static int DEFAULT_IDLE_PERIOD = 5 * 60 * 1000;
+
+  // cluster config keys overriding the periods, in ms. idle period 0 disables the
+  // aggregation without reports
+  public final static String QUIET_PERIOD_KEY = "healthChange.quietPeriod";
+  public final static String MAX_DELAY_KEY = "healthChange.maxDelay";
+  public final static String IDLE_PERIOD_KEY = "healthChange.idlePeriod";
 
   private Timer _timer;
   private final HelixManager _manager;
   private final Pipeline _healthStatsAggregationPipeline;
-  private final int _delay;
-  private final int _period;
+  private int _quietPeriod;
+  private int _maxDelay;
+  private int _idlePeriod;
   private final ClusterAlertMBeanCollection _alertItemCollection;
   private final Map<String, HelixStageLatencyMonitor> _stageLatencyMonitorMap =
       new HashMap<String, HelixStageLatencyMonitor>();
 
-  public HealthStatsAggregationTask(HelixManager manager, int delay, int period)
+  // guards the trigger state below, never held while the pipeline runs so zk callbacks
+  // are not blocked by aggregation
+  private final Object _triggerLock = new Object();
+  final Set<String> _dirtyInstances = new HashSet<String>();
+  long _firstDirtyTime = -1;
+  long _lastDirtyTime = -1;
+  long _lastRunTime;
+  private TimerTask _pendingTrigger;
+  private long _pendingTriggerTime = Long.MAX_VALUE;
+  private volatile Set<String> _observedInstances = Collections.emptySet();
+
+  public HealthStatsAggregationTask(HelixManager manager,
+                                    int quietPeriod,
+                                    int maxDelay,
+                                    int idlePeriod)
   {
     _manager = manager;
-    _delay = delay;
-    _period = period;
+    _quietPeriod = quietPeriod;
+    _maxDelay = maxDelay;
+    _idlePeriod = idlePeriod;
+    _lastRunTime = System.currentTimeMillis();
 
     // health stats pipeline
     _healthStatsAggregationPipeline = new Pipeline();
@@ -70,7 +115,7 @@ public class HealthStatsAggregationTask extends HelixTimerTask
 
   public HealthStatsAggregationTask(HelixManager manager)
   {
-    this(manager, DEFAULT_HEALTH_CHECK_LATENCY, DEFAULT_HEALTH_CHECK_LATENCY);
+    this(manager, DEFAULT_QUIET_PERIOD, DEFAULT_MAX_DELAY, DEFAULT_IDLE_PERIOD);
   }
 
   private void registerStageLatencyMonitor(Pipeline pipeline)
@@ -114,9 +159,29 @@ public class HealthStatsAggregationTask extends HelixTimerTask
         LOG.info("Removing old healthrecord " + healthReportName);
         accessor.removeProperty(accessor.keyBuilder().healthReport(_manager.getInstanceName(),healthReportName));
       }
-      
+      readPeriods();
+
       _timer = new Timer(true);
-      _timer.scheduleAtFixedRate(this, new Random().nextInt(_delay), _period);
+      synchronized (_triggerLock)
+      {
+        _lastRunTime = System.currentTimeMillis();
+        scheduleTrigger(getDueTime());
+      }
+
+      try
+      {
+        // observe health reports of live instances, see onLiveInstanceChange()
+        _manager.addLiveInstanceChangeListener(this);
+      }
+      catch (Exception e)
+      {
+        LOG.error("Fail to observe health reports, aggregate every max delay", e);
+        _idlePeriod = _maxDelay;
+        synchronized (_triggerLock)
+        {
+          scheduleTrigger(getDueTime());
+        }
+      }
     }
     else
     {
@@ -131,6 +196,22 @@ public class HealthStatsAggregationTask extends HelixTimerTask
 
     if (_timer != null)
     {
+      Builder keyBuilder = new Builder(_manager.getClusterName());
+      _manager.removeListener(keyBuilder.liveInstances(), this);
+      for (String instanceName : _observedInstances)
+      {
+        _manager.removeListener(keyBuilder.healthReports(instanceName), this);
+      }
+      _observedInstances = Collections.emptySet();
+      synchronized (_triggerLock)
+      {
+        _dirtyInstances.clear();
+        _firstDirtyTime = -1;
+        _lastDirtyTime = -1;
+        _pendingTrigger = null;
+        _pendingTriggerTime = Long.MAX_VALUE;
+      }
+
       _timer.cancel();
       _timer = null;
       _alertItemCollection.reset();
@@ -146,6 +227,225 @@ public class HealthStatsAggregationTask extends HelixTimerTask
     }
   }
 
+  @Override
+  public void onLiveInstanceChange(List<LiveInstance> liveInstances,
+                                   NotificationContext changeContext)
+  {
+    if (changeContext.getType() == NotificationContext.Type.FINALIZE)
+    {
+      return;
+    }
+
+    Set<String> curInstances = new HashSet<String>();
+    if (liveInstances != null)
+    {
+      for (LiveInstance liveInstance : liveInstances)
+      {
+        curInstances.add(liveInstance.getInstanceName());
+      }
+    }
+
+    // live instance callbacks are serialized, no lock needed for _observedInstances
+    Builder keyBuilder = new Builder(_manager.getClusterName());
+    for (String instanceName : _observedInstances)
+    {
+      if (!curInstances.contains(instanceName))
+      {
+        _manager.removeListener(keyBuilder.healthReports(instanceName), this);
+      }
+    }
+    for (String instanceName : curInstances)
+    {
+      if (!_observedInstances.contains(instanceName))
+      {
+        try
+        {
+          // the init callback marks the instance dirty
+          _manager.addHealthStateChangeListener(this, instanceName);
+        }
+        catch (Exception e)
+        {
+          LOG.error("Fail to add health report listener for instance: " + instanceName, e);
+        }
+      }
+    }
+    _observedInstances = curInstances;
+    // reports of instances gone are no longer aggregated
+    markDirty(null, System.currentTimeMillis());
+  }
+
+  /**
+   * Health reports are not read for the task, the pipeline reads the changed reports
+   * when it runs
+   */
+  @Override
+  public boolean prefetchChildren(ChangeType changeType)
+  {
+    return changeType != ChangeType.HEALTH;
+  }
+
+  /**
+   * Reports are null, see {@link #prefetchChildren(ChangeType)}
+   */
+  @Override
+  public void onHealthChange(String instanceName,
+                             List<HealthStat> reports,
+                             NotificationContext changeContext)
+  {
+    if (changeContext.getType() == NotificationContext.Type.FINALIZE)
+    {
+      return;
+    }
+    markDirty(instanceName, System.currentTimeMillis());
+  }
+
+  /**
+   * @param instanceName
+   *          null if no particular instance has reported
+   */
+  void markDirty(String instanceName, long now)
+  {
+    synchronized (_triggerLock)
+    {
+      if (instanceName != null)
+      {
+        _dirtyInstances.add(instanceName);
+      }
+      if (_firstDirtyTime < 0)
+      {
+        _firstDirtyTime = now;
+      }
+      _lastDirtyTime = now;
+      scheduleTrigger(getDueTime());
+    }
+  }
+
+  /**
+   * Time the pipeline is due, caller holds _triggerLock
+   */
+  long getDueTime()
+  {
+    if (_firstDirtyTime >= 0)
+    {
+      return Math.min(_lastDirtyTime + _quietPeriod, _firstDirtyTime + _maxDelay);
+    }
+    return _idlePeriod > 0 ? _lastRunTime + _idlePeriod : Long.MAX_VALUE;
+  }
+
+  /**
+   * Keep a single pending trigger. A trigger that fires before the due time, e.g. as
+   * reports kept arriving, schedules itself again; one scheduled later than the due
+   * time is replaced. Caller holds _triggerLock
+   */
+  private void scheduleTrigger(long dueTime)
+  {
+    if (_timer == null || dueTime == Long.MAX_VALUE)
+    {
+      return;
+    }
+    if (_pendingTrigger != null && _pendingTriggerTime <= dueTime)
+    {
+      return;
+    }
+    if (_pendingTrigger != null)
+    {
+      _pendingTrigger.cancel();
+    }
+    _pendingTrigger = new TimerTask()
+    {
+      @Override
+      public void run()
+      {
+        onTrigger(this);
+      }
+    };
+    _pendingTriggerTime = dueTime;
+    try
+    {
+      _timer.schedule(_pendingTrigger,
+                      Math.max(0, dueTime - System.currentTimeMillis()));
+    }
+    catch (IllegalStateException e)
+    {
+      // timer cancelled by stop()
+      _pendingTrigger = null;
+      _pendingTriggerTime = Long.MAX_VALUE;
+    }
+  }
+
+  private void onTrigger(TimerTask trigger)
+  {
+    synchronized (_triggerLock)
+    {
+      if (trigger != _pendingTrigger)
+      {
+        return;
+      }
+      _pendingTrigger = null;
+      _pendingTriggerTime = Long.MAX_VALUE;
+
+      long now = System.currentTimeMillis();
+      long dueTime = getDueTime();
+      if (now < dueTime)
+      {
+        scheduleTrigger(dueTime);
+        return;
+      }
+      if (LOG.isDebugEnabled())
+      {
+        LOG.debug("Aggregate health reports of " + _dirtyInstances.size()
+            + " instances, first reported " + (now - _firstDirtyTime) + "ms ago");
+      }
+      // reports arriving while the pipeline runs trigger the next run
+      _dirtyInstances.clear();
+      _firstDirtyTime = -1;
+      _lastDirtyTime = -1;
+      _lastRunTime = now;
+    }
+
+    run();
+
+    synchronized (_triggerLock)
+    {
+      scheduleTrigger(getDueTime());
+    }
+  }
+
+  private void readPeriods()
+  {
+    ConfigAccessor configAccessor = _manager.getConfigAccessor();
+    if (configAccessor == null)
+    {
+      return;
+    }
+    ConfigScope scope = new ConfigScopeBuilder().forCluster(_manager.getClusterName()).build();
+    _quietPeriod = readPeriod(configAccessor, scope, QUIET_PERIOD_KEY, _quietPeriod);
+    _maxDelay = readPeriod(configAccessor, scope, MAX_DELAY_KEY, _maxDelay);
+    _idlePeriod = readPeriod(configAccessor, scope, IDLE_PERIOD_KEY, _idlePeriod);
+    LOG.info("Health aggregation quiet period: " + _quietPeriod + ", max delay: "
+        + _maxDelay + ", idle period: " + _idlePeriod);
+  }
+
+  private int readPeriod(ConfigAccessor configAccessor,
+                         ConfigScope scope,
+                         String key,
+                         int defaultPeriod)
+  {
+    String period = configAccessor.get(scope, key);
+    if (period != null)
+    {
+      try
+      {
+        return Integer.parseInt(period.trim());
+      }
+      catch (NumberFormatException e)
+      {
+        LOG.warn("Invalid " + key + ": " + period + ", use " + defaultPeriod);
+      }
+    }
+    return defaultPeriod;
+  }
+
   @Override
   public synchronized void run()
   {
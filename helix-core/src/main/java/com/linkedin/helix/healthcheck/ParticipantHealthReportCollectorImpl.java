@@ -15,7 +15,10 @@
  */
 package com.linkedin.helix.healthcheck;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Timer;
@@ -40,6 +43,16 @@ public class ParticipantHealthReportCollectorImpl implements
   private final HelixManager _helixManager;
   String _instanceName;
   public final static int DEFAULT_REPORT_LATENCY = 60 * 1000;
+  // split a report into parts once its estimated size exceeds this, well below the
+  // znode size limit
+  public final static int REPORT_PART_SIZE = ZNRecord.SIZE_LIMIT / 2;
+  public final static String REPORT_PART_DELIM = "_part";
+
+  // report name -> fields last written, only fields that changed since are sent
+  final Map<String, Map<String, String>> _lastSimpleFields = new HashMap<String, Map<String, String>>();
+  final Map<String, Map<String, Map<String, String>>> _lastMapFields = new HashMap<String, Map<String, Map<String, String>>>();
+  // report name -> number of parts last written
+  final Map<String, Integer> _lastPartNum = new HashMap<String, Integer>();
 
   public ParticipantHealthReportCollectorImpl(HelixManager helixManager,
       String instanceName)
@@ -146,21 +159,7 @@ public class ParticipantHealthReportCollectorImpl implements
           Map<String, String> report = provider.getRecentHealthReport();
           Map<String, Map<String, String>> partitionReport = provider
               .getRecentPartitionHealthReport();
-          ZNRecord record = new ZNRecord(provider.getReportName());
-          if (report != null)
-          {
-            record.setSimpleFields(report);
-          }
-          if (partitionReport != null)
-          {
-            record.setMapFields(partitionReport);
-          }
-          record.setSimpleField(StatsHolder.TIMESTAMP_NAME, "" + System.currentTimeMillis());
-          
-          HelixDataAccessor accessor = _helixManager.getHelixDataAccessor();
-          Builder keyBuilder = accessor.keyBuilder();
-          accessor.setProperty(keyBuilder.healthReport(_instanceName, record.getId()), 
-                               new HealthStat(record));
+          transmitHealthReport(provider.getReportName(), report, partitionReport);
 
 //          _helixManager.getDataAccessor().setProperty(
 //              PropertyType.HEALTHREPORT, record, _instanceName, record.getId());
@@ -175,6 +174,148 @@ public class ParticipantHealthReportCollectorImpl implements
     }
   }
 
+  /**
+   * Write the fields of the report that changed since it was last written. The report
+   * znode is written even if nothing changed, its modified time tells the controller
+   * the participant is reporting. A report too large for one znode is split into parts
+   * reportName, reportName_part1, ...; the controller aggregates stats regardless of the
+   * report they come in.
+   */
+  void transmitHealthReport(String reportName, Map<String, String> report,
+      Map<String, Map<String, String>> partitionReport)
+  {
+    Map<String, String> lastSimpleFields = _lastSimpleFields.get(reportName);
+    if (lastSimpleFields == null)
+    {
+      lastSimpleFields = new HashMap<String, String>();
+      _lastSimpleFields.put(reportName, lastSimpleFields);
+    }
+    Map<String, Map<String, String>> lastMapFields = _lastMapFields.get(reportName);
+    if (lastMapFields == null)
+    {
+      lastMapFields = new HashMap<String, Map<String, String>>();
+      _lastMapFields.put(reportName, lastMapFields);
+    }
+
+    Map<String, String> changedSimpleFields = new HashMap<String, String>();
+    if (report != null)
+    {
+      for (String key : report.keySet())
+      {
+        String value = report.get(key);
+        if (value != null && !value.equals(lastSimpleFields.get(key)))
+        {
+          changedSimpleFields.put(key, value);
+        }
+      }
+    }
+    Map<String, Map<String, String>> changedMapFields = new HashMap<String, Map<String, String>>();
+    if (partitionReport != null)
+    {
+      for (String key : partitionReport.keySet())
+      {
+        Map<String, String> fields = partitionReport.get(key);
+        if (fields != null && !fields.equals(lastMapFields.get(key)))
+        {
+          changedMapFields.put(key, fields);
+        }
+      }
+    }
+
+    List<ZNRecord> records = splitReport(reportName, changedSimpleFields, changedMapFields);
+    String timestamp = "" + System.currentTimeMillis();
+    HelixDataAccessor accessor = _helixManager.getHelixDataAccessor();
+    Builder keyBuilder = accessor.keyBuilder();
+    boolean success = true;
+    for (ZNRecord record : records)
+    {
+      record.setSimpleField(StatsHolder.TIMESTAMP_NAME, timestamp);
+      success &= accessor.setProperty(keyBuilder.healthReport(_instanceName, record.getId()),
+                                      new HealthStat(record));
+    }
+
+    // remove parts left over from a larger report
+    Integer lastPartNum = _lastPartNum.get(reportName);
+    for (int i = records.size(); lastPartNum != null && i < lastPartNum; i++)
+    {
+      accessor.removeProperty(keyBuilder.healthReport(_instanceName,
+                                                      getPartName(reportName, i)));
+    }
+    _lastPartNum.put(reportName, records.size());
+
+    if (success)
+    {
+      // only remember fields still reported, keeps memory bounded by the report size
+      if (report != null)
+      {
+        lastSimpleFields.keySet().retainAll(report.keySet());
+      }
+      if (partitionReport != null)
+      {
+        lastMapFields.keySet().retainAll(partitionReport.keySet());
+      }
+      lastSimpleFields.putAll(changedSimpleFields);
+      for (String key : changedMapFields.keySet())
+      {
+        lastMapFields.put(key, new HashMap<String, String>(changedMapFields.get(key)));
+      }
+    }
+    else
+    {
+      // send everything next time
+      lastSimpleFields.clear();
+      lastMapFields.clear();
+    }
+  }
+
+  static String getPartName(String reportName, int part)
+  {
+    return part == 0 ? reportName : reportName + REPORT_PART_DELIM + part;
+  }
+
+  /*
+   * Map fields are spread over as many records as needed to keep each one under
+   * REPORT_PART_SIZE, simple fields go into the first record
+   */
+  static List<ZNRecord> splitReport(String reportName, Map<String, String> simpleFields,
+      Map<String, Map<String, String>> mapFields)
+  {
+    List<ZNRecord> records = new ArrayList<ZNRecord>();
+    ZNRecord record = new ZNRecord(reportName);
+    record.setSimpleFields(simpleFields);
+    records.add(record);
+    int size = estimateSize(simpleFields);
+    for (String key : mapFields.keySet())
+    {
+      Map<String, String> fields = mapFields.get(key);
+      int fieldSize = key.length() + estimateSize(fields);
+      if (size + fieldSize > REPORT_PART_SIZE && !record.getMapFields().isEmpty())
+      {
+        record = new ZNRecord(getPartName(reportName, records.size()));
+        records.add(record);
+        size = 0;
+      }
+      record.setMapField(key, fields);
+      size += fieldSize;
+    }
+    return records;
+  }
+
+  /*
+   * Upper bound of the serialized size of the fields, with quotes, separators and
+   * indentation
+   */
+  static int estimateSize(Map<String, String> fields)
+  {
+    int size = 16;
+    for (String key : fields.keySet())
+    {
+      String value = fields.get(key);
+      size += key.length() + (value == null ? 4 : value.length()) + 16;
+    }
+    return size;
+  }
+
   class HealthCheckInfoReportingTask extends TimerTask
   {
     @Override
@@ -15,6 +15,7 @@
  */
 package com.linkedin.helix.healthcheck;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -41,6 +42,11 @@ public class StatHealthReportProvider extends HealthReportProvider
   public static final String STAT_VALUE = "value";
   public static final String TIMESTAMP = "timestamp";
 
+  // percentiles reported for stats fed with recordValue(), as stat name + suffix
+  public static final int[] PERCENTILES = { 50, 95, 99 };
+  public static final String PERCENTILE_SUFFIX = "_p";
+  public static final int DEFAULT_PERCENTILE_WINDOW = 1024;
+
   public int readLatencyCount = 0;
   public double readLatencySum = 0;
 
@@ -51,11 +57,145 @@ public class StatHealthReportProvider extends HealthReportProvider
 
   // private final Map<String, HashMap<String,String>> _partitionStatMaps = new
   // HashMap<String, HashMap<String,String>>();
-  private final ConcurrentHashMap<String, String> _statsToValues = new ConcurrentHashMap<String, String>();
-  private final ConcurrentHashMap<String, String> _statsToTimestamps = new ConcurrentHashMap<String, String>();
+  // stat name -> stat aggregated locally between two reports, values are kept as
+  // primitives and formatted only when the report is taken
+  private final ConcurrentHashMap<String, LocalStat> _stats = new ConcurrentHashMap<String, LocalStat>();
+  private final int _percentileWindow;
+
+  static class LocalStat
+  {
+    // value as written by writeStat(), null once changed by a numeric update
+    String _rawValue;
+    double _value;
+    String _timestamp;
+    // last samples for percentiles, ring buffer
+    double[] _samples;
+    int _sampleCount;
+    int _nextSample;
+
+    synchronized void write(String value, String timestamp)
+    {
+      _rawValue = value;
+      _timestamp = timestamp;
+    }
+
+    /*
+     * counters start from 0 on the first increment
+     */
+    synchronized void increment(String timestamp)
+    {
+      _value = (_rawValue == null && _timestamp == null) ? 0 : getValue() + 1;
+      _rawValue = null;
+      _timestamp = timestamp;
+    }
+
+    synchronized void add(double delta, String timestamp)
+    {
+      _value = getValue() + delta;
+      _rawValue = null;
+      _timestamp = timestamp;
+    }
+
+    synchronized void record(double sample, String timestamp, int window)
+    {
+      if (_samples == null)
+      {
+        _samples = new double[window];
+      }
+      _samples[_nextSample] = sample;
+      _nextSample = (_nextSample + 1) % _samples.length;
+      _sampleCount = Math.min(_sampleCount + 1, _samples.length);
+      _timestamp = timestamp;
+    }
+
+    double getValue()
+    {
+      if (_rawValue != null)
+      {
+        try
+        {
+          return Double.parseDouble(_rawValue);
+        }
+        catch (NumberFormatException e)
+        {
+          _logger.warn("Stat value " + _rawValue + " is not a number, restart from 0");
+          return 0;
+        }
+      }
+      return _value;
+    }
+
+    synchronized String getValueString()
+    {
+      return _rawValue != null ? _rawValue : formatValue(_value);
+    }
+
+    synchronized String getTimestamp()
+    {
+      return _timestamp;
+    }
+
+    synchronized boolean hasValue()
+    {
+      return _rawValue != null || _samples == null;
+    }
+
+    /*
+     * percentiles of the samples in window, null if no samples
+     */
+    synchronized double[] getPercentiles()
+    {
+      if (_sampleCount == 0)
+      {
+        return null;
+      }
+      double[] sorted = Arrays.copyOf(_samples, _sampleCount);
+      Arrays.sort(sorted);
+      double[] percentiles = new double[PERCENTILES.length];
+      for (int i = 0; i < PERCENTILES.length; i++)
+      {
+        int idx = (int) Math.ceil(PERCENTILES[i] / 100.0 * _sampleCount) - 1;
+        percentiles[i] = sorted[Math.max(0, idx)];
+      }
+      return percentiles;
+    }
+  }
 
   public StatHealthReportProvider()
   {
+    this(DEFAULT_PERCENTILE_WINDOW);
+  }
+
+  public StatHealthReportProvider(int percentileWindow)
+  {
+    _percentileWindow = percentileWindow;
+  }
+
+  /*
+   * Shortest string that parses back to the same value, e.g. "5" instead of "5.0"
+   */
+  static String formatValue(double value)
+  {
+    if (value == Math.rint(value) && Math.abs(value) < 1e15)
+    {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  LocalStat getLocalStat(String statName)
+  {
+    LocalStat stat = _stats.get(statName);
+    if (stat == null)
+    {
+      stat = new LocalStat();
+      LocalStat existing = _stats.putIfAbsent(statName, stat);
+      if (existing != null)
+      {
+        stat = existing;
+      }
+    }
+    return stat;
   }
 
   @Override
@@ -69,8 +209,29 @@ public class StatHealthReportProvider extends HealthReportProvider
   public Map<String, Map<String, String>> getRecentPartitionHealthReport()
   {
     Map<String, Map<String, String>> result = new HashMap<String, Map<String, String>>();
-    for (String stat : _statsToValues.keySet())
+    for (String stat : _stats.keySet())
     {
+      LocalStat localStat = _stats.get(stat);
+      if (localStat == null)
+      {
+        continue;
+      }
+      String timestamp = localStat.getTimestamp();
+      double[] percentiles = localStat.getPercentiles();
+      if (percentiles != null)
+      {
+        for (int i = 0; i < PERCENTILES.length; i++)
+        {
+          Map<String, String> percentileStat = new HashMap<String, String>();
+          percentileStat.put(TIMESTAMP, timestamp);
+          percentileStat.put(STAT_VALUE, formatValue(percentiles[i]));
+          result.put(stat + PERCENTILE_SUFFIX + PERCENTILES[i], percentileStat);
+        }
+      }
+      if (!localStat.hasValue())
+      {
+        continue;
+      }
       Map<String, String> currStat = new HashMap<String, String>();
       /*
        * currStat.put(Stat.OP_TYPE, stat._opType);
@@ -82,8 +243,8 @@ public class StatHealthReportProvider extends HealthReportProvider
        * currStat.put(Stat.METRIC_NAME, stat._metricName);
        * currStat.put(Stat.AGG_TYPE, stat._aggTypeName);
        */
-      currStat.put(TIMESTAMP, _statsToTimestamps.get(stat));
-      currStat.put(STAT_VALUE, _statsToValues.get(stat));
+      currStat.put(TIMESTAMP, timestamp);
+      currStat.put(STAT_VALUE, localStat.getValueString());
       result.put(stat, currStat);
     }
     return result;
@@ -91,22 +252,24 @@ public class StatHealthReportProvider extends HealthReportProvider
 
   public boolean contains(Stat inStat)
   {
-    return _statsToValues.containsKey(inStat);
+    return _stats.containsKey(inStat);
   }
 
   public Set<String> keySet()
   {
-    return _statsToValues.keySet();
+    return _stats.keySet();
   }
 
   public String getStatValue(Stat inStat)
   {
-    return _statsToValues.get(inStat);
+    LocalStat stat = _stats.get(inStat);
+    return stat == null ? null : stat.getValueString();
   }
 
   public long getStatTimestamp(Stat inStat)
   {
-    return Long.parseLong(_statsToTimestamps.get(inStat));
+    LocalStat stat = _stats.get(inStat);
+    return Long.parseLong(stat == null ? null : stat.getTimestamp());
   }
 
   /*
@@ -120,8 +283,7 @@ public class StatHealthReportProvider extends HealthReportProvider
 
   public void writeStat(String statName, String val, String timestamp)
   {
-    _statsToValues.put(statName, val);
-    _statsToTimestamps.put(statName, timestamp);
+    getLocalStat(statName).write(val, timestamp);
   }
 
   /*
@@ -138,27 +300,35 @@ public class StatHealthReportProvider extends HealthReportProvider
   {
     // Stat rs = new Stat(opType, measurementType, resourceName, partitionName,
     // nodeName);
-    String val = _statsToValues.get(statName);
-    if (val == null)
-    {
-      val = "0";
-    }
-    else
-    {
-      val = String.valueOf(Double.parseDouble(val) + 1);
-    }
-    writeStat(statName, val, timestamp);
+    getLocalStat(statName).increment(timestamp);
+  }
+
+  /**
+   * Add delta to the stat, e.g. bytes or time spent, summed up locally until the next
+   * report
+   */
+  public void addToStat(String statName, double delta, String timestamp)
+  {
+    getLocalStat(statName).add(delta, timestamp);
+  }
+
+  /**
+   * Record a sample, e.g. a latency. The p50, p95 and p99 of the last samples are
+   * reported as stats statName_p50, statName_p95 and statName_p99
+   */
+  public void recordValue(String statName, double value, String timestamp)
+  {
+    getLocalStat(statName).record(value, timestamp, _percentileWindow);
   }
 
   public int size()
   {
-    return _statsToValues.size();
+    return _stats.size();
   }
 
   public void resetStats()
   {
-    _statsToValues.clear();
-    _statsToTimestamps.clear();
+    _stats.clear();
   }
 
   public void setReportName(String name)
@@ -42,6 +42,8 @@ import com.linkedin.helix.NotificationContext;
 import com.linkedin.helix.PropertyKey;
 import com.linkedin.helix.PropertyPathConfig;
 import com.linkedin.helix.ScopedConfigChangeListener;
+import com.linkedin.helix.SelectiveMessageReader;
+import com.linkedin.helix.SelectiveReadListener;
 import com.linkedin.helix.ZNRecord;
 import com.linkedin.helix.model.CurrentState;
 import com.linkedin.helix.model.ExternalView;
@@ -172,8 +174,7 @@ public class CallbackHandler implements IZkChildListener, IZkDataListener
         MessageListener messageListener = (MessageListener) _listener;
         subscribeForChanges(changeContext, _path, true, false);
         String instanceName = PropertyPathConfig.getInstanceNameFromPath(_path);
-        List<Message> messages =
-            _accessor.getChildValues(_propertyKey);
+        List<Message> messages = readMessages(messageListener);
 
         messageListener.onMessage(instanceName, messages, changeContext);
         break;
@@ -182,8 +183,7 @@ public class CallbackHandler implements IZkChildListener, IZkDataListener
       {
         MessageListener messageListener = (MessageListener) _listener;
         subscribeForChanges(changeContext, _path, true, false);
-        List<Message> messages =
-            _accessor.getChildValues(_propertyKey);
+        List<Message> messages = readMessages(messageListener);
 
         messageListener.onMessage(_manager.getInstanceName(), messages, changeContext);
         break;
@@ -193,8 +193,11 @@ public class CallbackHandler implements IZkChildListener, IZkDataListener
         ExternalViewChangeListener externalViewListener =
             (ExternalViewChangeListener) _listener;
         subscribeForChanges(changeContext, _path, true, true);
-        List<ExternalView> externalViewList =
-            _accessor.getChildValues(_propertyKey);
+        List<ExternalView> externalViewList = null;
+        if (prefetchChildren())
+        {
+          externalViewList = _accessor.getChildValues(_propertyKey);
+        }
 
         externalViewListener.onExternalViewChange(externalViewList, changeContext);
         break;
@@ -215,8 +218,13 @@ public class CallbackHandler implements IZkChildListener, IZkDataListener
         // settings here
         String instanceName = PropertyPathConfig.getInstanceNameFromPath(_path);
 
-        List<HealthStat> healthReportList =
-            _accessor.getChildValues(_propertyKey);
+        // e.g. the aggregation task only needs to know an instance has reported, it
+        // reads the changed reports when the aggregation runs
+        List<HealthStat> healthReportList = null;
+        if (prefetchChildren())
+        {
+          healthReportList = _accessor.getChildValues(_propertyKey);
+        }
 
         healthStateChangeListener.onHealthChange(instanceName,
                                                  healthReportList,
@@ -237,6 +245,22 @@ public class CallbackHandler implements IZkChildListener, IZkDataListener
     }
   }
 
+  private boolean prefetchChildren()
+  {
+    return !(_listener instanceof SelectiveReadListener)
+        || ((SelectiveReadListener) _listener).prefetchChildren(_changeType);
+  }
+
+  private List<Message> readMessages(MessageListener messageListener)
+  {
+    if (messageListener instanceof SelectiveMessageReader)
+    {
+      return ((SelectiveMessageReader) messageListener).readNewMessages(_accessor,
+                                                                        _propertyKey);
+    }
+    return _accessor.getChildValues(_propertyKey);
+  }
+
   private void subscribeChildChange(String path, NotificationContext context)
   {
 	  NotificationContext.Type type = context.getType();
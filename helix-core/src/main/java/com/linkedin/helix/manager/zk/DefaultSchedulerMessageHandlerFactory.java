@@ -21,6 +21,7 @@ import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -33,6 +34,9 @@ import com.linkedin.helix.NotificationContext;
 import com.linkedin.helix.PropertyKey.Builder;
 import com.linkedin.helix.ZNRecord;
 import com.linkedin.helix.messaging.AsyncCallback;
+import com.linkedin.helix.messaging.AsyncMessagingService;
+import com.linkedin.helix.messaging.MessageFanout;
+import com.linkedin.helix.messaging.ReplyFuture;
 import com.linkedin.helix.messaging.handling.HelixTaskResult;
 import com.linkedin.helix.messaging.handling.MessageHandler;
 import com.linkedin.helix.messaging.handling.MessageHandlerFactory;
@@ -42,21 +46,32 @@ import com.linkedin.helix.model.StatusUpdate;
 import com.linkedin.helix.util.StatusUpdateUtil;
 
 /*
- * TODO: The current implementation is temporary for backup handler testing only and it does not 
- * do any throttling. 
- * 
+ * Sends the message template of a scheduler message to the recipients of its criteria.
+ * Messages are written in batches of MAX_INFLIGHT, and at most
+ * MAX_MESSAGES_PER_INSTANCE_PER_SEC per instance per second if set. Rounds after the
+ * first are written on the fan-out scheduler, so a rate limited fan-out doesn't hold
+ * the handler thread of the scheduler message unless WAIT_ALL is set. Counts of messages total, sent,
+ * failed and acked are kept in the MessageProgress field of the scheduler task status.
  */
 public class DefaultSchedulerMessageHandlerFactory implements
     MessageHandlerFactory
 {
   public static final String WAIT_ALL = "WAIT_ALL";
   public static final String SCHEDULER_MSG_ID = "SchedulerMessageId";
+  public static final String MAX_INFLIGHT = "MAX_INFLIGHT";
+  public static final String MAX_MESSAGES_PER_INSTANCE_PER_SEC = "MAX_MESSAGES_PER_INSTANCE_PER_SEC";
+  public static final String MESSAGE_PROGRESS = "MessageProgress";
+  // min interval between progress updates, except the final ones
+  static final long PROGRESS_UPDATE_INTERVAL = 1000;
+
   public static class SchedulerAsyncCallback extends AsyncCallback
   {
     StatusUpdateUtil _statusUpdateUtil = new StatusUpdateUtil();
     Message _originalMessage;
     HelixManager _manager;
     final Map<String, Map<String, String>> _resultSummaryMap = new ConcurrentHashMap<String, Map<String, String>>();
+    final MessageFanout.Progress _progress = new MessageFanout.Progress();
+    final AtomicLong _lastProgressUpdateTime = new AtomicLong(0);
 
     public SchedulerAsyncCallback(Message originalMessage, HelixManager manager)
     {
@@ -73,6 +88,7 @@ public class DefaultSchedulerMessageHandlerFactory implements
       _statusUpdateUtil.logError(_originalMessage,
           SchedulerAsyncCallback.class, "Task timeout",
           _manager.getHelixDataAccessor());
+      updateProgress(true);
       addSummary(_resultSummaryMap, _originalMessage, _manager, true);
     }
 
@@ -85,6 +101,8 @@ public class DefaultSchedulerMessageHandlerFactory implements
       String key = "MessageResult " + message.getMsgSrc() + " "
           + UUID.randomUUID();
       _resultSummaryMap.put(key, message.getResultMap());
+      _progress.incrementAcked();
+      updateProgress(this.isDone());
 
       if (this.isDone())
       {
@@ -97,6 +115,38 @@ public class DefaultSchedulerMessageHandlerFactory implements
       }
     }
 
+    public MessageFanout.Progress getProgress()
+    {
+      return _progress;
+    }
+
+    /**
+     * Write message progress to the scheduler task status, at most once per
+     * PROGRESS_UPDATE_INTERVAL unless forced
+     */
+    void updateProgress(boolean force)
+    {
+      long now = System.currentTimeMillis();
+      long lastUpdateTime = _lastProgressUpdateTime.get();
+      if (force)
+      {
+        _lastProgressUpdateTime.set(now);
+      }
+      else if (now - lastUpdateTime < PROGRESS_UPDATE_INTERVAL
+          || !_lastProgressUpdateTime.compareAndSet(lastUpdateTime, now))
+      {
+        return;
+      }
+
+      HelixDataAccessor accessor = _manager.getHelixDataAccessor();
+      Builder keyBuilder = accessor.keyBuilder();
+      ZNRecord delta = new ZNRecord(_originalMessage.getMsgId());
+      delta.setMapField(MESSAGE_PROGRESS, _progress.toMap());
+      accessor.updateProperty(keyBuilder.controllerTaskStatus(
+          MessageType.SCHEDULER_MSG.toString(), _originalMessage.getMsgId()),
+          new StatusUpdate(delta));
+    }
+
     private void addSummary(Map<String, Map<String, String>> _resultSummaryMap,
         Message originalMessage, HelixManager manager, boolean timeOut)
     {
@@ -122,10 +172,23 @@ public class DefaultSchedulerMessageHandlerFactory implements
   private static Logger _logger = Logger
       .getLogger(DefaultSchedulerMessageHandlerFactory.class);
   HelixManager _manager;
+  AsyncMessagingService _messagingService;
 
   public DefaultSchedulerMessageHandlerFactory(HelixManager manager)
+  {
+    this(manager, null);
+  }
+
+  /**
+   * @param messagingService
+   *          sends through a batched, rate limited fan-out, if null messages are sent
+   *          with the messaging service of the manager
+   */
+  public DefaultSchedulerMessageHandlerFactory(HelixManager manager,
+      AsyncMessagingService messagingService)
   {
     _manager = manager;
+    _messagingService = messagingService;
   }
 
   @Override
@@ -140,7 +203,8 @@ public class DefaultSchedulerMessageHandlerFactory implements
           + message.getMsgId() + " type:" + message.getMsgType());
     }
 
-    return new DefaultSchedulerMessageHandler(message, context, _manager);
+    return new DefaultSchedulerMessageHandler(message, context, _manager,
+        _messagingService);
   }
 
   @Override
@@ -157,12 +221,21 @@ public class DefaultSchedulerMessageHandlerFactory implements
   public static class DefaultSchedulerMessageHandler extends MessageHandler
   {
     HelixManager _manager;
+    AsyncMessagingService _messagingService;
 
     public DefaultSchedulerMessageHandler(Message message,
         NotificationContext context, HelixManager manager)
+    {
+      this(message, context, manager, null);
+    }
+
+    public DefaultSchedulerMessageHandler(Message message,
+        NotificationContext context, HelixManager manager,
+        AsyncMessagingService messagingService)
     {
       super(message, context);
       _manager = manager;
+      _messagingService = messagingService;
     }
 
     @Override
@@ -226,8 +299,32 @@ public class DefaultSchedulerMessageHandlerFactory implements
       // Send all messages.
       
       int nMsgsSent = 0;
-      SchedulerAsyncCallback callback = new SchedulerAsyncCallback(_message, _manager);
-      if(waitAll)
+      final SchedulerAsyncCallback callback = new SchedulerAsyncCallback(_message, _manager);
+      if (_messagingService != null)
+      {
+        int maxInflight = getIntField(MAX_INFLIGHT, MessageFanout.DEFAULT_MAX_INFLIGHT);
+        int maxPerInstance = getIntField(MAX_MESSAGES_PER_INSTANCE_PER_SEC, 0);
+        MessageFanout fanout = new MessageFanout(maxInflight, maxPerInstance,
+            new MessageFanout.ProgressListener()
+            {
+              @Override
+              public void onProgress(MessageFanout.Progress progress)
+              {
+                // force the update after the last batch
+                int written = progress.getSent() + progress.getFailed();
+                callback.updateProgress(written == progress.getTotal());
+              }
+            });
+        ReplyFuture future = _messagingService.sendAsync(recipientCriteria,
+            messageTemplate, callback, timeOut, 0, fanout, callback.getProgress());
+        nMsgsSent = future.getMessageCount();
+        callback.updateProgress(true);
+        if (waitAll && nMsgsSent > 0)
+        {
+          future.get();
+        }
+      }
+      else if(waitAll)
       {
         nMsgsSent = _manager.getMessagingService().sendAndWait(recipientCriteria,
             messageTemplate, 
@@ -267,6 +364,23 @@ public class DefaultSchedulerMessageHandlerFactory implements
       return result;
     }
 
+    private int getIntField(String field, int defaultValue)
+    {
+      String value = _message.getRecord().getSimpleField(field);
+      if (value != null)
+      {
+        try
+        {
+          return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+          _logger.warn("Invalid " + field + ": " + value + ", use " + defaultValue);
+        }
+      }
+      return defaultValue;
+    }
+
     @Override
     public void onError(Exception e, ErrorCode code, ErrorType type)
     {
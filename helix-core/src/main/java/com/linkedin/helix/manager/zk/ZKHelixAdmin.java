@@ -64,7 +64,6 @@ import com.linkedin.helix.model.Message;
 import com.linkedin.helix.model.Message.MessageState;
 import com.linkedin.helix.model.Message.MessageType;
 import com.linkedin.helix.model.PauseSignal;
-import com.linkedin.helix.model.PersistentStats;
 import com.linkedin.helix.model.StateModelDefinition;
 import com.linkedin.helix.tools.IdealStateCalculatorForStorageNode;
 import com.linkedin.helix.util.HelixUtil;
@@ -808,32 +807,7 @@ public class ZKHelixAdmin implements HelixAdmin
     ZkBaseDataAccessor<ZNRecord> baseAccessor =
         new ZkBaseDataAccessor<ZNRecord>(_zkClient);
 
-    baseAccessor.update(persistentStatsPath, new DataUpdater<ZNRecord>()
-    {
-
-      @Override
-      public ZNRecord update(ZNRecord statsRec)
-      {
-        if (statsRec == null)
-        {
-          // TODO: fix naming of this record, if it matters
-          statsRec = new ZNRecord(PersistentStats.nodeName);
-        }
-
-        Map<String, Map<String, String>> currStatMap = statsRec.getMapFields();
-        Map<String, Map<String, String>> newStatMap = StatsHolder.parseStat(statName);
-        for (String newStat : newStatMap.keySet())
-        {
-          if (!currStatMap.containsKey(newStat))
-          {
-            currStatMap.put(newStat, newStatMap.get(newStat));
-          }
-        }
-        statsRec.setMapFields(currStatMap);
-
-        return statsRec;
-      }
-    }, AccessOption.PERSISTENT);
+    StatsHolder.addStats(baseAccessor, persistentStatsPath, statName);
   }
 
   @Override
@@ -917,33 +891,7 @@ public class ZKHelixAdmin implements HelixAdmin
     ZkBaseDataAccessor<ZNRecord> baseAccessor =
         new ZkBaseDataAccessor<ZNRecord>(_zkClient);
 
-    baseAccessor.update(persistentStatsPath, new DataUpdater<ZNRecord>()
-    {
-
-      @Override
-      public ZNRecord update(ZNRecord statsRec)
-      {
-        if (statsRec == null)
-        {
-          throw new HelixException("No stats record in ZK, nothing to drop");
-        }
-
-        Map<String, Map<String, String>> currStatMap = statsRec.getMapFields();
-        Map<String, Map<String, String>> newStatMap = StatsHolder.parseStat(statName);
-
-        // delete each stat from stat map
-        for (String newStat : newStatMap.keySet())
-        {
-          if (currStatMap.containsKey(newStat))
-          {
-            currStatMap.remove(newStat);
-          }
-        }
-        statsRec.setMapFields(currStatMap);
-
-        return statsRec;
-      }
-    }, AccessOption.PERSISTENT);
+    StatsHolder.dropStats(baseAccessor, persistentStatsPath, statName);
   }
 
   @Override
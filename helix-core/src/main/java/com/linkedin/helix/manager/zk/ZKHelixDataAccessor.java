@@ -96,6 +96,8 @@ public class ZKHelixDataAccessor implements HelixDataAccessor, ControllerChangeL
     {
     case IDEALSTATES:
     case EXTERNALVIEW:
+    case PERSISTENTSTATS:
+    case ALERT_STATUS:
       // check if bucketized
       if (value.getBucketSize() > 0)
       {
@@ -105,7 +107,12 @@ public class ZKHelixDataAccessor implements HelixDataAccessor, ControllerChangeL
         success = _baseDataAccessor.set(path, metaRecord, options);
         if (success)
         {
-          ZNRecordBucketizer bucketizer = new ZNRecordBucketizer(value.getBucketSize());
+          // stats and alert status are keyed by names without partition#, bucketize
+          // them by hash
+          ZNRecordBucketizer bucketizer =
+              (type == PropertyType.PERSISTENTSTATS || type == PropertyType.ALERT_STATUS)
+                  ? ZNRecordBucketizer.hashBucketizer(value.getBucketSize())
+                  : new ZNRecordBucketizer(value.getBucketSize());
 
           Map<String, ZNRecord> map = bucketizer.bucketize(value.getRecord());
           List<String> paths = new ArrayList<String>();
@@ -205,6 +212,8 @@ public class ZKHelixDataAccessor implements HelixDataAccessor, ControllerChangeL
       case CURRENTSTATES:
       case IDEALSTATES:
       case EXTERNALVIEW:
+      case PERSISTENTSTATS:
+      case ALERT_STATUS:
         // check if bucketized
         if (record != null)
         {
@@ -252,6 +261,7 @@ public class ZKHelixDataAccessor implements HelixDataAccessor, ControllerChangeL
       record = _baseDataAccessor.get(path, stat, options);
       if (record != null)
       {
+        record.setVersion(stat.getVersion());
         record.setCreationTime(stat.getCtime());
         record.setModifiedTime(stat.getMtime());
       }
@@ -266,6 +276,8 @@ public class ZKHelixDataAccessor implements HelixDataAccessor, ControllerChangeL
     case CURRENTSTATES:
     case IDEALSTATES:
     case EXTERNALVIEW:
+    case PERSISTENTSTATS:
+    case ALERT_STATUS:
       // check if bucketized
       if (record != null)
       {
@@ -285,6 +297,9 @@ public class ZKHelixDataAccessor implements HelixDataAccessor, ControllerChangeL
             record.getListFields().putAll(assembledRecord.getListFields());
             record.getMapFields().putAll(assembledRecord.getMapFields());
           }
+          // parent version doesn't change when only the buckets change
+          record.setVersion(0);
+          record.setModifiedTime(0);
         }
       }
       break;
@@ -329,11 +344,23 @@ public class ZKHelixDataAccessor implements HelixDataAccessor, ControllerChangeL
     int options = constructOptions(type);
     List<T> childValues = new ArrayList<T>();
 
-    List<ZNRecord> children = _baseDataAccessor.getChildren(parentPath, null, options);
+    List<Stat> stats = new ArrayList<Stat>();
+    List<ZNRecord> children = _baseDataAccessor.getChildren(parentPath, stats, options);
     if (children != null)
     {
-      for (ZNRecord record : children)
+      for (int i = 0; i < children.size(); i++)
       {
+        ZNRecord record = children.get(i);
+        if (record != null && i < stats.size() && stats.get(i) != null)
+        {
+          // version of a bucketized record is reset below, since it doesn't change
+          // when only the buckets change
+          Stat stat = stats.get(i);
+          record.setVersion(stat.getVersion());
+          record.setCreationTime(stat.getCtime());
+          record.setModifiedTime(stat.getMtime());
+        }
+
         switch (type)
         {
         case CURRENTSTATES:
@@ -359,6 +386,8 @@ public class ZKHelixDataAccessor implements HelixDataAccessor, ControllerChangeL
                 record.getListFields().putAll(assembledRecord.getListFields());
                 record.getMapFields().putAll(assembledRecord.getMapFields());
               }
+              record.setVersion(0);
+              record.setModifiedTime(0);
             }
           }
 
@@ -21,18 +21,23 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.I0Itec.zkclient.IZkDataListener;
 import org.I0Itec.zkclient.ZkConnection;
 import org.apache.log4j.Logger;
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.data.Stat;
 
 import com.linkedin.helix.BaseDataAccessor;
 import com.linkedin.helix.ClusterMessagingService;
@@ -423,6 +428,7 @@ public class ZKHelixManager implements HelixManager
      * transition
      */
     _messagingService.getExecutor().shutDown();
+    _messagingService.onDisconnected();
     resetHandlers();
 
     _helixAccessor.shutdown();
@@ -660,7 +666,11 @@ public class ZKHelixManager implements HelixManager
     _baseDataAccessor.reset();
 
     // reset all handlers so they have a chance to unsubscribe zk changes from zkclient
-    // and remove all handlers since we will create new ones
+    // and remove all handlers since we will create new ones.
+    // _sessionId must be set before this. Resetting the message handler sends FINALIZE,
+    // and the task executor resets state models under its session write lock.
+    // Transition completions that run after the reset must see the new session id, so
+    // they are skipped instead of updating the reset state models
     resetHandlers();
     // _handlers.clear();
     // abandon all callback-handlers added in expired session
@@ -698,7 +708,7 @@ public class ZKHelixManager implements HelixManager
                        .registerMessageHandlerFactory(defaultControllerMsgHandlerFactory.getMessageType(),
                                                       defaultControllerMsgHandlerFactory);
       MessageHandlerFactory defaultSchedulerMsgHandlerFactory =
-          new DefaultSchedulerMessageHandlerFactory(this);
+          new DefaultSchedulerMessageHandlerFactory(this, _messagingService);
       _messagingService.getExecutor()
                        .registerMessageHandlerFactory(defaultSchedulerMsgHandlerFactory.getMessageType(),
                                                       defaultSchedulerMsgHandlerFactory);
@@ -746,15 +756,9 @@ public class ZKHelixManager implements HelixManager
       // Wait for a while, in case previous storage node exits unexpectedly
       // and its liveinstance
       // still hangs around until session timeout happens
-      try
-      {
-        Thread.sleep(_sessionTimeout + 5000);
-      }
-      catch (InterruptedException e)
-      {
-        logger.warn("Sleep interrupted while waiting for previous liveinstance to go away.",
-                    e);
-      }
+      waitForLiveInstanceGone(_zkClient,
+                              keyBuilder.liveInstance(_instanceName).getPath(),
+                              _sessionTimeout + 5000);
 
       if (_helixAccessor.getProperty(keyBuilder.liveInstance(_instanceName)) != null)
       {
@@ -778,6 +782,10 @@ public class ZKHelixManager implements HelixManager
     _messagingService.registerMessageHandlerFactory(MessageType.STATE_TRANSITION.toString(),
                                                     _stateMachEngine);
     addMessageListener(_messagingService.getExecutor(), _instanceName);
+    // resize thread pools when their configs change. Only the cluster config is listened
+    // on here, the executor itself watches this participant's config and the configs of
+    // the resources it hosts
+    addConfigChangeListener(_messagingService.getExecutor(), ConfigScopeProperty.CLUSTER);
     addControllerListener(_helixAccessor);
 
     if (_participantHealthCheckInfoCollector == null)
@@ -928,13 +936,81 @@ public class ZKHelixManager implements HelixManager
     return true;
   }
 
+  /**
+   * Wait until a live instance left over by a previous session is removed. Returns as
+   * soon as zookeeper deletes the ephemeral node instead of always waiting for the full
+   * timeout
+   * 
+   * @return true if the live instance is gone
+   */
+  static boolean waitForLiveInstanceGone(ZkClient zkClient, String path, long timeout)
+  {
+    final CountDownLatch deleted = new CountDownLatch(1);
+    IZkDataListener listener = new IZkDataListener()
+    {
+      @Override
+      public void handleDataChange(String dataPath, Object data) throws Exception
+      {
+      }
+
+      @Override
+      public void handleDataDeleted(String dataPath) throws Exception
+      {
+        deleted.countDown();
+      }
+    };
+
+    zkClient.subscribeDataChanges(path, listener);
+    try
+    {
+      // check after subscribing, so a delete in between is not missed
+      if (!zkClient.exists(path))
+      {
+        return true;
+      }
+      if (!deleted.await(timeout, TimeUnit.MILLISECONDS))
+      {
+        logger.warn("Previous liveinstance " + path + " still exists after " + timeout
+            + "ms");
+      }
+    }
+    catch (InterruptedException e)
+    {
+      logger.warn("Interrupted while waiting for previous liveinstance to go away.", e);
+    }
+    finally
+    {
+      zkClient.unsubscribeDataChanges(path, listener);
+    }
+    return !zkClient.exists(path);
+  }
+
   private void carryOverPreviousCurrentState()
   {
     Builder keyBuilder = _helixAccessor.keyBuilder();
 
     List<String> subPaths =
         _helixAccessor.getChildNames(keyBuilder.sessions(_instanceName));
+    List<String> previousSessionIds = new ArrayList<String>();
     for (String previousSessionId : subPaths)
+    {
+      if (!previousSessionId.equalsIgnoreCase(_sessionId))
+      {
+        previousSessionIds.add(previousSessionId);
+      }
+    }
+    if (previousSessionIds.isEmpty())
+    {
+      return;
+    }
+
+    // read all state model defs once instead of once per resource
+    Map<String, StateModelDefinition> stateModelDefs =
+        _helixAccessor.getChildValuesMap(keyBuilder.stateModelDefs());
+
+    // resource -> carried over current state; a later session overwrites an earlier one
+    Map<String, CurrentState> newCurrentStates = new LinkedHashMap<String, CurrentState>();
+    for (String previousSessionId : previousSessionIds)
     {
       List<CurrentState> previousCurrentStates =
           _helixAccessor.getChildValues(keyBuilder.currentStates(_instanceName,
@@ -942,48 +1018,134 @@ public class ZKHelixManager implements HelixManager
 
       for (CurrentState previousCurrentState : previousCurrentStates)
       {
-        if (!previousSessionId.equalsIgnoreCase(_sessionId))
+        logger.info("Carrying over old session:" + previousSessionId + " resource "
+            + previousCurrentState.getId() + " to new session:" + _sessionId);
+        String stateModelDefRef = previousCurrentState.getStateModelDefRef();
+        if (stateModelDefRef == null)
         {
-          logger.info("Carrying over old session:" + previousSessionId + " resource "
-              + previousCurrentState.getId() + " to new session:" + _sessionId);
-          String stateModelDefRef = previousCurrentState.getStateModelDefRef();
-          if (stateModelDefRef == null)
-          {
-            logger.error("pervious current state doesn't have a state model def. skip it. prevCS: "
-                + previousCurrentState);
-            continue;
-          }
-          StateModelDefinition stateModel =
-              _helixAccessor.getProperty(keyBuilder.stateModelDef(stateModelDefRef));
-          for (String partitionName : previousCurrentState.getPartitionStateMap()
-                                                          .keySet())
-          {
+          logger.error("pervious current state doesn't have a state model def. skip it. prevCS: "
+              + previousCurrentState);
+          continue;
+        }
+        StateModelDefinition stateModel = stateModelDefs.get(stateModelDefRef);
+        if (stateModel == null)
+        {
+          logger.error("state model def " + stateModelDefRef
+              + " doesn't exist. skip it. prevCS: " + previousCurrentState);
+          continue;
+        }
+        for (String partitionName : previousCurrentState.getPartitionStateMap().keySet())
+        {
+          previousCurrentState.setState(partitionName, stateModel.getInitialState());
+        }
+        previousCurrentState.setSessionId(_sessionId);
+        newCurrentStates.put(previousCurrentState.getId(), previousCurrentState);
+      }
+    }
 
-            previousCurrentState.setState(partitionName, stateModel.getInitialState());
-          }
-          previousCurrentState.setSessionId(_sessionId);
-          _helixAccessor.setProperty(keyBuilder.currentState(_instanceName,
-                                                             _sessionId,
-                                                             previousCurrentState.getId()),
-                                     previousCurrentState);
+    // write all carried over current states in one async batch
+    if (newCurrentStates.size() > 0)
+    {
+      List<PropertyKey> keys = new ArrayList<PropertyKey>();
+      for (String resourceName : newCurrentStates.keySet())
+      {
+        keys.add(keyBuilder.currentState(_instanceName, _sessionId, resourceName));
+      }
+      boolean[] success =
+          _helixAccessor.setChildren(keys,
+                                     new ArrayList<CurrentState>(newCurrentStates.values()));
+      for (int i = 0; i < success.length; i++)
+      {
+        if (!success[i])
+        {
+          logger.error("Fail to carry over current state: " + keys.get(i));
         }
       }
     }
+
     // Deleted old current state
-    for (String previousSessionId : subPaths)
+    deletePreviousCurrentStates(previousSessionIds);
+  }
+
+  /**
+   * Delete current states of previous sessions. Falls back to deleteRecursive for a
+   * session that fails to be removed, e.g. because a child is created concurrently
+   */
+  private void deletePreviousCurrentStates(List<String> previousSessionIds)
+  {
+    Builder keyBuilder = _helixAccessor.keyBuilder();
+
+    List<String> sessionPaths = new ArrayList<String>();
+    for (String previousSessionId : previousSessionIds)
     {
-      if (!previousSessionId.equalsIgnoreCase(_sessionId))
+      String path = keyBuilder.currentStates(_instanceName, previousSessionId).getPath();
+      logger.info("Deleting previous current state. path: " + path + "/"
+          + previousSessionId);
+      sessionPaths.add(path);
+    }
+
+    boolean[] success = removeCurrentStates(_baseDataAccessor, sessionPaths);
+    for (int i = 0; i < sessionPaths.size(); i++)
+    {
+      if (!success[i] && _zkClient.exists(sessionPaths.get(i)))
       {
-        String path =
-            _helixAccessor.keyBuilder()
-                          .currentStates(_instanceName, previousSessionId)
-                          .getPath();
-        logger.info("Deleting previous current state. path: " + path + "/"
-            + previousSessionId);
-        _zkClient.deleteRecursive(path);
+        _zkClient.deleteRecursive(sessionPaths.get(i));
+      }
+    }
+  }
 
+  /**
+   * Remove session current state nodes level by level (buckets, resources, sessions),
+   * each level in one async batch
+   * 
+   * @return whether each session path is removed
+   */
+  static boolean[] removeCurrentStates(BaseDataAccessor<ZNRecord> baseAccessor,
+                                       List<String> sessionPaths)
+  {
+    // list resources of all sessions, then buckets of all resources
+    List<String> resourcePaths = new ArrayList<String>();
+    for (String sessionPath : sessionPaths)
+    {
+      List<String> resourceNames = baseAccessor.getChildNames(sessionPath, 0);
+      if (resourceNames != null)
+      {
+        for (String resourceName : resourceNames)
+        {
+          resourcePaths.add(sessionPath + "/" + resourceName);
+        }
       }
     }
+
+    List<String> bucketPaths = new ArrayList<String>();
+    Stat[] stats =
+        resourcePaths.isEmpty() ? new Stat[0] : baseAccessor.getStats(resourcePaths, 0);
+    for (int i = 0; i < resourcePaths.size(); i++)
+    {
+      // only bucketized current states have children
+      Stat stat = stats[i];
+      if (stat != null && stat.getNumChildren() > 0)
+      {
+        List<String> bucketNames = baseAccessor.getChildNames(resourcePaths.get(i), 0);
+        if (bucketNames != null)
+        {
+          for (String bucketName : bucketNames)
+          {
+            bucketPaths.add(resourcePaths.get(i) + "/" + bucketName);
+          }
+        }
+      }
+    }
+
+    if (bucketPaths.size() > 0)
+    {
+      baseAccessor.remove(bucketPaths, 0);
+    }
+    if (resourcePaths.size() > 0)
+    {
+      baseAccessor.remove(resourcePaths, 0);
+    }
+    return baseAccessor.remove(sessionPaths, 0);
   }
 
   @Deprecated
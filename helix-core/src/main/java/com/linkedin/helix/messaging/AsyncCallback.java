@@ -16,26 +16,69 @@
 package com.linkedin.helix.messaging;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 
 import com.linkedin.helix.model.Message;
 
+/**
+ * Callback of replies to messages sent. Replies are recorded and passed to
+ * {@link #onReplyMessage(Message)} under the callback's monitor, so the callback
+ * completes only after every accepted reply is processed. Calls to
+ * {@link #onReplyMessage(Message)} and {@link #onTimeOut()} of one callback don't
+ * overlap. Timeouts of all callbacks are fired by one shared thread.
+ */
 public abstract class AsyncCallback
 {
 
   private static Logger _logger = Logger.getLogger(AsyncCallback.class);
+
+  // cancelled timeout tasks stay queued until their delay passes, they are purged once
+  // every this many cancels (removing on cancel needs java 7)
+  static final int PURGE_INTERVAL = 1024;
+
+  static final ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER =
+      new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+      {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+          Thread thread = new Thread(r, "AsyncCallback-timeout");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
   long _startTimeStamp = 0;
   protected long _timeout = -1;
-  Timer _timer = null;
+  volatile ScheduledFuture<?> _timeoutFuture = null;
   List<Message> _messagesSent;
-  protected final List<Message> _messageReplied = new ArrayList<Message>();
-  boolean _timedOut = false;
-  boolean _isInterrupted = false;
+  protected final List<Message> _messageReplied =
+      Collections.synchronizedList(new ArrayList<Message>());
+  volatile boolean _timedOut = false;
+  volatile boolean _isInterrupted = false;
+
+  private static final AtomicInteger CANCEL_COUNT = new AtomicInteger(0);
+
+  // replies taken, at most one per message sent, duplicate or late replies are dropped
+  private final AtomicInteger _acceptedCount = new AtomicInteger(0);
+  // replies taken and processed by onReplyMessage
+  private final AtomicInteger _replyCount = new AtomicInteger(0);
+
+  // set once, when every message is replied or on timeout
+  private final AtomicBoolean _completed = new AtomicBoolean(false);
+  private volatile ReplyFuture _future = null;
+  // run once on completion
+  private final AtomicReference<Runnable> _completionHook = new AtomicReference<Runnable>();
 
   /**
    * Enforcing timeout to be set
@@ -75,28 +118,58 @@ public abstract class AsyncCallback
     _isInterrupted = true;
   }
 
-  public synchronized final void onReply(Message message)
+  public final void onReply(Message message)
   {
     _logger.info("OnReply msg " + message.getMsgId());
-    if (!isDone())
+    boolean done;
+    // record the reply and run onReplyMessage in one critical section, so the callback
+    // completes only after onReplyMessage of the last reply has returned
+    synchronized (this)
     {
-      _messageReplied.add(message);
-      try
+      if (!isDone() && acceptReply())
       {
-        onReplyMessage(message);
-      }
-      catch(Exception e) 
-      {
-        _logger.error(e);
+        _messageReplied.add(message);
+        _replyCount.incrementAndGet();
+        ReplyFuture future = _future;
+        if (future != null)
+        {
+          future.onReply(message);
+        }
+        try
+        {
+          onReplyMessage(message);
+        }
+        catch(Exception e) 
+        {
+          _logger.error(e);
+        }
       }
+      done = isDone();
+    }
+    if (done)
+    {
+      complete(false);
     }
-    if (isDone())
+  }
+
+  /**
+   * Take a reply unless every message sent already has one, so the reply count never
+   * passes the number of messages sent
+   */
+  private boolean acceptReply()
+  {
+    while (true)
     {
-      if(_timer != null)
+      int count = _acceptedCount.get();
+      if (count >= _messagesSent.size())
       {
-        _timer.cancel();
+        _logger.warn("Drop reply, all " + count + " messages are replied");
+        return false;
+      }
+      if (_acceptedCount.compareAndSet(count, count + 1))
+      {
+        return true;
       }
-      notifyAll();
     }
   }
 
@@ -107,7 +180,7 @@ public abstract class AsyncCallback
    */
   public boolean isDone()
   {
-    return _messageReplied.size() == _messagesSent.size();
+    return _replyCount.get() == _messagesSent.size();
   }
 
   public boolean isTimedOut()
@@ -119,27 +192,118 @@ public abstract class AsyncCallback
   {
     _messagesSent = generatedMessage;
   }
-  
+
+  final void setFuture(ReplyFuture future)
+  {
+    _future = future;
+  }
+
+  final ReplyFuture getFuture()
+  {
+    return _future;
+  }
+
+  /**
+   * Run a hook once the callback completes, whether all messages are replied, it timed
+   * out, or it is cancelled. Runs right away if the callback has already completed. The
+   * callback service sets it to unregister the callbacks it registers
+   */
+  public final void setCompletionHook(Runnable hook)
+  {
+    _completionHook.set(hook);
+    if (_completed.get())
+    {
+      runCompletionHook();
+    }
+  }
+
+  private void runCompletionHook()
+  {
+    Runnable hook = _completionHook.getAndSet(null);
+    if (hook != null)
+    {
+      try
+      {
+        hook.run();
+      }
+      catch (Exception e)
+      {
+        _logger.error(e);
+      }
+    }
+  }
+
   final void startTimer()
   {
-    if (_timer == null && _timeout > 0)
+    if (_timeoutFuture == null && _timeout > 0 && !_completed.get())
     {
       if (_startTimeStamp == 0)
       {
-        _startTimeStamp = new Date().getTime();
+        _startTimeStamp = System.currentTimeMillis();
       }
-      _timer = new Timer(true);
-      _timer.schedule(new TimeoutTask(this), _timeout);
-    }  
+      _timeoutFuture =
+          TIMEOUT_SCHEDULER.schedule(new TimeoutTask(this), _timeout, TimeUnit.MILLISECONDS);
+    }
   }
-  
+
+  /**
+   * Complete the callback once, either because it's done or timed out
+   * 
+   * @return false if the callback has already completed
+   */
+  final boolean complete(boolean timedOut)
+  {
+    if (!_completed.compareAndSet(false, true))
+    {
+      return false;
+    }
+
+    if (timedOut)
+    {
+      _timedOut = true;
+      synchronized (this)
+      {
+        try
+        {
+          onTimeOut();
+        }
+        catch (Exception e)
+        {
+          _logger.error(e);
+        }
+      }
+    }
+    else if (_timeoutFuture != null && _timeoutFuture.cancel(false))
+    {
+      if (CANCEL_COUNT.incrementAndGet() % PURGE_INTERVAL == 0)
+      {
+        TIMEOUT_SCHEDULER.purge();
+      }
+    }
+
+    runCompletionHook();
+
+    ReplyFuture future = _future;
+    if (future != null)
+    {
+      future.complete();
+    }
+
+    // for callers waiting on the callback object
+    synchronized (this)
+    {
+      notifyAll();
+    }
+    return true;
+  }
+
   public abstract void onTimeOut();
 
   public abstract void onReplyMessage(Message message);
 
-  class TimeoutTask extends TimerTask
+  static class TimeoutTask implements Runnable
   {
-    AsyncCallback _callback;
+    final AsyncCallback _callback;
 
     public TimeoutTask(AsyncCallback asyncCallback)
     {
@@ -151,12 +315,7 @@ public abstract class AsyncCallback
     {
       try
       {
-        synchronized (_callback)
-        {
-          _callback._timedOut = true;
-          _callback.notifyAll();
-          _callback.onTimeOut();
-        }
+        _callback.complete(true);
       } 
       catch (Exception e)
       {
@@ -165,4 +324,4 @@ public abstract class AsyncCallback
     }
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.messaging;
+
+import com.linkedin.helix.ClusterMessagingService;
+import com.linkedin.helix.Criteria;
+import com.linkedin.helix.model.Message;
+
+/**
+ * Messaging service that can also send without blocking for replies. Kept apart from
+ * {@link ClusterMessagingService} so existing implementations of it are not affected.
+ */
+public interface AsyncMessagingService extends ClusterMessagingService
+{
+  /**
+   * This will send the message to all instances matching the criteria and return
+   * without waiting for replies.<br>
+   * The returned future completes when every message sent gets a reply, or when the
+   * timeout fires. Replies can also be taken one by one as they arrive.
+   *
+   * @param recipientCriteria
+   * @param message
+   * @param timeOut
+   * @return
+   */
+  ReplyFuture sendAsync(Criteria recipientCriteria, Message message, int timeOut);
+
+  /**
+   * Same as {@link #sendAsync(Criteria, Message, int)}, AsyncCallback.onReply is
+   * invoked for each reply and AsyncCallback.isDone decides when the future
+   * completes.
+   *
+   * @param recipientCriteria
+   * @param message
+   * @param callbackOnReply
+   * @param timeOut
+   * @param retryCount
+   * @return
+   */
+  ReplyFuture sendAsync(Criteria recipientCriteria, Message message,
+      AsyncCallback callbackOnReply, int timeOut, int retryCount);
+
+  /**
+   * Same as {@link #sendAsync(Criteria, Message, AsyncCallback, int, int)}, messages
+   * are written through the given fan-out, e.g. one with a per instance rate limit.
+   * Returns without waiting for a rate limited fan-out to finish
+   *
+   * @param fanout
+   * @param progress
+   *          counts of messages total, sent, failed to send, and acked
+   * @return
+   */
+  ReplyFuture sendAsync(Criteria recipientCriteria, Message message,
+      AsyncCallback callbackOnReply, int timeOut, int retryCount, MessageFanout fanout,
+      MessageFanout.Progress progress);
+}
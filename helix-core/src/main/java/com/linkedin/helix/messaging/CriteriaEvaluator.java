@@ -16,22 +16,231 @@
 package com.linkedin.helix.messaging;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
+import org.apache.zookeeper.data.Stat;
 
-import com.linkedin.helix.HelixManager;
 import com.linkedin.helix.Criteria;
+import com.linkedin.helix.Criteria.DataSource;
+import com.linkedin.helix.HelixDataAccessor;
+import com.linkedin.helix.HelixManager;
+import com.linkedin.helix.HelixProperty;
+import com.linkedin.helix.PropertyKey;
+import com.linkedin.helix.PropertyKey.Builder;
+import com.linkedin.helix.ZNRecord;
 import com.linkedin.helix.josql.ClusterJosqlQueryProcessor;
 import com.linkedin.helix.josql.ZNRecordRow;
 
+/**
+ * Select the recipients of a message. Criteria fields are LIKE patterns as in JoSQL,
+ * where % matches any characters and _ matches one character, an empty field matches
+ * everything and is left empty in the result.
+ * <p>
+ * Criteria are evaluated on per resource indices of the external views (or ideal
+ * states) built from the map fields, and cached until the record version changes. Each
+ * evaluation only lists the resources and live instances and reads the stats of the
+ * resources, records are read only when they change. Criteria with a quote in a field
+ * are customized JoSQL conditions and are evaluated by JoSQL.
+ */
 public class CriteriaEvaluator
 {
   private static Logger logger = Logger.getLogger(CriteriaEvaluator.class);
-  
+
+  // data source -> resource -> index
+  private final Map<DataSource, Map<String, ResourceIndex>> _indexCache;
+
+  public CriteriaEvaluator()
+  {
+    _indexCache = new ConcurrentHashMap<DataSource, Map<String, ResourceIndex>>();
+    for (DataSource dataSource : DataSource.values())
+    {
+      _indexCache.put(dataSource, new ConcurrentHashMap<String, ResourceIndex>());
+    }
+  }
+
   public List<Map<String, String>> evaluateCriteria(Criteria recipientCriteria, HelixManager manager)
+  {
+    if (isJosqlQuery(recipientCriteria))
+    {
+      return evaluateCriteriaByJosql(recipientCriteria, manager);
+    }
+
+    HelixDataAccessor accessor = manager.getHelixDataAccessor();
+    Builder keyBuilder = accessor.keyBuilder();
+    Matcher resourceMatcher = Matcher.compile(recipientCriteria.getResource());
+    Matcher partitionMatcher = Matcher.compile(recipientCriteria.getPartition());
+    Matcher instanceMatcher = Matcher.compile(recipientCriteria.getInstanceName());
+    Matcher stateMatcher = Matcher.compile(recipientCriteria.getPartitionState());
+
+    // live instance znodes are named by instance name, their content is not needed
+    List<String> liveInstances = accessor.getChildNames(keyBuilder.liveInstances());
+    Set<String> liveInstanceNames =
+        liveInstances == null ? Collections.<String> emptySet()
+            : new HashSet<String>(liveInstances);
+
+    List<ResourceIndex> indices =
+        getIndices(recipientCriteria.getDataSource(), resourceMatcher, accessor);
+
+    boolean selectInstance = !recipientCriteria.getInstanceName().equals("");
+    boolean selectResource = !recipientCriteria.getResource().equals("");
+    boolean selectPartition = !recipientCriteria.getPartition().equals("");
+    boolean selectState = !recipientCriteria.getPartitionState().equals("");
+
+    // distinct rows of selected fields
+    Set<List<String>> rows = new LinkedHashSet<List<String>>();
+    for (ResourceIndex index : indices)
+    {
+      if (!resourceMatcher.matches(index.resourceName))
+      {
+        continue;
+      }
+
+      for (Replica replica : index.select(partitionMatcher, instanceMatcher, stateMatcher))
+      {
+        if (!liveInstanceNames.contains(replica.instanceName)
+            || !partitionMatcher.matches(replica.partitionName)
+            || !instanceMatcher.matches(replica.instanceName)
+            || !stateMatcher.matches(replica.state))
+        {
+          continue;
+        }
+        rows.add(Arrays.asList(selectInstance ? replica.instanceName : "",
+                               selectResource ? index.resourceName : "",
+                               selectPartition ? replica.partitionName : "",
+                               selectState ? replica.state : ""));
+      }
+    }
+
+    List<Map<String, String>> selected = new ArrayList<Map<String, String>>(rows.size());
+    for (List<String> row : rows)
+    {
+      selected.add(toResultRow(row));
+    }
+    if (logger.isDebugEnabled())
+    {
+      logger.debug("Criteria " + recipientCriteria + " select " + selected.size()
+          + " rows from " + indices.size() + " resources");
+    }
+    return selected;
+  }
+
+  /**
+   * Get indices of resources that may match. A resource given by name is checked alone,
+   * otherwise all resources of the data source are listed. Only the stats are read, a
+   * record is read and re-indexed only if its version changes
+   */
+  private List<ResourceIndex> getIndices(DataSource dataSource,
+                                         Matcher resourceMatcher,
+                                         HelixDataAccessor accessor)
+  {
+    Builder keyBuilder = accessor.keyBuilder();
+    Map<String, ResourceIndex> cache = _indexCache.get(dataSource);
+    List<String> resourceNames;
+    if (resourceMatcher.isLiteral())
+    {
+      resourceNames = Collections.singletonList(resourceMatcher.pattern);
+    }
+    else
+    {
+      PropertyKey parentKey =
+          dataSource == DataSource.IDEALSTATES ? keyBuilder.idealStates()
+              : keyBuilder.externalViews();
+      resourceNames = accessor.getChildNames(parentKey);
+      if (resourceNames == null)
+      {
+        resourceNames = Collections.emptyList();
+      }
+      cache.keySet().retainAll(resourceNames);
+    }
+
+    List<PropertyKey> keys = new ArrayList<PropertyKey>(resourceNames.size());
+    List<String> paths = new ArrayList<String>(resourceNames.size());
+    for (String resourceName : resourceNames)
+    {
+      PropertyKey key =
+          dataSource == DataSource.IDEALSTATES ? keyBuilder.idealStates(resourceName)
+              : keyBuilder.externalView(resourceName);
+      keys.add(key);
+      paths.add(key.getPath());
+    }
+    Stat[] stats = accessor.getBaseDataAccessor().getStats(paths, 0);
+
+    List<ResourceIndex> indices = new ArrayList<ResourceIndex>(resourceNames.size());
+    List<PropertyKey> changedKeys = new ArrayList<PropertyKey>();
+    List<Stat> changedStats = new ArrayList<Stat>();
+    for (int i = 0; i < resourceNames.size(); i++)
+    {
+      Stat stat = stats == null ? null : stats[i];
+      if (stat == null)
+      {
+        cache.remove(resourceNames.get(i));
+        continue;
+      }
+      ResourceIndex index = cache.get(resourceNames.get(i));
+      if (index != null && index.isSameVersion(stat))
+      {
+        indices.add(index);
+      }
+      else
+      {
+        changedKeys.add(keys.get(i));
+        changedStats.add(stat);
+      }
+    }
+
+    if (changedKeys.size() > 0)
+    {
+      List<HelixProperty> properties = accessor.getProperty(changedKeys);
+      for (int i = 0; i < changedKeys.size(); i++)
+      {
+        HelixProperty property = properties.get(i);
+        if (property == null)
+        {
+          continue;
+        }
+        // a record newer than the stat is indexed with the older version, and re-read
+        // next time
+        ResourceIndex index = new ResourceIndex(property, changedStats.get(i));
+        cache.put(index.resourceName, index);
+        indices.add(index);
+      }
+    }
+    return indices;
+  }
+
+  private static Map<String, String> toResultRow(List<String> row)
+  {
+    Map<String, String> resultRow = new HashMap<String, String>();
+    resultRow.put("instanceName", row.get(0));
+    resultRow.put("resourceName", row.get(1));
+    resultRow.put("partitionName", row.get(2));
+    resultRow.put("partitionState", row.get(3));
+    return resultRow;
+  }
+
+  /**
+   * A quote in a criteria field ends the LIKE pattern in the JoSQL query, the rest of
+   * the field is part of the query
+   */
+  private static boolean isJosqlQuery(Criteria criteria)
+  {
+    return criteria.getInstanceName().indexOf('\'') >= 0
+        || criteria.getResource().indexOf('\'') >= 0
+        || criteria.getPartition().indexOf('\'') >= 0
+        || criteria.getPartitionState().indexOf('\'') >= 0;
+  }
+
+  List<Map<String, String>> evaluateCriteriaByJosql(Criteria recipientCriteria, HelixManager manager)
   {
     List<Map<String, String>> selected = new ArrayList<Map<String, String>>();
     
@@ -80,4 +289,187 @@ public class CriteriaEvaluator
     logger.info("JOSQL query return " + selected.size() + " rows");
     return selected;
   }
-}
\ No newline at end of file
+
+  /**
+   * LIKE pattern of a criteria field, % matches any characters and _ matches one
+   * character. Other characters, * included, only match themselves
+   */
+  static class Matcher
+  {
+    final String  pattern;
+    // set if the pattern has wildcards other than %
+    final Pattern regex;
+    final boolean isAny;
+    final boolean isLiteral;
+
+    private Matcher(String pattern, Pattern regex, boolean isAny, boolean isLiteral)
+    {
+      this.pattern = pattern;
+      this.regex = regex;
+      this.isAny = isAny;
+      this.isLiteral = isLiteral;
+    }
+
+    static Matcher compile(String pattern)
+    {
+      if (pattern == null || pattern.equals("") || pattern.matches("%+"))
+      {
+        return new Matcher(pattern, null, true, false);
+      }
+      if (pattern.indexOf('%') < 0 && pattern.indexOf('_') < 0)
+      {
+        return new Matcher(pattern, null, false, true);
+      }
+
+      StringBuilder sb = new StringBuilder();
+      int start = 0;
+      for (int i = 0; i < pattern.length(); i++)
+      {
+        char c = pattern.charAt(i);
+        if (c == '%' || c == '_')
+        {
+          if (i > start)
+          {
+            sb.append(Pattern.quote(pattern.substring(start, i)));
+          }
+          sb.append(c == '%' ? ".*" : ".");
+          start = i + 1;
+        }
+      }
+      if (start < pattern.length())
+      {
+        sb.append(Pattern.quote(pattern.substring(start)));
+      }
+      return new Matcher(pattern, Pattern.compile(sb.toString(), Pattern.DOTALL), false, false);
+    }
+
+    boolean isLiteral()
+    {
+      return isLiteral;
+    }
+
+    boolean matches(String value)
+    {
+      if (isAny)
+      {
+        return true;
+      }
+      if (isLiteral)
+      {
+        return pattern.equals(value);
+      }
+      return regex.matcher(value).matches();
+    }
+  }
+
+  static class Replica
+  {
+    final String partitionName;
+    final String instanceName;
+    final String state;
+
+    Replica(String partitionName, String instanceName, String state)
+    {
+      this.partitionName = partitionName;
+      this.instanceName = instanceName;
+      this.state = state;
+    }
+  }
+
+  /**
+   * Replicas in the map fields of an external view or ideal state, indexed by
+   * partition, instance, and state
+   */
+  static class ResourceIndex
+  {
+    final String                       resourceName;
+    final int                          version;
+    final long                         modifiedTime;
+    final List<Replica>                replicas;
+    final Map<String, List<Replica>>   partitionIndex;
+    final Map<String, List<Replica>>   instanceIndex;
+    final Map<String, List<Replica>>   stateIndex;
+
+    ResourceIndex(HelixProperty property, Stat stat)
+    {
+      ZNRecord record = property.getRecord();
+      resourceName = record.getId();
+      // the stat of a bucketized record doesn't change with its buckets
+      boolean bucketized = property.getBucketSize() > 0;
+      version = bucketized ? 0 : stat.getVersion();
+      modifiedTime = bucketized ? 0 : stat.getMtime();
+      replicas = new ArrayList<Replica>();
+      partitionIndex = new HashMap<String, List<Replica>>();
+      instanceIndex = new HashMap<String, List<Replica>>();
+      stateIndex = new HashMap<String, List<Replica>>();
+
+      Map<String, Map<String, String>> mapFields = record.getMapFields();
+      for (String partitionName : mapFields.keySet())
+      {
+        Map<String, String> stateMap = mapFields.get(partitionName);
+        if (stateMap == null)
+        {
+          continue;
+        }
+        for (Map.Entry<String, String> entry : stateMap.entrySet())
+        {
+          Replica replica = new Replica(partitionName, entry.getKey(), entry.getValue());
+          replicas.add(replica);
+          addToIndex(partitionIndex, replica.partitionName, replica);
+          addToIndex(instanceIndex, replica.instanceName, replica);
+          addToIndex(stateIndex, replica.state, replica);
+        }
+      }
+    }
+
+    private static void addToIndex(Map<String, List<Replica>> index,
+                                   String key,
+                                   Replica replica)
+    {
+      List<Replica> list = index.get(key);
+      if (list == null)
+      {
+        list = new ArrayList<Replica>();
+        index.put(key, list);
+      }
+      list.add(replica);
+    }
+
+    /**
+     * @return replicas that may match, from the index of a literal pattern if any
+     */
+    List<Replica> select(Matcher partitionMatcher, Matcher instanceMatcher, Matcher stateMatcher)
+    {
+      if (partitionMatcher.isLiteral())
+      {
+        return lookup(partitionIndex, partitionMatcher.pattern);
+      }
+      if (instanceMatcher.isLiteral())
+      {
+        return lookup(instanceIndex, instanceMatcher.pattern);
+      }
+      if (stateMatcher.isLiteral())
+      {
+        return lookup(stateIndex, stateMatcher.pattern);
+      }
+      return replicas;
+    }
+
+    private static List<Replica> lookup(Map<String, List<Replica>> index, String key)
+    {
+      List<Replica> list = index.get(key);
+      if (list == null)
+      {
+        return Collections.emptyList();
+      }
+      return list;
+    }
+
+    // records without a zookeeper version, e.g. bucketized ones, are always re-indexed
+    boolean isSameVersion(Stat stat)
+    {
+      return modifiedTime > 0 && version == stat.getVersion()
+          && modifiedTime == stat.getMtime();
+    }
+  }
+}
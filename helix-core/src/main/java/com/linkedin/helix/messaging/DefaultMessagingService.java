@@ -24,14 +24,11 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
-import com.linkedin.helix.ClusterMessagingService;
-import com.linkedin.helix.ConfigAccessor;
-import com.linkedin.helix.ConfigScope;
-import com.linkedin.helix.ConfigScopeBuilder;
 import com.linkedin.helix.Criteria;
 import com.linkedin.helix.HelixDataAccessor;
 import com.linkedin.helix.HelixManager;
 import com.linkedin.helix.InstanceType;
+import com.linkedin.helix.PropertyKey;
 import com.linkedin.helix.PropertyKey.Builder;
 import com.linkedin.helix.messaging.handling.AsyncCallbackService;
 import com.linkedin.helix.messaging.handling.HelixTaskExecutor;
@@ -40,7 +37,7 @@ import com.linkedin.helix.model.LiveInstance;
 import com.linkedin.helix.model.Message;
 import com.linkedin.helix.model.Message.MessageType;
 
-public class DefaultMessagingService implements ClusterMessagingService
+public class DefaultMessagingService implements AsyncMessagingService
 {
   private final HelixManager         _manager;
   private final CriteriaEvaluator    _evaluator;
@@ -57,7 +54,7 @@ public class DefaultMessagingService implements ClusterMessagingService
     _manager = manager;
     _evaluator = new CriteriaEvaluator();
     _taskExecutor = new HelixTaskExecutor();
-    _asyncCallbackService = new AsyncCallbackService();
+    _asyncCallbackService = new AsyncCallbackService(manager);
     _taskExecutor.registerMessageHandlerFactory(MessageType.TASK_REPLY.toString(),
                                                 _asyncCallbackService);
   }
@@ -83,6 +80,32 @@ public class DefaultMessagingService implements ClusterMessagingService
                   AsyncCallback callbackOnReply,
                   int timeOut,
                   int retryCount)
+  {
+    return send(recipientCriteria,
+                message,
+                callbackOnReply,
+                timeOut,
+                retryCount,
+                new MessageFanout(),
+                new MessageFanout.Progress());
+  }
+
+  /**
+   * Send messages through a fan-out, e.g. one with a per instance rate limit. Returns
+   * once the fan-out has written its first round, messages it fails to write are
+   * dropped from the callback when it is over
+   * 
+   * @param progress
+   *          counts of messages total, sent, and failed to send
+   * @return number of messages to send
+   */
+  public int send(final Criteria recipientCriteria,
+                  final Message message,
+                  AsyncCallback callbackOnReply,
+                  int timeOut,
+                  int retryCount,
+                  MessageFanout fanout,
+                  MessageFanout.Progress progress)
   {
     Map<InstanceType, List<Message>> generateMessage =
         generateMessage(recipientCriteria, message);
@@ -97,6 +120,27 @@ public class DefaultMessagingService implements ClusterMessagingService
     {
       return 0;
     }
+
+    HelixDataAccessor accessor = _manager.getHelixDataAccessor();
+    Builder keyBuilder = accessor.keyBuilder();
+    List<PropertyKey> keys = new ArrayList<PropertyKey>(totalMessageCount);
+    List<Message> messages = new ArrayList<Message>(totalMessageCount);
+    for (InstanceType receiverType : generateMessage.keySet())
+    {
+      for (Message tempMessage : generateMessage.get(receiverType))
+      {
+        if (receiverType == InstanceType.CONTROLLER)
+        {
+          keys.add(keyBuilder.controllerMessage(tempMessage.getId()));
+        }
+        else
+        {
+          keys.add(keyBuilder.message(tempMessage.getTgtName(), tempMessage.getId()));
+        }
+        messages.add(tempMessage);
+      }
+    }
+
     String correlationId = null;
     if (callbackOnReply != null)
     {
@@ -107,47 +151,28 @@ public class DefaultMessagingService implements ClusterMessagingService
       }
       callbackOnReply.setTimeout(totalTimeout);
       correlationId = UUID.randomUUID().toString();
-      for (List<Message> messages : generateMessage.values())
-      {
-        callbackOnReply.setMessagesSent(messages);
-      }
+      callbackOnReply.setMessagesSent(messages);
       _asyncCallbackService.registerAsyncCallback(correlationId, callbackOnReply);
     }
 
-    for (InstanceType receiverType : generateMessage.keySet())
+    for (Message tempMessage : messages)
     {
-      List<Message> list = generateMessage.get(receiverType);
-      for (Message tempMessage : list)
+      tempMessage.setRetryCount(retryCount);
+      tempMessage.setExecutionTimeout(timeOut);
+      tempMessage.setSrcInstanceType(_manager.getInstanceType());
+      if (correlationId != null)
       {
-        tempMessage.setRetryCount(retryCount);
-        tempMessage.setExecutionTimeout(timeOut);
-        tempMessage.setSrcInstanceType(_manager.getInstanceType());
-        if (correlationId != null)
-        {
-          tempMessage.setCorrelationId(correlationId);
-        }
-
-        HelixDataAccessor accessor = _manager.getHelixDataAccessor();
-        Builder keyBuilder = accessor.keyBuilder();
-
-        if (receiverType == InstanceType.CONTROLLER)
-        {
-          // _manager.getDataAccessor().setProperty(PropertyType.MESSAGES_CONTROLLER,
-          // tempMessage,
-          // tempMessage.getId());
-          accessor.setProperty(keyBuilder.controllerMessage(tempMessage.getId()),
-                               tempMessage);
-        }
-
-        if (receiverType == InstanceType.PARTICIPANT)
-        {
-          accessor.setProperty(keyBuilder.message(tempMessage.getTgtName(),
-                                                  tempMessage.getId()),
-                               tempMessage);
-        }
+        tempMessage.setCorrelationId(correlationId);
       }
     }
 
+    if (callbackOnReply != null && callbackOnReply.getFuture() != null)
+    {
+      callbackOnReply.getFuture().setMessageCount(totalMessageCount);
+    }
+    fanout.send(accessor, keys, messages, progress, new FanoutCompletion(callbackOnReply,
+                                                                         messages.size()));
+
     if (callbackOnReply != null)
     {
       // start timer if timeout is set
@@ -156,6 +181,53 @@ public class DefaultMessagingService implements ClusterMessagingService
     return totalMessageCount;
   }
 
+  /**
+   * Stop waiting for replies to messages the fan-out failed to write
+   */
+  static class FanoutCompletion implements MessageFanout.CompletionListener
+  {
+    final AsyncCallback _callback;
+    final int           _messageCount;
+
+    FanoutCompletion(AsyncCallback callback, int messageCount)
+    {
+      _callback = callback;
+      _messageCount = messageCount;
+    }
+
+    @Override
+    public void onComplete(List<Message> sentMessages)
+    {
+      if (sentMessages.size() == _messageCount)
+      {
+        return;
+      }
+      _logger.warn("Only " + sentMessages.size() + " out of " + _messageCount
+          + " messages are sent");
+      if (_callback == null)
+      {
+        return;
+      }
+
+      boolean done;
+      // under the callback monitor, so no reply is checked against a stale count
+      synchronized (_callback)
+      {
+        _callback.setMessagesSent(sentMessages);
+        done = _callback.isDone();
+      }
+      ReplyFuture future = _callback.getFuture();
+      if (future != null)
+      {
+        future.setMessageCount(sentMessages.size());
+      }
+      if (done)
+      {
+        _callback.complete(false);
+      }
+    }
+  }
+
   private Map<InstanceType, List<Message>> generateMessage(final Criteria recipientCriteria,
                                                            final Message message)
   {
@@ -254,50 +326,22 @@ public class DefaultMessagingService implements ClusterMessagingService
     _messageHandlerFactoriestobeAdded.clear();
   }
   
+  public void onDisconnected()
+  {
+    _asyncCallbackService.reset();
+  }
+
   void registerMessageHandlerFactoryInternal(String type, MessageHandlerFactory factory)
   {
     _logger.info("registering msg factory for type " + type);
-    int threadpoolSize = HelixTaskExecutor.DEFAULT_PARALLEL_TASKS;
-    String threadpoolSizeStr = null;
-    String key = type + "." + HelixTaskExecutor.MAX_THREADS;
-    
-    ConfigAccessor configAccessor = _manager.getConfigAccessor();
-    if(configAccessor != null)
+    // Read the participant config and cluster config for the per-message type thread pool size.
+    // participant config will override the cluster config.
+    int threadpoolSize = HelixTaskExecutor.getMsgTypeThreadpoolSize(type, _manager);
+    if (threadpoolSize <= 0)
     {
-      ConfigScope scope = null;
-      
-      // Read the participant config and cluster config for the per-message type thread pool size.
-      // participant config will override the cluster config.
-      
-      if(_manager.getInstanceType() == InstanceType.PARTICIPANT || _manager.getInstanceType() == InstanceType.CONTROLLER_PARTICIPANT)
-      { 
-        scope = new ConfigScopeBuilder().forCluster(_manager.getClusterName()).forParticipant(_manager.getInstanceName()).build();
-        threadpoolSizeStr = configAccessor.get(scope, key);
-      }
-      
-      if(threadpoolSizeStr == null)
-      {
-        scope = new ConfigScopeBuilder().forCluster(_manager.getClusterName()).build();
-        threadpoolSizeStr = configAccessor.get(scope, key);
-      }
-    }
-    
-    if(threadpoolSizeStr != null)
-    {
-      try
-      {
-        threadpoolSize = Integer.parseInt(threadpoolSizeStr);
-        if(threadpoolSize <= 0)
-        {
-          threadpoolSize = 1;
-        }
-      }
-      catch(Exception e)
-      {
-        _logger.error("", e);
-      }
+      threadpoolSize = HelixTaskExecutor.DEFAULT_PARALLEL_TASKS;
     }
-    
+
     _taskExecutor.registerMessageHandlerFactory(type, factory, threadpoolSize);
     // Self-send a no-op message, so that the onMessage() call will be invoked
     // again, and
@@ -346,6 +390,55 @@ public class DefaultMessagingService implements ClusterMessagingService
     return _taskExecutor;
   }
 
+  @Override
+  public ReplyFuture sendAsync(Criteria recipientCriteria, Message message, int timeOut)
+  {
+    return sendAsync(recipientCriteria, message, new ReplyCollector(), timeOut, 0);
+  }
+
+  @Override
+  public ReplyFuture sendAsync(Criteria recipientCriteria,
+                               Message message,
+                               AsyncCallback callbackOnReply,
+                               int timeOut,
+                               int retryCount)
+  {
+    return sendAsync(recipientCriteria,
+                     message,
+                     callbackOnReply,
+                     timeOut,
+                     retryCount,
+                     new MessageFanout(),
+                     new MessageFanout.Progress());
+  }
+
+  @Override
+  public ReplyFuture sendAsync(Criteria recipientCriteria,
+                               Message message,
+                               AsyncCallback callbackOnReply,
+                               int timeOut,
+                               int retryCount,
+                               MessageFanout fanout,
+                               MessageFanout.Progress progress)
+  {
+    // attach the future before sending, so no reply is missed
+    ReplyFuture future = new ReplyFuture(callbackOnReply);
+    callbackOnReply.setFuture(future);
+    int messageCount =
+        send(recipientCriteria,
+             message,
+             callbackOnReply,
+             timeOut,
+             retryCount,
+             fanout,
+             progress);
+    if (messageCount == 0)
+    {
+      callbackOnReply.complete(false);
+    }
+    return future;
+  }
+
   @Override
   public int sendAndWait(Criteria receipientCriteria,
                          Message message,
@@ -353,25 +446,19 @@ public class DefaultMessagingService implements ClusterMessagingService
                          int timeOut,
                          int retryCount)
   {
-    int messagesSent =
-        send(receipientCriteria, message, asyncCallback, timeOut, retryCount);
+    ReplyFuture future =
+        sendAsync(receipientCriteria, message, asyncCallback, timeOut, retryCount);
+    int messagesSent = future.getMessageCount();
     if (messagesSent > 0)
     {
-      while (!asyncCallback.isDone() && !asyncCallback.isTimedOut())
+      try
       {
-        synchronized (asyncCallback)
-        {
-          try
-          {
-            asyncCallback.wait();
-          }
-          catch (InterruptedException e)
-          {
-            _logger.error(e);
-            asyncCallback.setInterrupted(true);
-            break;
-          }
-        }
+        future.get();
+      }
+      catch (InterruptedException e)
+      {
+        _logger.error(e);
+        asyncCallback.setInterrupted(true);
       }
     }
     else
@@ -389,4 +476,20 @@ public class DefaultMessagingService implements ClusterMessagingService
   {
     return sendAndWait(recipientCriteria, message, asyncCallback, timeOut, 0);
   }
+
+  /**
+   * Callback of {@link #sendAsync(Criteria, Message, int)}, replies are only collected
+   */
+  static class ReplyCollector extends AsyncCallback
+  {
+    @Override
+    public void onTimeOut()
+    {
+    }
+
+    @Override
+    public void onReplyMessage(Message message)
+    {
+    }
+  }
 }
@@ -0,0 +1,405 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.messaging;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.linkedin.helix.HelixDataAccessor;
+import com.linkedin.helix.PropertyKey;
+import com.linkedin.helix.model.Message;
+
+/**
+ * Write messages to their recipients. Messages are written with batched async sets,
+ * at most maxInflight at a time, instead of one synchronous write per recipient. If a
+ * per instance rate is set, at most that many messages are written to an instance per
+ * second, and the rest are written in the following seconds.
+ * <p>
+ * The first round is written on the calling thread, the following rounds are
+ * scheduled on an executor one second apart, so a rate limited send doesn't block the
+ * caller. Without a rate limit every message is written before send returns. The
+ * completion listener is invoked once every message is written or has failed.
+ * <p>
+ * Invalid messages are not written and are counted as failed.
+ */
+public class MessageFanout
+{
+  private static Logger          LOG                  = Logger.getLogger(MessageFanout.class);
+
+  public static final int        DEFAULT_MAX_INFLIGHT = 1000;
+
+  // shared by fan-outs without their own executor, rounds only write and are short
+  static final ScheduledThreadPoolExecutor ROUND_SCHEDULER =
+      new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+      {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+          Thread thread = new Thread(r, "MessageFanout-round");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final int                      _maxInflight;
+  private final int                      _maxMessagesPerInstancePerSec;
+  private final ProgressListener         _listener;
+  private final ScheduledExecutorService _scheduler;
+
+  public interface ProgressListener
+  {
+    /**
+     * Invoked after each batch of messages is written
+     */
+    void onProgress(Progress progress);
+  }
+
+  public interface CompletionListener
+  {
+    /**
+     * Invoked once, after the last batch is written
+     * 
+     * @param sentMessages
+     *          messages written successfully, in the order given
+     */
+    void onComplete(List<Message> sentMessages);
+  }
+
+  /**
+   * Counts of messages in a fan-out. Acked is counted by the reply callback
+   */
+  public static class Progress
+  {
+    final AtomicInteger _total  = new AtomicInteger(0);
+    final AtomicInteger _sent   = new AtomicInteger(0);
+    final AtomicInteger _failed = new AtomicInteger(0);
+    final AtomicInteger _acked  = new AtomicInteger(0);
+
+    public int getTotal()
+    {
+      return _total.get();
+    }
+
+    public int getSent()
+    {
+      return _sent.get();
+    }
+
+    public int getFailed()
+    {
+      return _failed.get();
+    }
+
+    public int getAcked()
+    {
+      return _acked.get();
+    }
+
+    public int incrementAcked()
+    {
+      return _acked.incrementAndGet();
+    }
+
+    public Map<String, String> toMap()
+    {
+      Map<String, String> map = new TreeMap<String, String>();
+      map.put("Total", "" + getTotal());
+      map.put("Sent", "" + getSent());
+      map.put("Failed", "" + getFailed());
+      map.put("Acked", "" + getAcked());
+      return map;
+    }
+
+    @Override
+    public String toString()
+    {
+      return toMap().toString();
+    }
+  }
+
+  public MessageFanout()
+  {
+    this(DEFAULT_MAX_INFLIGHT, 0, null);
+  }
+
+  /**
+   * @param maxInflight
+   *          max number of messages written in one batch
+   * @param maxMessagesPerInstancePerSec
+   *          max number of messages written to one instance per second, no limit if
+   *          not positive
+   * @param listener
+   *          notified after each batch, may be null
+   */
+  public MessageFanout(int maxInflight,
+                       int maxMessagesPerInstancePerSec,
+                       ProgressListener listener)
+  {
+    this(maxInflight, maxMessagesPerInstancePerSec, listener, ROUND_SCHEDULER);
+  }
+
+  /**
+   * @param scheduler
+   *          runs the rounds after the first one
+   */
+  public MessageFanout(int maxInflight,
+                       int maxMessagesPerInstancePerSec,
+                       ProgressListener listener,
+                       ScheduledExecutorService scheduler)
+  {
+    _maxInflight = maxInflight > 0 ? maxInflight : DEFAULT_MAX_INFLIGHT;
+    _maxMessagesPerInstancePerSec = maxMessagesPerInstancePerSec;
+    _listener = listener;
+    _scheduler = scheduler;
+  }
+
+  /**
+   * Write messages to the given keys. Returns after the first round, the rest are
+   * written on the scheduler. If a round can't be scheduled, the messages not written
+   * yet are counted as failed
+   * 
+   * @param completionListener
+   *          notified with the messages written once the fan-out is over, may be null
+   */
+  public void send(HelixDataAccessor accessor,
+                   List<PropertyKey> keys,
+                   List<Message> messages,
+                   Progress progress,
+                   CompletionListener completionListener)
+  {
+    progress._total.addAndGet(messages.size());
+
+    // group by recipient, keeping the order of messages to each recipient.
+    // setChildren doesn't validate messages, so drop invalid ones here
+    Map<String, LinkedList<Integer>> instanceQueues =
+        new LinkedHashMap<String, LinkedList<Integer>>();
+    int invalid = 0;
+    for (int i = 0; i < messages.size(); i++)
+    {
+      if (!messages.get(i).isValid())
+      {
+        LOG.error("Invalid message, not written: " + messages.get(i).getId());
+        invalid++;
+        continue;
+      }
+      String tgtName = messages.get(i).getTgtName();
+      LinkedList<Integer> queue = instanceQueues.get(tgtName);
+      if (queue == null)
+      {
+        queue = new LinkedList<Integer>();
+        instanceQueues.put(tgtName, queue);
+      }
+      queue.add(i);
+    }
+    progress._failed.addAndGet(invalid);
+
+    new RoundTask(accessor,
+                  keys,
+                  messages,
+                  instanceQueues,
+                  messages.size() - invalid,
+                  progress,
+                  completionListener).run();
+  }
+
+  /**
+   * Writes one round and schedules the next. Rounds of a fan-out run one after another,
+   * so the task state is never accessed concurrently
+   */
+  class RoundTask implements Runnable
+  {
+    final HelixDataAccessor                _accessor;
+    final List<PropertyKey>                _keys;
+    final List<Message>                    _messages;
+    final Map<String, LinkedList<Integer>> _instanceQueues;
+    final Progress                         _progress;
+    final CompletionListener               _completionListener;
+    final boolean[]                        _success;
+    int                                    _remaining;
+
+    RoundTask(HelixDataAccessor accessor,
+              List<PropertyKey> keys,
+              List<Message> messages,
+              Map<String, LinkedList<Integer>> instanceQueues,
+              int remaining,
+              Progress progress,
+              CompletionListener completionListener)
+    {
+      _accessor = accessor;
+      _keys = keys;
+      _messages = messages;
+      _instanceQueues = instanceQueues;
+      _remaining = remaining;
+      _progress = progress;
+      _completionListener = completionListener;
+      _success = new boolean[messages.size()];
+    }
+
+    @Override
+    public void run()
+    {
+      long roundStartTime = System.currentTimeMillis();
+      try
+      {
+        // take up to the rate limit from each recipient
+        List<Integer> round = new ArrayList<Integer>();
+        for (LinkedList<Integer> queue : _instanceQueues.values())
+        {
+          int count = 0;
+          while (!queue.isEmpty()
+              && (_maxMessagesPerInstancePerSec <= 0 || count < _maxMessagesPerInstancePerSec))
+          {
+            round.add(queue.removeFirst());
+            count++;
+          }
+        }
+        _remaining -= round.size();
+
+        for (int start = 0; start < round.size(); start += _maxInflight)
+        {
+          int end = Math.min(round.size(), start + _maxInflight);
+          List<Integer> batch = round.subList(start, end);
+          write(_accessor, _keys, _messages, batch, _success, _progress);
+        }
+      }
+      catch (Exception e)
+      {
+        LOG.error("Fail to write messages, " + _remaining + " messages are not written",
+                  e);
+        abort();
+        return;
+      }
+
+      if (_remaining > 0)
+      {
+        long delay = Math.max(0, roundStartTime + 1000 - System.currentTimeMillis());
+        try
+        {
+          _scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+          LOG.warn("Fan-out scheduler is shut down, " + _remaining
+              + " messages are not written");
+          abort();
+        }
+        return;
+      }
+      complete();
+    }
+
+    private void abort()
+    {
+      _progress._failed.addAndGet(_remaining);
+      _remaining = 0;
+      complete();
+    }
+
+    private void complete()
+    {
+      if (_completionListener == null)
+      {
+        return;
+      }
+
+      List<Message> sentMessages = new ArrayList<Message>();
+      for (int i = 0; i < _messages.size(); i++)
+      {
+        if (_success[i])
+        {
+          sentMessages.add(_messages.get(i));
+        }
+      }
+      try
+      {
+        _completionListener.onComplete(sentMessages);
+      }
+      catch (Exception e)
+      {
+        LOG.error("Exception in fan-out completion listener", e);
+      }
+    }
+  }
+
+  private void write(HelixDataAccessor accessor,
+                     List<PropertyKey> keys,
+                     List<Message> messages,
+                     List<Integer> batch,
+                     boolean[] success,
+                     Progress progress)
+  {
+    List<PropertyKey> batchKeys = new ArrayList<PropertyKey>(batch.size());
+    List<Message> batchMessages = new ArrayList<Message>(batch.size());
+    for (int index : batch)
+    {
+      batchKeys.add(keys.get(index));
+      batchMessages.add(messages.get(index));
+    }
+
+    boolean[] results = null;
+    try
+    {
+      results = accessor.setChildren(batchKeys, batchMessages);
+    }
+    catch (Exception e)
+    {
+      LOG.error("Fail to write " + batch.size() + " messages", e);
+    }
+
+    int failed = 0;
+    for (int i = 0; i < batch.size(); i++)
+    {
+      if (results != null && results[i])
+      {
+        success[batch.get(i)] = true;
+        progress._sent.incrementAndGet();
+      }
+      else
+      {
+        failed++;
+        progress._failed.incrementAndGet();
+      }
+    }
+    if (failed > 0)
+    {
+      LOG.error("Fail to write " + failed + " out of " + batch.size() + " messages");
+    }
+
+    if (_listener != null)
+    {
+      try
+      {
+        _listener.onProgress(progress);
+      }
+      catch (Exception e)
+      {
+        LOG.error("Exception in fan-out progress listener", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+import com.linkedin.helix.model.Message;
+
+/**
+ * Handle of messages sent with a reply callback. It completes when the callback is done
+ * (by default when every message is replied) or times out. Replies can also be taken
+ * one by one as they arrive, and listeners can be run on completion, so the sender
+ * doesn't need to block a thread per request.
+ */
+public class ReplyFuture implements Future<List<Message>>
+{
+  private static Logger                 _logger = Logger.getLogger(ReplyFuture.class);
+
+  // marks the end of the reply stream
+  private static final Message          END_OF_REPLIES = new Message("EndOfReplies", "");
+
+  private final AsyncCallback           _callback;
+  private final CountDownLatch          _completion;
+  private final BlockingQueue<Message>  _replies;
+  private final List<ListenerEntry>     _listeners;
+  private volatile int                  _messageCount;
+  private boolean                       _cancelled;
+
+  ReplyFuture(AsyncCallback callback)
+  {
+    _callback = callback;
+    _completion = new CountDownLatch(1);
+    _replies = new LinkedBlockingQueue<Message>();
+    _listeners = new ArrayList<ListenerEntry>();
+    _messageCount = 0;
+    _cancelled = false;
+  }
+
+  public AsyncCallback getCallback()
+  {
+    return _callback;
+  }
+
+  /**
+   * @return number of messages sent, lowered to the number written successfully once
+   *         the fan-out is over
+   */
+  public int getMessageCount()
+  {
+    return _messageCount;
+  }
+
+  void setMessageCount(int messageCount)
+  {
+    _messageCount = messageCount;
+  }
+
+  public boolean isTimedOut()
+  {
+    return _callback.isTimedOut();
+  }
+
+  /**
+   * @return replies received so far
+   */
+  public List<Message> getReplies()
+  {
+    return new ArrayList<Message>(_callback.getMessageReplied());
+  }
+
+  /**
+   * Take the next reply in arrival order
+   * 
+   * @return null if no reply arrives within the timeout, or the future is complete and
+   *         all replies have been taken
+   */
+  public Message pollReply(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    Message reply = _replies.poll(timeout, unit);
+    if (reply == END_OF_REPLIES)
+    {
+      // leave the marker for other readers
+      _replies.offer(END_OF_REPLIES);
+      return null;
+    }
+    return reply;
+  }
+
+  /**
+   * Run a listener when the future completes, or right away if it is already complete
+   */
+  public void addListener(Runnable listener, Executor executor)
+  {
+    synchronized (this)
+    {
+      if (_completion.getCount() > 0)
+      {
+        _listeners.add(new ListenerEntry(listener, executor));
+        return;
+      }
+    }
+    execute(new ListenerEntry(listener, executor));
+  }
+
+  void onReply(Message message)
+  {
+    _replies.offer(message);
+  }
+
+  void complete()
+  {
+    List<ListenerEntry> listeners;
+    synchronized (this)
+    {
+      if (_completion.getCount() == 0)
+      {
+        return;
+      }
+      _replies.offer(END_OF_REPLIES);
+      _completion.countDown();
+      listeners = new ArrayList<ListenerEntry>(_listeners);
+      _listeners.clear();
+    }
+
+    for (ListenerEntry entry : listeners)
+    {
+      execute(entry);
+    }
+  }
+
+  private void execute(ListenerEntry entry)
+  {
+    try
+    {
+      entry.executor.execute(entry.listener);
+    }
+    catch (Exception e)
+    {
+      _logger.error("Fail to run listener of reply future", e);
+    }
+  }
+
+  /**
+   * Stop waiting for replies. Messages already sent are not withdrawn, and the
+   * callback is marked as interrupted
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning)
+  {
+    synchronized (this)
+    {
+      if (_completion.getCount() == 0)
+      {
+        return false;
+      }
+      _cancelled = true;
+    }
+    _callback.setInterrupted(true);
+    _callback.complete(false);
+    // the callback may have completed before this future was attached
+    complete();
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled()
+  {
+    return _cancelled;
+  }
+
+  @Override
+  public boolean isDone()
+  {
+    return _completion.getCount() == 0;
+  }
+
+  /**
+   * Wait until every message is replied, or the callback times out
+   * 
+   * @return replies received
+   */
+  @Override
+  public List<Message> get() throws InterruptedException
+  {
+    _completion.await();
+    return getResult();
+  }
+
+  @Override
+  public List<Message> get(long timeout, TimeUnit unit) throws InterruptedException,
+      TimeoutException
+  {
+    if (!_completion.await(timeout, unit))
+    {
+      throw new TimeoutException("Replies not complete in " + unit.toMillis(timeout)
+          + " ms, received: " + _callback.getMessageReplied().size() + " of "
+          + _messageCount);
+    }
+    return getResult();
+  }
+
+  private List<Message> getResult()
+  {
+    if (isCancelled())
+    {
+      throw new CancellationException();
+    }
+    return getReplies();
+  }
+
+  static class ListenerEntry
+  {
+    final Runnable listener;
+    final Executor executor;
+
+    ListenerEntry(Runnable listener, Executor executor)
+    {
+      this.listener = listener;
+      this.executor = executor;
+    }
+  }
+}
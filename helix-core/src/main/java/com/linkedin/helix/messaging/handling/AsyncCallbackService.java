@@ -20,6 +20,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.apache.log4j.Logger;
 
 import com.linkedin.helix.HelixException;
+import com.linkedin.helix.HelixManager;
 import com.linkedin.helix.NotificationContext;
 import com.linkedin.helix.messaging.AsyncCallback;
 import com.linkedin.helix.model.Message;
@@ -27,14 +28,28 @@ import com.linkedin.helix.model.Message.MessageType;
 
 public class AsyncCallbackService implements MessageHandlerFactory
 {
+  // correlation id -> service of the callback, for all services in this JVM
+  private static final ConcurrentHashMap<String, AsyncCallbackService> LOCAL_SERVICES =
+      new ConcurrentHashMap<String, AsyncCallbackService>();
+
   private final ConcurrentHashMap<String, AsyncCallback> _callbackMap = new ConcurrentHashMap<String, AsyncCallback>();
   private static Logger _logger = Logger.getLogger(AsyncCallbackService.class);
 
+  // manager the callbacks are registered by, null if unknown
+  private final HelixManager _manager;
+
   public AsyncCallbackService()
   {
+    this(null);
+  }
+
+  public AsyncCallbackService(HelixManager manager)
+  {
+    _manager = manager;
   }
 
-  public void registerAsyncCallback(String correlationId, AsyncCallback callback)
+  public void registerAsyncCallback(final String correlationId,
+                                    final AsyncCallback callback)
   {
     if (_callbackMap.containsKey(correlationId))
     {
@@ -42,6 +57,73 @@ public class AsyncCallbackService implements MessageHandlerFactory
     }
     _logger.info("registering correlation id " + correlationId);
     _callbackMap.put(correlationId, callback);
+    LOCAL_SERVICES.put(correlationId, this);
+    callback.setCompletionHook(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        unregister(correlationId, callback);
+      }
+    });
+  }
+
+  private void unregister(String correlationId, AsyncCallback callback)
+  {
+    _logger.info("Removing finished callback, correlationid:" + correlationId);
+    if (_callbackMap.remove(correlationId, callback))
+    {
+      LOCAL_SERVICES.remove(correlationId, this);
+    }
+  }
+
+  /**
+   * @return true if the manager of the service is connected, or the manager is unknown
+   */
+  boolean isConnected()
+  {
+    return _manager == null || _manager.isConnected();
+  }
+
+  /**
+   * Deliver a reply to its callback if the callback is registered in this JVM, e.g.
+   * the controller replies to a message sent by its own participant, so the reply
+   * doesn't go through zookeeper. Replies to a manager that is not connected go
+   * through zookeeper
+   * 
+   * @return false if the callback is not registered in this JVM, or its manager is not
+   *         connected
+   */
+  public static boolean deliverLocally(Message replyMessage)
+  {
+    String correlationId = replyMessage.getCorrelationId();
+    if (correlationId == null)
+    {
+      return false;
+    }
+    AsyncCallbackService service = LOCAL_SERVICES.get(correlationId);
+    if (service == null || !service.isConnected())
+    {
+      return false;
+    }
+    _logger.info("Deliver reply message " + replyMessage.getMsgId()
+        + " in process, correlationid:" + correlationId);
+    return service.onReply(correlationId, replyMessage);
+  }
+
+  /**
+   * @return false if there is no callback for the correlation id
+   */
+  boolean onReply(String correlationId, Message replyMessage)
+  {
+    AsyncCallback callback = _callbackMap.get(correlationId);
+    if (callback == null)
+    {
+      return false;
+    }
+    // the callback unregisters itself once it completes
+    callback.onReply(replyMessage);
+    return true;
   }
 
   void verifyMessage(Message message)
@@ -91,10 +173,17 @@ public class AsyncCallbackService implements MessageHandlerFactory
     return MessageType.TASK_REPLY.toString();
   }
 
+  /**
+   * Stop delivering replies to the pending callbacks in process, e.g. on disconnect or
+   * session expiry. Their replies go through zookeeper
+   */
   @Override
   public void reset()
   {
-
+    for (String correlationId : _callbackMap.keySet())
+    {
+      LOCAL_SERVICES.remove(correlationId, this);
+    }
   }
 
   public class AsyncCallbackMessageHandler extends MessageHandler
@@ -116,17 +205,7 @@ public class AsyncCallbackService implements MessageHandlerFactory
       _logger.info("invoking reply message " + _message.getMsgId()
           + ", correlationid:" + _correlationId);
 
-      AsyncCallback callback = _callbackMap.get(_correlationId);
-      synchronized (callback)
-      {
-        callback.onReply(_message);
-        if (callback.isDone())
-        {
-          _logger.info("Removing finished callback, correlationid:"
-              + _correlationId);
-          _callbackMap.remove(_correlationId);
-        }
-      }
+      onReply(_correlationId, _message);
       result.setSuccess(true);
       return result;
     }
@@ -0,0 +1,417 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.messaging.handling;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.log4j.Logger;
+
+import com.linkedin.helix.HelixDataAccessor;
+import com.linkedin.helix.HelixException;
+import com.linkedin.helix.HelixManager;
+import com.linkedin.helix.NotificationContext;
+import com.linkedin.helix.PropertyKey;
+import com.linkedin.helix.PropertyKey.Builder;
+import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.ZNRecordBucketizer;
+import com.linkedin.helix.ZNRecordDelta;
+import com.linkedin.helix.ZNRecordDelta.MergeOperation;
+import com.linkedin.helix.model.CurrentState;
+import com.linkedin.helix.model.CurrentState.CurrentStateProperty;
+import com.linkedin.helix.model.Message;
+import com.linkedin.helix.participant.statemachine.StateModel;
+import com.linkedin.helix.participant.statemachine.StateModelFactory;
+import com.linkedin.helix.participant.statemachine.StateTransitionError;
+import com.linkedin.helix.util.StatusUpdateUtil;
+
+/**
+ * Handles all partitions of a group message with one invocation of the batch
+ * transition method declared on the state model factory. The result of each
+ * partition is written back to the current state of the resource in one update
+ * per current state bucket.
+ */
+public class HelixBatchStateTransitionHandler extends MessageHandler
+{
+  private static Logger                                 logger     =
+                                                                       Logger.getLogger(HelixBatchStateTransitionHandler.class);
+
+  private final StateModelFactory<? extends StateModel> _stateModelFactory;
+  private final Method                                  _batchMethod;
+  // partitionName -> stateModel, in the order of the group message
+  private final Map<String, StateModel>                 _stateModels;
+  private final String                                  _initState;
+  private final HelixTaskExecutor                       _executor;
+  StatusUpdateUtil                                      _statusUpdateUtil;
+  volatile boolean                                      _isTimeout = false;
+
+  public HelixBatchStateTransitionHandler(StateModelFactory<? extends StateModel> stateModelFactory,
+                                          Method batchMethod,
+                                          Map<String, StateModel> stateModels,
+                                          Message message,
+                                          NotificationContext context,
+                                          String initState,
+                                          HelixTaskExecutor executor)
+  {
+    super(message, context);
+    _stateModelFactory = stateModelFactory;
+    _batchMethod = batchMethod;
+    _stateModels = stateModels;
+    _initState = initState;
+    _executor = executor;
+    _statusUpdateUtil = new StatusUpdateUtil();
+  }
+
+  @Override
+  public HelixTaskResult handleMessage() throws InterruptedException
+  {
+    // Hold the monitor of every state model in the batch, like the per-partition
+    // handler does. Lock in partition name order so overlapping batches can't deadlock
+    List<StateModel> stateModels =
+        new ArrayList<StateModel>(new TreeMap<String, StateModel>(_stateModels).values());
+    return handleMessageLocked(stateModels, 0);
+  }
+
+  private HelixTaskResult handleMessageLocked(List<StateModel> stateModels, int index)
+      throws InterruptedException
+  {
+    if (index == stateModels.size())
+    {
+      return handleMessageInternal();
+    }
+
+    synchronized (stateModels.get(index))
+    {
+      return handleMessageLocked(stateModels, index + 1);
+    }
+  }
+
+  private HelixTaskResult handleMessageInternal() throws InterruptedException
+  {
+    HelixTaskResult taskResult = new HelixTaskResult();
+    HelixManager manager = _notificationContext.getManager();
+    HelixDataAccessor accessor = manager.getHelixDataAccessor();
+
+    _statusUpdateUtil.logInfo(_message,
+                              HelixBatchStateTransitionHandler.class,
+                              "Batch message handling task begin execute",
+                              accessor);
+    _message.setExecuteStartTimeStamp(new Date().getTime());
+
+    if (!_message.isValid())
+    {
+      String errorMessage =
+          "Invalid Message, ensure that message: " + _message
+              + " has all the required fields: "
+              + Arrays.toString(Message.Attributes.values());
+      _statusUpdateUtil.logError(_message,
+                                 HelixBatchStateTransitionHandler.class,
+                                 errorMessage,
+                                 accessor);
+      logger.error(errorMessage);
+      throw new HelixException(errorMessage);
+    }
+
+    // partitionName -> state to be written to current state
+    Map<String, String> partitionStates = new LinkedHashMap<String, String>();
+    List<Message> subMessages = new ArrayList<Message>();
+    String fromState = _message.getFromState();
+    for (String partitionName : _stateModels.keySet())
+    {
+      String state = getCurrentState(partitionName);
+      if (fromState != null && !fromState.equals("*") && !fromState.equalsIgnoreCase(state))
+      {
+        // if fromState mismatch, set current state on zk to stateModel's current state
+        String errorMessage =
+            "Current state of stateModel does not match the fromState in Message"
+                + ", Current State:" + state + ", message expected:" + fromState
+                + ", partition: " + partitionName + ", from: " + _message.getMsgSrc()
+                + ", to: " + _message.getTgtName();
+        _statusUpdateUtil.logError(_message,
+                                   HelixBatchStateTransitionHandler.class,
+                                   errorMessage,
+                                   accessor);
+        logger.error(errorMessage);
+        partitionStates.put(partitionName, state);
+        continue;
+      }
+
+      Message subMessage = new Message(_message.getRecord());
+      subMessage.setPartitionName(partitionName);
+      subMessages.add(subMessage);
+    }
+
+    Map<String, Boolean> results = null;
+    Exception exception = null;
+    try
+    {
+      results = invoke(subMessages, accessor);
+    }
+    catch (Exception e)
+    {
+      if (e instanceof InvocationTargetException && e.getCause() instanceof Exception)
+      {
+        e = (Exception) e.getCause();
+      }
+      String errorMessage =
+          "Exception while executing a batch state transition task for "
+              + subMessages.size() + " partitions of " + _message.getResourceName();
+      logger.error(errorMessage, e);
+      _statusUpdateUtil.logError(_message,
+                                 HelixBatchStateTransitionHandler.class,
+                                 e,
+                                 errorMessage,
+                                 accessor);
+      taskResult.setMessage(e.toString());
+      taskResult.setException(e);
+      taskResult.setInterrupted(e instanceof InterruptedException);
+      exception = e;
+
+      if (e instanceof InterruptedException && !_isTimeout)
+      {
+        // State transition interrupted but not caused by timeout. Keep the current
+        // state in this case
+        logger.error("Batch state transition interrupted but not timeout. Not updating state. MsgId : "
+            + _message.getMsgId());
+        taskResult.setSuccess(false);
+        return taskResult;
+      }
+    }
+
+    String toState = _message.getToState();
+    boolean allSucceeded = partitionStates.isEmpty();
+    for (Message subMessage : subMessages)
+    {
+      String partitionName = subMessage.getPartitionName();
+      boolean succeeded =
+          exception == null
+              && (results == null || !Boolean.FALSE.equals(results.get(partitionName)));
+      String state = succeeded ? toState : "ERROR";
+      partitionStates.put(partitionName, state);
+      taskResult.getTaskResultMap().put(partitionName, state);
+      allSucceeded &= succeeded;
+    }
+    taskResult.setSuccess(allSucceeded);
+
+    postExecutionMessage(manager, partitionStates, exception);
+    return taskResult;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Boolean> invoke(List<Message> subMessages,
+                                      HelixDataAccessor accessor) throws IllegalAccessException,
+      InvocationTargetException
+  {
+    if (subMessages.isEmpty())
+    {
+      return null;
+    }
+
+    _statusUpdateUtil.logInfo(_message,
+                              HelixBatchStateTransitionHandler.class,
+                              "Batch message handling invoking for " + subMessages.size()
+                                  + " partitions",
+                              accessor);
+    Object ret =
+        _batchMethod.invoke(_stateModelFactory, new Object[] { subMessages,
+            _notificationContext });
+    if (ret instanceof Map)
+    {
+      return (Map<String, Boolean>) ret;
+    }
+    return null;
+  }
+
+  private String getCurrentState(String partitionName)
+  {
+    String state = _stateModels.get(partitionName).getCurrentState();
+    return state == null ? _initState : state;
+  }
+
+  void postExecutionMessage(HelixManager manager,
+                            Map<String, String> partitionStates,
+                            Exception exception)
+  {
+    HelixDataAccessor accessor = manager.getHelixDataAccessor();
+    Builder keyBuilder = accessor.keyBuilder();
+    String instanceName = manager.getInstanceName();
+    String resourceName = _message.getResourceName();
+    String sessionId = _message.getTgtSessionId();
+    ZNRecordBucketizer bucketizer = new ZNRecordBucketizer(_message.getBucketSize());
+
+    Map<String, ZNRecord> addRecords = new HashMap<String, ZNRecord>();
+    Map<String, ZNRecord> dropRecords = new HashMap<String, ZNRecord>();
+
+    // Hold the session read lock so that state models will not be reset for a new
+    // session while we update the state model states
+    Lock sessionLock = _executor.getSessionReadLock();
+    sessionLock.lock();
+    try
+    {
+      if (!sessionId.equals(manager.getSessionId()))
+      {
+        logger.warn("Session id has changed. Skip postExecutionMessage. Old session "
+            + _message.getExecutionSessionId() + " , new session : "
+            + manager.getSessionId());
+        return;
+      }
+
+      StateTransitionError error = null;
+      for (String partitionName : partitionStates.keySet())
+      {
+        String state = partitionStates.get(partitionName);
+        StateModel stateModel = _stateModels.get(partitionName);
+        if (state.equals("ERROR"))
+        {
+          if (error == null)
+          {
+            error =
+                new StateTransitionError(ErrorType.INTERNAL,
+                                         _isTimeout ? ErrorCode.TIMEOUT : ErrorCode.ERROR,
+                                         exception);
+          }
+          Message subMessage = new Message(_message.getRecord());
+          subMessage.setPartitionName(partitionName);
+          stateModel.rollbackOnError(subMessage, _notificationContext, error);
+          stateModel.updateState("ERROR");
+        }
+        else if (!state.equalsIgnoreCase("DROPPED"))
+        {
+          // In the state model a dropped partition will be stayed as "OFFLINE", which is OK.
+          stateModel.updateState(state);
+        }
+
+        String bucketName = bucketizer.getBucketName(partitionName);
+        if (state.equalsIgnoreCase("DROPPED"))
+        {
+          getRecord(dropRecords, bucketName, resourceName).setMapField(partitionName,
+                                                                       new HashMap<String, String>());
+        }
+        else
+        {
+          Map<String, String> stateMap = new HashMap<String, String>();
+          stateMap.put(CurrentStateProperty.CURRENT_STATE.toString(), state);
+          getRecord(addRecords, bucketName, resourceName).setMapField(partitionName,
+                                                                      stateMap);
+        }
+      }
+    }
+    finally
+    {
+      sessionLock.unlock();
+    }
+
+    Map<String, CurrentState> curStateDeltas = new HashMap<String, CurrentState>();
+    for (String bucketName : addRecords.keySet())
+    {
+      CurrentState delta = createCurStateDelta(resourceName, sessionId);
+      delta.getRecord().merge(addRecords.get(bucketName));
+      curStateDeltas.put(bucketName, delta);
+    }
+    for (String bucketName : dropRecords.keySet())
+    {
+      CurrentState delta = curStateDeltas.get(bucketName);
+      if (delta == null)
+      {
+        delta = createCurStateDelta(resourceName, sessionId);
+        curStateDeltas.put(bucketName, delta);
+      }
+      List<ZNRecordDelta> deltaList = new ArrayList<ZNRecordDelta>();
+      deltaList.add(new ZNRecordDelta(new ZNRecord(delta.getRecord()), MergeOperation.ADD));
+      // Don't subtract simple fields since they contain stateModelDefRef
+      deltaList.add(new ZNRecordDelta(dropRecords.get(bucketName), MergeOperation.SUBTRACT));
+      delta.setDeltaList(deltaList);
+    }
+
+    try
+    {
+      for (String bucketName : curStateDeltas.keySet())
+      {
+        PropertyKey key =
+            keyBuilder.currentState(instanceName, sessionId, resourceName, bucketName);
+        accessor.updateProperty(key, curStateDeltas.get(bucketName));
+      }
+    }
+    catch (Exception e)
+    {
+      logger.error("Error when updating the state ", e);
+      _statusUpdateUtil.logError(_message,
+                                 HelixBatchStateTransitionHandler.class,
+                                 e,
+                                 "Error when update the state ",
+                                 accessor);
+    }
+  }
+
+  private ZNRecord getRecord(Map<String, ZNRecord> records,
+                             String bucketName,
+                             String resourceName)
+  {
+    ZNRecord record = records.get(bucketName);
+    if (record == null)
+    {
+      record = new ZNRecord(resourceName);
+      records.put(bucketName, record);
+    }
+    return record;
+  }
+
+  private CurrentState createCurStateDelta(String resourceName, String sessionId)
+  {
+    CurrentState delta = new CurrentState(resourceName);
+    delta.setSessionId(sessionId);
+    delta.setStateModelDefRef(_message.getStateModelDef());
+    delta.setStateModelFactoryName(_message.getStateModelFactoryName());
+    delta.setBucketSize(_message.getBucketSize());
+    return delta;
+  }
+
+  @Override
+  public void onError(Exception e, ErrorCode code, ErrorType type)
+  {
+    // All internal error has been processed already, so we can skip them
+    if (type == ErrorType.INTERNAL)
+    {
+      logger.error("Skip internal error " + e.getMessage() + " " + code);
+      return;
+    }
+
+    if (code == ErrorCode.ERROR)
+    {
+      Map<String, String> partitionStates = new LinkedHashMap<String, String>();
+      for (String partitionName : _stateModels.keySet())
+      {
+        partitionStates.put(partitionName, "ERROR");
+      }
+      postExecutionMessage(_notificationContext.getManager(), partitionStates, e);
+    }
+  }
+
+  @Override
+  public void onTimeout()
+  {
+    _isTimeout = true;
+  }
+}
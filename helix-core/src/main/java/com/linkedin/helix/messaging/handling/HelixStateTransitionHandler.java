@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.log4j.Logger;
 
@@ -132,10 +133,12 @@ public class HelixStateTransitionHandler extends MessageHandler
     int bucketSize = message.getBucketSize();
     ZNRecordBucketizer bucketizer = new ZNRecordBucketizer(bucketSize);
 
-    // Lock the helix manager so that the session id will not change when we update
-    // the state model state. for zk current state it is OK as we have the per-session
-    // current state node
-    synchronized (manager)
+    // Hold the session read lock so that state models will not be reset for a new
+    // session while we update the state model state. for zk current state it is OK as
+    // we have the per-session current state node
+    Lock sessionLock = _executor.getSessionReadLock();
+    sessionLock.lock();
+    try
     {
       if (!message.getTgtSessionId().equals(manager.getSessionId()))
       {
@@ -211,6 +214,11 @@ public class HelixStateTransitionHandler extends MessageHandler
         }
       }
     }
+    finally
+    {
+      sessionLock.unlock();
+    }
+
     try
     {
       // Update the ZK current state of the node
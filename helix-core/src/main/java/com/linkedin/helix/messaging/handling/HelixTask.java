@@ -34,6 +34,7 @@ import com.linkedin.helix.messaging.handling.MessageHandler.ErrorCode;
 import com.linkedin.helix.messaging.handling.MessageHandler.ErrorType;
 import com.linkedin.helix.model.CurrentState;
 import com.linkedin.helix.model.Message;
+import com.linkedin.helix.model.Message.Attributes;
 import com.linkedin.helix.model.Message.MessageType;
 import com.linkedin.helix.monitoring.StateTransitionContext;
 import com.linkedin.helix.monitoring.StateTransitionDataPoint;
@@ -212,7 +213,9 @@ public class HelixTask implements Callable<HelixTaskResult>
     // Post-processing for the finished task
     try
     {
-      if (!_message.getGroupMessageMode())
+      // a group message handled by a batch handler is completed as a whole
+      if (!_message.getGroupMessageMode()
+          || _message.getAttribute(Attributes.PARENT_MSG_ID) == null)
       {
         removeMessageFromZk(accessor, _message);
         reportMessageStat(_manager, _message, taskResult);
@@ -305,6 +308,14 @@ public class HelixTask implements Callable<HelixTaskResult>
                                      taskResult.getTaskResultMap());
       replyMessage.setSrcInstanceType(_manager.getInstanceType());
 
+      // the sender is in this JVM and connected, skip the round trip through zookeeper
+      if (AsyncCallbackService.deliverLocally(replyMessage))
+      {
+        _statusUpdateUtil.logInfo(message, HelixTask.class, "1 msg replied in process to "
+            + replyMessage.getTgtName(), accessor);
+        return;
+      }
+
       if (message.getSrcInstanceType() == InstanceType.PARTICIPANT)
       {
         Builder keyBuilder = accessor.keyBuilder();
@@ -29,11 +29,16 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.I0Itec.zkclient.IZkDataListener;
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.SerializationConfig;
 
+import com.linkedin.helix.BaseDataAccessor;
 import com.linkedin.helix.ConfigAccessor;
 import com.linkedin.helix.ConfigScope;
 import com.linkedin.helix.ConfigScopeBuilder;
@@ -41,11 +46,16 @@ import com.linkedin.helix.HelixConstants;
 import com.linkedin.helix.HelixDataAccessor;
 import com.linkedin.helix.HelixException;
 import com.linkedin.helix.HelixManager;
+import com.linkedin.helix.HelixProperty;
+import com.linkedin.helix.InstanceType;
 import com.linkedin.helix.MessageListener;
 import com.linkedin.helix.NotificationContext;
 import com.linkedin.helix.NotificationContext.Type;
 import com.linkedin.helix.PropertyKey;
 import com.linkedin.helix.PropertyKey.Builder;
+import com.linkedin.helix.ScopedConfigChangeListener;
+import com.linkedin.helix.SelectiveMessageReader;
+import com.linkedin.helix.ZNRecord;
 import com.linkedin.helix.model.CurrentState;
 import com.linkedin.helix.model.Message;
 import com.linkedin.helix.model.Message.Attributes;
@@ -55,7 +65,8 @@ import com.linkedin.helix.monitoring.ParticipantMonitor;
 import com.linkedin.helix.participant.HelixStateMachineEngine;
 import com.linkedin.helix.util.StatusUpdateUtil;
 
-public class HelixTaskExecutor implements MessageListener
+public class HelixTaskExecutor implements MessageListener, SelectiveMessageReader,
+    ScopedConfigChangeListener
 {
   // TODO: we need to further design how to throttle this.
   // From storage point of view, only bootstrap case is expensive
@@ -72,8 +83,9 @@ public class HelixTaskExecutor implements MessageListener
   final ConcurrentHashMap<String, MessageHandlerFactory> _handlerFactoryMap         =
                                                                                         new ConcurrentHashMap<String, MessageHandlerFactory>();
 
-  final ConcurrentHashMap<String, ExecutorService>       _threadpoolMap             =
-                                                                                        new ConcurrentHashMap<String, ExecutorService>();
+  // message type or message type.resource -> thread pool
+  final ConcurrentHashMap<String, ResizableThreadPoolExecutor> _threadpoolMap       =
+                                                                                        new ConcurrentHashMap<String, ResizableThreadPoolExecutor>();
 
   private static Logger                                  LOG                        =
                                                                                         Logger.getLogger(HelixTaskExecutor.class);
@@ -81,8 +93,36 @@ public class HelixTaskExecutor implements MessageListener
   Map<String, Integer>                                   _resourceThreadpoolSizeMap =
                                                                                         new ConcurrentHashMap<String, Integer>();
 
+  // Configs the thread pool sizes are computed from. The cluster config is passed in by
+  // the config change callback. This participant's config and the configs of resources
+  // it hosts are watched directly, so configs of other participants and resources are
+  // neither watched nor read
+  private ZNRecord                                       _clusterConfig             = null;
+  private ZNRecord                                       _participantConfig         = null;
+  private String                                         _participantConfigPath     = null;
+  private BaseDataAccessor<ZNRecord>                     _configWatchAccessor       = null;
+
+  // resource name -> path of the watched resource config
+  final Map<String, String>                              _resourceConfigWatches     =
+                                                                                        new ConcurrentHashMap<String, String>();
+  private final ConfigWatcher                            _configWatcher             =
+                                                                                        new ConfigWatcher();
+
   final GroupMessageHandler                              _groupMsgHandler;
 
+  // Transition completions hold the read lock while they check the session id and
+  // update state models, so they run concurrently with each other. Resetting state
+  // models on FINALIZE (e.g. session expiry) holds the write lock. This relies on the
+  // manager setting the new session id before it sends FINALIZE (see
+  // ZKHelixManager.handleNewSession), so completions that get the read lock after the
+  // reset see the new session id and are skipped
+  private final ReadWriteLock                            _sessionLock               =
+                                                                                        new ReentrantReadWriteLock();
+
+  // messages folder path -> inbox
+  final ConcurrentHashMap<String, MessageInbox>          _inboxMap                  =
+                                                                                        new ConcurrentHashMap<String, MessageInbox>();
+
   public HelixTaskExecutor()
   {
     _taskMap = new ConcurrentHashMap<String, Future<HelixTaskResult>>();
@@ -112,7 +152,7 @@ public class HelixTaskExecutor implements MessageListener
 
       }
       _handlerFactoryMap.put(type, factory);
-      _threadpoolMap.put(type, Executors.newFixedThreadPool(threadpoolSize));
+      _threadpoolMap.put(type, createThreadpool(type, threadpoolSize));
       LOG.info("Adding msg factory for type " + type + " threadpool size "
           + threadpoolSize);
     }
@@ -122,6 +162,11 @@ public class HelixTaskExecutor implements MessageListener
     }
   }
 
+  Lock getSessionReadLock()
+  {
+    return _sessionLock.readLock();
+  }
+
   public ParticipantMonitor getParticipantMonitor()
   {
     return _monitor;
@@ -132,40 +177,359 @@ public class HelixTaskExecutor implements MessageListener
     // start a thread which monitors the completions of task
   }
 
-  void checkResourceConfig(String resourceName, HelixManager manager)
+  private ResizableThreadPoolExecutor createThreadpool(String poolName, int threadpoolSize)
   {
-    if (!_resourceThreadpoolSizeMap.containsKey(resourceName))
+    ResizableThreadPoolExecutor pool =
+        new ResizableThreadPoolExecutor(poolName, threadpoolSize);
+    _monitor.registerThreadPool(pool.getMonitor());
+    return pool;
+  }
+
+  /**
+   * Shut down a thread pool. Tasks already submitted are still executed
+   */
+  private void retireThreadpool(String poolName)
+  {
+    ResizableThreadPoolExecutor pool = _threadpoolMap.remove(poolName);
+    if (pool != null)
+    {
+      pool.shutdown();
+      _monitor.unregisterThreadPool(poolName);
+      LOG.info("Removing threadpool " + poolName);
+    }
+  }
+
+  static String getResourceThreadpoolKey(String resourceName)
+  {
+    return MessageType.STATE_TRANSITION.toString() + "." + resourceName;
+  }
+
+  /**
+   * Read the per-message type thread pool size. Participant config overrides cluster
+   * config
+   * 
+   * @return the configured size, or -1 if not configured
+   */
+  public static int getMsgTypeThreadpoolSize(String type, HelixManager manager)
+  {
+    int threadpoolSize = -1;
+    String threadpoolSizeStr = null;
+    String key = type + "." + MAX_THREADS;
+
+    ConfigAccessor configAccessor = manager.getConfigAccessor();
+    if (configAccessor != null)
     {
-      int threadpoolSize = -1;
-      ConfigAccessor configAccessor = manager.getConfigAccessor();
-      if (configAccessor != null)
+      ConfigScope scope = null;
+
+      if (manager.getInstanceType() == InstanceType.PARTICIPANT
+          || manager.getInstanceType() == InstanceType.CONTROLLER_PARTICIPANT)
       {
-        ConfigScope scope =
+        scope =
             new ConfigScopeBuilder().forCluster(manager.getClusterName())
-                                    .forResource(resourceName)
+                                    .forParticipant(manager.getInstanceName())
                                     .build();
+        threadpoolSizeStr = configAccessor.get(scope, key);
+      }
 
-        String threadpoolSizeStr = configAccessor.get(scope, MAX_THREADS);
-        try
+      if (threadpoolSizeStr == null)
+      {
+        scope = new ConfigScopeBuilder().forCluster(manager.getClusterName()).build();
+        threadpoolSizeStr = configAccessor.get(scope, key);
+      }
+    }
+
+    if (threadpoolSizeStr != null)
+    {
+      try
+      {
+        threadpoolSize = Integer.parseInt(threadpoolSizeStr);
+        if (threadpoolSize <= 0)
+        {
+          threadpoolSize = 1;
+        }
+      }
+      catch (Exception e)
+      {
+        LOG.error("", e);
+      }
+    }
+    return threadpoolSize;
+  }
+
+  /**
+   * Read a thread pool size from a config record
+   * 
+   * @return the configured size, or -1 if not configured
+   */
+  static int getThreadpoolSize(ZNRecord config, String key)
+  {
+    int threadpoolSize = -1;
+    String threadpoolSizeStr = config == null ? null : config.getSimpleField(key);
+    if (threadpoolSizeStr != null)
+    {
+      try
+      {
+        threadpoolSize = Integer.parseInt(threadpoolSizeStr);
+      }
+      catch (Exception e)
+      {
+        LOG.error("", e);
+      }
+    }
+    return threadpoolSize;
+  }
+
+  /**
+   * Per-message type thread pool size from the watched configs. Participant config
+   * overrides cluster config
+   */
+  private int getMsgTypeThreadpoolSize(String type)
+  {
+    String key = type + "." + MAX_THREADS;
+    int threadpoolSize = getThreadpoolSize(_participantConfig, key);
+    if (threadpoolSize == -1)
+    {
+      threadpoolSize = getThreadpoolSize(_clusterConfig, key);
+    }
+
+    if (threadpoolSize == -1)
+    {
+      // not configured (any more), use the default size as on registration
+      return DEFAULT_PARALLEL_TASKS;
+    }
+    return threadpoolSize <= 0 ? 1 : threadpoolSize;
+  }
+
+  private void resizeMsgTypeThreadpools()
+  {
+    for (String type : _handlerFactoryMap.keySet())
+    {
+      int threadpoolSize = getMsgTypeThreadpoolSize(type);
+      ResizableThreadPoolExecutor pool = _threadpoolMap.get(type);
+      if (pool != null && pool.getMaximumPoolSize() != threadpoolSize)
+      {
+        LOG.info("Resizing threadpool for msg type " + type + " from "
+            + pool.getMaximumPoolSize() + " to " + threadpoolSize);
+        pool.resize(threadpoolSize);
+      }
+    }
+  }
+
+  /**
+   * Create, resize, or remove the per-resource thread pool. Without a per-resource
+   * thread pool, messages of the resource go to the per-message type thread pool
+   */
+  private void setResourceThreadpoolSize(String resourceName, int threadpoolSize)
+  {
+    String key = getResourceThreadpoolKey(resourceName);
+    ResizableThreadPoolExecutor pool = _threadpoolMap.get(key);
+    if (threadpoolSize > 0)
+    {
+      if (pool == null)
+      {
+        _threadpoolMap.put(key, createThreadpool(key, threadpoolSize));
+        LOG.info("Adding per resource threadpool for resource " + resourceName
+            + " with size " + threadpoolSize);
+      }
+      else if (pool.getMaximumPoolSize() != threadpoolSize)
+      {
+        LOG.info("Resizing per resource threadpool for resource " + resourceName
+            + " from " + pool.getMaximumPoolSize() + " to " + threadpoolSize);
+        pool.resize(threadpoolSize);
+      }
+    }
+    else if (pool != null)
+    {
+      retireThreadpool(key);
+    }
+    _resourceThreadpoolSizeMap.put(resourceName, threadpoolSize);
+  }
+
+  /**
+   * Set up the per-resource thread pool the first time a resource is seen, and watch
+   * its resource config from then on
+   */
+  void checkResourceConfig(String resourceName, HelixManager manager)
+  {
+    if (!_resourceThreadpoolSizeMap.containsKey(resourceName))
+    {
+      HelixDataAccessor accessor = manager.getHelixDataAccessor();
+      String path = accessor.keyBuilder().resourceConfig(resourceName).getPath();
+      if (_configWatchAccessor != null)
+      {
+        // subscribe before reading so no change is missed in between
+        _resourceConfigWatches.put(resourceName, path);
+        _configWatchAccessor.subscribeDataChanges(path, _configWatcher);
+      }
+      ZNRecord config = accessor.getBaseDataAccessor().get(path, null, 0);
+      setResourceThreadpoolSize(resourceName, getThreadpoolSize(config, MAX_THREADS));
+    }
+  }
+
+  /**
+   * Remove idle per-resource thread pools of resources that no longer have a current
+   * state, e.g. after the resource is dropped
+   */
+  void retireResourceThreadpools(Set<String> curResourceNames)
+  {
+    synchronized (_lock)
+    {
+      for (String resourceName : _resourceThreadpoolSizeMap.keySet())
+      {
+        if (curResourceNames.contains(resourceName))
+        {
+          continue;
+        }
+        String key = getResourceThreadpoolKey(resourceName);
+        ResizableThreadPoolExecutor pool = _threadpoolMap.get(key);
+        if (pool == null || pool.isIdle())
         {
-          if (threadpoolSizeStr != null)
+          retireThreadpool(key);
+          _resourceThreadpoolSizeMap.remove(resourceName);
+          String path = _resourceConfigWatches.remove(resourceName);
+          if (path != null && _configWatchAccessor != null)
           {
-            threadpoolSize = Integer.parseInt(threadpoolSizeStr);
+            _configWatchAccessor.unsubscribeDataChanges(path, _configWatcher);
           }
         }
-        catch (Exception e)
+      }
+    }
+  }
+
+  /**
+   * Watch this participant's config and the configs of the resources seen so far. The
+   * watched configs are read once here, after that they come with the data changes
+   */
+  private void watchConfigs(HelixManager manager)
+  {
+    unwatchConfigs();
+
+    HelixDataAccessor accessor = manager.getHelixDataAccessor();
+    Builder keyBuilder = accessor.keyBuilder();
+    _configWatchAccessor = accessor.getBaseDataAccessor();
+    _participantConfigPath = keyBuilder.instanceConfig(manager.getInstanceName()).getPath();
+
+    List<String> resourceNames = new ArrayList<String>(_resourceThreadpoolSizeMap.keySet());
+    List<String> paths = new ArrayList<String>();
+    paths.add(_participantConfigPath);
+    for (String resourceName : resourceNames)
+    {
+      String path = keyBuilder.resourceConfig(resourceName).getPath();
+      _resourceConfigWatches.put(resourceName, path);
+      paths.add(path);
+    }
+    for (String path : paths)
+    {
+      _configWatchAccessor.subscribeDataChanges(path, _configWatcher);
+    }
+
+    List<ZNRecord> configs = _configWatchAccessor.get(paths, null, 0);
+    _participantConfig = configs.get(0);
+    for (int i = 0; i < resourceNames.size(); i++)
+    {
+      updateResourceThreadpoolSize(resourceNames.get(i), configs.get(i + 1));
+    }
+  }
+
+  private void unwatchConfigs()
+  {
+    if (_configWatchAccessor != null)
+    {
+      _configWatchAccessor.unsubscribeDataChanges(_participantConfigPath, _configWatcher);
+      for (String path : _resourceConfigWatches.values())
+      {
+        _configWatchAccessor.unsubscribeDataChanges(path, _configWatcher);
+      }
+    }
+    _resourceConfigWatches.clear();
+    _configWatchAccessor = null;
+    _participantConfigPath = null;
+  }
+
+  private void updateResourceThreadpoolSize(String resourceName, ZNRecord config)
+  {
+    Integer curThreadpoolSize = _resourceThreadpoolSizeMap.get(resourceName);
+    int threadpoolSize = getThreadpoolSize(config, MAX_THREADS);
+    if (curThreadpoolSize != null && curThreadpoolSize != threadpoolSize)
+    {
+      setResourceThreadpoolSize(resourceName, threadpoolSize);
+    }
+  }
+
+  /**
+   * Invoked when a watched participant or resource config changes
+   * 
+   * @param path
+   * @param config
+   *          the new config, or null if the config is deleted
+   */
+  void onConfigDataChange(String path, ZNRecord config)
+  {
+    synchronized (_lock)
+    {
+      if (path.equals(_participantConfigPath))
+      {
+        _participantConfig = config;
+        resizeMsgTypeThreadpools();
+        return;
+      }
+
+      String resourceName = path.substring(path.lastIndexOf('/') + 1);
+      if (path.equals(_resourceConfigWatches.get(resourceName)))
+      {
+        updateResourceThreadpoolSize(resourceName, config);
+      }
+    }
+  }
+
+  class ConfigWatcher implements IZkDataListener
+  {
+    @Override
+    public void handleDataChange(String dataPath, Object data)
+    {
+      onConfigDataChange(dataPath, (ZNRecord) data);
+    }
+
+    @Override
+    public void handleDataDeleted(String dataPath)
+    {
+      onConfigDataChange(dataPath, null);
+    }
+  }
+
+  /**
+   * Resize thread pools when the cluster config changes. The configs passed in are those
+   * of the cluster scope. Participant and resource configs are watched from here on
+   */
+  @Override
+  public void onConfigChange(List<HelixProperty> configs, NotificationContext context)
+  {
+    HelixManager manager = context.getManager();
+    synchronized (_lock)
+    {
+      if (context.getType() == Type.FINALIZE)
+      {
+        unwatchConfigs();
+        return;
+      }
+
+      _clusterConfig = null;
+      if (configs != null)
+      {
+        for (HelixProperty config : configs)
         {
-          LOG.error("", e);
+          if (config.getId().equals(manager.getClusterName()))
+          {
+            _clusterConfig = config.getRecord();
+          }
         }
       }
-      if (threadpoolSize > 0)
+
+      if (context.getType() == Type.INIT)
       {
-        String key = MessageType.STATE_TRANSITION.toString() + "." + resourceName;
-        _threadpoolMap.put(key, Executors.newFixedThreadPool(threadpoolSize));
-        LOG.info("Adding per resource threadpool for resource " + resourceName
-            + " with size " + threadpoolSize);
+        watchConfigs(manager);
       }
-      _resourceThreadpoolSizeMap.put(resourceName, threadpoolSize);
+      resizeMsgTypeThreadpools();
     }
   }
 
@@ -182,11 +546,12 @@ public class HelixTaskExecutor implements MessageListener
       String resourceName = message.getResourceName();
       if (resourceName != null)
       {
-        String key = message.getMsgType() + "." + resourceName;
-        if (_threadpoolMap.containsKey(key))
+        String key = getResourceThreadpoolKey(resourceName);
+        ExecutorService resourceExecutorService = _threadpoolMap.get(key);
+        if (resourceExecutorService != null)
         {
           LOG.info("Find per-resource thread pool with key " + key);
-          executorService = _threadpoolMap.get(key);
+          executorService = resourceExecutorService;
         }
       }
     }
@@ -312,9 +677,37 @@ public class HelixTaskExecutor implements MessageListener
     }
   }
 
-  private void updateMessageState(List<Message> readMsgs,
-                                  HelixDataAccessor accessor,
-                                  String instanceName)
+  /**
+   * Read messages in NEW state under a messages folder. Message znodes are fetched from
+   * zookeeper only when they are new or rewritten; messages already taken are skipped
+   * without being read again.
+   *
+   * @param accessor
+   * @param messagesKey
+   *          key of the messages folder
+   * @return
+   */
+  @Override
+  public List<Message> readNewMessages(HelixDataAccessor accessor, PropertyKey messagesKey)
+  {
+    String path = messagesKey.getPath();
+    MessageInbox inbox = _inboxMap.get(path);
+    if (inbox == null)
+    {
+      _inboxMap.putIfAbsent(path, new MessageInbox(path));
+      inbox = _inboxMap.get(path);
+    }
+    return inbox.refresh(accessor.getBaseDataAccessor());
+  }
+
+  /**
+   * Write the READ state of messages taken
+   *
+   * @return ids of the messages failed to write
+   */
+  private Set<String> updateMessageState(List<Message> readMsgs,
+                                         HelixDataAccessor accessor,
+                                         String instanceName)
   {
     Builder keyBuilder = accessor.keyBuilder();
     List<PropertyKey> readMsgKeys = new ArrayList<PropertyKey>();
@@ -322,7 +715,27 @@ public class HelixTaskExecutor implements MessageListener
     {
       readMsgKeys.add(msg.getKey(keyBuilder, instanceName));
     }
-    accessor.setChildren(readMsgKeys, readMsgs);
+    boolean[] success = accessor.setChildren(readMsgKeys, readMsgs);
+
+    Set<String> failedMsgIds = new HashSet<String>();
+    for (int i = 0; i < readMsgs.size(); i++)
+    {
+      String msgId = readMsgs.get(i).getId();
+      boolean written = success == null || success[i];
+      if (!written)
+      {
+        LOG.error("Fail to update message " + msgId + " to READ, will retry it");
+        failedMsgIds.add(msgId);
+      }
+
+      String path = readMsgKeys.get(i).getPath();
+      MessageInbox inbox = _inboxMap.get(path.substring(0, path.lastIndexOf('/')));
+      if (inbox != null)
+      {
+        inbox.onMessageTaken(msgId, written);
+      }
+    }
+    return failedMsgIds;
   }
 
   @Override
@@ -336,9 +749,17 @@ public class HelixTaskExecutor implements MessageListener
     if (changeContext.getType() == Type.FINALIZE)
     {
       LOG.info("Get FINALIZE notification");
-      for (MessageHandlerFactory factory : _handlerFactoryMap.values())
+      _sessionLock.writeLock().lock();
+      try
+      {
+        for (MessageHandlerFactory factory : _handlerFactoryMap.values())
+        {
+          factory.reset();
+        }
+      }
+      finally
       {
-        factory.reset();
+        _sessionLock.writeLock().unlock();
       }
       // Cancel all scheduled future
       // synchronized (_lock)
@@ -349,6 +770,7 @@ public class HelixTaskExecutor implements MessageListener
         }
         _taskMap.clear();
       }
+      _inboxMap.clear();
       return;
     }
 
@@ -372,12 +794,18 @@ public class HelixTaskExecutor implements MessageListener
     List<Message> readMsgs = new ArrayList<Message>();
 
     String sessionId = manager.getSessionId();
-    List<String> curResourceNames =
-        accessor.getChildNames(keyBuilder.currentStates(instanceName, sessionId));
+    Set<String> curResourceNames =
+        new HashSet<String>(accessor.getChildNames(keyBuilder.currentStates(instanceName,
+                                                                            sessionId)));
     List<PropertyKey> createCurStateKeys = new ArrayList<PropertyKey>();
     List<CurrentState> metaCurStates = new ArrayList<CurrentState>();
     Set<String> createCurStateNames = new HashSet<String>();
 
+    // messages to be removed, e.g. NO_OP, session mismatch, or unprocessable messages
+    List<String> removeMsgPaths = new ArrayList<String>();
+
+    retireResourceThreadpools(curResourceNames);
+
     changeContext.add(NotificationContext.TASK_EXECUTOR_KEY, this);
     for (Message message : messages)
     {
@@ -387,7 +815,7 @@ public class HelixTaskExecutor implements MessageListener
       {
         LOG.info("Dropping NO-OP message. mid: " + message.getId() + ", from: "
             + message.getMsgSrc());
-        accessor.removeProperty(message.getKey(keyBuilder, instanceName));
+        removeMsgPaths.add(message.getKey(keyBuilder, instanceName).getPath());
         continue;
       }
 
@@ -401,7 +829,7 @@ public class HelixTaskExecutor implements MessageListener
                 + ", tgtSessionId in message: " + tgtSessionId + ", messageId: "
                 + message.getMsgId();
         LOG.warn(warningMessage);
-        accessor.removeProperty(message.getKey(keyBuilder, instanceName));
+        removeMsgPaths.add(message.getKey(keyBuilder, instanceName).getPath());
         _statusUpdateUtil.logWarning(message,
                                      HelixStateMachineEngine.class,
                                      warningMessage,
@@ -444,7 +872,7 @@ public class HelixTaskExecutor implements MessageListener
                                    accessor);
 
         message.setMsgState(MessageState.UNPROCESSABLE);
-        accessor.removeProperty(message.getKey(keyBuilder, instanceName));
+        removeMsgPaths.add(message.getKey(keyBuilder, instanceName).getPath());
         ObjectMapper mapper = new ObjectMapper();
         SerializationConfig serializationConfig = mapper.getSerializationConfig();
         serializationConfig.set(SerializationConfig.Feature.INDENT_OUTPUT, true);
@@ -508,6 +936,12 @@ public class HelixTaskExecutor implements MessageListener
       }
     }
 
+    // batch remove dropped messages
+    if (removeMsgPaths.size() > 0)
+    {
+      accessor.getBaseDataAccessor().remove(removeMsgPaths, 0);
+    }
+
     // batch create curState meta
     if (createCurStateKeys.size() > 0)
     {
@@ -524,11 +958,15 @@ public class HelixTaskExecutor implements MessageListener
     // update message state to READ in batch and schedule all read messages
     if (readMsgs.size() > 0)
     {
-      updateMessageState(readMsgs, accessor, instanceName);
+      Set<String> failedMsgIds = updateMessageState(readMsgs, accessor, instanceName);
 
       for (MessageHandler handler : handlers)
       {
-        scheduleTask(handler._message, handler, changeContext);
+        // messages failed to be marked READ are left to the next read
+        if (!failedMsgIds.contains(handler._message.getId()))
+        {
+          scheduleTask(handler._message, handler, changeContext);
+        }
       }
     }
   }
@@ -571,6 +1009,22 @@ public class HelixTaskExecutor implements MessageListener
     }
     else
     {
+      // let the factory handle all partitions at once if it supports batch handling
+      MessageHandlerFactory handlerFactory = _handlerFactoryMap.get(message.getMsgType());
+      if (handlerFactory instanceof BatchMessageHandlerFactory)
+      {
+        MessageHandler batchHandler =
+            ((BatchMessageHandlerFactory) handlerFactory).createBatchHandler(message,
+                                                                             changeContext);
+        if (batchHandler != null)
+        {
+          LOG.info("Creating batch handler for group message " + message.getMsgId()
+              + ", partitions: " + message.getPartitionNames());
+          handlers.add(batchHandler);
+          return handlers;
+        }
+      }
+
       _groupMsgHandler.put(message);
 
       List<String> partitionNames = message.getPartitionNames();
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.messaging.handling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.data.Stat;
+
+import com.linkedin.helix.BaseDataAccessor;
+import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.model.Message;
+import com.linkedin.helix.model.Message.MessageState;
+
+/**
+ * In-memory view of a messages folder. Each message is kept with the version of its
+ * znode. On each refresh the child names and the stats of the known messages are
+ * listed, and only the znodes of new or rewritten messages are fetched (in one async
+ * batch).
+ * <p>
+ * The inbox keeps its own copy of a message; callers get a fresh copy they are free to
+ * change, e.g. by the task threads.
+ */
+class MessageInbox
+{
+  private static Logger            LOG = Logger.getLogger(MessageInbox.class);
+
+  private final String             _path;
+
+  // msgId -> message
+  private final Map<String, Entry> _entries;
+
+  static class Entry
+  {
+    final int      _version;
+    // null once the message is taken by the receiver
+    final ZNRecord _record;
+
+    Entry(int version, ZNRecord record)
+    {
+      _version = version;
+      _record = record;
+    }
+  }
+
+  MessageInbox(String path)
+  {
+    _path = path;
+    _entries = new TreeMap<String, Entry>();
+  }
+
+  /**
+   * Sync the inbox with the messages folder
+   *
+   * @return copies of the messages that are in NEW state and not taken yet
+   */
+  synchronized List<Message> refresh(BaseDataAccessor<ZNRecord> baseAccessor)
+  {
+    List<String> childNames = baseAccessor.getChildNames(_path, 0);
+    Set<String> msgIds = new HashSet<String>();
+    if (childNames != null)
+    {
+      msgIds.addAll(childNames);
+    }
+
+    // messages that have been removed
+    _entries.keySet().retainAll(msgIds);
+
+    // messages whose znode is rewritten since read
+    List<String> readMsgIds = new ArrayList<String>();
+    if (_entries.size() > 0)
+    {
+      List<String> knownMsgIds = new ArrayList<String>(_entries.keySet());
+      Stat[] stats = baseAccessor.getStats(getPaths(knownMsgIds), 0);
+      for (int i = 0; i < knownMsgIds.size(); i++)
+      {
+        String msgId = knownMsgIds.get(i);
+        if (stats[i] == null)
+        {
+          // removed in between
+          _entries.remove(msgId);
+          msgIds.remove(msgId);
+        }
+        else if (stats[i].getVersion() != _entries.get(msgId)._version)
+        {
+          readMsgIds.add(msgId);
+        }
+      }
+    }
+
+    for (String msgId : msgIds)
+    {
+      if (!_entries.containsKey(msgId))
+      {
+        readMsgIds.add(msgId);
+      }
+    }
+
+    if (readMsgIds.size() > 0)
+    {
+      List<Stat> stats = new ArrayList<Stat>();
+      List<ZNRecord> records = baseAccessor.get(getPaths(readMsgIds), stats, 0);
+      for (int i = 0; i < readMsgIds.size(); i++)
+      {
+        // null if removed in between
+        ZNRecord record = records.get(i);
+        if (record == null)
+        {
+          _entries.remove(readMsgIds.get(i));
+          continue;
+        }
+        Stat stat = i < stats.size() ? stats.get(i) : null;
+        int version = stat != null ? stat.getVersion() : record.getVersion();
+        _entries.put(readMsgIds.get(i), new Entry(version, copy(record)));
+      }
+    }
+
+    List<Message> messages = new ArrayList<Message>();
+    for (Entry entry : _entries.values())
+    {
+      if (entry._record != null
+          && MessageState.NEW == new Message(entry._record).getMsgState())
+      {
+        messages.add(new Message(copy(entry._record)));
+      }
+    }
+
+    if (LOG.isDebugEnabled())
+    {
+      LOG.debug("Refresh inbox " + _path + ", total: " + _entries.size() + ", fetched: "
+          + readMsgIds.size() + ", pending: " + messages.size());
+    }
+    return messages;
+  }
+
+  /**
+   * Record the result of writing a taken message back to zookeeper. A message written is
+   * not returned again unless its znode is rewritten by someone else. A message failed
+   * to write is dropped from the inbox, so it is read again and retried.
+   */
+  synchronized void onMessageTaken(String msgId, boolean written)
+  {
+    Entry entry = _entries.get(msgId);
+    if (entry == null)
+    {
+      return;
+    }
+
+    if (written)
+    {
+      // our own write bumps the version by one
+      _entries.put(msgId, new Entry(entry._version + 1, null));
+    }
+    else
+    {
+      _entries.remove(msgId);
+    }
+  }
+
+  synchronized void clear()
+  {
+    _entries.clear();
+  }
+
+  private List<String> getPaths(List<String> msgIds)
+  {
+    List<String> paths = new ArrayList<String>();
+    for (String msgId : msgIds)
+    {
+      paths.add(_path + "/" + msgId);
+    }
+    return paths;
+  }
+
+  /**
+   * Copy of the record that shares no mutable state with it
+   */
+  static ZNRecord copy(ZNRecord record)
+  {
+    ZNRecord copy = new ZNRecord(record.getId());
+    copy.getSimpleFields().putAll(record.getSimpleFields());
+    for (Map.Entry<String, Map<String, String>> mapField : record.getMapFields().entrySet())
+    {
+      copy.setMapField(mapField.getKey(), new HashMap<String, String>(mapField.getValue()));
+    }
+    for (Map.Entry<String, List<String>> listField : record.getListFields().entrySet())
+    {
+      copy.setListField(listField.getKey(), new ArrayList<String>(listField.getValue()));
+    }
+    copy.setVersion(record.getVersion());
+    copy.setCreationTime(record.getCreationTime());
+    copy.setModifiedTime(record.getModifiedTime());
+    return copy;
+  }
+}
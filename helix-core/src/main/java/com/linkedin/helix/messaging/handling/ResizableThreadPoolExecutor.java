@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.messaging.handling;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.linkedin.helix.monitoring.mbeans.ThreadPoolMonitor;
+
+/**
+ * Thread pool for message handling tasks. The pool size can be changed while tasks are
+ * running, idle threads time out so an unused pool holds no threads, and the time each
+ * task waits in the queue is reported to the pool's monitor.
+ */
+class ResizableThreadPoolExecutor extends ThreadPoolExecutor
+{
+  static final long               KEEP_ALIVE_TIME = 60 * 1000L;
+
+  private final ThreadPoolMonitor _monitor;
+
+  ResizableThreadPoolExecutor(String poolName, int poolSize)
+  {
+    super(poolSize,
+          poolSize,
+          KEEP_ALIVE_TIME,
+          TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>());
+    allowCoreThreadTimeOut(true);
+    _monitor = new ThreadPoolMonitor(poolName, this);
+  }
+
+  ThreadPoolMonitor getMonitor()
+  {
+    return _monitor;
+  }
+
+  String getPoolName()
+  {
+    return _monitor.getPoolName();
+  }
+
+  /**
+   * Change the number of threads. Running tasks are not affected; surplus threads exit
+   * once they become idle
+   */
+  synchronized void resize(int poolSize)
+  {
+    if (poolSize == getMaximumPoolSize())
+    {
+      return;
+    }
+
+    // core size must never exceed max size
+    if (poolSize > getMaximumPoolSize())
+    {
+      setMaximumPoolSize(poolSize);
+      setCorePoolSize(poolSize);
+    }
+    else
+    {
+      setCorePoolSize(poolSize);
+      setMaximumPoolSize(poolSize);
+    }
+  }
+
+  boolean isIdle()
+  {
+    return getActiveCount() == 0 && getQueue().isEmpty();
+  }
+
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable)
+  {
+    return new TimedFutureTask<T>(callable);
+  }
+
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value)
+  {
+    return new TimedFutureTask<T>(runnable, value);
+  }
+
+  @Override
+  protected void beforeExecute(Thread t, Runnable r)
+  {
+    super.beforeExecute(t, r);
+    if (r instanceof TimedFutureTask)
+    {
+      long waitTime = System.currentTimeMillis() - ((TimedFutureTask<?>) r)._submitTime;
+      _monitor.addWaitTime(waitTime);
+    }
+  }
+
+  static class TimedFutureTask<T> extends FutureTask<T>
+  {
+    final long _submitTime = System.currentTimeMillis();
+
+    TimedFutureTask(Callable<T> callable)
+    {
+      super(callable);
+    }
+
+    TimedFutureTask(Runnable runnable, T value)
+    {
+      super(runnable, value);
+    }
+  }
+}
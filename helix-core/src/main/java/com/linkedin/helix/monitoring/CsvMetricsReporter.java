@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.monitoring;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Appends each snapshot to a csv file, one row per metric:
+ * timestamp,sensorName,metricName,value
+ */
+public class CsvMetricsReporter implements MetricsReporter
+{
+  private static final Logger LOG = Logger.getLogger(CsvMetricsReporter.class);
+
+  public static final String FILE_PROPERTY = "helix.monitoring.csv.file";
+  public static final String DEFAULT_FILE = "helix-metrics.csv";
+  static final String HEADER = "timestamp,sensorName,metricName,value";
+
+  private final File _file;
+
+  public CsvMetricsReporter()
+  {
+    this(System.getProperty(FILE_PROPERTY, DEFAULT_FILE));
+  }
+
+  public CsvMetricsReporter(String fileName)
+  {
+    _file = new File(fileName);
+  }
+
+  @Override
+  public void start()
+  {
+    LOG.info("Report metrics to " + _file.getAbsolutePath());
+  }
+
+  @Override
+  public void report(MetricsSnapshot snapshot)
+  {
+    boolean newFile = !_file.exists() || _file.length() == 0;
+    Writer writer = null;
+    try
+    {
+      writer = new BufferedWriter(new FileWriter(_file, true));
+      if (newFile)
+      {
+        writer.write(HEADER);
+        writer.write('\n');
+      }
+      String timestamp = String.valueOf(snapshot.getTimestamp());
+      Map<String, Map<String, Number>> metrics = snapshot.getMetrics();
+      for (String sensorName : metrics.keySet())
+      {
+        String sensorField = escape(sensorName);
+        Map<String, Number> sourceMetrics = metrics.get(sensorName);
+        for (String metricName : sourceMetrics.keySet())
+        {
+          writer.write(timestamp);
+          writer.write(',');
+          writer.write(sensorField);
+          writer.write(',');
+          writer.write(escape(metricName));
+          writer.write(',');
+          writer.write(String.valueOf(sourceMetrics.get(metricName)));
+          writer.write('\n');
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      LOG.warn("Fail to write metrics to " + _file, e);
+    }
+    finally
+    {
+      if (writer != null)
+      {
+        try
+        {
+          writer.close();
+        }
+        catch (IOException e)
+        {
+          LOG.warn("Fail to close " + _file, e);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void stop()
+  {
+  }
+
+  static String escape(String field)
+  {
+    if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0)
+    {
+      return field;
+    }
+    return "\"" + field.replace("\"", "\"\"") + "\"";
+  }
+}
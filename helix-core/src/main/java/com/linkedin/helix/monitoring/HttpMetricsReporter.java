@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.monitoring;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the last snapshot as text, one "sensorName.metricName value" line per metric,
+ * at http://localhost:port/metrics. Requests are served from the snapshot and do not
+ * call into the monitors.
+ */
+public class HttpMetricsReporter implements MetricsReporter
+{
+  private static final Logger LOG = Logger.getLogger(HttpMetricsReporter.class);
+
+  public static final String PORT_PROPERTY = "helix.monitoring.http.port";
+  public static final int DEFAULT_PORT = 9990;
+  public static final String PATH = "/metrics";
+
+  private final int _port;
+  private HttpServer _server;
+  private volatile byte[] _content = new byte[0];
+
+  public HttpMetricsReporter()
+  {
+    this(Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT));
+  }
+
+  /**
+   * @param port
+   *          0 for any free port
+   */
+  public HttpMetricsReporter(int port)
+  {
+    _port = port;
+  }
+
+  @Override
+  public synchronized void start()
+  {
+    if (_server != null)
+    {
+      LOG.warn("metrics http server already started");
+      return;
+    }
+    try
+    {
+      _server =
+          HttpServer.create(new InetSocketAddress(InetAddress.getByName("localhost"), _port),
+                            0);
+      _server.createContext(PATH, new HttpHandler()
+      {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+          byte[] content = _content;
+          exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+          exchange.sendResponseHeaders(200, content.length);
+          OutputStream out = exchange.getResponseBody();
+          try
+          {
+            out.write(content);
+          }
+          finally
+          {
+            out.close();
+          }
+        }
+      });
+      _server.start();
+      LOG.info("Serve metrics at http://localhost:" + getPort() + PATH);
+    }
+    catch (IOException e)
+    {
+      LOG.error("Fail to start metrics http server on port " + _port, e);
+      _server = null;
+    }
+  }
+
+  /**
+   * @return the port listened on, -1 if not started
+   */
+  public synchronized int getPort()
+  {
+    return _server == null ? -1 : _server.getAddress().getPort();
+  }
+
+  @Override
+  public void report(MetricsSnapshot snapshot)
+  {
+    StringWriter writer = new StringWriter();
+    try
+    {
+      snapshot.writeText(writer);
+      _content = writer.toString().getBytes("UTF-8");
+    }
+    catch (IOException e)
+    {
+      LOG.warn("Fail to format metrics", e);
+    }
+  }
+
+  @Override
+  public synchronized void stop()
+  {
+    if (_server != null)
+    {
+      _server.stop(0);
+      _server = null;
+    }
+  }
+}
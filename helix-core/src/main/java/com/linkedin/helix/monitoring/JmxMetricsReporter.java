@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.monitoring;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Exposes the last snapshot as one mbean, HelixMetrics:type=MetricsSnapshot, with an
+ * attribute sensorName.metricName per metric. Attributes are read from the snapshot,
+ * so a scraper reading all attributes in one getAttributes() call does not call into
+ * the monitors.
+ */
+public class JmxMetricsReporter implements MetricsReporter, DynamicMBean
+{
+  private static final Logger LOG = Logger.getLogger(JmxMetricsReporter.class);
+
+  public static final String OBJECT_NAME = "HelixMetrics:type=MetricsSnapshot";
+
+  private final MBeanServer _beanServer;
+  private volatile Map<String, Number> _values = Collections.emptyMap();
+  private volatile MBeanInfo _beanInfo = buildBeanInfo(_values);
+
+  public JmxMetricsReporter()
+  {
+    _beanServer = ManagementFactory.getPlatformMBeanServer();
+  }
+
+  @Override
+  public void start()
+  {
+    try
+    {
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (_beanServer.isRegistered(name))
+      {
+        _beanServer.unregisterMBean(name);
+      }
+      _beanServer.registerMBean(this, name);
+    }
+    catch (Exception e)
+    {
+      LOG.warn("Could not register MBean " + OBJECT_NAME, e);
+    }
+  }
+
+  @Override
+  public void report(MetricsSnapshot snapshot)
+  {
+    Map<String, Number> values = new HashMap<String, Number>();
+    Map<String, Map<String, Number>> metrics = snapshot.getMetrics();
+    for (String sensorName : metrics.keySet())
+    {
+      Map<String, Number> sourceMetrics = metrics.get(sensorName);
+      for (String metricName : sourceMetrics.keySet())
+      {
+        values.put(sensorName + "." + metricName, sourceMetrics.get(metricName));
+      }
+    }
+    // attribute set changes when sources come and go
+    if (!values.keySet().equals(_values.keySet()))
+    {
+      _beanInfo = buildBeanInfo(values);
+    }
+    _values = values;
+  }
+
+  @Override
+  public void stop()
+  {
+    try
+    {
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (_beanServer.isRegistered(name))
+      {
+        _beanServer.unregisterMBean(name);
+      }
+    }
+    catch (Exception e)
+    {
+      LOG.warn("Could not unregister MBean " + OBJECT_NAME, e);
+    }
+  }
+
+  private static MBeanInfo buildBeanInfo(Map<String, Number> values)
+  {
+    List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+    for (String name : values.keySet())
+    {
+      attributes.add(new MBeanAttributeInfo(name,
+                                            Number.class.getName(),
+                                            name,
+                                            true,
+                                            false,
+                                            false));
+    }
+    return new MBeanInfo(JmxMetricsReporter.class.getName(),
+                         "Snapshot of Helix metrics",
+                         attributes.toArray(new MBeanAttributeInfo[0]),
+                         null,
+                         new MBeanOperationInfo[0],
+                         null);
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException
+  {
+    Map<String, Number> values = _values;
+    if (!values.containsKey(attribute))
+    {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return values.get(attribute);
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes)
+  {
+    Map<String, Number> values = _values;
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes)
+    {
+      if (values.containsKey(attribute))
+      {
+        list.add(new Attribute(attribute, values.get(attribute)));
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+  {
+    throw new AttributeNotFoundException("Read only attribute: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes)
+  {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature)
+  {
+    throw new UnsupportedOperationException("No operation: " + actionName);
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo()
+  {
+    return _beanInfo;
+  }
+}
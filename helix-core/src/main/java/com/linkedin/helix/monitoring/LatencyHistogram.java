@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.monitoring;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Lock-free histogram of non-negative long values, e.g. latencies in ms or queue sizes.
+ * <p>
+ * Values are counted in log-scaled buckets: each power of two range is split into
+ * SUB_BUCKET_NUM linear sub-buckets, so a value is reported within 1/SUB_BUCKET_NUM of
+ * its magnitude using fixed memory, no matter how many values are recorded.
+ * <p>
+ * Counts go into a ring of interval histograms, each covering intervalMs. A snapshot
+ * merges the intervals of the requested window, so percentiles and rates reflect recent
+ * traffic only. Recording is a few atomic increments and never blocks.
+ */
+public class LatencyHistogram
+{
+  private static final Logger LOG = Logger.getLogger(LatencyHistogram.class);
+
+  static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKET_NUM = 1 << SUB_BUCKET_BITS;
+  // values up to 2^MAX_VALUE_BITS - 1, larger values are counted in the last bucket
+  static final int MAX_VALUE_BITS = 40;
+  static final int BUCKET_NUM = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_NUM;
+
+  public static final long DEFAULT_INTERVAL_MS = 10 * 1000;
+  public static final int DEFAULT_INTERVAL_NUM = 6;
+
+  private final long _intervalMs;
+  private final AtomicReferenceArray<Interval> _intervals;
+
+  // since creation or last reset
+  private final AtomicLong _totalCount = new AtomicLong();
+  private final AtomicLong _totalSum = new AtomicLong();
+
+  static class Interval
+  {
+    final long _start;
+    final AtomicLongArray _counts = new AtomicLongArray(BUCKET_NUM);
+    final AtomicLong _count = new AtomicLong();
+    final AtomicLong _sum = new AtomicLong();
+    final AtomicLong _min = new AtomicLong(Long.MAX_VALUE);
+    final AtomicLong _max = new AtomicLong(Long.MIN_VALUE);
+
+    Interval(long start)
+    {
+      _start = start;
+    }
+
+    void record(long value)
+    {
+      _counts.incrementAndGet(getBucketIndex(value));
+      _count.incrementAndGet();
+      _sum.addAndGet(value);
+      long min = _min.get();
+      while (value < min && !_min.compareAndSet(min, value))
+      {
+        min = _min.get();
+      }
+      long max = _max.get();
+      while (value > max && !_max.compareAndSet(max, value))
+      {
+        max = _max.get();
+      }
+    }
+  }
+
+  /**
+   * Histogram with the window configured by system properties
+   * helix.monitoring.histogram.intervalMs and helix.monitoring.histogram.intervalNum,
+   * 6 intervals of 10s by default
+   */
+  public LatencyHistogram()
+  {
+    this(getConfig("helix.monitoring.histogram.intervalMs", DEFAULT_INTERVAL_MS),
+         (int) getConfig("helix.monitoring.histogram.intervalNum", DEFAULT_INTERVAL_NUM));
+  }
+
+  public LatencyHistogram(long intervalMs, int intervalNum)
+  {
+    if (intervalMs <= 0 || intervalNum <= 0)
+    {
+      throw new IllegalArgumentException("intervalMs and intervalNum must be positive (was "
+          + intervalMs + ", " + intervalNum + ")");
+    }
+    _intervalMs = intervalMs;
+    _intervals = new AtomicReferenceArray<Interval>(intervalNum);
+  }
+
+  private static long getConfig(String name, long defaultValue)
+  {
+    try
+    {
+      return Long.parseLong(System.getProperty(name, "" + defaultValue));
+    }
+    catch (NumberFormatException e)
+    {
+      LOG.warn("Invalid " + name + ": " + System.getProperty(name) + ", use default "
+          + defaultValue);
+      return defaultValue;
+    }
+  }
+
+  static int getBucketIndex(long value)
+  {
+    if (value < SUB_BUCKET_NUM)
+    {
+      return (int) value;
+    }
+    int msb = 63 - Long.numberOfLeadingZeros(value);
+    if (msb >= MAX_VALUE_BITS)
+    {
+      return BUCKET_NUM - 1;
+    }
+    int shift = msb - SUB_BUCKET_BITS;
+    int sub = (int) ((value >>> shift) & (SUB_BUCKET_NUM - 1));
+    return (shift + 1) * SUB_BUCKET_NUM + sub;
+  }
+
+  /*
+   * Middle of the value range counted in the bucket
+   */
+  static long getBucketValue(int index)
+  {
+    if (index < SUB_BUCKET_NUM)
+    {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_NUM - 1;
+    long lower = ((long) (SUB_BUCKET_NUM + index % SUB_BUCKET_NUM)) << shift;
+    return lower + ((1L << shift) >> 1);
+  }
+
+  protected long currentTimeMillis()
+  {
+    return System.currentTimeMillis();
+  }
+
+  public void record(long value)
+  {
+    if (value < 0)
+    {
+      value = 0;
+    }
+    _totalCount.incrementAndGet();
+    _totalSum.addAndGet(value);
+    getCurrentInterval().record(value);
+  }
+
+  private Interval getCurrentInterval()
+  {
+    long start = currentTimeMillis() / _intervalMs * _intervalMs;
+    int slot = (int) ((start / _intervalMs) % _intervals.length());
+    Interval interval = _intervals.get(slot);
+    while (interval == null || interval._start < start)
+    {
+      // the slot still holds an interval one ring ago, replace it. values recorded
+      // into the old one by racing threads are dropped
+      Interval newInterval = new Interval(start);
+      if (_intervals.compareAndSet(slot, interval, newInterval))
+      {
+        return newInterval;
+      }
+      interval = _intervals.get(slot);
+    }
+    return interval;
+  }
+
+  /**
+   * Snapshot over all intervals kept
+   */
+  public Snapshot getSnapshot()
+  {
+    return getSnapshot(_intervalMs * _intervals.length());
+  }
+
+  /**
+   * Snapshot over the intervals that overlap the last windowMs, including the current
+   * interval. Windows longer than the intervals kept are cut to them
+   */
+  public Snapshot getSnapshot(long windowMs)
+  {
+    long now = currentTimeMillis();
+    long currentStart = now / _intervalMs * _intervalMs;
+    int intervalNum = (int) Math.min(_intervals.length(), Math.max(1,
+        (windowMs + _intervalMs - 1) / _intervalMs));
+    long windowStart = currentStart - (intervalNum - 1) * _intervalMs;
+
+    long[] counts = new long[BUCKET_NUM];
+    long count = 0;
+    long sum = 0;
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int i = 0; i < _intervals.length(); i++)
+    {
+      Interval interval = _intervals.get(i);
+      if (interval == null || interval._start < windowStart || interval._start > currentStart)
+      {
+        continue;
+      }
+      for (int j = 0; j < BUCKET_NUM; j++)
+      {
+        counts[j] += interval._counts.get(j);
+      }
+      count += interval._count.get();
+      sum += interval._sum.get();
+      min = Math.min(min, interval._min.get());
+      max = Math.max(max, interval._max.get());
+    }
+    // the current interval has only run for part of its length
+    long elapsedMs = now - windowStart;
+    return new Snapshot(counts, count, sum, min, max, elapsedMs);
+  }
+
+  public long getTotalCount()
+  {
+    return _totalCount.get();
+  }
+
+  public long getTotalSum()
+  {
+    return _totalSum.get();
+  }
+
+  public void reset()
+  {
+    for (int i = 0; i < _intervals.length(); i++)
+    {
+      _intervals.set(i, null);
+    }
+    _totalCount.set(0);
+    _totalSum.set(0);
+  }
+
+  /**
+   * Immutable view of the values recorded in a window
+   */
+  public static class Snapshot
+  {
+    private final long[] _counts;
+    private final long _count;
+    private final long _sum;
+    private final long _min;
+    private final long _max;
+    private final long _elapsedMs;
+
+    Snapshot(long[] counts, long count, long sum, long min, long max, long elapsedMs)
+    {
+      _counts = counts;
+      _count = count;
+      _sum = sum;
+      _min = min;
+      _max = max;
+      _elapsedMs = elapsedMs;
+    }
+
+    public long getCount()
+    {
+      return _count;
+    }
+
+    public long getSum()
+    {
+      return _sum;
+    }
+
+    public double getMean()
+    {
+      return _count == 0 ? 0 : (double) _sum / _count;
+    }
+
+    public long getMin()
+    {
+      return _count == 0 ? 0 : _min;
+    }
+
+    public long getMax()
+    {
+      return _count == 0 ? 0 : _max;
+    }
+
+    /**
+     * Number of values recorded per second
+     */
+    public double getRate()
+    {
+      return _elapsedMs <= 0 ? 0 : _count * 1000.0 / _elapsedMs;
+    }
+
+    /**
+     * @param percentile
+     *          0 to 100, e.g. 99.9
+     * @return the value at the percentile, within the bucket precision and between the
+     *         min and max recorded
+     */
+    public long getPercentile(double percentile)
+    {
+      if (_count == 0)
+      {
+        return 0;
+      }
+      long rank = (long) Math.ceil(percentile / 100.0 * _count);
+      rank = Math.max(1, Math.min(_count, rank));
+      long seen = 0;
+      for (int i = 0; i < _counts.length; i++)
+      {
+        seen += _counts[i];
+        if (seen >= rank)
+        {
+          return Math.max(_min, Math.min(_max, getBucketValue(i)));
+        }
+      }
+      return _max;
+    }
+  }
+}
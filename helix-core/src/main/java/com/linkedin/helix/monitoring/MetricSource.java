@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.monitoring;
+
+import java.util.Map;
+
+/**
+ * A monitor whose metrics are collected by MetricsRegistry in one call per snapshot,
+ * instead of an attribute read per metric as JMX does
+ */
+public interface MetricSource extends SensorNameProvider
+{
+  /**
+   * Put the current value of each metric, keyed by the same name as the mbean
+   * attribute, e.g. "DownInstanceGauge"
+   */
+  void collectMetrics(Map<String, Number> metrics);
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.monitoring;
+
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Registry of the metric sources of a process. Reporters get a snapshot of all sources
+ * collected in one pass once per report period, so exporting metrics costs one call
+ * per source rather than a JMX attribute read per metric.
+ *
+ * The default registry starts the reporters named in the system property
+ * helix.monitoring.reporters, a comma separated list of jmx, csv, http or class names
+ * of MetricsReporter implementations, reporting every helix.monitoring.reportPeriodMs.
+ */
+public class MetricsRegistry
+{
+  private static final Logger LOG = Logger.getLogger(MetricsRegistry.class);
+
+  public static final String REPORTERS_PROPERTY = "helix.monitoring.reporters";
+  public static final String REPORT_PERIOD_PROPERTY = "helix.monitoring.reportPeriodMs";
+  public static final long DEFAULT_REPORT_PERIOD = 60 * 1000;
+
+  private static final MetricsRegistry DEFAULT_REGISTRY = createDefault();
+
+  private final ConcurrentHashMap<String, MetricSource> _sources =
+      new ConcurrentHashMap<String, MetricSource>();
+  private final CopyOnWriteArrayList<MetricsReporter> _reporters =
+      new CopyOnWriteArrayList<MetricsReporter>();
+  private Timer _timer;
+
+  public static MetricsRegistry getDefault()
+  {
+    return DEFAULT_REGISTRY;
+  }
+
+  private static MetricsRegistry createDefault()
+  {
+    MetricsRegistry registry = new MetricsRegistry();
+    String reporters = System.getProperty(REPORTERS_PROPERTY);
+    if (reporters == null || reporters.trim().length() == 0)
+    {
+      return registry;
+    }
+    for (String reporterName : reporters.split(","))
+    {
+      reporterName = reporterName.trim();
+      try
+      {
+        registry.addReporter(createReporter(reporterName));
+      }
+      catch (Exception e)
+      {
+        LOG.error("Fail to create metrics reporter: " + reporterName, e);
+      }
+    }
+    long period = DEFAULT_REPORT_PERIOD;
+    try
+    {
+      period = Long.parseLong(System.getProperty(REPORT_PERIOD_PROPERTY,
+                                                 String.valueOf(DEFAULT_REPORT_PERIOD)));
+    }
+    catch (NumberFormatException e)
+    {
+      LOG.warn("Invalid " + REPORT_PERIOD_PROPERTY + ", use " + period);
+    }
+    registry.startReporting(period);
+    return registry;
+  }
+
+  static MetricsReporter createReporter(String reporterName) throws Exception
+  {
+    if (reporterName.equalsIgnoreCase("jmx"))
+    {
+      return new JmxMetricsReporter();
+    }
+    else if (reporterName.equalsIgnoreCase("csv"))
+    {
+      return new CsvMetricsReporter();
+    }
+    else if (reporterName.equalsIgnoreCase("http"))
+    {
+      return new HttpMetricsReporter();
+    }
+    return (MetricsReporter) Class.forName(reporterName).getDeclaredConstructor().newInstance();
+  }
+
+  /**
+   * A source replaces the one registered with the same sensor name
+   */
+  public void register(MetricSource source)
+  {
+    _sources.put(source.getSensorName(), source);
+  }
+
+  public void unregister(MetricSource source)
+  {
+    _sources.remove(source.getSensorName(), source);
+  }
+
+  public int getSourceCount()
+  {
+    return _sources.size();
+  }
+
+  public MetricsSnapshot snapshot()
+  {
+    Map<String, Map<String, Number>> metrics = new TreeMap<String, Map<String, Number>>();
+    for (MetricSource source : _sources.values())
+    {
+      Map<String, Number> sourceMetrics = new TreeMap<String, Number>();
+      try
+      {
+        source.collectMetrics(sourceMetrics);
+      }
+      catch (Exception e)
+      {
+        LOG.warn("Fail to collect metrics of " + source.getSensorName(), e);
+        continue;
+      }
+      metrics.put(source.getSensorName(), sourceMetrics);
+    }
+    return new MetricsSnapshot(System.currentTimeMillis(), metrics);
+  }
+
+  public void addReporter(MetricsReporter reporter)
+  {
+    reporter.start();
+    _reporters.add(reporter);
+  }
+
+  public void removeReporter(MetricsReporter reporter)
+  {
+    if (_reporters.remove(reporter))
+    {
+      reporter.stop();
+    }
+  }
+
+  /**
+   * Collect one snapshot and pass it to all reporters
+   */
+  public void report()
+  {
+    if (_reporters.isEmpty())
+    {
+      return;
+    }
+    MetricsSnapshot snapshot = snapshot();
+    for (MetricsReporter reporter : _reporters)
+    {
+      try
+      {
+        reporter.report(snapshot);
+      }
+      catch (Exception e)
+      {
+        LOG.warn("Fail to report metrics to " + reporter, e);
+      }
+    }
+  }
+
+  public synchronized void startReporting(long period)
+  {
+    if (_timer != null)
+    {
+      LOG.warn("metrics reporting already started");
+      return;
+    }
+    _timer = new Timer("MetricsReporting", true);
+    _timer.scheduleAtFixedRate(new TimerTask()
+    {
+      @Override
+      public void run()
+      {
+        report();
+      }
+    }, period, period);
+  }
+
+  public synchronized void stopReporting()
+  {
+    if (_timer != null)
+    {
+      _timer.cancel();
+      _timer = null;
+    }
+    for (MetricsReporter reporter : _reporters)
+    {
+      reporter.stop();
+    }
+    _reporters.clear();
+  }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.monitoring;
+
+/**
+ * Reporter SPI of MetricsRegistry. Reporters added to a registry get a snapshot of all
+ * metric sources once per report period. A reporter named in the system property
+ * helix.monitoring.reporters needs a public no-arg constructor.
+ */
+public interface MetricsReporter
+{
+  void start();
+
+  /**
+   * Called from the reporting thread of the registry, one call at a time
+   */
+  void report(MetricsSnapshot snapshot);
+
+  void stop();
+}
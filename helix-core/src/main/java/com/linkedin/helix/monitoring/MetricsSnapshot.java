@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.monitoring;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Values of all metrics of all sources of a registry collected at one time
+ */
+public class MetricsSnapshot
+{
+  private final long _timestamp;
+  // sensor name -> metric name -> value, sorted
+  private final Map<String, Map<String, Number>> _metrics;
+
+  MetricsSnapshot(long timestamp, Map<String, Map<String, Number>> metrics)
+  {
+    _timestamp = timestamp;
+    _metrics = Collections.unmodifiableMap(metrics);
+  }
+
+  public long getTimestamp()
+  {
+    return _timestamp;
+  }
+
+  public Map<String, Map<String, Number>> getMetrics()
+  {
+    return _metrics;
+  }
+
+  public Map<String, Number> getMetrics(String sensorName)
+  {
+    return _metrics.get(sensorName);
+  }
+
+  public int size()
+  {
+    int size = 0;
+    for (Map<String, Number> metrics : _metrics.values())
+    {
+      size += metrics.size();
+    }
+    return size;
+  }
+
+  /**
+   * One line per metric: sensorName.metricName value
+   */
+  public void writeText(Writer writer) throws IOException
+  {
+    for (String sensorName : _metrics.keySet())
+    {
+      Map<String, Number> metrics = _metrics.get(sensorName);
+      for (String metricName : metrics.keySet())
+      {
+        writer.write(sensorName);
+        writer.write('.');
+        writer.write(metricName);
+        writer.write(' ');
+        writer.write(String.valueOf(metrics.get(metricName)));
+        writer.write('\n');
+      }
+    }
+  }
+}
@@ -26,11 +26,14 @@ import javax.management.ObjectName;
 import org.apache.log4j.Logger;
 
 import com.linkedin.helix.monitoring.mbeans.StateTransitionStatMonitor;
+import com.linkedin.helix.monitoring.mbeans.ThreadPoolMonitor;
 
 public class ParticipantMonitor
 {
   private final ConcurrentHashMap<StateTransitionContext, StateTransitionStatMonitor> _monitorMap
    = new ConcurrentHashMap<StateTransitionContext, StateTransitionStatMonitor>();
+  private final ConcurrentHashMap<String, ThreadPoolMonitor> _threadPoolMonitorMap
+   = new ConcurrentHashMap<String, ThreadPoolMonitor>();
   private static final Logger LOG = Logger.getLogger(ParticipantMonitor.class);
 
   private MBeanServer _beanServer;
@@ -59,20 +62,20 @@ public class ParticipantMonitor
     }
     try
     {
-      if(!_monitorMap.containsKey(cxt))
+      StateTransitionStatMonitor bean = _monitorMap.get(cxt);
+      if(bean == null)
       {
-        synchronized(this)
+        // only the thread that wins putIfAbsent registers the bean
+        StateTransitionStatMonitor newBean = new StateTransitionStatMonitor(cxt, TimeUnit.MILLISECONDS);
+        bean = _monitorMap.putIfAbsent(cxt, newBean);
+        if(bean == null)
         {
-          if(!_monitorMap.containsKey(cxt))
-          {
-            StateTransitionStatMonitor bean = new StateTransitionStatMonitor(cxt, TimeUnit.MILLISECONDS);
-            _monitorMap.put(cxt, bean);
-            String beanName = cxt.toString();
-            register(bean, getObjectName(beanName));
-          }
+          bean = newBean;
+          register(bean, getObjectName(cxt.toString()));
+          MetricsRegistry.getDefault().register(bean);
         }
       }
-      _monitorMap.get(cxt).addDataPoint(data);
+      bean.addDataPoint(data);
     }
     catch(Exception e)
     {
@@ -82,6 +85,52 @@ public class ParticipantMonitor
   }
 
 
+  public void registerThreadPool(ThreadPoolMonitor bean)
+  {
+    try
+    {
+      _threadPoolMonitorMap.put(bean.getPoolName(), bean);
+      register(bean, getObjectName(getThreadPoolBeanName(bean.getPoolName())));
+    }
+    catch(Exception e)
+    {
+      LOG.warn("fail to register thread pool " + bean.getPoolName(), e);
+    }
+  }
+
+  public void unregisterThreadPool(String poolName)
+  {
+    if (_threadPoolMonitorMap.remove(poolName) != null)
+    {
+      unregister(getThreadPoolBeanName(poolName));
+    }
+  }
+
+  private String getThreadPoolBeanName(String poolName)
+  {
+    return "ThreadPool=" + poolName;
+  }
+
+  private void unregister(String beanName)
+  {
+    if(_beanServer == null)
+    {
+      return;
+    }
+    try
+    {
+      ObjectName name = getObjectName(beanName);
+      if (_beanServer.isRegistered(name))
+      {
+        _beanServer.unregisterMBean(name);
+      }
+    }
+    catch (Exception e)
+    {
+      LOG.warn("fail to unregister " + beanName, e);
+    }
+  }
+
   private ObjectName getObjectName(String name) throws MalformedObjectNameException
   {
     LOG.info("Registering bean: "+name);
@@ -118,20 +167,15 @@ public class ParticipantMonitor
   {
     for(StateTransitionContext cxt : _monitorMap.keySet() )
     {
-      try
-      {
-        ObjectName name = getObjectName(cxt.toString());
-        if (_beanServer.isRegistered(name))
-        {
-          _beanServer.unregisterMBean(name);
-        }
-      }
-      catch (Exception e)
-      {
-        LOG.warn("fail to unregister " + cxt.toString(), e);
-      }
+      unregister(cxt.toString());
+      MetricsRegistry.getDefault().unregister(_monitorMap.get(cxt));
     }
     _monitorMap.clear();
+    for(String poolName : _threadPoolMonitorMap.keySet())
+    {
+      unregister(getThreadPoolBeanName(poolName));
+    }
+    _threadPoolMonitorMap.clear();
 
   }
 }
@@ -17,10 +17,13 @@ package com.linkedin.helix.monitoring.mbeans;
 
 
 import java.util.Date;
+import java.util.Map;
 
 import com.linkedin.helix.alerts.AlertValueAndStatus;
+import com.linkedin.helix.alerts.NumericTuple;
+import com.linkedin.helix.monitoring.MetricSource;
 
-public class ClusterAlertItem implements ClusterAlertItemMBean
+public class ClusterAlertItem implements ClusterAlertItemMBean, MetricSource
 {
   String _alertItemName;
   double  _alertValue;
@@ -56,9 +59,10 @@ public class ClusterAlertItem implements ClusterAlertItemMBean
   void refreshValues()
   {
     _lastUpdateTime = new Date().getTime();
-    if(_valueAndStatus.getValue().getElements().size() > 0)
+    NumericTuple value = _valueAndStatus.getNumericValue();
+    if(value != null && value.size() > 0)
     {
-      _alertValue = Double.parseDouble(_valueAndStatus.getValue().getElements().get(0));
+      _alertValue = value.getElement(0);
     }
     else
     {
@@ -94,4 +98,11 @@ public class ClusterAlertItem implements ClusterAlertItemMBean
   {
     return _lastUpdateTime;
   }
+
+  @Override
+  public void collectMetrics(Map<String, Number> metrics)
+  {
+    metrics.put("AlertValue", getAlertValue());
+    metrics.put("AlertFired", getAlertFired());
+  }
 }
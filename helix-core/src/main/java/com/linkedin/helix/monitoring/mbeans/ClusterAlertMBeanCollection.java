@@ -37,7 +37,8 @@ import com.linkedin.helix.PropertyType;
 import com.linkedin.helix.ZNRecord;
 import com.linkedin.helix.alerts.AlertParser;
 import com.linkedin.helix.alerts.AlertValueAndStatus;
-import com.linkedin.helix.alerts.Tuple;
+import com.linkedin.helix.alerts.NumericTuple;
+import com.linkedin.helix.monitoring.MetricsRegistry;
 
 public class ClusterAlertMBeanCollection
 {
@@ -149,6 +150,7 @@ public class ClusterAlertMBeanCollection
       {
         ClusterAlertItem item = new ClusterAlertItem(beanName, alertResultMap.get(alertName));
         onNewAlertMbeanAdded(item);
+        MetricsRegistry.getDefault().register(item);
         _alertBeans.put(beanName, item);
       }
       else
@@ -185,13 +187,14 @@ public class ClusterAlertMBeanCollection
         }
       }
     }
-    Tuple<String> t = new Tuple<String>();
-    t.add("0");
+    NumericTuple t = new NumericTuple();
+    t.add(0);
     AlertValueAndStatus summaryStatus = new AlertValueAndStatus(t, fired);
     if(!_alertBeans.containsKey(summaryKey))
     {
       ClusterAlertSummary item = new ClusterAlertSummary(summaryKey, summaryStatus);
       onNewAlertMbeanAdded(item);
+      MetricsRegistry.getDefault().register(item);
       item.setAdditionalInfo(alertsFired);
       _alertBeans.put(summaryKey, item);
       _clusterAlertSummary = item;
@@ -228,6 +231,7 @@ public class ClusterAlertMBeanCollection
     {
       ClusterAlertItem item = _alertBeans.get(beanName);
       item.reset();
+      MetricsRegistry.getDefault().unregister(item);
       try
       {
         ObjectName objectName =  new ObjectName(DOMAIN_ALERT+":alert="+item.getSensorName());
@@ -318,6 +322,7 @@ public class ClusterAlertMBeanCollection
     {
       ClusterAlertItem item = _alertBeans.get(beanName);
       _alertBeans.remove(beanName);
+      MetricsRegistry.getDefault().unregister(item);
       try
       {
         item.reset();      
@@ -28,8 +28,10 @@ import org.apache.log4j.Logger;
 
 import com.linkedin.helix.model.ExternalView;
 import com.linkedin.helix.model.IdealState;
+import com.linkedin.helix.monitoring.MetricSource;
+import com.linkedin.helix.monitoring.MetricsRegistry;
 
-public class ClusterStatusMonitor implements ClusterStatusMonitorMBean
+public class ClusterStatusMonitor implements ClusterStatusMonitorMBean, MetricSource
 {
   private static final Logger                                  LOG                       =
                                                                                              Logger.getLogger(ClusterStatusMonitor.class);
@@ -77,6 +79,7 @@ public class ClusterStatusMonitor implements ClusterStatusMonitorMBean
     {
       LOG.error("Register self failed.", e);
     }
+    MetricsRegistry.getDefault().register(this);
   }
 
   public ObjectName getObjectName(String name) throws MalformedObjectNameException
@@ -210,6 +213,7 @@ public class ClusterStatusMonitor implements ClusterStatusMonitorMBean
                 CLUSTER_DN_KEY + "=" + _clusterName + "," + RESOURCE_DN_KEY + "="
                     + resourceName;
             register(bean, getObjectName(beanName));
+            MetricsRegistry.getDefault().register(bean);
             _resourceMbeanMap.put(resourceName, bean);
           }
         }
@@ -257,6 +261,7 @@ public class ClusterStatusMonitor implements ClusterStatusMonitorMBean
             CLUSTER_DN_KEY + "=" + _clusterName + "," + RESOURCE_DN_KEY + "="
                 + resourceName;
         unregister(getObjectName(beanName));
+        MetricsRegistry.getDefault().unregister(_resourceMbeanMap.get(resourceName));
       }
       _resourceMbeanMap.clear();
 
@@ -267,6 +272,7 @@ public class ClusterStatusMonitor implements ClusterStatusMonitorMBean
       _instanceMsgQueueMbeanMap.clear();
 
       unregister(getObjectName(CLUSTER_DN_KEY + "=" + _clusterName));
+      MetricsRegistry.getDefault().unregister(this);
     }
     catch (Exception e)
     {
@@ -280,4 +286,14 @@ public class ClusterStatusMonitor implements ClusterStatusMonitorMBean
     return CLUSTER_STATUS_KEY + "_" + _clusterName;
   }
 
+  @Override
+  public void collectMetrics(Map<String, Number> metrics)
+  {
+    metrics.put("DownInstanceGauge", getDownInstanceGauge());
+    metrics.put("InstancesGauge", getInstancesGauge());
+    metrics.put("DisabledInstancesGauge", getDisabledInstancesGauge());
+    metrics.put("DisabledPartitionsGauge", getDisabledPartitionsGauge());
+    metrics.put("MaxMessageQueueSizeGauge", getMaxMessageQueueSizeGauge());
+  }
+
 }
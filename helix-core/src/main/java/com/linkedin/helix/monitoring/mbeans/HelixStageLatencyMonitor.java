@@ -22,13 +22,13 @@ import javax.management.ObjectName;
 
 import org.apache.log4j.Logger;
 
-import com.linkedin.helix.monitoring.StatCollector;
+import com.linkedin.helix.monitoring.LatencyHistogram;
 
 public class HelixStageLatencyMonitor implements HelixStageLatencyMonitorMBean
 {
   private static final Logger LOG = Logger.getLogger(HelixStageLatencyMonitor.class);
 
-  private final StatCollector _stgLatency;
+  private final LatencyHistogram _stgLatency;
   private final MBeanServer _beanServer;
   private final String _clusterName;
   private final String _stageName;
@@ -38,7 +38,7 @@ public class HelixStageLatencyMonitor implements HelixStageLatencyMonitorMBean
   {
     _clusterName = clusterName;
     _stageName = stageName;
-    _stgLatency = new StatCollector();
+    _stgLatency = new LatencyHistogram();
     _beanServer = ManagementFactory.getPlatformMBeanServer();
     _objectName = new ObjectName("StageLatencyMonitor: " + "cluster=" + _clusterName + ",stage=" + _stageName);
     try
@@ -83,7 +83,7 @@ public class HelixStageLatencyMonitor implements HelixStageLatencyMonitorMBean
 
   public void addStgLatency(long time)
   {
-    _stgLatency.addData(time);
+    _stgLatency.record(time);
   }
 
   public void reset()
@@ -95,19 +95,49 @@ public class HelixStageLatencyMonitor implements HelixStageLatencyMonitorMBean
   @Override
   public long getMaxStgLatency()
   {
-    return (long) _stgLatency.getMax();
+    return _stgLatency.getSnapshot().getMax();
   }
 
   @Override
   public long getMeanStgLatency()
   {
-    return (long) _stgLatency.getMean();
+    return (long) _stgLatency.getSnapshot().getMean();
+  }
+
+  @Override
+  public long get50StgLatency()
+  {
+    return _stgLatency.getSnapshot().getPercentile(50);
+  }
+
+  @Override
+  public long get90StgLatency()
+  {
+    return _stgLatency.getSnapshot().getPercentile(90);
   }
 
   @Override
   public long get95StgLatency()
   {
-    return (long) _stgLatency.getPercentile(95);
+    return _stgLatency.getSnapshot().getPercentile(95);
+  }
+
+  @Override
+  public long get99StgLatency()
+  {
+    return _stgLatency.getSnapshot().getPercentile(99);
+  }
+
+  @Override
+  public long get999StgLatency()
+  {
+    return _stgLatency.getSnapshot().getPercentile(99.9);
+  }
+
+  @Override
+  public double getStgRate()
+  {
+    return _stgLatency.getSnapshot().getRate();
   }
 
 }
@@ -21,5 +21,16 @@ public interface HelixStageLatencyMonitorMBean
 
   public long getMeanStgLatency();
 
+  public long get50StgLatency();
+
+  public long get90StgLatency();
+
   public long get95StgLatency();
+
+  public long get99StgLatency();
+
+  public long get999StgLatency();
+
+  // stage runs per second in the recent window
+  public double getStgRate();
 }
@@ -2,13 +2,13 @@ package com.linkedin.helix.monitoring.mbeans;
 
 import org.apache.log4j.Logger;
 
-import com.linkedin.helix.monitoring.StatCollector;
+import com.linkedin.helix.monitoring.LatencyHistogram;
 
 public class MessageQueueMonitor implements MessageQueueMonitorMBean
 {
   private static final Logger LOG = Logger.getLogger(MessageQueueMonitor.class);
 
-  private final StatCollector _messageQueueSizeStat;
+  private final LatencyHistogram _messageQueueSizeStat;
   private final String        _clusterName;
   private final String        _instanceName;
 
@@ -16,13 +16,13 @@ public class MessageQueueMonitor implements MessageQueueMonitorMBean
   {
     _clusterName = clusterName;
     _instanceName = instanceName;
-    _messageQueueSizeStat = new StatCollector();
+    _messageQueueSizeStat = new LatencyHistogram();
   }
 
 
   public void addMessageQueueSize(long size)
   {
-    _messageQueueSizeStat.addData(size);
+    _messageQueueSizeStat.record(size);
   }
 
   public void reset()
@@ -33,13 +33,37 @@ public class MessageQueueMonitor implements MessageQueueMonitorMBean
   @Override
   public double getMaxMessageQueueSize()
   {
-    return _messageQueueSizeStat.getMax();
+    return _messageQueueSizeStat.getSnapshot().getMax();
   }
 
   @Override
   public double getMeanMessageQueueSize()
   {
-    return _messageQueueSizeStat.getMean();
+    return _messageQueueSizeStat.getSnapshot().getMean();
+  }
+
+  @Override
+  public double get50MessageQueueSize()
+  {
+    return _messageQueueSizeStat.getSnapshot().getPercentile(50);
+  }
+
+  @Override
+  public double get90MessageQueueSize()
+  {
+    return _messageQueueSizeStat.getSnapshot().getPercentile(90);
+  }
+
+  @Override
+  public double get99MessageQueueSize()
+  {
+    return _messageQueueSizeStat.getSnapshot().getPercentile(99);
+  }
+
+  @Override
+  public double get999MessageQueueSize()
+  {
+    return _messageQueueSizeStat.getSnapshot().getPercentile(99.9);
   }
 
   @Override
@@ -16,4 +16,16 @@ public interface MessageQueueMonitorMBean extends SensorNameProvider
    */
   public double getMeanMessageQueueSize();
 
+  /**
+   * Get the percentiles of message queue size in the recent window
+   * @return
+   */
+  public double get50MessageQueueSize();
+
+  public double get90MessageQueueSize();
+
+  public double get99MessageQueueSize();
+
+  public double get999MessageQueueSize();
+
 }
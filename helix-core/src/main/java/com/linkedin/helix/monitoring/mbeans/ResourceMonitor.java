@@ -21,8 +21,9 @@ import org.apache.log4j.Logger;
 
 import com.linkedin.helix.model.ExternalView;
 import com.linkedin.helix.model.IdealState;
+import com.linkedin.helix.monitoring.MetricSource;
 
-public class ResourceMonitor implements ResourceMonitorMBean
+public class ResourceMonitor implements ResourceMonitorMBean, MetricSource
 {
   int                         _numOfPartitions;
   int                         _numOfPartitionsInExternalView;
@@ -135,4 +136,13 @@ public class ResourceMonitor implements ResourceMonitorMBean
   {
     return _clusterName + " " + _resourceName;
   }
+
+  @Override
+  public void collectMetrics(Map<String, Number> metrics)
+  {
+    metrics.put("PartitionGauge", getPartitionGauge());
+    metrics.put("ErrorPartitionGauge", getErrorPartitionGauge());
+    metrics.put("DifferenceWithIdealStateGauge", getDifferenceWithIdealStateGauge());
+    metrics.put("ExternalViewPartitionGauge", getExternalViewPartitionGauge());
+  }
 }
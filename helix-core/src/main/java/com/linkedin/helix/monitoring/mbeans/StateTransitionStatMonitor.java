@@ -15,32 +15,37 @@
  */
 package com.linkedin.helix.monitoring.mbeans;
 
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.linkedin.helix.monitoring.StatCollector;
+import com.linkedin.helix.monitoring.LatencyHistogram;
+import com.linkedin.helix.monitoring.MetricSource;
 import com.linkedin.helix.monitoring.StateTransitionContext;
 import com.linkedin.helix.monitoring.StateTransitionDataPoint;
 
-public class StateTransitionStatMonitor implements StateTransitionStatMonitorMBean
+public class StateTransitionStatMonitor implements StateTransitionStatMonitorMBean, MetricSource
 {
   public enum LATENCY_TYPE {TOTAL, EXECUTION};
   
   private static final int DEFAULT_WINDOW_SIZE = 4000;
-  private long _numDataPoints;
-  private long _successCount;
+  private final AtomicLong _numDataPoints = new AtomicLong();
+  private final AtomicLong _successCount = new AtomicLong();
   private TimeUnit _unit;
   
-  private ConcurrentHashMap<LATENCY_TYPE, StatCollector> _monitorMap
-     = new ConcurrentHashMap<LATENCY_TYPE, StatCollector>();
+  // latencies of transitions in the recent window, recorded without locking by the
+  // transition threads
+  private ConcurrentHashMap<LATENCY_TYPE, LatencyHistogram> _monitorMap
+     = new ConcurrentHashMap<LATENCY_TYPE, LatencyHistogram>();
   
   StateTransitionContext _context;
   
   public StateTransitionStatMonitor(StateTransitionContext context, TimeUnit unit)
   {
     _context = context;
-    _monitorMap.put(LATENCY_TYPE.TOTAL, new StatCollector());
-    _monitorMap.put(LATENCY_TYPE.EXECUTION, new StatCollector());
+    _monitorMap.put(LATENCY_TYPE.TOTAL, new LatencyHistogram());
+    _monitorMap.put(LATENCY_TYPE.EXECUTION, new LatencyHistogram());
     reset();
   }
   
@@ -53,13 +58,46 @@ public class StateTransitionStatMonitor implements StateTransitionStatMonitorMBe
   {
     return _context.getClusterName()+" "+_context.getResourceName()+" "+_context.getTransition();
   }
+
+  @Override
+  public String getSensorName()
+  {
+    return "StateTransitionStat_" + _context.getClusterName() + "_"
+        + _context.getResourceName() + "_" + _context.getTransition();
+  }
+
+  @Override
+  public void collectMetrics(Map<String, Number> metrics)
+  {
+    metrics.put("TotalStateTransitionGauge", getTotalStateTransitionGauge());
+    metrics.put("TotalFailedTransitionGauge", getTotalFailedTransitionGauge());
+    metrics.put("TotalSuccessTransitionGauge", getTotalSuccessTransitionGauge());
+    // one snapshot of each histogram for all of its metrics
+    LatencyHistogram.Snapshot total = getSnapshot(LATENCY_TYPE.TOTAL);
+    metrics.put("TransitionRate", total.getRate());
+    collectLatencies(total, "TransitionLatency", metrics);
+    collectLatencies(getSnapshot(LATENCY_TYPE.EXECUTION), "TransitionExecuteLatency", metrics);
+  }
+
+  private void collectLatencies(LatencyHistogram.Snapshot snapshot,
+                                String suffix,
+                                Map<String, Number> metrics)
+  {
+    metrics.put("Mean" + suffix, snapshot.getMean());
+    metrics.put("Max" + suffix, snapshot.getMax());
+    metrics.put("Min" + suffix, snapshot.getMin());
+    metrics.put("50" + suffix, snapshot.getPercentile(50));
+    metrics.put("90" + suffix, snapshot.getPercentile(90));
+    metrics.put("99" + suffix, snapshot.getPercentile(99));
+    metrics.put("999" + suffix, snapshot.getPercentile(99.9));
+  }
   
   public void addDataPoint(StateTransitionDataPoint data)
   {
-    _numDataPoints++;
+    _numDataPoints.incrementAndGet();
     if(data.getSuccess())
     {
-      _successCount++;
+      _successCount.incrementAndGet();
     }
     // should we count only the transition time for successful transitions?
     addLatency(LATENCY_TYPE.TOTAL, data.getTotalDelay());
@@ -69,19 +107,24 @@ public class StateTransitionStatMonitor implements StateTransitionStatMonitorMBe
   void addLatency(LATENCY_TYPE type, double latency)
   {
     assert(_monitorMap.containsKey(type));
-    _monitorMap.get(type).addData(latency);
+    _monitorMap.get(type).record((long) latency);
+  }
+  
+  LatencyHistogram.Snapshot getSnapshot(LATENCY_TYPE type)
+  {
+    return _monitorMap.get(type).getSnapshot();
   }
   
   public long getNumDataPoints()
   {
-    return _numDataPoints;
+    return _numDataPoints.get();
   }
   
   public void reset()
   {
-    _numDataPoints = 0;
-    _successCount = 0;
-    for(StatCollector monitor : _monitorMap.values())
+    _numDataPoints.set(0);
+    _successCount.set(0);
+    for(LatencyHistogram monitor : _monitorMap.values())
     {
       monitor.reset();
     }
@@ -90,66 +133,120 @@ public class StateTransitionStatMonitor implements StateTransitionStatMonitorMBe
   @Override
   public long getTotalStateTransitionGauge()
   {
-    return _numDataPoints;
+    return _numDataPoints.get();
   }
 
   @Override
   public long getTotalFailedTransitionGauge()
   {
-    return _numDataPoints - _successCount;
+    return _numDataPoints.get() - _successCount.get();
   }
 
   @Override
   public long getTotalSuccessTransitionGauge()
   {
-    return _successCount;
+    return _successCount.get();
+  }
+
+  @Override
+  public double getTransitionRate()
+  {
+    return getSnapshot(LATENCY_TYPE.TOTAL).getRate();
   }
 
   @Override
   public double getMeanTransitionLatency()
   {
-    return _monitorMap.get(LATENCY_TYPE.TOTAL).getMean();
+    return getSnapshot(LATENCY_TYPE.TOTAL).getMean();
   }
 
   @Override
   public double getMaxTransitionLatency()
   {
-    return _monitorMap.get(LATENCY_TYPE.TOTAL).getMax();
+    return getSnapshot(LATENCY_TYPE.TOTAL).getMax();
   }
 
   @Override
   public double getMinTransitionLatency()
   {
-    return _monitorMap.get(LATENCY_TYPE.TOTAL).getMin();
+    return getSnapshot(LATENCY_TYPE.TOTAL).getMin();
   }
 
   @Override
   public double getPercentileTransitionLatency(int percentage)
   {
-    return _monitorMap.get(LATENCY_TYPE.TOTAL).getPercentile(percentage);
+    return getSnapshot(LATENCY_TYPE.TOTAL).getPercentile(percentage);
+  }
+
+  @Override
+  public double get50TransitionLatency()
+  {
+    return getSnapshot(LATENCY_TYPE.TOTAL).getPercentile(50);
+  }
+
+  @Override
+  public double get90TransitionLatency()
+  {
+    return getSnapshot(LATENCY_TYPE.TOTAL).getPercentile(90);
+  }
+
+  @Override
+  public double get99TransitionLatency()
+  {
+    return getSnapshot(LATENCY_TYPE.TOTAL).getPercentile(99);
+  }
+
+  @Override
+  public double get999TransitionLatency()
+  {
+    return getSnapshot(LATENCY_TYPE.TOTAL).getPercentile(99.9);
   }
 
   @Override
   public double getMeanTransitionExecuteLatency()
   {
-    return _monitorMap.get(LATENCY_TYPE.EXECUTION).getMean();
+    return getSnapshot(LATENCY_TYPE.EXECUTION).getMean();
   }
 
   @Override
   public double getMaxTransitionExecuteLatency()
   {
-    return _monitorMap.get(LATENCY_TYPE.EXECUTION).getMax();
+    return getSnapshot(LATENCY_TYPE.EXECUTION).getMax();
   }
 
   @Override
   public double getMinTransitionExecuteLatency()
   {
-    return _monitorMap.get(LATENCY_TYPE.EXECUTION).getMin();
+    return getSnapshot(LATENCY_TYPE.EXECUTION).getMin();
   }
 
   @Override
   public double getPercentileTransitionExecuteLatency(int percentage)
   {
-    return _monitorMap.get(LATENCY_TYPE.EXECUTION).getPercentile(percentage);
+    return getSnapshot(LATENCY_TYPE.EXECUTION).getPercentile(percentage);
+  }
+
+  @Override
+  public double get50TransitionExecuteLatency()
+  {
+    return getSnapshot(LATENCY_TYPE.EXECUTION).getPercentile(50);
+  }
+
+  @Override
+  public double get90TransitionExecuteLatency()
+  {
+    return getSnapshot(LATENCY_TYPE.EXECUTION).getPercentile(90);
+  }
+
+  @Override
+  public double get99TransitionExecuteLatency()
+  {
+    return getSnapshot(LATENCY_TYPE.EXECUTION).getPercentile(99);
+  }
+
+  @Override
+  public double get999TransitionExecuteLatency()
+  {
+    return getSnapshot(LATENCY_TYPE.EXECUTION).getPercentile(99.9);
   }
 }
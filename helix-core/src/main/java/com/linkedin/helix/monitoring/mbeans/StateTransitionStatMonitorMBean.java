@@ -23,6 +23,9 @@ public interface StateTransitionStatMonitorMBean
   long getTotalFailedTransitionGauge();
   
   long getTotalSuccessTransitionGauge();
+
+  // transitions per second in the recent window
+  double getTransitionRate();
   
   double getMeanTransitionLatency();
   
@@ -31,6 +34,14 @@ public interface StateTransitionStatMonitorMBean
   double getMinTransitionLatency();
 
   double getPercentileTransitionLatency(int percentage);
+
+  double get50TransitionLatency();
+
+  double get90TransitionLatency();
+
+  double get99TransitionLatency();
+
+  double get999TransitionLatency();
   
   double getMeanTransitionExecuteLatency();
   
@@ -39,6 +50,14 @@ public interface StateTransitionStatMonitorMBean
   double getMinTransitionExecuteLatency();
 
   double getPercentileTransitionExecuteLatency(int percentage);
+
+  double get50TransitionExecuteLatency();
+
+  double get90TransitionExecuteLatency();
+
+  double get99TransitionExecuteLatency();
+
+  double get999TransitionExecuteLatency();
   
   void reset();
 }
@@ -0,0 +1,108 @@
+package com.linkedin.helix.monitoring.mbeans;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.linkedin.helix.monitoring.LatencyHistogram;
+
+public class ThreadPoolMonitor implements ThreadPoolMonitorMBean
+{
+  static final String              THREAD_POOL_STATUS_KEY = "ThreadPoolStatus";
+
+  private final String             _poolName;
+  private final ThreadPoolExecutor _pool;
+  private final LatencyHistogram   _waitTimeStat;
+
+  public ThreadPoolMonitor(String poolName, ThreadPoolExecutor pool)
+  {
+    _poolName = poolName;
+    _pool = pool;
+    _waitTimeStat = new LatencyHistogram();
+  }
+
+  public String getPoolName()
+  {
+    return _poolName;
+  }
+
+  public void addWaitTime(long waitTime)
+  {
+    _waitTimeStat.record(waitTime);
+  }
+
+  public void reset()
+  {
+    _waitTimeStat.reset();
+  }
+
+  @Override
+  public long getQueueLength()
+  {
+    return _pool.getQueue().size();
+  }
+
+  @Override
+  public long getActiveThreadCount()
+  {
+    return _pool.getActiveCount();
+  }
+
+  @Override
+  public long getPoolSize()
+  {
+    return _pool.getPoolSize();
+  }
+
+  @Override
+  public long getMaxPoolSize()
+  {
+    return _pool.getMaximumPoolSize();
+  }
+
+  @Override
+  public long getCompletedTaskCount()
+  {
+    return _pool.getCompletedTaskCount();
+  }
+
+  @Override
+  public double getMeanWaitTime()
+  {
+    return _waitTimeStat.getSnapshot().getMean();
+  }
+
+  @Override
+  public double getMaxWaitTime()
+  {
+    return _waitTimeStat.getSnapshot().getMax();
+  }
+
+  @Override
+  public double get50WaitTime()
+  {
+    return _waitTimeStat.getSnapshot().getPercentile(50);
+  }
+
+  @Override
+  public double get90WaitTime()
+  {
+    return _waitTimeStat.getSnapshot().getPercentile(90);
+  }
+
+  @Override
+  public double get99WaitTime()
+  {
+    return _waitTimeStat.getSnapshot().getPercentile(99);
+  }
+
+  @Override
+  public double get999WaitTime()
+  {
+    return _waitTimeStat.getSnapshot().getPercentile(99.9);
+  }
+
+  @Override
+  public String getSensorName()
+  {
+    return THREAD_POOL_STATUS_KEY + "_" + _poolName;
+  }
+}
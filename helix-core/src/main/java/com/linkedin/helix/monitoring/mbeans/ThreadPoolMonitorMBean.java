@@ -0,0 +1,60 @@
+package com.linkedin.helix.monitoring.mbeans;
+
+import com.linkedin.helix.monitoring.SensorNameProvider;
+
+public interface ThreadPoolMonitorMBean extends SensorNameProvider
+{
+  /**
+   * Get the number of tasks waiting in the queue
+   * @return
+   */
+  public long getQueueLength();
+
+  /**
+   * Get the number of threads that are executing tasks
+   * @return
+   */
+  public long getActiveThreadCount();
+
+  /**
+   * Get the current number of threads in the pool
+   * @return
+   */
+  public long getPoolSize();
+
+  /**
+   * Get the configured max number of threads
+   * @return
+   */
+  public long getMaxPoolSize();
+
+  /**
+   * Get the number of completed tasks
+   * @return
+   */
+  public long getCompletedTaskCount();
+
+  /**
+   * Get the mean time (ms) recent tasks waited in the queue before execution
+   * @return
+   */
+  public double getMeanWaitTime();
+
+  /**
+   * Get the max time (ms) recent tasks waited in the queue before execution
+   * @return
+   */
+  public double getMaxWaitTime();
+
+  /**
+   * Get the percentiles of the time (ms) recent tasks waited in the queue
+   * @return
+   */
+  public double get50WaitTime();
+
+  public double get90WaitTime();
+
+  public double get99WaitTime();
+
+  public double get999WaitTime();
+}
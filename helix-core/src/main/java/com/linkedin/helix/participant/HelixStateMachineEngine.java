@@ -15,6 +15,8 @@
  */
 package com.linkedin.helix.participant;
 
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -28,6 +30,8 @@ import com.linkedin.helix.HelixManager;
 import com.linkedin.helix.InstanceType;
 import com.linkedin.helix.NotificationContext;
 import com.linkedin.helix.PropertyKey.Builder;
+import com.linkedin.helix.messaging.handling.BatchMessageHandlerFactory;
+import com.linkedin.helix.messaging.handling.HelixBatchStateTransitionHandler;
 import com.linkedin.helix.messaging.handling.HelixStateTransitionHandler;
 import com.linkedin.helix.messaging.handling.HelixTaskExecutor;
 import com.linkedin.helix.messaging.handling.MessageHandler;
@@ -39,7 +43,8 @@ import com.linkedin.helix.participant.statemachine.StateModel;
 import com.linkedin.helix.participant.statemachine.StateModelFactory;
 import com.linkedin.helix.participant.statemachine.StateModelParser;
 
-public class HelixStateMachineEngine implements StateMachineEngine
+public class HelixStateMachineEngine implements StateMachineEngine,
+    BatchMessageHandlerFactory
 {
   private static Logger logger = Logger.getLogger(HelixStateMachineEngine.class);
 
@@ -203,28 +208,106 @@ public class HelixStateMachineEngine implements StateMachineEngine
       return null;
     }
 
-    String factoryName = message.getStateModelFactoryName();
-    if (factoryName == null)
+    String factoryName = getFactoryName(message);
+    StateModelFactory<? extends StateModel> stateModelFactory =
+        getStateModelFactory(stateModelName, factoryName);
+    if (stateModelFactory == null)
     {
-      factoryName = HelixConstants.DEFAULT_STATE_MODEL_FACTORY;
+      logger.warn("Cannot find stateModelFactory for model:" + stateModelName
+          + " using factoryName:" + factoryName + " for resourceGroup:" + resourceName);
+      return null;
     }
 
-    StateModelFactory stateModelFactory =
+    // create currentStateDelta for this partition
+    String initState = getStateModelDef(stateModelName).getInitialState();
+    StateModel stateModel = getOrCreateStateModel(stateModelFactory, partitionKey, initState);
+
+    CurrentState currentStateDelta = new CurrentState(resourceName);
+    currentStateDelta.setSessionId(sessionId);
+    currentStateDelta.setStateModelDefRef(stateModelName);
+    currentStateDelta.setStateModelFactoryName(factoryName);
+    currentStateDelta.setBucketSize(bucketSize);
+
+    currentStateDelta.setState(partitionKey, (stateModel.getCurrentState() == null)
+        ? initState : stateModel.getCurrentState());
+
+    HelixTaskExecutor executor = (HelixTaskExecutor) context.get(NotificationContext.TASK_EXECUTOR_KEY);
+    
+    return new HelixStateTransitionHandler(stateModel,
+                                           message,
+                                           context,
+                                           currentStateDelta,
+                                           executor);
+  }
+
+  @Override
+  public MessageHandler createBatchHandler(Message message, NotificationContext context)
+  {
+    String stateModelName = message.getStateModelDef();
+    if (stateModelName == null || !message.getGroupMessageMode())
+    {
+      return null;
+    }
+
+    String factoryName = getFactoryName(message);
+    StateModelFactory<? extends StateModel> stateModelFactory =
         getStateModelFactory(stateModelName, factoryName);
     if (stateModelFactory == null)
     {
-      logger.warn("Cannot find stateModelFactory for model:" + stateModelName
-          + " using factoryName:" + factoryName + " for resourceGroup:" + resourceName);
       return null;
     }
 
-    // check if the state model definition exists and cache it
-    if (!_stateModelDefs.containsKey(stateModelName))
+    Method batchMethod =
+        _stateModelParser.getMethodForBatchTransition(stateModelFactory.getClass(),
+                                                      message.getFromState(),
+                                                      message.getToState());
+    if (batchMethod == null)
+    {
+      return null;
+    }
+
+    String initState = getStateModelDef(stateModelName).getInitialState();
+    Map<String, StateModel> stateModels = new LinkedHashMap<String, StateModel>();
+    for (String partitionKey : message.getPartitionNames())
+    {
+      stateModels.put(partitionKey,
+                      getOrCreateStateModel(stateModelFactory, partitionKey, initState));
+    }
+
+    HelixTaskExecutor executor = (HelixTaskExecutor) context.get(NotificationContext.TASK_EXECUTOR_KEY);
+
+    logger.info("Creating batch handler for group message " + message.getMsgId()
+        + ", resource: " + message.getResourceName() + ", " + stateModels.size()
+        + " partitions, transition: " + message.getFromState() + "-"
+        + message.getToState());
+    return new HelixBatchStateTransitionHandler(stateModelFactory,
+                                                batchMethod,
+                                                stateModels,
+                                                message,
+                                                context,
+                                                initState,
+                                                executor);
+  }
+
+  private String getFactoryName(Message message)
+  {
+    String factoryName = message.getStateModelFactoryName();
+    if (factoryName == null)
+    {
+      factoryName = HelixConstants.DEFAULT_STATE_MODEL_FACTORY;
+    }
+    return factoryName;
+  }
+
+  // check if the state model definition exists and cache it
+  private StateModelDefinition getStateModelDef(String stateModelName)
+  {
+    StateModelDefinition stateModelDef = _stateModelDefs.get(stateModelName);
+    if (stateModelDef == null)
     {
       HelixDataAccessor accessor = _manager.getHelixDataAccessor();
       Builder keyBuilder = accessor.keyBuilder();
-      StateModelDefinition stateModelDef =
-          accessor.getProperty(keyBuilder.stateModelDef(stateModelName));
+      stateModelDef = accessor.getProperty(keyBuilder.stateModelDef(stateModelName));
       if (stateModelDef == null)
       {
         throw new HelixException("stateModelDef for " + stateModelName
@@ -232,9 +315,13 @@ public class HelixStateMachineEngine implements StateMachineEngine
       }
       _stateModelDefs.put(stateModelName, stateModelDef);
     }
+    return stateModelDef;
+  }
 
-    // create currentStateDelta for this partition
-    String initState = _stateModelDefs.get(message.getStateModelDef()).getInitialState();
+  private StateModel getOrCreateStateModel(StateModelFactory<? extends StateModel> stateModelFactory,
+                                           String partitionKey,
+                                           String initState)
+  {
     StateModel stateModel = stateModelFactory.getStateModel(partitionKey);
     if (stateModel == null)
     {
@@ -242,23 +329,7 @@ public class HelixStateMachineEngine implements StateMachineEngine
       stateModel = stateModelFactory.getStateModel(partitionKey);
       stateModel.updateState(initState);
     }
-
-    CurrentState currentStateDelta = new CurrentState(resourceName);
-    currentStateDelta.setSessionId(sessionId);
-    currentStateDelta.setStateModelDefRef(stateModelName);
-    currentStateDelta.setStateModelFactoryName(factoryName);
-    currentStateDelta.setBucketSize(bucketSize);
-
-    currentStateDelta.setState(partitionKey, (stateModel.getCurrentState() == null)
-        ? initState : stateModel.getCurrentState());
-
-    HelixTaskExecutor executor = (HelixTaskExecutor) context.get(NotificationContext.TASK_EXECUTOR_KEY);
-    
-    return new HelixStateTransitionHandler(stateModel,
-                                           message,
-                                           context,
-                                           currentStateDelta,
-                                           executor);
+    return stateModel;
   }
 
   @Override
@@ -19,6 +19,14 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Creates and keeps the state models of a state model definition, one per partition.
+ * A factory may also declare batch transition methods, e.g.
+ * onBecomeOnlineFromOffline(List&lt;Message&gt;, NotificationContext), which are
+ * invoked once per group message instead of once per partition. A batch transition
+ * method returns either void or a Map&lt;String, Boolean&gt; from partition name to
+ * transition result; partitions mapped to false are put into ERROR state.
+ */
 public abstract class StateModelFactory<T extends StateModel>
 {
   private ConcurrentMap<String, T> _stateModelMap = new ConcurrentHashMap<String, T>();
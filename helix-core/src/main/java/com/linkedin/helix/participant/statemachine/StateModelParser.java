@@ -17,6 +17,7 @@ package com.linkedin.helix.participant.statemachine;
 
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.List;
 
 import com.linkedin.helix.NotificationContext;
 import com.linkedin.helix.model.Message;
@@ -128,6 +129,56 @@ public class StateModelParser
 		return methodToInvoke;
 	}
 
+	/**
+	 * Find the batch transition method declared on a state model factory. A batch
+	 * transition method takes (List&lt;Message&gt;, NotificationContext) and is
+	 * found either by Transition annotation or by the "onBecome" + toState +
+	 * "From" + fromState naming convention. Unlike per-partition transitions,
+	 * the declaring class does not need a StateModelInfo annotation.
+	 * 
+	 * @param clazz
+	 *          , class which extends StateModelFactory
+	 * @param fromState
+	 * @param toState
+	 * @return Method if found else null
+	 */
+	public Method getMethodForBatchTransition(Class<?> clazz, String fromState,
+	    String toState)
+	{
+		Class<?>[] paramTypes = new Class<?>[] { List.class,
+		    NotificationContext.class };
+		String methodName = "onBecome" + toState + "From" + fromState;
+		if (fromState.equals("*"))
+		{
+			methodName = "onBecome" + toState;
+		}
+
+		Method methodByConvention = null;
+		for (Method method : clazz.getMethods())
+		{
+			if (!Arrays.equals(paramTypes, method.getParameterTypes()))
+			{
+				continue;
+			}
+
+			Transition annotation = method.getAnnotation(Transition.class);
+			if (annotation != null)
+			{
+				if (annotation.from().equalsIgnoreCase(fromState)
+				    && annotation.to().equalsIgnoreCase(toState))
+				{
+					return method;
+				}
+			}
+			else if (methodByConvention == null
+			    && method.getName().equalsIgnoreCase(methodName))
+			{
+				methodByConvention = method;
+			}
+		}
+		return methodByConvention;
+	}
+
 	/**
 	 * Get the intial state for the state model
 	 * 
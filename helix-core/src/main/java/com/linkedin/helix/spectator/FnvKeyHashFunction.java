@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+/**
+ * 32-bit FNV-1 hash. Same as the default string hash function of
+ * {@link com.linkedin.helix.tools.IdealCalculatorByConsistentHashing.FnvHash}
+ */
+public class FnvKeyHashFunction implements KeyHashFunction
+{
+  private static final long FNV_BASIS = 0x811c9dc5;
+  private static final long FNV_PRIME = (1 << 24) + 0x193;
+
+  @Override
+  public int hash(byte[] key, int offset, int length)
+  {
+    long hash = FNV_BASIS;
+    for (int i = offset; i < offset + length; i++)
+    {
+      hash ^= 0xFF & key[i];
+      hash *= FNV_PRIME;
+    }
+    return (int) hash;
+  }
+}
@@ -0,0 +1,28 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+/**
+ * Hash function used to map keys to partitions. Implementations must be thread-safe
+ * and should not allocate.
+ */
+public interface KeyHashFunction
+{
+  /**
+   * @return hash of key[offset, offset + length)
+   */
+  int hash(byte[] key, int offset, int length);
+}
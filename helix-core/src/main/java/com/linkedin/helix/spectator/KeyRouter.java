@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.linkedin.helix.ConfigAccessor;
+import com.linkedin.helix.ConfigScope;
+import com.linkedin.helix.ConfigScopeBuilder;
+import com.linkedin.helix.HelixDataAccessor;
+import com.linkedin.helix.HelixException;
+import com.linkedin.helix.HelixManager;
+import com.linkedin.helix.model.IdealState;
+import com.linkedin.helix.model.InstanceConfig;
+import com.linkedin.helix.tools.IdealCalculatorByConsistentHashing;
+
+/**
+ * Routes keys to instances. A key is mapped to a partition of a resource by the hash
+ * function configured for the resource, and the partition is looked up in the routing
+ * table of a {@link RoutingTableProvider}.
+ */
+public class KeyRouter
+{
+  private static final Logger LOG                    = Logger.getLogger(KeyRouter.class);
+
+  /**
+   * Resource config key of the hash function type
+   */
+  public static final String  KEY_HASH_FUNCTION      = "keyHashFunction";
+
+  static final int            DEFAULT_HASH_RING_SIZE = 65536;
+
+  public enum HashFunctionType
+  {
+    /**
+     * FNV hash modulo number of partitions
+     */
+    FNV,
+    /**
+     * Murmur3 hash modulo number of partitions
+     */
+    MURMUR,
+    /**
+     * FNV hash on a consistent hash ring of partitions, so adding partitions moves only
+     * a part of the keys
+     */
+    CONSISTENT_HASH
+  }
+
+  private final RoutingTableProvider                     _provider;
+
+  // resource -> partitioner
+  private final ConcurrentHashMap<String, KeyPartitioner> _partitionerMap;
+
+  // per-thread buffer for encoding string keys
+  private final ThreadLocal<byte[]>                      _keyBuffer;
+
+  public KeyRouter(RoutingTableProvider provider)
+  {
+    _provider = provider;
+    _partitionerMap = new ConcurrentHashMap<String, KeyPartitioner>();
+    _keyBuffer = new ThreadLocal<byte[]>()
+    {
+      @Override
+      protected byte[] initialValue()
+      {
+        return new byte[256];
+      }
+    };
+  }
+
+  /**
+   * Add a resource with partitions named {resource}_0 .. {resource}_{numPartitions-1}
+   */
+  public void addResource(String resourceName, int numPartitions, HashFunctionType type)
+  {
+    String[] partitionNames = new String[numPartitions];
+    for (int i = 0; i < numPartitions; i++)
+    {
+      partitionNames[i] = resourceName + "_" + i;
+    }
+    addResource(resourceName, partitionNames, type);
+  }
+
+  /**
+   * Add a resource with given partitions. Keys are mapped to partitions by their index
+   * in partitionNames
+   */
+  public void addResource(String resourceName,
+                          String[] partitionNames,
+                          HashFunctionType type)
+  {
+    if (partitionNames.length == 0)
+    {
+      throw new HelixException("Resource " + resourceName + " has no partitions");
+    }
+    _partitionerMap.put(resourceName, new KeyPartitioner(partitionNames.clone(), type));
+    LOG.info("Add resource " + resourceName + " with " + partitionNames.length
+        + " partitions, hash function: " + type);
+  }
+
+  /**
+   * Add a resource with partitions from its ideal state and hash function type from
+   * resource config. FNV is used if hash function type is not configured
+   */
+  public void addResource(HelixManager manager, String resourceName)
+  {
+    HelixDataAccessor accessor = manager.getHelixDataAccessor();
+    IdealState idealState =
+        accessor.getProperty(accessor.keyBuilder().idealStates(resourceName));
+    if (idealState == null)
+    {
+      throw new HelixException("Ideal state for resource " + resourceName
+          + " does not exist");
+    }
+
+    HashFunctionType type = HashFunctionType.FNV;
+    ConfigAccessor configAccessor = manager.getConfigAccessor();
+    if (configAccessor != null)
+    {
+      ConfigScope scope =
+          new ConfigScopeBuilder().forCluster(manager.getClusterName())
+                                  .forResource(resourceName)
+                                  .build();
+      String typeStr = configAccessor.get(scope, KEY_HASH_FUNCTION);
+      if (typeStr != null)
+      {
+        type = HashFunctionType.valueOf(typeStr.toUpperCase());
+      }
+    }
+
+    List<String> partitionNames = new ArrayList<String>(idealState.getPartitionSet());
+    if (partitionNames.size() != idealState.getNumPartitions())
+    {
+      LOG.warn("Ideal state of " + resourceName + " has " + partitionNames.size()
+          + " partitions, but numPartitions is " + idealState.getNumPartitions());
+    }
+    Collections.sort(partitionNames, new PartitionNameComparator());
+    addResource(resourceName, partitionNames.toArray(new String[0]), type);
+  }
+
+  public void removeResource(String resourceName)
+  {
+    _partitionerMap.remove(resourceName);
+  }
+
+  /**
+   * @return the partition of the key, or null if the resource is not added
+   */
+  public String getPartition(String resourceName, byte[] key)
+  {
+    KeyPartitioner partitioner = _partitionerMap.get(resourceName);
+    if (partitioner == null)
+    {
+      return null;
+    }
+    return partitioner.getPartition(key, 0, key.length);
+  }
+
+  /**
+   * @return the partition of the UTF-8 encoded key, or null if the resource is not added
+   */
+  public String getPartition(String resourceName, String key)
+  {
+    KeyPartitioner partitioner = _partitionerMap.get(resourceName);
+    if (partitioner == null)
+    {
+      return null;
+    }
+    // a char takes at most 3 bytes in UTF-8, a surrogate pair takes 4 bytes
+    byte[] buffer = _keyBuffer.get();
+    if (buffer.length < key.length() * 3)
+    {
+      buffer = new byte[key.length() * 3];
+      _keyBuffer.set(buffer);
+    }
+    int length = encodeUtf8(key, buffer);
+    return partitioner.getPartition(buffer, 0, length);
+  }
+
+  /**
+   * @return the first instance of the key's partition in the given state, or null
+   */
+  public InstanceConfig getInstance(String resourceName, byte[] key, String state)
+  {
+    String partitionName = getPartition(resourceName, key);
+    if (partitionName == null)
+    {
+      return null;
+    }
+    return _provider.getInstance(resourceName, partitionName, state);
+  }
+
+  /**
+   * @return the first instance of the key's partition in the given state, or null
+   */
+  public InstanceConfig getInstance(String resourceName, String key, String state)
+  {
+    String partitionName = getPartition(resourceName, key);
+    if (partitionName == null)
+    {
+      return null;
+    }
+    return _provider.getInstance(resourceName, partitionName, state);
+  }
+
+  /**
+   * @return instances of the key's partition in the given state
+   */
+  public List<InstanceConfig> getInstances(String resourceName, String key, String state)
+  {
+    String partitionName = getPartition(resourceName, key);
+    if (partitionName == null)
+    {
+      return Collections.emptyList();
+    }
+    return _provider.getInstances(resourceName, partitionName, state);
+  }
+
+  /**
+   * Encode a string in UTF-8 without allocating. Same result as
+   * String.getBytes("UTF-8") for well-formed strings
+   * 
+   * @return number of bytes written
+   */
+  static int encodeUtf8(String str, byte[] buffer)
+  {
+    int pos = 0;
+    int len = str.length();
+    for (int i = 0; i < len; i++)
+    {
+      char c = str.charAt(i);
+      if (c < 0x80)
+      {
+        buffer[pos++] = (byte) c;
+      }
+      else if (c < 0x800)
+      {
+        buffer[pos++] = (byte) (0xc0 | (c >> 6));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < len
+          && Character.isLowSurrogate(str.charAt(i + 1)))
+      {
+        int codePoint = Character.toCodePoint(c, str.charAt(++i));
+        buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+      }
+      else
+      {
+        buffer[pos++] = (byte) (0xe0 | (c >> 12));
+        buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    return pos;
+  }
+
+  static class KeyPartitioner
+  {
+    final String[]        partitionNames;
+    final KeyHashFunction hashFunction;
+    // hash ring position -> partition index, consistent hash only
+    final int[]           hashRing;
+
+    KeyPartitioner(String[] partitionNames, HashFunctionType type)
+    {
+      this.partitionNames = partitionNames;
+      switch (type)
+      {
+      case MURMUR:
+        hashFunction = new MurmurKeyHashFunction();
+        hashRing = null;
+        break;
+      case CONSISTENT_HASH:
+        hashFunction = new FnvKeyHashFunction();
+        int ringSize = Math.max(DEFAULT_HASH_RING_SIZE, partitionNames.length);
+        hashRing =
+            IdealCalculatorByConsistentHashing.generateEvenHashRing(Arrays.asList(partitionNames),
+                                                                    ringSize);
+        break;
+      default:
+        hashFunction = new FnvKeyHashFunction();
+        hashRing = null;
+        break;
+      }
+    }
+
+    String getPartition(byte[] key, int offset, int length)
+    {
+      int hash = hashFunction.hash(key, offset, length) & 0x7fffffff;
+      if (hashRing != null)
+      {
+        return partitionNames[hashRing[hash % hashRing.length]];
+      }
+      return partitionNames[hash % partitionNames.length];
+    }
+  }
+
+  /**
+   * Order partition names by their numeric suffix, e.g. db_2 before db_10
+   */
+  static class PartitionNameComparator implements Comparator<String>
+  {
+    @Override
+    public int compare(String o1, String o2)
+    {
+      int prefixEnd1 = numericSuffixStart(o1);
+      int prefixEnd2 = numericSuffixStart(o2);
+      int compareTo = o1.substring(0, prefixEnd1).compareTo(o2.substring(0, prefixEnd2));
+      if (compareTo != 0 || prefixEnd1 == o1.length() || prefixEnd2 == o2.length())
+      {
+        return compareTo != 0 ? compareTo : o1.compareTo(o2);
+      }
+      long num1 = Long.parseLong(o1.substring(prefixEnd1));
+      long num2 = Long.parseLong(o2.substring(prefixEnd2));
+      return num1 < num2 ? -1 : (num1 == num2 ? o1.compareTo(o2) : 1);
+    }
+
+    private static int numericSuffixStart(String str)
+    {
+      int i = str.length();
+      while (i > 0 && Character.isDigit(str.charAt(i - 1)) && str.length() - i < 18)
+      {
+        i--;
+      }
+      return i;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+/**
+ * 32-bit MurmurHash3 (x86 variant)
+ */
+public class MurmurKeyHashFunction implements KeyHashFunction
+{
+  private static final int C1 = 0xcc9e2d51;
+  private static final int C2 = 0x1b873593;
+
+  private final int        _seed;
+
+  public MurmurKeyHashFunction()
+  {
+    this(0);
+  }
+
+  public MurmurKeyHashFunction(int seed)
+  {
+    _seed = seed;
+  }
+
+  // the tail bytes are mixed in by falling through the switch cases, as in the
+  // reference implementation
+  @SuppressWarnings("fallthrough")
+  @Override
+  public int hash(byte[] key, int offset, int length)
+  {
+    int h1 = _seed;
+    int blockEnd = offset + (length & ~3);
+
+    for (int i = offset; i < blockEnd; i += 4)
+    {
+      int k1 =
+          (key[i] & 0xff) | ((key[i + 1] & 0xff) << 8) | ((key[i + 2] & 0xff) << 16)
+              | (key[i + 3] << 24);
+      k1 *= C1;
+      k1 = Integer.rotateLeft(k1, 15);
+      k1 *= C2;
+
+      h1 ^= k1;
+      h1 = Integer.rotateLeft(h1, 13);
+      h1 = h1 * 5 + 0xe6546b64;
+    }
+
+    // tail
+    int k1 = 0;
+    switch (length & 3)
+    {
+    case 3:
+      k1 = (key[blockEnd + 2] & 0xff) << 16;
+      // fall through
+    case 2:
+      k1 |= (key[blockEnd + 1] & 0xff) << 8;
+      // fall through
+    case 1:
+      k1 |= (key[blockEnd] & 0xff);
+      k1 *= C1;
+      k1 = Integer.rotateLeft(k1, 15);
+      k1 *= C2;
+      h1 ^= k1;
+      break;
+    default:
+      break;
+    }
+
+    // finalization
+    h1 ^= length;
+    h1 ^= h1 >>> 16;
+    h1 *= 0x85ebca6b;
+    h1 ^= h1 >>> 13;
+    h1 *= 0xc2b2ae35;
+    h1 ^= h1 >>> 16;
+    return h1;
+  }
+}
@@ -0,0 +1,382 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.model.ExternalView;
+import com.linkedin.helix.model.InstanceConfig;
+
+/**
+ * Immutable routing table. All lookup results are computed when the table is built, so
+ * lookups only do hash map gets and array reads and don't allocate. A new table is
+ * built and published as a whole on each change, so readers never need a lock.
+ * <p>
+ * Each table published by a provider has a larger version than the previous one. A
+ * reader that holds on to a table sees a consistent snapshot for a batch of lookups,
+ * regardless of later changes.
+ */
+public class RoutingTable
+{
+  private static final Logger             LOG                 = Logger.getLogger(RoutingTable.class);
+
+  static final Comparator<InstanceConfig> INSTANCE_COMPARATOR = new InstanceConfigComparator();
+
+  private final long                      _version;
+
+  private final Map<String, ResourceInfo> _resourceInfoMap;
+
+  RoutingTable(long version)
+  {
+    this(version, Collections.<String, ResourceInfo> emptyMap());
+  }
+
+  RoutingTable(long version, Map<String, ResourceInfo> resourceInfoMap)
+  {
+    _version = version;
+    _resourceInfoMap = resourceInfoMap;
+  }
+
+  /**
+   * @return version of this table, increased on each table published by a provider
+   */
+  public long getVersion()
+  {
+    return _version;
+  }
+
+  /**
+   * returns the instances for {resource,partition} pair that are in a specific
+   * {state}
+   * 
+   * @return empty list if there is no instance in a given state
+   */
+  public List<InstanceConfig> getInstances(String resourceName,
+                                           String partitionName,
+                                           String state)
+  {
+    ResourceInfo resourceInfo = _resourceInfoMap.get(resourceName);
+    if (resourceInfo != null)
+    {
+      return resourceInfo.getInstances(partitionName, state);
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * returns all instances for {resource} that are in a specific {state}
+   * 
+   * @return empty set if there is no instance in a given state
+   */
+  public Set<InstanceConfig> getInstances(String resourceName, String state)
+  {
+    ResourceInfo resourceInfo = _resourceInfoMap.get(resourceName);
+    if (resourceInfo != null)
+    {
+      return resourceInfo.getInstances(state);
+    }
+    return Collections.emptySet();
+  }
+
+  /**
+   * returns the first instance for {resource,partition} pair that is in a specific
+   * {state}, e.g. the master of a partition
+   * 
+   * @return null if there is no instance in a given state
+   */
+  public InstanceConfig getInstance(String resourceName, String partitionName, String state)
+  {
+    List<InstanceConfig> instances = getInstances(resourceName, partitionName, state);
+    return instances.isEmpty() ? null : instances.get(0);
+  }
+
+  public Set<String> getResourceNames()
+  {
+    return Collections.unmodifiableSet(_resourceInfoMap.keySet());
+  }
+
+  /**
+   * @return partitions of a resource, empty set if the resource is not in the table
+   */
+  public Set<String> getPartitionNames(String resourceName)
+  {
+    ResourceInfo resourceInfo = _resourceInfoMap.get(resourceName);
+    if (resourceInfo != null)
+    {
+      return Collections.unmodifiableSet(resourceInfo.partitionInfoMap.keySet());
+    }
+    return Collections.emptySet();
+  }
+
+  ResourceInfo get(String resourceName)
+  {
+    return _resourceInfoMap.get(resourceName);
+  }
+
+  /**
+   * Build the routing info of a resource from its external view
+   * 
+   * @param namePool
+   *          pool used to share name strings across resources and routing tables
+   */
+  static ResourceInfo buildResourceInfo(ExternalView extView,
+                                        Map<String, InstanceConfig> instanceConfigMap,
+                                        Map<String, String> namePool)
+  {
+    // assign an index to each state
+    Map<String, Integer> stateIndexMap = new HashMap<String, Integer>();
+    Set<String> instanceNames = new HashSet<String>();
+    for (String partitionName : extView.getPartitionSet())
+    {
+      Map<String, String> stateMap = extView.getStateMap(partitionName);
+      for (Map.Entry<String, String> entry : stateMap.entrySet())
+      {
+        instanceNames.add(intern(namePool, entry.getKey()));
+        String state = intern(namePool, entry.getValue());
+        if (!stateIndexMap.containsKey(state))
+        {
+          stateIndexMap.put(state, stateIndexMap.size());
+        }
+      }
+    }
+
+    int stateCount = stateIndexMap.size();
+    List<Set<InstanceConfig>> stateInstances = new ArrayList<Set<InstanceConfig>>();
+    for (int i = 0; i < stateCount; i++)
+    {
+      stateInstances.add(new TreeSet<InstanceConfig>(INSTANCE_COMPARATOR));
+    }
+
+    Map<String, PartitionInfo> partitionInfoMap = new HashMap<String, PartitionInfo>();
+    for (String partitionName : extView.getPartitionSet())
+    {
+      Map<String, String> stateMap = extView.getStateMap(partitionName);
+      InstanceConfig[][] partitionInstances = new InstanceConfig[stateCount][];
+      int[] counts = new int[stateCount];
+      for (Map.Entry<String, String> entry : stateMap.entrySet())
+      {
+        int stateIndex = stateIndexMap.get(entry.getValue());
+        InstanceConfig config = instanceConfigMap.get(entry.getKey());
+        if (config == null)
+        {
+          LOG.error("Invalid instance name." + entry.getKey()
+              + " .Not found in /cluster/configs/. instanceName: ");
+          continue;
+        }
+
+        if (partitionInstances[stateIndex] == null)
+        {
+          partitionInstances[stateIndex] = new InstanceConfig[stateMap.size()];
+        }
+        partitionInstances[stateIndex][counts[stateIndex]++] = config;
+        stateInstances.get(stateIndex).add(config);
+      }
+
+      List<List<InstanceConfig>> instanceLists =
+          new ArrayList<List<InstanceConfig>>(stateCount);
+      for (int i = 0; i < stateCount; i++)
+      {
+        if (counts[i] == 0)
+        {
+          instanceLists.add(Collections.<InstanceConfig> emptyList());
+        }
+        else
+        {
+          InstanceConfig[] instances = Arrays.copyOf(partitionInstances[i], counts[i]);
+          instanceLists.add(Collections.unmodifiableList(Arrays.asList(instances)));
+        }
+      }
+      partitionInfoMap.put(intern(namePool, partitionName), new PartitionInfo(instanceLists));
+    }
+
+    for (int i = 0; i < stateCount; i++)
+    {
+      stateInstances.set(i, Collections.unmodifiableSet(stateInstances.get(i)));
+    }
+
+    return new ResourceInfo(extView,
+                            instanceNames,
+                            stateIndexMap,
+                            partitionInfoMap,
+                            stateInstances);
+  }
+
+  static String intern(Map<String, String> namePool, String name)
+  {
+    String pooledName = namePool.get(name);
+    if (pooledName == null)
+    {
+      namePool.put(name, name);
+      pooledName = name;
+    }
+    return pooledName;
+  }
+
+  static class ResourceInfo
+  {
+    // external view this resource info is built from
+    final ExternalView                     externalView;
+    // all instances in the external view, including those without config
+    final Set<String>                      instanceNames;
+    // state -> index into per state lists
+    final Map<String, Integer>             stateIndexMap;
+    // partition -> instances of the partition per state
+    final Map<String, PartitionInfo>       partitionInfoMap;
+    // instances of any partition per state
+    final List<Set<InstanceConfig>>        stateInstances;
+
+    ResourceInfo(ExternalView externalView,
+                 Set<String> instanceNames,
+                 Map<String, Integer> stateIndexMap,
+                 Map<String, PartitionInfo> partitionInfoMap,
+                 List<Set<InstanceConfig>> stateInstances)
+    {
+      this.externalView = externalView;
+      this.instanceNames = instanceNames;
+      this.stateIndexMap = stateIndexMap;
+      this.partitionInfoMap = partitionInfoMap;
+      this.stateInstances = stateInstances;
+    }
+
+    /**
+     * Put the names this resource info refers to back into a pruned name pool
+     */
+    void addNames(Map<String, String> namePool)
+    {
+      for (String name : instanceNames)
+      {
+        namePool.put(name, name);
+      }
+      for (String name : stateIndexMap.keySet())
+      {
+        namePool.put(name, name);
+      }
+      for (String name : partitionInfoMap.keySet())
+      {
+        namePool.put(name, name);
+      }
+    }
+
+    List<InstanceConfig> getInstances(String partitionName, String state)
+    {
+      Integer stateIndex = stateIndexMap.get(state);
+      PartitionInfo partitionInfo = partitionInfoMap.get(partitionName);
+      if (stateIndex == null || partitionInfo == null)
+      {
+        return Collections.emptyList();
+      }
+      return partitionInfo.get(stateIndex);
+    }
+
+    Set<InstanceConfig> getInstances(String state)
+    {
+      Integer stateIndex = stateIndexMap.get(state);
+      if (stateIndex == null)
+      {
+        return Collections.emptySet();
+      }
+      return stateInstances.get(stateIndex);
+    }
+
+    boolean hasInstance(Set<String> instances)
+    {
+      for (String instanceName : instances)
+      {
+        if (instanceNames.contains(instanceName))
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Check if the external view has the same zookeeper version as the one this resource
+     * info is built from
+     */
+    boolean isSameVersion(ExternalView extView)
+    {
+      if (externalView == extView)
+      {
+        return true;
+      }
+      ZNRecord oldRecord = externalView.getRecord();
+      ZNRecord newRecord = extView.getRecord();
+      return oldRecord.getModifiedTime() > 0
+          && oldRecord.getVersion() == newRecord.getVersion()
+          && oldRecord.getModifiedTime() == newRecord.getModifiedTime();
+    }
+  }
+
+  // order instances by host name and port
+  static class InstanceConfigComparator implements Comparator<InstanceConfig>
+  {
+    @Override
+    public int compare(InstanceConfig o1, InstanceConfig o2)
+    {
+      if (o1 == o2)
+      {
+        return 0;
+      }
+      if (o1 == null)
+      {
+        return -1;
+      }
+      if (o2 == null)
+      {
+        return 1;
+      }
+
+      int compareTo = o1.getHostName().compareTo(o2.getHostName());
+      if (compareTo == 0)
+      {
+        return o1.getPort().compareTo(o2.getPort());
+      }
+      else
+      {
+        return compareTo;
+      }
+    }
+  }
+
+  static class PartitionInfo
+  {
+    // state index -> instances
+    final List<List<InstanceConfig>> stateInstances;
+
+    PartitionInfo(List<List<InstanceConfig>> stateInstances)
+    {
+      this.stateInstances = stateInstances;
+    }
+
+    List<InstanceConfig> get(int stateIndex)
+    {
+      return stateInstances.get(stateIndex);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+/**
+ * Listener of routing table changes, e.g. to open connections to new masters before
+ * moving traffic to them and drain connections to old ones.
+ * <p>
+ * Listeners are called in the order tables are published, on the thread that
+ * publishes the table, and must not block for long.
+ */
+public interface RoutingTableChangeListener
+{
+  /**
+   * Invoked after a new routing table is published
+   *
+   * @param oldTable
+   *          the table replaced
+   * @param newTable
+   *          the table published
+   * @param diff
+   *          resources and partitions whose routing changed, never empty
+   */
+  void onRoutingTableChange(RoutingTable oldTable, RoutingTable newTable, RoutingTableDiff diff);
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.linkedin.helix.spectator.RoutingTable.ResourceInfo;
+
+/**
+ * Difference between two routing tables. A partition is changed if it is added or
+ * removed, or the instances in any of its states changed, including instances whose
+ * config changed. Resources whose routing info is shared by both tables are not
+ * compared.
+ */
+public class RoutingTableDiff
+{
+  private final Set<String>              _addedResources;
+  private final Set<String>              _removedResources;
+
+  // resource -> changed partitions, for added, removed and changed resources
+  private final Map<String, Set<String>> _changedPartitionMap;
+
+  private RoutingTableDiff(Set<String> addedResources,
+                           Set<String> removedResources,
+                           Map<String, Set<String>> changedPartitionMap)
+  {
+    _addedResources = Collections.unmodifiableSet(addedResources);
+    _removedResources = Collections.unmodifiableSet(removedResources);
+    _changedPartitionMap = Collections.unmodifiableMap(changedPartitionMap);
+  }
+
+  /**
+   * @return resources in the new table but not in the old one
+   */
+  public Set<String> getAddedResources()
+  {
+    return _addedResources;
+  }
+
+  /**
+   * @return resources in the old table but not in the new one
+   */
+  public Set<String> getRemovedResources()
+  {
+    return _removedResources;
+  }
+
+  /**
+   * @return resources that are added, removed, or have changed partitions
+   */
+  public Set<String> getChangedResources()
+  {
+    return _changedPartitionMap.keySet();
+  }
+
+  /**
+   * @return changed partitions of a resource. All partitions of an added or removed
+   *         resource are changed. Empty set if the resource is not changed
+   */
+  public Set<String> getChangedPartitions(String resourceName)
+  {
+    Set<String> partitionNames = _changedPartitionMap.get(resourceName);
+    if (partitionNames == null)
+    {
+      return Collections.emptySet();
+    }
+    return partitionNames;
+  }
+
+  public boolean isEmpty()
+  {
+    return _changedPartitionMap.isEmpty();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "added: " + _addedResources + ", removed: " + _removedResources
+        + ", changed: " + _changedPartitionMap;
+  }
+
+  static RoutingTableDiff compute(RoutingTable oldTable, RoutingTable newTable)
+  {
+    Set<String> addedResources = new TreeSet<String>();
+    Set<String> removedResources = new TreeSet<String>();
+    Map<String, Set<String>> changedPartitionMap = new TreeMap<String, Set<String>>();
+
+    for (String resourceName : oldTable.getResourceNames())
+    {
+      if (newTable.get(resourceName) == null)
+      {
+        removedResources.add(resourceName);
+        Set<String> partitionNames = new TreeSet<String>(oldTable.getPartitionNames(resourceName));
+        changedPartitionMap.put(resourceName, Collections.unmodifiableSet(partitionNames));
+      }
+    }
+
+    for (String resourceName : newTable.getResourceNames())
+    {
+      ResourceInfo oldInfo = oldTable.get(resourceName);
+      ResourceInfo newInfo = newTable.get(resourceName);
+      if (oldInfo == newInfo)
+      {
+        continue;
+      }
+
+      Set<String> changedPartitions;
+      if (oldInfo == null)
+      {
+        addedResources.add(resourceName);
+        changedPartitions = new TreeSet<String>(newInfo.partitionInfoMap.keySet());
+      }
+      else
+      {
+        changedPartitions = diffPartitions(oldInfo, newInfo);
+      }
+
+      if (changedPartitions.size() > 0)
+      {
+        changedPartitionMap.put(resourceName, Collections.unmodifiableSet(changedPartitions));
+      }
+    }
+
+    return new RoutingTableDiff(addedResources, removedResources, changedPartitionMap);
+  }
+
+  private static Set<String> diffPartitions(ResourceInfo oldInfo, ResourceInfo newInfo)
+  {
+    Set<String> states = new HashSet<String>(oldInfo.stateIndexMap.keySet());
+    states.addAll(newInfo.stateIndexMap.keySet());
+
+    Set<String> partitionNames = new HashSet<String>(oldInfo.partitionInfoMap.keySet());
+    partitionNames.addAll(newInfo.partitionInfoMap.keySet());
+
+    Set<String> changedPartitions = new TreeSet<String>();
+    for (String partitionName : partitionNames)
+    {
+      if (!oldInfo.partitionInfoMap.containsKey(partitionName)
+          || !newInfo.partitionInfoMap.containsKey(partitionName))
+      {
+        changedPartitions.add(partitionName);
+        continue;
+      }
+
+      Map<String, String> oldStateMap = oldInfo.externalView.getStateMap(partitionName);
+      Map<String, String> newStateMap = newInfo.externalView.getStateMap(partitionName);
+      if (!equalStateMaps(oldStateMap, newStateMap))
+      {
+        changedPartitions.add(partitionName);
+        continue;
+      }
+
+      // same states, check for instances whose config changed
+      for (String state : states)
+      {
+        if (!sameInstances(oldInfo.getInstances(partitionName, state),
+                           newInfo.getInstances(partitionName, state)))
+        {
+          changedPartitions.add(partitionName);
+          break;
+        }
+      }
+    }
+    return changedPartitions;
+  }
+
+  private static boolean equalStateMaps(Map<String, String> oldStateMap,
+                                        Map<String, String> newStateMap)
+  {
+    if (oldStateMap == null)
+    {
+      oldStateMap = new HashMap<String, String>();
+    }
+    if (newStateMap == null)
+    {
+      newStateMap = new HashMap<String, String>();
+    }
+    return oldStateMap.equals(newStateMap);
+  }
+
+  // instance configs are shared across tables until they change
+  private static boolean sameInstances(List<?> oldInstances, List<?> newInstances)
+  {
+    if (oldInstances.size() != newInstances.size())
+    {
+      return false;
+    }
+    for (int i = 0; i < oldInstances.size(); i++)
+    {
+      if (oldInstances.get(i) != newInstances.get(i))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -15,35 +15,125 @@
  */
 package com.linkedin.helix.spectator;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
+import org.apache.zookeeper.data.Stat;
 
 import com.linkedin.helix.ConfigChangeListener;
+import com.linkedin.helix.CurrentStateChangeListener;
 import com.linkedin.helix.ExternalViewChangeListener;
+import com.linkedin.helix.HelixConstants.ChangeType;
 import com.linkedin.helix.HelixDataAccessor;
+import com.linkedin.helix.HelixManager;
+import com.linkedin.helix.LiveInstanceChangeListener;
 import com.linkedin.helix.NotificationContext;
 import com.linkedin.helix.PropertyKey.Builder;
+import com.linkedin.helix.SelectiveReadListener;
+import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.model.CurrentState;
 import com.linkedin.helix.model.ExternalView;
 import com.linkedin.helix.model.InstanceConfig;
+import com.linkedin.helix.model.LiveInstance;
+import com.linkedin.helix.spectator.RoutingTable.ResourceInfo;
 
-public class RoutingTableProvider implements ExternalViewChangeListener, ConfigChangeListener
+/**
+ * Routing table built from external views and instance configs. Each change
+ * publishes a new immutable routing table. Only resources whose external view version
+ * changed, or that have a replica on an instance whose config changed, are rebuilt;
+ * the other resources are shared with the previous routing table. External views
+ * without a version (e.g. bucketized ones, or ones not read from zookeeper) are always
+ * rebuilt. External views are read by the provider, views whose version is unchanged
+ * since the last change, or since the loaded snapshot, are not read again.
+ * <p>
+ * In current state mode, the provider must also be added as a live instance change
+ * listener. It then listens to the current states of all live instances and routes a
+ * resource by its current states, so changes are visible without waiting for the
+ * controller to update the external view. The external view of a resource is used when
+ * no live instance has a current state for it.
+ * <p>
+ * Published tables are versioned. {@link #getRoutingTable()} pins the current table for
+ * a batch of lookups, and {@link RoutingTableChangeListener}s are told about each
+ * change with the old and new table and the partitions whose routing changed.
+ */
+public class RoutingTableProvider implements ExternalViewChangeListener,
+    ConfigChangeListener, LiveInstanceChangeListener, CurrentStateChangeListener,
+    SelectiveReadListener
 {
   private static final Logger logger = Logger.getLogger(RoutingTableProvider.class);
   private final AtomicReference<RoutingTable> _routingTableRef;
 
+  // instance name -> instance config
+  private final Map<String, InstanceConfig> _instanceConfigMap;
+
+  // shares name strings across routing tables
+  private final Map<String, String>         _namePool;
+
+  // pool size after the last prune, names of removed resources and partitions are
+  // pruned once the pool doubles
+  private int                               _prunedNamePoolSize;
+
+  private final boolean                     _useCurrentState;
+
+  // external views from the last external view change
+  private List<ExternalView>                _externalViews;
+
+  // instance -> session of live instances, current state mode only
+  private final Map<String, String>         _liveInstanceSessionMap;
+
+  // instance -> resource -> current state, current state mode only
+  private final Map<String, Map<String, CurrentState>> _currentStateMap;
+
+  // resource -> view assembled from current states, current state mode only
+  private final Map<String, ExternalView>   _currentStateViewMap;
+
+  // true once instance configs are delivered by config change callbacks, otherwise
+  // instance configs are read on each external view change
+  private boolean _isConfigListener;
+
+  // true while instance configs loaded from a snapshot stand in for config change
+  // callbacks, instance configs are then read only for unknown instances
+  private boolean _hasSnapshotConfigs;
+
+  // version of the last published routing table
+  private long                              _version;
+
+  private final List<RoutingTableChangeListener> _changeListeners;
+
   public RoutingTableProvider()
   {
-    _routingTableRef = new AtomicReference<RoutingTableProvider.RoutingTable>(new RoutingTable());
+    this(false);
+  }
 
+  /**
+   * @param useCurrentState
+   *          route by current states of live instances instead of external views
+   */
+  public RoutingTableProvider(boolean useCurrentState)
+  {
+    _useCurrentState = useCurrentState;
+    _externalViews = Collections.emptyList();
+    _liveInstanceSessionMap = new HashMap<String, String>();
+    _currentStateMap = new HashMap<String, Map<String, CurrentState>>();
+    _currentStateViewMap = new HashMap<String, ExternalView>();
+    _version = 0;
+    _routingTableRef = new AtomicReference<RoutingTable>(new RoutingTable(_version));
+    _changeListeners = new CopyOnWriteArrayList<RoutingTableChangeListener>();
+    _instanceConfigMap = new HashMap<String, InstanceConfig>();
+    _namePool = new HashMap<String, String>();
+    _prunedNamePoolSize = 0;
+    _isConfigListener = false;
+    _hasSnapshotConfigs = false;
   }
 
   /**
@@ -58,22 +148,7 @@ public class RoutingTableProvider implements ExternalViewChangeListener, ConfigC
    */
   public List<InstanceConfig> getInstances(String resourceName, String partitionName, String state)
   {
-    List<InstanceConfig> instanceList = null;
-    RoutingTable _routingTable = _routingTableRef.get();
-    ResourceInfo resourceInfo = _routingTable.get(resourceName);
-    if (resourceInfo != null)
-    {
-      PartitionInfo keyInfo = resourceInfo.get(partitionName);
-      if (keyInfo != null)
-      {
-        instanceList = keyInfo.get(state);
-      }
-    }
-    if (instanceList == null)
-    {
-      instanceList = Collections.emptyList();
-    }
-    return instanceList;
+    return _routingTableRef.get().getInstances(resourceName, partitionName, state);
   }
 
   /**
@@ -85,20 +160,100 @@ public class RoutingTableProvider implements ExternalViewChangeListener, ConfigC
    */
   public Set<InstanceConfig> getInstances(String resource, String state)
   {
-    Set<InstanceConfig> instanceSet = null;
-    RoutingTable routingTable = _routingTableRef.get();
-    ResourceInfo resourceInfo = routingTable.get(resource);
-    if (resourceInfo != null)
+    return _routingTableRef.get().getInstances(resource, state);
+  }
+
+  /**
+   * returns the first instance for {resource,partition} pair that is in a specific
+   * {state}
+   * 
+   * @return null if there is no instance in a given state
+   */
+  public InstanceConfig getInstance(String resourceName, String partitionName, String state)
+  {
+    return _routingTableRef.get().getInstance(resourceName, partitionName, state);
+  }
+
+  /**
+   * returns the current routing table. Lookups on the returned table are consistent with
+   * each other
+   */
+  public RoutingTable getRoutingTable()
+  {
+    return _routingTableRef.get();
+  }
+
+  public void addRoutingTableChangeListener(RoutingTableChangeListener listener)
+  {
+    _changeListeners.add(listener);
+  }
+
+  public void removeRoutingTableChangeListener(RoutingTableChangeListener listener)
+  {
+    _changeListeners.remove(listener);
+  }
+
+  /**
+   * Route by a snapshot saved by {@link #saveSnapshot(File)} until zookeeper delivers
+   * external views. Call before adding the provider as a listener. External views in
+   * zookeeper with the same version as in the snapshot are neither read nor rebuilt on
+   * the first external view change. Instance configs of the snapshot are used until
+   * config change callbacks arrive, so the provider should also be added as a config
+   * change listener.
+   * 
+   * @return false if there is no valid snapshot, the routing table is then unchanged
+   */
+  public synchronized boolean loadSnapshot(File file)
+  {
+    if (!file.exists())
+    {
+      logger.info("No routing table snapshot at " + file);
+      return false;
+    }
+
+    RoutingTableSnapshot snapshot;
+    try
     {
-      instanceSet = resourceInfo.getInstances(state);
+      snapshot = RoutingTableSnapshot.read(file);
     }
-    if (instanceSet == null)
+    catch (IOException e)
     {
-      instanceSet = Collections.emptySet();
+      logger.warn("Fail to read routing table snapshot from " + file, e);
+      return false;
     }
-    return instanceSet;
+
+    updateInstanceConfigs(snapshot.getInstanceConfigs());
+    _hasSnapshotConfigs = true;
+    _externalViews = snapshot.getExternalViews();
+    publish(buildRoutingTable(getExternalViews(), Collections.<String> emptySet()));
+    logger.info("Load routing table snapshot from " + file + ", resources: "
+        + _externalViews.size() + ", instances: " + _instanceConfigMap.size());
+    return true;
   }
 
+  /**
+   * Save the current routing table to a file, e.g. periodically or on shutdown. The
+   * previous snapshot is replaced only after the new one is completely written
+   */
+  public void saveSnapshot(File file) throws IOException
+  {
+    RoutingTableSnapshot.write(_routingTableRef.get(), file);
+  }
+
+  /**
+   * External views are read in {@link #onExternalViewChange(List, NotificationContext)},
+   * only the changed ones
+   */
+  @Override
+  public boolean prefetchChildren(ChangeType changeType)
+  {
+    return changeType != ChangeType.EXTERNAL_VIEW;
+  }
+
+  /**
+   * @param externalViewList
+   *          null to read the changed external views from zookeeper
+   */
   @Override
   public void onExternalViewChange(List<ExternalView> externalViewList,
       NotificationContext changeContext)
@@ -106,9 +261,7 @@ public class RoutingTableProvider implements ExternalViewChangeListener, ConfigC
     // session has expired clean up the routing table
     if (changeContext.getType() == NotificationContext.Type.FINALIZE)
     {
-      logger.info("Resetting the routing table. ");
-      RoutingTable newRoutingTable = new RoutingTable();
-      _routingTableRef.set(newRoutingTable);
+      reset();
       return;
     }
     refresh(externalViewList, changeContext);
@@ -121,181 +274,505 @@ public class RoutingTableProvider implements ExternalViewChangeListener, ConfigC
     // session has expired clean up the routing table
     if (changeContext.getType() == NotificationContext.Type.FINALIZE)
     {
-      logger.info("Resetting the routing table. ");
-      RoutingTable newRoutingTable = new RoutingTable();
-      _routingTableRef.set(newRoutingTable);
+      reset();
       return;
     }
-    
-    HelixDataAccessor accessor = changeContext.getManager().getHelixDataAccessor();
-    Builder keyBuilder = accessor.keyBuilder();
-    List<ExternalView> externalViewList = accessor.getChildValues(keyBuilder.externalViews());
-    refresh(externalViewList, changeContext);    
+
+    synchronized (this)
+    {
+      _isConfigListener = true;
+      _hasSnapshotConfigs = false;
+      Set<String> changedInstances = updateInstanceConfigs(configs);
+      if (changedInstances.size() > 0)
+      {
+        // external views are unchanged, rebuild the resources on changed instances
+        publish(buildRoutingTable(getExternalViews(), changedInstances));
+      }
+    }
+  }
+
+  private synchronized void reset()
+  {
+    logger.info("Resetting the routing table. ");
+    publish(new RoutingTable(++_version));
+    _instanceConfigMap.clear();
+    _namePool.clear();
+    _prunedNamePoolSize = 0;
+    _isConfigListener = false;
+    _hasSnapshotConfigs = false;
+    _externalViews = Collections.emptyList();
+    _liveInstanceSessionMap.clear();
+    _currentStateMap.clear();
+    _currentStateViewMap.clear();
   }
-  
-  private void refresh(List<ExternalView> externalViewList, NotificationContext changeContext)
+
+  private synchronized void refresh(List<ExternalView> externalViewList,
+                                    NotificationContext changeContext)
+  {
+    if (externalViewList == null)
+    {
+      externalViewList = readExternalViews(changeContext.getManager().getHelixDataAccessor());
+    }
+
+    Set<String> changedInstances = Collections.emptySet();
+    if ((!_isConfigListener && !_hasSnapshotConfigs)
+        || hasUnknownInstance(externalViewList))
+    {
+      HelixDataAccessor accessor = changeContext.getManager().getHelixDataAccessor();
+      Builder keyBuilder = accessor.keyBuilder();
+      List<InstanceConfig> configList = accessor.getChildValues(keyBuilder.instanceConfigs());
+      changedInstances = updateInstanceConfigs(configList);
+    }
+    _externalViews = externalViewList;
+    publish(buildRoutingTable(getExternalViews(), changedInstances));
+  }
+
+  /**
+   * Read external views, except the ones whose version is the same as the version of the
+   * last external view of the resource
+   */
+  private List<ExternalView> readExternalViews(HelixDataAccessor accessor)
   {
-    HelixDataAccessor accessor = changeContext.getManager().getHelixDataAccessor();
     Builder keyBuilder = accessor.keyBuilder();
-    
-    List<InstanceConfig> configList = accessor.getChildValues(keyBuilder.instanceConfigs());
-    Map<String, InstanceConfig> instanceConfigMap = new HashMap<String, InstanceConfig>();
-    for (InstanceConfig config : configList)
+    if (_externalViews.isEmpty())
+    {
+      return accessor.getChildValues(keyBuilder.externalViews());
+    }
+
+    Map<String, ExternalView> lastViewMap = new HashMap<String, ExternalView>();
+    for (ExternalView extView : _externalViews)
+    {
+      lastViewMap.put(extView.getId(), extView);
+    }
+
+    List<String> resourceNames = accessor.getChildNames(keyBuilder.externalViews());
+    if (resourceNames.isEmpty())
+    {
+      return Collections.emptyList();
+    }
+    List<String> paths = new ArrayList<String>();
+    for (String resourceName : resourceNames)
     {
-      instanceConfigMap.put(config.getId(), config);
+      paths.add(keyBuilder.externalView(resourceName).getPath());
     }
-    RoutingTable newRoutingTable = new RoutingTable();
-    if (externalViewList != null)
+    Stat[] stats = accessor.getBaseDataAccessor().getStats(paths, 0);
+
+    // changed external views are read in one batch
+    ExternalView[] extViews = new ExternalView[resourceNames.size()];
+    List<Integer> readIndices = new ArrayList<Integer>();
+    List<String> readPaths = new ArrayList<String>();
+    for (int i = 0; i < resourceNames.size(); i++)
+    {
+      ExternalView extView = lastViewMap.get(resourceNames.get(i));
+      if (extView == null || stats == null || stats[i] == null
+          || !isSameVersion(extView, stats[i]))
+      {
+        readIndices.add(i);
+        readPaths.add(paths.get(i));
+      }
+      else
+      {
+        extViews[i] = extView;
+      }
+    }
+
+    int readCount = readPaths.size();
+    if (readCount > 0)
     {
-      for (ExternalView extView : externalViewList)
+      List<Stat> readStats = new ArrayList<Stat>();
+      List<ZNRecord> records = accessor.getBaseDataAccessor().get(readPaths, readStats, 0);
+      for (int j = 0; j < readCount; j++)
       {
-        String resourceName = extView.getId();
-        for (String partitionName : extView.getPartitionSet())
+        int i = readIndices.get(j);
+        ZNRecord record = records.get(j);
+        if (record == null)
         {
-          Map<String, String> stateMap = extView.getStateMap(partitionName);
-          for (String instanceName : stateMap.keySet())
+          continue;
+        }
+        ExternalView extView = new ExternalView(record);
+        if (extView.getBucketSize() > 0)
+        {
+          // assembled from its buckets by the data accessor
+          extView = accessor.getProperty(keyBuilder.externalView(resourceNames.get(i)));
+        }
+        else if (j < readStats.size() && readStats.get(j) != null)
+        {
+          Stat stat = readStats.get(j);
+          record.setVersion(stat.getVersion());
+          record.setCreationTime(stat.getCtime());
+          record.setModifiedTime(stat.getMtime());
+        }
+        extViews[i] = extView;
+      }
+    }
+
+    List<ExternalView> externalViewList = new ArrayList<ExternalView>();
+    for (ExternalView extView : extViews)
+    {
+      if (extView != null)
+      {
+        externalViewList.add(extView);
+      }
+    }
+
+    if (logger.isDebugEnabled())
+    {
+      logger.debug("Read " + readCount + " out of " + resourceNames.size()
+          + " external views");
+    }
+    return externalViewList;
+  }
+
+  /**
+   * Same check as the routing table does, but against the stat of the znode. Versions of
+   * bucketized external views are unknown, they are always read
+   */
+  private static boolean isSameVersion(ExternalView extView, Stat stat)
+  {
+    ZNRecord record = extView.getRecord();
+    return record.getModifiedTime() > 0 && record.getVersion() == stat.getVersion()
+        && record.getModifiedTime() == stat.getMtime();
+  }
+
+  @Override
+  public void onLiveInstanceChange(List<LiveInstance> liveInstances,
+                                   NotificationContext changeContext)
+  {
+    if (!_useCurrentState)
+    {
+      return;
+    }
+
+    // session has expired clean up the routing table
+    if (changeContext.getType() == NotificationContext.Type.FINALIZE)
+    {
+      reset();
+      return;
+    }
+
+    synchronized (this)
+    {
+      HelixManager manager = changeContext.getManager();
+      Builder keyBuilder = new Builder(manager.getClusterName());
+      Map<String, String> curSessionMap = new HashMap<String, String>();
+      for (LiveInstance liveInstance : liveInstances)
+      {
+        curSessionMap.put(liveInstance.getInstanceName(), liveInstance.getSessionId());
+      }
+
+      // stop routing to instances that are gone or have a new session
+      Set<String> changedResources = new HashSet<String>();
+      for (String instanceName : new ArrayList<String>(_liveInstanceSessionMap.keySet()))
+      {
+        String sessionId = _liveInstanceSessionMap.get(instanceName);
+        if (!sessionId.equals(curSessionMap.get(instanceName)))
+        {
+          manager.removeListener(keyBuilder.currentStates(instanceName, sessionId), this);
+          _liveInstanceSessionMap.remove(instanceName);
+          Map<String, CurrentState> currentStates = _currentStateMap.remove(instanceName);
+          if (currentStates != null)
           {
-            String currentState = stateMap.get(instanceName);
-            if (instanceConfigMap.containsKey(instanceName))
-            {
-              InstanceConfig instanceConfig = instanceConfigMap.get(instanceName);
-              newRoutingTable.addEntry(resourceName, partitionName, currentState, instanceConfig);
-            } else
-            {
-              logger.error("Invalid instance name." + instanceName
-                  + " .Not found in /cluster/configs/. instanceName: ");
-            }
+            changedResources.addAll(currentStates.keySet());
+          }
+        }
+      }
+      updateCurrentStateViews(changedResources);
 
+      // the init callback of each added listener delivers current states of the session
+      for (String instanceName : curSessionMap.keySet())
+      {
+        if (!_liveInstanceSessionMap.containsKey(instanceName))
+        {
+          String sessionId = curSessionMap.get(instanceName);
+          _liveInstanceSessionMap.put(instanceName, sessionId);
+          try
+          {
+            manager.addCurrentStateChangeListener(this, instanceName, sessionId);
+          }
+          catch (Exception e)
+          {
+            logger.error("Fail to add current state listener for instance: "
+                + instanceName + " with session: " + sessionId, e);
           }
         }
       }
+      publish(buildRoutingTable(getExternalViews(), Collections.<String> emptySet()));
     }
-    _routingTableRef.set(newRoutingTable);
   }
 
-  class RoutingTable
+  @Override
+  public void onStateChange(String instanceName,
+                            List<CurrentState> statesInfo,
+                            NotificationContext changeContext)
   {
-    private final HashMap<String, ResourceInfo> resourceInfoMap;
+    // listeners of expired sessions are removed on live instance change
+    if (changeContext.getType() == NotificationContext.Type.FINALIZE || !_useCurrentState)
+    {
+      return;
+    }
 
-    public RoutingTable()
+    synchronized (this)
     {
-      resourceInfoMap = new HashMap<String, RoutingTableProvider.ResourceInfo>();
+      String sessionId = _liveInstanceSessionMap.get(instanceName);
+      if (sessionId == null)
+      {
+        return;
+      }
+
+      Map<String, CurrentState> oldStates = _currentStateMap.get(instanceName);
+      if (oldStates == null)
+      {
+        oldStates = Collections.emptyMap();
+      }
+      Map<String, CurrentState> newStates = new HashMap<String, CurrentState>();
+      for (CurrentState currentState : statesInfo)
+      {
+        if (currentState.getSessionId() == null
+            || sessionId.equals(currentState.getSessionId()))
+        {
+          newStates.put(currentState.getResourceName(), currentState);
+        }
+      }
+      _currentStateMap.put(instanceName, newStates);
+
+      Set<String> changedResources = new HashSet<String>();
+      for (String resourceName : oldStates.keySet())
+      {
+        if (!newStates.containsKey(resourceName))
+        {
+          changedResources.add(resourceName);
+        }
+      }
+      for (CurrentState currentState : newStates.values())
+      {
+        CurrentState oldState = oldStates.get(currentState.getResourceName());
+        if (oldState == null
+            || !oldState.getPartitionStateMap().equals(currentState.getPartitionStateMap()))
+        {
+          changedResources.add(currentState.getResourceName());
+        }
+      }
+
+      if (changedResources.size() > 0)
+      {
+        updateCurrentStateViews(changedResources);
+        publish(buildRoutingTable(getExternalViews(), Collections.<String> emptySet()));
+      }
     }
+  }
 
-    public void addEntry(String resourceName, String partitionName, String state,
-        InstanceConfig config)
+  /**
+   * Re-assemble views of resources from current states of live instances. A resource
+   * that has no partition in any current state is routed by its external view
+   */
+  private void updateCurrentStateViews(Set<String> resourceNames)
+  {
+    for (String resourceName : resourceNames)
     {
-      if (!resourceInfoMap.containsKey(resourceName))
+      ExternalView view = new ExternalView(resourceName);
+      for (String instanceName : _currentStateMap.keySet())
       {
-        resourceInfoMap.put(resourceName, new ResourceInfo());
+        CurrentState currentState = _currentStateMap.get(instanceName).get(resourceName);
+        if (currentState != null)
+        {
+          Map<String, String> partitionStateMap = currentState.getPartitionStateMap();
+          for (String partitionName : partitionStateMap.keySet())
+          {
+            view.setState(partitionName, instanceName, partitionStateMap.get(partitionName));
+          }
+        }
       }
-      ResourceInfo resourceInfo = resourceInfoMap.get(resourceName);
-      resourceInfo.addEntry(partitionName, state, config);
 
+      if (view.getPartitionSet().isEmpty())
+      {
+        _currentStateViewMap.remove(resourceName);
+      }
+      else
+      {
+        _currentStateViewMap.put(resourceName, view);
+      }
     }
+  }
 
-    ResourceInfo get(String resourceName)
+  /**
+   * @return external views to build the routing table from. In current state mode,
+   *         views assembled from current states replace external views
+   */
+  private List<ExternalView> getExternalViews()
+  {
+    if (!_useCurrentState)
     {
-      return resourceInfoMap.get(resourceName);
+      return _externalViews;
     }
 
+    Map<String, ExternalView> views = new HashMap<String, ExternalView>();
+    for (ExternalView extView : _externalViews)
+    {
+      views.put(extView.getId(), extView);
+    }
+    views.putAll(_currentStateViewMap);
+    return new ArrayList<ExternalView>(views.values());
   }
 
-  class ResourceInfo
+  /**
+   * Replace cached instance configs
+   * 
+   * @return names of instances whose config is added, changed, or removed
+   */
+  private Set<String> updateInstanceConfigs(List<InstanceConfig> configList)
   {
-    // store PartitionInfo for each partition
-    HashMap<String, PartitionInfo> partitionInfoMap;
-    // stores the Set of Instances in a given state
-    HashMap<String, Set<InstanceConfig>> stateInfoMap;
-
-    public ResourceInfo()
+    Set<String> changedInstances = new HashSet<String>();
+    Map<String, InstanceConfig> newConfigMap = new HashMap<String, InstanceConfig>();
+    if (configList != null)
     {
-      partitionInfoMap = new HashMap<String, RoutingTableProvider.PartitionInfo>();
-      stateInfoMap = new HashMap<String, Set<InstanceConfig>>();
+      for (InstanceConfig config : configList)
+      {
+        InstanceConfig oldConfig = _instanceConfigMap.get(config.getId());
+        if (oldConfig == null || !oldConfig.getRecord().equals(config.getRecord()))
+        {
+          newConfigMap.put(config.getId(), config);
+          changedInstances.add(config.getId());
+        }
+        else
+        {
+          // keep the cached object, so unchanged instances are the same across tables
+          newConfigMap.put(config.getId(), oldConfig);
+        }
+      }
     }
 
-    public void addEntry(String stateUnitKey, String state, InstanceConfig config)
+    for (String instanceName : _instanceConfigMap.keySet())
     {
-      // add
-      if (!stateInfoMap.containsKey(state))
+      if (!newConfigMap.containsKey(instanceName))
       {
-        Comparator<InstanceConfig> comparator = new Comparator<InstanceConfig>() {
+        changedInstances.add(instanceName);
+      }
+    }
+    _instanceConfigMap.clear();
+    _instanceConfigMap.putAll(newConfigMap);
+    return changedInstances;
+  }
 
-          @Override
-          public int compare(InstanceConfig o1, InstanceConfig o2)
+  /**
+   * Check if a changed external view refers to an instance without config, e.g. an
+   * instance is added and its config change callback has not arrived yet
+   */
+  private boolean hasUnknownInstance(List<ExternalView> externalViewList)
+  {
+    RoutingTable routingTable = _routingTableRef.get();
+    for (ExternalView extView : externalViewList)
+    {
+      ResourceInfo resourceInfo = routingTable.get(extView.getId());
+      if (resourceInfo != null && resourceInfo.isSameVersion(extView))
+      {
+        continue;
+      }
+      for (String partitionName : extView.getPartitionSet())
+      {
+        for (String instanceName : extView.getStateMap(partitionName).keySet())
+        {
+          if (!_instanceConfigMap.containsKey(instanceName))
           {
-            if (o1 == o2)
-            {
-              return 0;
-            }
-            if (o1 == null)
-            {
-              return -1;
-            }
-            if (o2 == null)
-            {
-              return 1;
-            }
-
-            int compareTo = o1.getHostName().compareTo(o2.getHostName());
-            if (compareTo == 0)
-            {
-              return o1.getPort().compareTo(o2.getPort());
-            } else
-            {
-              return compareTo;
-            }
-
+            return true;
           }
-        };
-        stateInfoMap.put(state, new TreeSet<InstanceConfig>(comparator));
+        }
       }
-      Set<InstanceConfig> set = stateInfoMap.get(state);
-      set.add(config);
+    }
+    return false;
+  }
 
-      if (!partitionInfoMap.containsKey(stateUnitKey))
+  private RoutingTable buildRoutingTable(List<ExternalView> externalViewList,
+                                         Set<String> changedInstances)
+  {
+    RoutingTable oldRoutingTable = _routingTableRef.get();
+    Map<String, ResourceInfo> resourceInfoMap = new HashMap<String, ResourceInfo>();
+    int rebuildCount = 0;
+    for (ExternalView extView : externalViewList)
+    {
+      String resourceName = RoutingTable.intern(_namePool, extView.getId());
+      ResourceInfo resourceInfo = oldRoutingTable.get(resourceName);
+      if (resourceInfo == null || !resourceInfo.isSameVersion(extView)
+          || resourceInfo.hasInstance(changedInstances))
       {
-        partitionInfoMap.put(stateUnitKey, new PartitionInfo());
+        resourceInfo = RoutingTable.buildResourceInfo(extView, _instanceConfigMap, _namePool);
+        rebuildCount++;
       }
-      PartitionInfo stateUnitKeyInfo = partitionInfoMap.get(stateUnitKey);
-      stateUnitKeyInfo.addEntry(state, config);
-
+      resourceInfoMap.put(resourceName, resourceInfo);
     }
 
-    public Set<InstanceConfig> getInstances(String state)
+    if (logger.isDebugEnabled())
     {
-      Set<InstanceConfig> instanceSet = stateInfoMap.get(state);
-      return instanceSet;
+      logger.debug("Rebuild " + rebuildCount + " out of " + externalViewList.size()
+          + " resources in routing table");
     }
 
-    PartitionInfo get(String stateUnitKey)
+    // all resources are taken from the old table
+    if (rebuildCount == 0
+        && resourceInfoMap.size() == oldRoutingTable.getResourceNames().size())
+    {
+      return oldRoutingTable;
+    }
+    if (_namePool.size() > 2 * Math.max(_prunedNamePoolSize, 1024))
     {
-      return partitionInfoMap.get(stateUnitKey);
+      pruneNamePool(resourceInfoMap);
     }
+    return new RoutingTable(++_version, resourceInfoMap);
   }
 
-  class PartitionInfo
+  /**
+   * Keep only the names of the routing table being built in the name pool
+   */
+  private void pruneNamePool(Map<String, ResourceInfo> resourceInfoMap)
   {
-    HashMap<String, List<InstanceConfig>> stateInfoMap;
-
-    public PartitionInfo()
+    int oldSize = _namePool.size();
+    _namePool.clear();
+    for (Map.Entry<String, ResourceInfo> entry : resourceInfoMap.entrySet())
     {
-      stateInfoMap = new HashMap<String, List<InstanceConfig>>();
+      _namePool.put(entry.getKey(), entry.getKey());
+      entry.getValue().addNames(_namePool);
     }
+    _prunedNamePoolSize = _namePool.size();
+    logger.info("Pruned routing table name pool from " + oldSize + " to "
+        + _prunedNamePoolSize + " names");
+  }
+  synchronized int getNamePoolSize()
+  {
+    return _namePool.size();
+  }
+
 
-    public void addEntry(String state, InstanceConfig config)
+  /**
+   * Publish a routing table and notify change listeners. Called with the provider
+   * lock held, so listeners see tables in the order they are published
+   */
+  private void publish(RoutingTable newRoutingTable)
+  {
+    RoutingTable oldRoutingTable = _routingTableRef.get();
+    if (newRoutingTable == oldRoutingTable)
     {
-      if (!stateInfoMap.containsKey(state))
-      {
-        stateInfoMap.put(state, new ArrayList<InstanceConfig>());
-      }
-      List<InstanceConfig> list = stateInfoMap.get(state);
-      list.add(config);
+      return;
     }
+    _routingTableRef.set(newRoutingTable);
 
-    List<InstanceConfig> get(String state)
+    if (_changeListeners.isEmpty())
+    {
+      return;
+    }
+    RoutingTableDiff diff = RoutingTableDiff.compute(oldRoutingTable, newRoutingTable);
+    if (diff.isEmpty())
     {
-      return stateInfoMap.get(state);
+      return;
+    }
+    for (RoutingTableChangeListener listener : _changeListeners)
+    {
+      try
+      {
+        listener.onRoutingTableChange(oldRoutingTable, newRoutingTable, diff);
+      }
+      catch (Exception e)
+      {
+        logger.error("Exception in routing table change listener: " + listener, e);
+      }
     }
   }
 }
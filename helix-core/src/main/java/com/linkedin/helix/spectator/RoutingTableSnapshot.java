@@ -0,0 +1,381 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.model.ExternalView;
+import com.linkedin.helix.model.InstanceConfig;
+import com.linkedin.helix.spectator.RoutingTable.ResourceInfo;
+
+/**
+ * Routing table persisted to a local file, so a spectator can route right after
+ * startup and reconcile with zookeeper later.
+ * <p>
+ * The file holds the external views a routing table is built from, with their
+ * zookeeper versions, and the configs of instances in them. All strings are written
+ * once into a string table and referred to by index. A CRC32 of the content is
+ * checked before the file is parsed, and every count and index read is checked against
+ * the bytes left, so a corrupted file fails with an IOException. The file is
+ * memory-mapped on read.
+ */
+public class RoutingTableSnapshot
+{
+  // "HRTS"
+  private static final int           MAGIC          = 0x48525453;
+  private static final int           FORMAT_VERSION = 2;
+  // magic, format version, content length, content CRC32
+  private static final int           HEADER_SIZE    = 16;
+
+  private final List<ExternalView>   _externalViews;
+  private final List<InstanceConfig> _instanceConfigs;
+
+  RoutingTableSnapshot(List<ExternalView> externalViews, List<InstanceConfig> instanceConfigs)
+  {
+    _externalViews = externalViews;
+    _instanceConfigs = instanceConfigs;
+  }
+
+  public List<ExternalView> getExternalViews()
+  {
+    return _externalViews;
+  }
+
+  public List<InstanceConfig> getInstanceConfigs()
+  {
+    return _instanceConfigs;
+  }
+
+  /**
+   * Write a routing table to a file. The file is replaced only after the snapshot is
+   * completely written
+   */
+  public static void write(RoutingTable routingTable, File file) throws IOException
+  {
+    Map<String, InstanceConfig> instanceConfigMap = new TreeMap<String, InstanceConfig>();
+    List<ExternalView> externalViews = new ArrayList<ExternalView>();
+    for (String resourceName : routingTable.getResourceNames())
+    {
+      ResourceInfo resourceInfo = routingTable.get(resourceName);
+      externalViews.add(resourceInfo.externalView);
+      for (Iterable<InstanceConfig> instances : resourceInfo.stateInstances)
+      {
+        for (InstanceConfig config : instances)
+        {
+          instanceConfigMap.put(config.getId(), config);
+        }
+      }
+    }
+
+    // encode records first to collect the string table
+    Map<String, Integer> stringIndexMap = new LinkedHashMap<String, Integer>();
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    DataOutputStream recordOut = new DataOutputStream(records);
+    recordOut.writeInt(instanceConfigMap.size());
+    for (InstanceConfig config : instanceConfigMap.values())
+    {
+      writeRecord(recordOut, config.getRecord(), stringIndexMap);
+    }
+    recordOut.writeInt(externalViews.size());
+    for (ExternalView externalView : externalViews)
+    {
+      writeRecord(recordOut, externalView.getRecord(), stringIndexMap);
+    }
+    recordOut.flush();
+
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    DataOutputStream contentOut = new DataOutputStream(content);
+    contentOut.writeInt(stringIndexMap.size());
+    for (String str : stringIndexMap.keySet())
+    {
+      byte[] bytes = str.getBytes("UTF-8");
+      contentOut.writeInt(bytes.length);
+      contentOut.write(bytes);
+    }
+    records.writeTo(contentOut);
+    contentOut.flush();
+    byte[] contentBytes = content.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(contentBytes);
+
+    File tmpFile = new File(file.getPath() + ".tmp");
+    FileOutputStream fileOut = new FileOutputStream(tmpFile);
+    try
+    {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(contentBytes.length);
+      out.writeInt((int) crc.getValue());
+      out.write(contentBytes);
+      out.flush();
+      // on disk before it replaces the old snapshot
+      fileOut.getFD().sync();
+    }
+    finally
+    {
+      fileOut.close();
+    }
+
+    // rename replaces the old snapshot atomically, it is never deleted first so a crash
+    // leaves either the old or the new snapshot
+    if (!tmpFile.renameTo(file))
+    {
+      tmpFile.delete();
+      throw new IOException("Fail to rename " + tmpFile + " to " + file);
+    }
+  }
+
+  /**
+   * Read a snapshot written by {@link #write(RoutingTable, File)}
+   *
+   * @throws IOException
+   *           if the file can't be read or is not a valid snapshot
+   */
+  public static RoutingTableSnapshot read(File file) throws IOException
+  {
+    RandomAccessFile raFile = new RandomAccessFile(file, "r");
+    try
+    {
+      FileChannel channel = raFile.getChannel();
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+      {
+        throw new IOException("Not a routing table snapshot: " + file);
+      }
+      int formatVersion = buffer.getInt();
+      if (formatVersion != FORMAT_VERSION)
+      {
+        throw new IOException("Unsupported routing table snapshot version: "
+            + formatVersion + ", file: " + file);
+      }
+
+      checkCrc(buffer, file);
+
+      String[] strings = new String[readCount(buffer, 4)];
+      for (int i = 0; i < strings.length; i++)
+      {
+        byte[] bytes = new byte[readCount(buffer, 1)];
+        buffer.get(bytes);
+        strings[i] = new String(bytes, "UTF-8");
+      }
+
+      // a record is at least an id, version, modified time and three field counts
+      int configCount = readCount(buffer, 28);
+      List<InstanceConfig> instanceConfigs = new ArrayList<InstanceConfig>(configCount);
+      for (int i = 0; i < configCount; i++)
+      {
+        instanceConfigs.add(new InstanceConfig(readRecord(buffer, strings)));
+      }
+      int viewCount = readCount(buffer, 28);
+      List<ExternalView> externalViews = new ArrayList<ExternalView>(viewCount);
+      for (int i = 0; i < viewCount; i++)
+      {
+        externalViews.add(new ExternalView(readRecord(buffer, strings)));
+      }
+      return new RoutingTableSnapshot(externalViews, instanceConfigs);
+    }
+    catch (BufferUnderflowException e)
+    {
+      throw new IOException("Truncated routing table snapshot: " + file);
+    }
+    finally
+    {
+      raFile.close();
+    }
+  }
+
+  /**
+   * Check the content length and CRC32 in the header, the buffer is left at the start of
+   * the content
+   */
+  private static void checkCrc(ByteBuffer buffer, File file) throws IOException
+  {
+    int length = buffer.getInt();
+    int expectedCrc = buffer.getInt();
+    if (length != buffer.remaining())
+    {
+      throw new IOException("Routing table snapshot has " + buffer.remaining()
+          + " bytes, " + length + " expected: " + file);
+    }
+
+    int start = buffer.position();
+    CRC32 crc = new CRC32();
+    byte[] chunk = new byte[Math.min(length, 64 * 1024)];
+    while (buffer.hasRemaining())
+    {
+      int size = Math.min(chunk.length, buffer.remaining());
+      buffer.get(chunk, 0, size);
+      crc.update(chunk, 0, size);
+    }
+    if ((int) crc.getValue() != expectedCrc)
+    {
+      throw new IOException("Corrupted routing table snapshot, CRC mismatch: " + file);
+    }
+    buffer.position(start);
+  }
+
+  /**
+   * Read a count, checking that the elements of at least elementSize bytes each fit in
+   * the bytes left, so corrupted counts don't allocate huge arrays
+   */
+  private static int readCount(ByteBuffer buffer, int elementSize) throws IOException
+  {
+    int count = buffer.getInt();
+    if (count < 0 || (long) count * elementSize > buffer.remaining())
+    {
+      throw new IOException("Corrupted routing table snapshot, invalid count: " + count
+          + ", " + buffer.remaining() + " bytes left");
+    }
+    return count;
+  }
+
+  private static void writeRecord(DataOutputStream out,
+                                  ZNRecord record,
+                                  Map<String, Integer> stringIndexMap) throws IOException
+  {
+    writeString(out, record.getId(), stringIndexMap);
+    out.writeInt(record.getVersion());
+    out.writeLong(record.getModifiedTime());
+
+    writeMap(out, record.getSimpleFields(), stringIndexMap);
+
+    Map<String, List<String>> listFields = record.getListFields();
+    out.writeInt(listFields.size());
+    for (Map.Entry<String, List<String>> entry : listFields.entrySet())
+    {
+      writeString(out, entry.getKey(), stringIndexMap);
+      out.writeInt(entry.getValue().size());
+      for (String value : entry.getValue())
+      {
+        writeString(out, value, stringIndexMap);
+      }
+    }
+
+    Map<String, Map<String, String>> mapFields = record.getMapFields();
+    out.writeInt(mapFields.size());
+    for (Map.Entry<String, Map<String, String>> entry : mapFields.entrySet())
+    {
+      writeString(out, entry.getKey(), stringIndexMap);
+      writeMap(out, entry.getValue(), stringIndexMap);
+    }
+  }
+
+  private static void writeMap(DataOutputStream out,
+                               Map<String, String> map,
+                               Map<String, Integer> stringIndexMap) throws IOException
+  {
+    out.writeInt(map.size());
+    for (Map.Entry<String, String> entry : map.entrySet())
+    {
+      writeString(out, entry.getKey(), stringIndexMap);
+      writeString(out, entry.getValue(), stringIndexMap);
+    }
+  }
+
+  // null is written as -1
+  private static void writeString(DataOutputStream out,
+                                  String str,
+                                  Map<String, Integer> stringIndexMap) throws IOException
+  {
+    if (str == null)
+    {
+      out.writeInt(-1);
+      return;
+    }
+    Integer index = stringIndexMap.get(str);
+    if (index == null)
+    {
+      index = stringIndexMap.size();
+      stringIndexMap.put(str, index);
+    }
+    out.writeInt(index);
+  }
+
+  private static ZNRecord readRecord(ByteBuffer buffer, String[] strings) throws IOException
+  {
+    ZNRecord record = new ZNRecord(readString(buffer, strings));
+    record.setVersion(buffer.getInt());
+    record.setModifiedTime(buffer.getLong());
+
+    record.setSimpleFields(readMap(buffer, strings));
+
+    int listCount = readCount(buffer, 8);
+    Map<String, List<String>> listFields = new TreeMap<String, List<String>>();
+    for (int i = 0; i < listCount; i++)
+    {
+      String key = readString(buffer, strings);
+      int size = readCount(buffer, 4);
+      List<String> values = new ArrayList<String>(size);
+      for (int j = 0; j < size; j++)
+      {
+        values.add(readString(buffer, strings));
+      }
+      listFields.put(key, values);
+    }
+    record.setListFields(listFields);
+
+    int mapCount = readCount(buffer, 8);
+    Map<String, Map<String, String>> mapFields = new TreeMap<String, Map<String, String>>();
+    for (int i = 0; i < mapCount; i++)
+    {
+      String key = readString(buffer, strings);
+      mapFields.put(key, readMap(buffer, strings));
+    }
+    record.setMapFields(mapFields);
+    return record;
+  }
+
+  private static Map<String, String> readMap(ByteBuffer buffer, String[] strings)
+      throws IOException
+  {
+    int size = readCount(buffer, 8);
+    Map<String, String> map = new TreeMap<String, String>();
+    for (int i = 0; i < size; i++)
+    {
+      String key = readString(buffer, strings);
+      map.put(key, readString(buffer, strings));
+    }
+    return map;
+  }
+
+  private static String readString(ByteBuffer buffer, String[] strings) throws IOException
+  {
+    int index = buffer.getInt();
+    if (index < -1 || index >= strings.length)
+    {
+      throw new IOException("Corrupted routing table snapshot, invalid string index: "
+          + index);
+    }
+    return index < 0 ? null : strings[index];
+  }
+}
@@ -69,14 +69,14 @@ public class Mocks {
 		@Override
 		public boolean update(String path, DataUpdater<ZNRecord> updater,
 				int options) {
-			// TODO Auto-generated method stub
-			return false;
+			map.put(path, updater.update(map.get(path)));
+			return true;
 		}
 
 		@Override
 		public boolean remove(String path, int options) {
-			// TODO Auto-generated method stub
-			return false;
+			map.remove(path);
+			return true;
 		}
 
 		@Override
@@ -89,8 +89,12 @@ public class Mocks {
 		@Override
 		public boolean[] setChildren(List<String> paths,
 				List<ZNRecord> records, int options) {
-			// TODO Auto-generated method stub
-			return null;
+			boolean[] success = new boolean[paths.size()];
+			for (int i = 0; i < paths.size(); i++) {
+				map.put(paths.get(i), records.get(i));
+				success[i] = true;
+			}
+			return success;
 		}
 
 		@Override
@@ -102,8 +106,11 @@ public class Mocks {
 
 		@Override
 		public boolean[] remove(List<String> paths, int options) {
-			// TODO Auto-generated method stub
-			return null;
+			boolean[] success = new boolean[paths.size()];
+			for (int i = 0; i < paths.size(); i++) {
+				success[i] = remove(paths.get(i), options);
+			}
+			return success;
 		}
 
 		@Override
@@ -114,21 +121,35 @@ public class Mocks {
 		@Override
 		public List<ZNRecord> get(List<String> paths, List<Stat> stats,
 				int options) {
-			// TODO Auto-generated method stub
-			return null;
+			List<ZNRecord> records = new ArrayList<ZNRecord>();
+			for (String path : paths) {
+				records.add(map.get(path));
+			}
+			return records;
 		}
 
 		@Override
 		public List<ZNRecord> getChildren(String parentPath, List<Stat> stats,
 				int options) {
-			// TODO Auto-generated method stub
-			return null;
+			List<ZNRecord> children = new ArrayList<ZNRecord>();
+			for (String childName : getChildNames(parentPath, options)) {
+				children.add(map.get(parentPath + "/" + childName));
+			}
+			return children;
 		}
 
 		@Override
 		public List<String> getChildNames(String parentPath, int options) {
-			// TODO Auto-generated method stub
-			return null;
+			List<String> childNames = new ArrayList<String>();
+			for (String path : map.keySet()) {
+				if (path.startsWith(parentPath + "/")) {
+					String childName = path.substring(parentPath.length() + 1);
+					if (!childName.contains("/")) {
+						childNames.add(childName);
+					}
+				}
+			}
+			return childNames;
 		}
 
 		@Override
@@ -145,8 +166,16 @@ public class Mocks {
 
 		@Override
 		public Stat[] getStats(List<String> paths, int options) {
-			// TODO Auto-generated method stub
-			return null;
+			Stat[] stats = new Stat[paths.size()];
+			for (int i = 0; i < paths.size(); i++) {
+				ZNRecord record = map.get(paths.get(i));
+				if (record != null) {
+					stats[i] = new Stat();
+					stats[i].setVersion(record.getVersion());
+					stats[i].setMtime(record.getModifiedTime());
+				}
+			}
+			return stats;
 		}
 
 		@Override
@@ -577,8 +606,18 @@ public class Mocks {
 			// String path = PropertyPathConfig.getPath(type, _clusterName,
 			// keys);
 			String path = key.getPath();
+			ZNRecord record = data.get(path);
+			if (record != null && new HelixProperty(record).getBucketSize() > 0) {
+				// assemble bucketized record as the zk accessor does
+				record = new ZNRecord(record);
+				ZNRecord assembledRecord = new ZNRecordAssembler()
+						.assemble(getBaseDataAccessor().getChildren(path, null, 0));
+				if (assembledRecord != null) {
+					record.getMapFields().putAll(assembledRecord.getMapFields());
+				}
+			}
 			return (T) HelixProperty.convertToTypedInstance(key.getTypeClass(),
-					data.get(path));
+					record);
 		}
 
 		@Override
@@ -602,8 +641,8 @@ public class Mocks {
 				if (key.startsWith(path)) {
 					String[] keySplit = key.split("\\/");
 					String[] pathSplit = path.split("\\/");
-					if (keySplit.length > pathSplit.length) {
-						child.add(keySplit[pathSplit.length + 1]);
+					if (keySplit.length == pathSplit.length + 1) {
+						child.add(keySplit[pathSplit.length]);
 					}
 				}
 			}
@@ -678,8 +717,11 @@ public class Mocks {
 		@Override
 		public <T extends HelixProperty> boolean[] setChildren(
 				List<PropertyKey> keys, List<T> children) {
-			// TODO Auto-generated method stub
-			return null;
+			boolean[] results = new boolean[keys.size()];
+			for (int i = 0; i < keys.size(); i++) {
+				results[i] = setProperty(keys.get(i), children.get(i));
+			}
+			return results;
 		}
 
 		@Override
@@ -689,8 +731,9 @@ public class Mocks {
 
 		@Override
 		public BaseDataAccessor getBaseDataAccessor() {
-			// TODO Auto-generated method stub
-			return null;
+			MockBaseDataAccessor baseDataAccessor = new MockBaseDataAccessor();
+			baseDataAccessor.map = data;
+			return baseDataAccessor;
 		}
 
 		@Override
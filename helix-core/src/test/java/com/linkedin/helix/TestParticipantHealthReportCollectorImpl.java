@@ -15,12 +15,16 @@
  */
 package com.linkedin.helix;
 
+import java.util.Map;
+
+import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 
 import com.linkedin.helix.HelixManager;
 import com.linkedin.helix.Mocks.MockHealthReportProvider;
 import com.linkedin.helix.Mocks.MockManager;
+import com.linkedin.helix.PropertyKey.Builder;
 import com.linkedin.helix.healthcheck.*;
 public class TestParticipantHealthReportCollectorImpl {
 
@@ -64,4 +68,44 @@ public class TestParticipantHealthReportCollectorImpl {
 		 _providerImpl.removeHealthReportProvider(_mockProvider);
 		 _providerImpl.removeHealthReportProvider(_mockProvider);
 	 }
+
+	 @Test (groups = {"unitTest"})
+	 public void testTransmitChangedStats() throws Exception
+	 {
+		 MockManager manager = new MockManager("TestCluster");
+		 ParticipantHealthReportCollectorImpl collector =
+				 new ParticipantHealthReportCollectorImpl(manager, "instance_123");
+		 StatHealthReportProvider provider = new StatHealthReportProvider();
+		 collector.addHealthReportProvider(provider);
+
+		 provider.addToStat("db.partition0.bytes", 10, "1");
+		 provider.addToStat("db.partition0.bytes", 5, "2");
+		 for (int i = 1; i <= 100; i++)
+		 {
+			 provider.recordValue("db.latency", i, "3");
+		 }
+		 provider.writeStat("db.partition1.count", "7", "1");
+		 collector.transmitHealthReports();
+
+		 HelixDataAccessor accessor = manager.getHelixDataAccessor();
+		 Builder keyBuilder = accessor.keyBuilder();
+		 Map<String, Map<String, String>> stats = accessor.getProperty(
+				 keyBuilder.healthReport("instance_123", StatHealthReportProvider.REPORT_NAME))
+				 .getRecord().getMapFields();
+		 AssertJUnit.assertEquals("15", stats.get("db.partition0.bytes").get(StatHealthReportProvider.STAT_VALUE));
+		 AssertJUnit.assertEquals("50", stats.get("db.latency_p50").get(StatHealthReportProvider.STAT_VALUE));
+		 AssertJUnit.assertEquals("95", stats.get("db.latency_p95").get(StatHealthReportProvider.STAT_VALUE));
+		 AssertJUnit.assertEquals("99", stats.get("db.latency_p99").get(StatHealthReportProvider.STAT_VALUE));
+		 AssertJUnit.assertTrue(stats.containsKey("db.partition1.count"));
+
+		 // stats are reset after transmit, a stat written again unchanged is not sent
+		 provider.writeStat("db.partition1.count", "7", "1");
+		 provider.writeStat("db.partition2.count", "3", "4");
+		 collector.transmitHealthReports();
+		 stats = accessor.getProperty(
+				 keyBuilder.healthReport("instance_123", StatHealthReportProvider.REPORT_NAME))
+				 .getRecord().getMapFields();
+		 AssertJUnit.assertEquals(1, stats.size());
+		 AssertJUnit.assertEquals("3", stats.get("db.partition2.count").get(StatHealthReportProvider.STAT_VALUE));
+	 }
 }
@@ -15,6 +15,8 @@
  */
 package com.linkedin.helix;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -26,15 +28,23 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.zookeeper.data.Stat;
 import org.testng.AssertJUnit;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import com.linkedin.helix.ConfigScope.ConfigScopeProperty;
+import com.linkedin.helix.HelixConstants.ChangeType;
 import com.linkedin.helix.Mocks.MockAccessor;
+import com.linkedin.helix.model.CurrentState;
 import com.linkedin.helix.model.ExternalView;
 import com.linkedin.helix.model.InstanceConfig;
+import com.linkedin.helix.model.LiveInstance;
+import com.linkedin.helix.spectator.RoutingTable;
+import com.linkedin.helix.spectator.RoutingTableChangeListener;
+import com.linkedin.helix.spectator.RoutingTableDiff;
 import com.linkedin.helix.spectator.RoutingTableProvider;
 
 public class TestRoutingTable
@@ -208,6 +218,439 @@ public class TestRoutingTable
     AssertJUnit.assertEquals(instancesArray[1].getPort(), "8901");
   }
 
+  @Test()
+  public void testIncrementalRefresh()
+  {
+    RoutingTableProvider routingTable = new RoutingTableProvider();
+    ZNRecord record1 = new ZNRecord("TESTDB1");
+    add(record1, "TESTDB1_0", "localhost_8900", "MASTER");
+    record1.setVersion(1);
+    record1.setModifiedTime(1000);
+    ZNRecord record2 = new ZNRecord("TESTDB2");
+    add(record2, "TESTDB2_0", "localhost_8901", "MASTER");
+    record2.setVersion(1);
+    record2.setModifiedTime(1000);
+
+    List<ExternalView> externalViewList = new ArrayList<ExternalView>();
+    externalViewList.add(new ExternalView(record1));
+    externalViewList.add(new ExternalView(record2));
+    routingTable.onExternalViewChange(externalViewList, changeContext);
+    Set<InstanceConfig> db1Masters = routingTable.getInstances("TESTDB1", "MASTER");
+    Set<InstanceConfig> db2Masters = routingTable.getInstances("TESTDB2", "MASTER");
+    AssertJUnit.assertEquals(db1Masters.size(), 1);
+    AssertJUnit.assertEquals(db2Masters.size(), 1);
+
+    // only TESTDB2 changes version
+    ZNRecord newRecord2 = new ZNRecord("TESTDB2");
+    add(newRecord2, "TESTDB2_0", "localhost_8901", "SLAVE");
+    newRecord2.setVersion(2);
+    newRecord2.setModifiedTime(2000);
+    externalViewList = new ArrayList<ExternalView>();
+    externalViewList.add(new ExternalView(record1));
+    externalViewList.add(new ExternalView(newRecord2));
+    routingTable.onExternalViewChange(externalViewList, changeContext);
+    AssertJUnit.assertSame(db1Masters, routingTable.getInstances("TESTDB1", "MASTER"));
+    AssertJUnit.assertEquals(routingTable.getInstances("TESTDB2", "MASTER").size(), 0);
+    AssertJUnit.assertEquals(routingTable.getInstances("TESTDB2", "SLAVE").size(), 1);
+
+    // config change of localhost_8901 rebuilds TESTDB2 only
+    List<InstanceConfig> configs = new ArrayList<InstanceConfig>();
+    InstanceConfig config = new InstanceConfig("localhost_8900");
+    config.setHostName("localhost");
+    config.setPort("8900");
+    configs.add(config);
+    config = new InstanceConfig("localhost_8901");
+    config.setHostName("localhost");
+    config.setPort("9901");
+    configs.add(config);
+    Set<InstanceConfig> db2Slaves = routingTable.getInstances("TESTDB2", "SLAVE");
+    routingTable.onConfigChange(configs, changeContext);
+    AssertJUnit.assertSame(db1Masters, routingTable.getInstances("TESTDB1", "MASTER"));
+    AssertJUnit.assertNotSame(db2Slaves, routingTable.getInstances("TESTDB2", "SLAVE"));
+    AssertJUnit.assertEquals(routingTable.getInstances("TESTDB2", "SLAVE")
+                                         .iterator()
+                                         .next()
+                                         .getPort(), "9901");
+  }
+
+  @Test()
+  public void testGetInstance()
+  {
+    RoutingTableProvider routingTable = new RoutingTableProvider();
+    ZNRecord record = new ZNRecord("TESTDB");
+    add(record, "TESTDB_0", "localhost_8900", "MASTER");
+    add(record, "TESTDB_0", "localhost_8901", "SLAVE");
+    List<ExternalView> externalViewList = new ArrayList<ExternalView>();
+    externalViewList.add(new ExternalView(record));
+    routingTable.onExternalViewChange(externalViewList, changeContext);
+
+    InstanceConfig master = routingTable.getInstance("TESTDB", "TESTDB_0", "MASTER");
+    AssertJUnit.assertNotNull(master);
+    AssertJUnit.assertEquals(master.getPort(), "8900");
+    AssertJUnit.assertNull(routingTable.getInstance("TESTDB", "TESTDB_0", "OFFLINE"));
+    AssertJUnit.assertNull(routingTable.getInstance("TESTDB", "TESTDB_1", "MASTER"));
+    AssertJUnit.assertNull(routingTable.getInstance("NONEXISTDB", "TESTDB_0", "MASTER"));
+
+    // lookups on a pinned table are not affected by later changes
+    RoutingTable table = routingTable.getRoutingTable();
+    externalViewList.clear();
+    routingTable.onExternalViewChange(externalViewList, changeContext);
+    AssertJUnit.assertNull(routingTable.getInstance("TESTDB", "TESTDB_0", "MASTER"));
+    AssertJUnit.assertEquals(table.getInstances("TESTDB", "TESTDB_0", "SLAVE").size(), 1);
+
+    try
+    {
+      table.getInstances("TESTDB", "TESTDB_0", "SLAVE").clear();
+      AssertJUnit.fail("Routing table should be immutable");
+    }
+    catch (UnsupportedOperationException e)
+    {
+      // OK
+    }
+  }
+
+  @Test()
+  public void testCurrentStateMode()
+  {
+    RoutingTableProvider routingTable = new RoutingTableProvider(true);
+
+    // external view only knows TESTDB2
+    ZNRecord record = new ZNRecord("TESTDB2");
+    add(record, "TESTDB2_0", "localhost_8901", "MASTER");
+    List<ExternalView> externalViewList = new ArrayList<ExternalView>();
+    externalViewList.add(new ExternalView(record));
+    routingTable.onExternalViewChange(externalViewList, changeContext);
+
+    List<LiveInstance> liveInstances = new ArrayList<LiveInstance>();
+    LiveInstance liveInstance = new LiveInstance("localhost_8900");
+    liveInstance.setSessionId("session_0");
+    liveInstances.add(liveInstance);
+    liveInstance = new LiveInstance("localhost_8901");
+    liveInstance.setSessionId("session_1");
+    liveInstances.add(liveInstance);
+    routingTable.onLiveInstanceChange(liveInstances, changeContext);
+
+    CurrentState currentState = new CurrentState("TESTDB");
+    currentState.setSessionId("session_0");
+    currentState.setState("TESTDB_0", "MASTER");
+    List<CurrentState> currentStates = new ArrayList<CurrentState>();
+    currentStates.add(currentState);
+    routingTable.onStateChange("localhost_8900", currentStates, changeContext);
+
+    // TESTDB is routed by current states, TESTDB2 by external view
+    AssertJUnit.assertEquals(routingTable.getInstance("TESTDB", "TESTDB_0", "MASTER")
+                                         .getId(), "localhost_8900");
+    AssertJUnit.assertEquals(routingTable.getInstance("TESTDB2", "TESTDB2_0", "MASTER")
+                                         .getId(), "localhost_8901");
+
+    // current state of a stale session is ignored
+    currentState = new CurrentState("TESTDB");
+    currentState.setSessionId("session_old");
+    currentState.setState("TESTDB_0", "MASTER");
+    currentStates = new ArrayList<CurrentState>();
+    currentStates.add(currentState);
+    routingTable.onStateChange("localhost_8901", currentStates, changeContext);
+    AssertJUnit.assertEquals(routingTable.getInstances("TESTDB", "TESTDB_0", "MASTER")
+                                         .size(), 1);
+
+    // instance goes away before the external view is updated
+    liveInstances.remove(0);
+    routingTable.onLiveInstanceChange(liveInstances, changeContext);
+    AssertJUnit.assertNull(routingTable.getInstance("TESTDB", "TESTDB_0", "MASTER"));
+    AssertJUnit.assertNotNull(routingTable.getInstance("TESTDB2", "TESTDB2_0", "MASTER"));
+  }
+
+  @Test()
+  public void testChangeListener()
+  {
+    RoutingTableProvider routingTable = new RoutingTableProvider();
+    final List<RoutingTableDiff> diffs = new ArrayList<RoutingTableDiff>();
+    final List<Long> versions = new ArrayList<Long>();
+    routingTable.addRoutingTableChangeListener(new RoutingTableChangeListener()
+    {
+      @Override
+      public void onRoutingTableChange(RoutingTable oldTable,
+                                       RoutingTable newTable,
+                                       RoutingTableDiff diff)
+      {
+        AssertJUnit.assertTrue(newTable.getVersion() > oldTable.getVersion());
+        diffs.add(diff);
+        versions.add(newTable.getVersion());
+      }
+    });
+
+    ZNRecord record1 = new ZNRecord("TESTDB1");
+    add(record1, "TESTDB1_0", "localhost_8900", "MASTER");
+    add(record1, "TESTDB1_1", "localhost_8901", "MASTER");
+    record1.setVersion(1);
+    record1.setModifiedTime(1000);
+    List<ExternalView> externalViewList = new ArrayList<ExternalView>();
+    externalViewList.add(new ExternalView(record1));
+    routingTable.onExternalViewChange(externalViewList, changeContext);
+    AssertJUnit.assertEquals(diffs.size(), 1);
+    AssertJUnit.assertEquals(diffs.get(0).getAddedResources(),
+                             Collections.singleton("TESTDB1"));
+    AssertJUnit.assertEquals(diffs.get(0).getChangedPartitions("TESTDB1").size(), 2);
+
+    // pin the table before the master of TESTDB1_1 moves
+    RoutingTable pinned = routingTable.getRoutingTable();
+    AssertJUnit.assertEquals(pinned.getVersion(), versions.get(0).longValue());
+
+    // same version, nothing published
+    routingTable.onExternalViewChange(externalViewList, changeContext);
+    AssertJUnit.assertEquals(diffs.size(), 1);
+    AssertJUnit.assertSame(pinned, routingTable.getRoutingTable());
+
+    ZNRecord newRecord1 = new ZNRecord("TESTDB1");
+    add(newRecord1, "TESTDB1_0", "localhost_8900", "MASTER");
+    add(newRecord1, "TESTDB1_1", "localhost_8900", "MASTER");
+    newRecord1.setVersion(2);
+    newRecord1.setModifiedTime(2000);
+    ZNRecord record2 = new ZNRecord("TESTDB2");
+    add(record2, "TESTDB2_0", "localhost_8901", "MASTER");
+    externalViewList = new ArrayList<ExternalView>();
+    externalViewList.add(new ExternalView(newRecord1));
+    externalViewList.add(new ExternalView(record2));
+    routingTable.onExternalViewChange(externalViewList, changeContext);
+    AssertJUnit.assertEquals(diffs.size(), 2);
+    RoutingTableDiff diff = diffs.get(1);
+    AssertJUnit.assertEquals(diff.getAddedResources(), Collections.singleton("TESTDB2"));
+    AssertJUnit.assertEquals(diff.getChangedPartitions("TESTDB1"),
+                             Collections.singleton("TESTDB1_1"));
+    AssertJUnit.assertEquals(pinned.getInstance("TESTDB1", "TESTDB1_1", "MASTER").getId(),
+                             "localhost_8901");
+    AssertJUnit.assertEquals(routingTable.getInstance("TESTDB1", "TESTDB1_1", "MASTER")
+                                         .getId(), "localhost_8900");
+
+    // removal
+    externalViewList = new ArrayList<ExternalView>();
+    externalViewList.add(new ExternalView(record2));
+    routingTable.onExternalViewChange(externalViewList, changeContext);
+    AssertJUnit.assertEquals(diffs.size(), 3);
+    AssertJUnit.assertEquals(diffs.get(2).getRemovedResources(),
+                             Collections.singleton("TESTDB1"));
+    AssertJUnit.assertTrue(versions.get(2) > versions.get(1));
+  }
+
+  @Test()
+  public void testSnapshot() throws Exception
+  {
+    RoutingTableProvider routingTable = new RoutingTableProvider();
+    ZNRecord record = new ZNRecord("TESTDB");
+    add(record, "TESTDB_0", "localhost_8900", "MASTER");
+    add(record, "TESTDB_0", "localhost_8901", "SLAVE");
+    add(record, "TESTDB_1", "localhost_8901", "MASTER");
+    record.setVersion(3);
+    record.setModifiedTime(3000);
+    List<ExternalView> externalViewList = new ArrayList<ExternalView>();
+    externalViewList.add(new ExternalView(record));
+    routingTable.onExternalViewChange(externalViewList, changeContext);
+
+    File file = File.createTempFile("routingTable", ".snapshot");
+    file.deleteOnExit();
+    routingTable.saveSnapshot(file);
+
+    RoutingTableProvider newRoutingTable = new RoutingTableProvider();
+    AssertJUnit.assertFalse(newRoutingTable.loadSnapshot(new File(file.getPath() + ".none")));
+    AssertJUnit.assertTrue(newRoutingTable.loadSnapshot(file));
+    AssertJUnit.assertEquals(newRoutingTable.getInstance("TESTDB", "TESTDB_0", "MASTER")
+                                            .getPort(), "8900");
+    AssertJUnit.assertEquals(newRoutingTable.getInstance("TESTDB", "TESTDB_0", "SLAVE")
+                                            .getPort(), "8901");
+    AssertJUnit.assertEquals(newRoutingTable.getInstances("TESTDB", "MASTER").size(), 2);
+
+    // same external view version in zookeeper, nothing is rebuilt
+    final List<RoutingTableDiff> diffs = new ArrayList<RoutingTableDiff>();
+    newRoutingTable.addRoutingTableChangeListener(new RoutingTableChangeListener()
+    {
+      @Override
+      public void onRoutingTableChange(RoutingTable oldTable,
+                                       RoutingTable newTable,
+                                       RoutingTableDiff diff)
+      {
+        diffs.add(diff);
+      }
+    });
+    RoutingTable loaded = newRoutingTable.getRoutingTable();
+    newRoutingTable.onExternalViewChange(externalViewList, changeContext);
+    AssertJUnit.assertSame(loaded, newRoutingTable.getRoutingTable());
+    AssertJUnit.assertEquals(diffs.size(), 0);
+
+    // a corrupted snapshot is ignored
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[] { 1, 2, 3 });
+    out.close();
+    AssertJUnit.assertFalse(new RoutingTableProvider().loadSnapshot(file));
+  }
+
+  @Test()
+  public void testSnapshotReadsChangedViewsOnly() throws Exception
+  {
+    final AtomicInteger configReads = new AtomicInteger();
+    final AtomicInteger viewReads = new AtomicInteger();
+    final MockAccessor countingAccessor = new Mocks.MockAccessor()
+    {
+      @Override
+      public <T extends HelixProperty> List<T> getChildValues(PropertyKey key)
+      {
+        if (key.getType() == PropertyType.CONFIGS)
+        {
+          configReads.incrementAndGet();
+        }
+        return super.getChildValues(key);
+      }
+
+      @Override
+      public BaseDataAccessor getBaseDataAccessor()
+      {
+        Mocks.MockBaseDataAccessor baseAccessor = new Mocks.MockBaseDataAccessor()
+        {
+          @Override
+          public List<ZNRecord> get(List<String> paths, List<Stat> stats, int options)
+          {
+            viewReads.addAndGet(paths.size());
+            return super.get(paths, stats, options);
+          }
+        };
+        baseAccessor.map = data;
+        return baseAccessor;
+      }
+    };
+    NotificationContext context = new NotificationContext(new Mocks.MockManager()
+    {
+      @Override
+      public HelixDataAccessor getHelixDataAccessor()
+      {
+        return countingAccessor;
+      }
+    });
+    PropertyKey.Builder keyBuilder = countingAccessor.keyBuilder();
+
+    ZNRecord record = new ZNRecord("TESTDB");
+    add(record, "TESTDB_0", "localhost_8900", "MASTER");
+    add(record, "TESTDB_0", "localhost_8901", "SLAVE");
+    record.setVersion(3);
+    record.setModifiedTime(3000);
+    ZNRecord record1 = new ZNRecord("TESTDB1");
+    add(record1, "TESTDB1_0", "localhost_8900", "MASTER");
+    record1.setVersion(1);
+    record1.setModifiedTime(1000);
+    List<ExternalView> externalViewList = new ArrayList<ExternalView>();
+    externalViewList.add(new ExternalView(record));
+    externalViewList.add(new ExternalView(record1));
+    countingAccessor.setProperty(keyBuilder.externalView("TESTDB"), new ExternalView(record));
+    countingAccessor.setProperty(keyBuilder.externalView("TESTDB1"), new ExternalView(record1));
+
+    RoutingTableProvider routingTable = new RoutingTableProvider();
+    routingTable.onExternalViewChange(externalViewList, changeContext);
+    File file = File.createTempFile("routingTable", ".snapshot");
+    file.deleteOnExit();
+    routingTable.saveSnapshot(file);
+
+    RoutingTableProvider newRoutingTable = new RoutingTableProvider();
+    AssertJUnit.assertFalse(newRoutingTable.prefetchChildren(ChangeType.EXTERNAL_VIEW));
+    AssertJUnit.assertTrue(newRoutingTable.prefetchChildren(ChangeType.INSTANCE_CONFIG));
+    AssertJUnit.assertTrue(newRoutingTable.loadSnapshot(file));
+    RoutingTable loaded = newRoutingTable.getRoutingTable();
+
+    // nothing changed since the snapshot, neither external views nor configs are read
+    newRoutingTable.onExternalViewChange(null, context);
+    AssertJUnit.assertEquals(viewReads.get(), 0);
+    AssertJUnit.assertEquals(configReads.get(), 0);
+    AssertJUnit.assertSame(loaded, newRoutingTable.getRoutingTable());
+
+    // only the changed external view is read
+    add(record1, "TESTDB1_1", "localhost_8901", "MASTER");
+    record1.setVersion(2);
+    record1.setModifiedTime(2000);
+    countingAccessor.setProperty(keyBuilder.externalView("TESTDB1"), new ExternalView(record1));
+    newRoutingTable.onExternalViewChange(null, context);
+    AssertJUnit.assertEquals(viewReads.get(), 1);
+    AssertJUnit.assertEquals(configReads.get(), 0);
+    AssertJUnit.assertEquals(newRoutingTable.getInstance("TESTDB1", "TESTDB1_1", "MASTER")
+                                            .getPort(), "8901");
+    AssertJUnit.assertEquals(newRoutingTable.getInstance("TESTDB", "TESTDB_0", "SLAVE")
+                                            .getPort(), "8901");
+  }
+
+  @Test()
+  public void testBatchReadChangedExternalViews()
+  {
+    final List<List<String>> readPaths = new ArrayList<List<String>>();
+    final MockAccessor countingAccessor = new MockAccessor()
+    {
+      @Override
+      public BaseDataAccessor getBaseDataAccessor()
+      {
+        Mocks.MockBaseDataAccessor baseAccessor = new Mocks.MockBaseDataAccessor()
+        {
+          @Override
+          public List<ZNRecord> get(List<String> paths, List<Stat> stats, int options)
+          {
+            readPaths.add(new ArrayList<String>(paths));
+            return super.get(paths, stats, options);
+          }
+        };
+        baseAccessor.map = data;
+        return baseAccessor;
+      }
+    };
+    HelixManager manager = new Mocks.MockManager()
+    {
+      @Override
+      public HelixDataAccessor getHelixDataAccessor()
+      {
+        return countingAccessor;
+      }
+    };
+    NotificationContext context = new NotificationContext(manager);
+    context.setType(NotificationContext.Type.CALLBACK);
+    PropertyKey.Builder keyBuilder = countingAccessor.keyBuilder();
+    List<InstanceConfig> configs = new ArrayList<InstanceConfig>();
+    for (String instanceName : new String[] { "localhost_8900", "localhost_8901" })
+    {
+      InstanceConfig config = new InstanceConfig(instanceName);
+      config.setHostName("localhost");
+      config.setPort(instanceName.substring("localhost_".length()));
+      configs.add(config);
+    }
+    for (int i = 0; i < 3; i++)
+    {
+      ZNRecord record = new ZNRecord("TESTDB" + i);
+      add(record, "TESTDB" + i + "_0", "localhost_8900", "MASTER");
+      record.setVersion(1);
+      record.setModifiedTime(1000);
+      countingAccessor.setProperty(keyBuilder.externalView("TESTDB" + i), new ExternalView(record));
+    }
+
+    RoutingTableProvider routingTable = new RoutingTableProvider();
+    routingTable.onConfigChange(configs, context);
+    routingTable.onExternalViewChange(null, context);
+    AssertJUnit.assertEquals(routingTable.getInstances("TESTDB2", "MASTER").size(), 1);
+
+    // two views change, they are read in one batch
+    for (int i = 1; i < 3; i++)
+    {
+      ZNRecord record = new ZNRecord("TESTDB" + i);
+      add(record, "TESTDB" + i + "_0", "localhost_8901", "SLAVE");
+      record.setVersion(2);
+      record.setModifiedTime(2000);
+      countingAccessor.setProperty(keyBuilder.externalView("TESTDB" + i), new ExternalView(record));
+    }
+    readPaths.clear();
+    routingTable.onExternalViewChange(null, context);
+    AssertJUnit.assertEquals(readPaths.size(), 1);
+    AssertJUnit.assertEquals(readPaths.get(0).size(), 2);
+    AssertJUnit.assertEquals(routingTable.getInstances("TESTDB0", "MASTER").size(), 1);
+    AssertJUnit.assertEquals(routingTable.getInstances("TESTDB2", "MASTER").size(), 0);
+    AssertJUnit.assertEquals(routingTable.getInstances("TESTDB2", "SLAVE").size(), 1);
+
+    // nothing changes, nothing is read
+    readPaths.clear();
+    routingTable.onExternalViewChange(null, context);
+    AssertJUnit.assertEquals(readPaths.size(), 0);
+  }
+
   @Test()
   public void testMultiThread() throws Exception
   {
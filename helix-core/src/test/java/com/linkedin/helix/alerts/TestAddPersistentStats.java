@@ -21,6 +21,7 @@ import org.testng.AssertJUnit;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.linkedin.helix.BaseDataAccessor;
 import com.linkedin.helix.HelixDataAccessor;
 import com.linkedin.helix.HelixException;
 import com.linkedin.helix.Mocks.MockManager;
@@ -213,4 +214,56 @@ public class TestAddPersistentStats
     }
     AssertJUnit.assertTrue(caughtException);
   }
+
+  @Test(groups = { "unitTest" })
+  public void testDropPersistedStat() throws Exception
+  {
+    String stat1 = "window(5)(dbFoo.partition10.latency)";
+    String stat2 = "window(5)(dbFoo.partition11.latency)";
+    _statsHolder.addStat(stat1);
+    _statsHolder.addStat(stat2);
+    _statsHolder.persistStats();
+
+    HelixDataAccessor accessor = _helixManager.getHelixDataAccessor();
+    Builder keyBuilder = accessor.keyBuilder();
+    BaseDataAccessor<ZNRecord> baseAccessor = accessor.getBaseDataAccessor();
+    String statsPath = keyBuilder.persistantStat().getPath();
+
+    // controller persisted the stats in buckets, drop has to remove it from its bucket
+    StatsHolder.dropStats(baseAccessor, statsPath, stat1);
+    ZNRecord rec = accessor.getProperty(keyBuilder.persistantStat()).getRecord();
+    AssertJUnit.assertFalse(statRecordContains(rec, stat1));
+    AssertJUnit.assertTrue(statRecordContains(rec, stat2));
+
+    // next controller round must not write the dropped stat back
+    _statsHolder.refreshStats();
+    _statsHolder.persistStats();
+    rec = accessor.getProperty(keyBuilder.persistantStat()).getRecord();
+    AssertJUnit.assertFalse(statRecordContains(rec, stat1));
+    AssertJUnit.assertEquals(1, statsSize(rec));
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testAddStatToPersistedBuckets() throws Exception
+  {
+    String stat1 = "window(5)(dbFoo.partition10.latency)";
+    String stat2 = "window(5)(dbFoo.partition11.latency)";
+    _statsHolder.addStat(stat1);
+    _statsHolder.persistStats();
+
+    HelixDataAccessor accessor = _helixManager.getHelixDataAccessor();
+    Builder keyBuilder = accessor.keyBuilder();
+    BaseDataAccessor<ZNRecord> baseAccessor = accessor.getBaseDataAccessor();
+    String statsPath = keyBuilder.persistantStat().getPath();
+
+    StatsHolder.addStats(baseAccessor, statsPath, stat2);
+    AssertJUnit.assertTrue(baseAccessor.get(statsPath, null, 0).getMapFields().isEmpty());
+
+    _statsHolder.refreshStats();
+    _statsHolder.persistStats();
+    ZNRecord rec = accessor.getProperty(keyBuilder.persistantStat()).getRecord();
+    AssertJUnit.assertTrue(statRecordContains(rec, stat1));
+    AssertJUnit.assertTrue(statRecordContains(rec, stat2));
+    AssertJUnit.assertEquals(2, statsSize(rec));
+  }
 }
@@ -0,0 +1,290 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.alerts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import com.linkedin.helix.BaseDataAccessor;
+import com.linkedin.helix.Mocks.MockManager;
+import com.linkedin.helix.ZNRecord;
+
+public class TestAlertHistoryBuffer
+{
+  @Test(groups = { "unitTest" })
+  public void testWindow()
+  {
+    AlertHistoryBuffer history = new AlertHistoryBuffer(4);
+    AlertHistoryBuffer.Window window = history.getWindow(10);
+    AssertJUnit.assertEquals(0, window.getCount());
+
+    // time i * 10, value i, fired if i is odd
+    for (int i = 1; i <= 3; i++)
+    {
+      history.add(i * 10, i, i % 2 == 1);
+    }
+    window = history.getWindow(10);
+    AssertJUnit.assertEquals(3, window.getCount());
+    AssertJUnit.assertEquals(6.0, window.getValueSum());
+    AssertJUnit.assertEquals(2, window.getFiredCount());
+    window = history.getWindow(2);
+    AssertJUnit.assertEquals(5.0, window.getValueSum());
+    AssertJUnit.assertEquals(1, window.getFiredCount());
+    AssertJUnit.assertEquals(20, window.getStartTime());
+    AssertJUnit.assertEquals(30, window.getEndTime());
+
+    // wrap around, 1 and 2 are evicted
+    for (int i = 4; i <= 6; i++)
+    {
+      history.add(i * 10, i, i % 2 == 1);
+    }
+    AssertJUnit.assertEquals(4, history.size());
+    AssertJUnit.assertEquals(30, history.getTime(0));
+    AssertJUnit.assertEquals(6.0, history.getValue(3));
+    window = history.getWindow(4);
+    AssertJUnit.assertEquals(4, window.getCount());
+    AssertJUnit.assertEquals(18.0, window.getValueSum());
+    AssertJUnit.assertEquals(2, window.getFiredCount());
+    AssertJUnit.assertEquals(0.5, window.getFiredRatio());
+    window = history.getWindow(3);
+    AssertJUnit.assertEquals(15.0, window.getValueSum());
+    AssertJUnit.assertEquals(1, window.getFiredCount());
+
+    // entries at 45 or later: 50 and 60
+    window = history.getWindowSince(45);
+    AssertJUnit.assertEquals(2, window.getCount());
+    AssertJUnit.assertEquals(11.0, window.getValueSum());
+    AssertJUnit.assertEquals(4, history.getWindowSince(0).getCount());
+    AssertJUnit.assertEquals(0, history.getWindowSince(61).getCount());
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testFields()
+  {
+    AlertHistoryBuffer history = new AlertHistoryBuffer(3);
+    history.add(1000, 1, false);
+    history.add(1500, 2.5, true);
+    history.add(3000, 3, true);
+    history.add(3010, 4, false);
+
+    Map<String, String> fields = history.toFields();
+    AssertJUnit.assertEquals("1500,1500,10", fields.get(AlertHistoryBuffer.TIMES_NAME));
+    AssertJUnit.assertEquals("2.5,3,4", fields.get(AlertHistoryBuffer.VALUES_NAME));
+    AssertJUnit.assertEquals("110", fields.get(AlertHistoryBuffer.FIRED_NAME));
+
+    // a smaller buffer keeps the newest entries
+    AlertHistoryBuffer restored = new AlertHistoryBuffer(2);
+    restored.addFields(fields);
+    AssertJUnit.assertEquals(2, restored.size());
+    AssertJUnit.assertEquals(3000, restored.getTime(0));
+    AssertJUnit.assertEquals(3010, restored.getTime(1));
+    AssertJUnit.assertEquals(7.0, restored.getWindow(2).getValueSum());
+    AssertJUnit.assertEquals(1, restored.getWindow(2).getFiredCount());
+  }
+
+  private static final String ALERT =
+      "EXP(accumulate()(dbFoo.partition*.latency))CMP(GREATER)CON(10)";
+
+  // actual alert j of evaluation i has value i + j, fired past 10
+  private static Map<String, Map<String, AlertValueAndStatus>> createAlertStatus(int i,
+                                                                                int actualAlertNum)
+  {
+    Map<String, AlertValueAndStatus> actualAlerts = new HashMap<String, AlertValueAndStatus>();
+    for (int j = 0; j < actualAlertNum; j++)
+    {
+      NumericTuple value = new NumericTuple();
+      value.add(i + j);
+      actualAlerts.put("dbFoo.partition" + j + ".latency",
+          new AlertValueAndStatus(value, i + j > 10));
+    }
+    Map<String, Map<String, AlertValueAndStatus>> alertStatus =
+        new HashMap<String, Map<String, AlertValueAndStatus>>();
+    alertStatus.put(ALERT, actualAlerts);
+    return alertStatus;
+  }
+
+  private static List<ZNRecord> getSegments(MockManager manager)
+  {
+    BaseDataAccessor<ZNRecord> baseAccessor =
+        manager.getHelixDataAccessor().getBaseDataAccessor();
+    String path =
+        manager.getHelixDataAccessor().keyBuilder().alertHistoryCheckpoint().getPath();
+    List<String> segmentNames = baseAccessor.getChildNames(path, 0);
+    Collections.sort(segmentNames);
+    List<ZNRecord> segments = new ArrayList<ZNRecord>();
+    for (String segmentName : segmentNames)
+    {
+      segments.add(baseAccessor.get(path + "/" + segmentName, null, 0));
+    }
+    return segments;
+  }
+
+  private static void assertRestored(MockManager manager,
+                                     AlertHistoryHolder holder,
+                                     int capacity,
+                                     int actualAlertNum)
+  {
+    AlertHistoryHolder restored = new AlertHistoryHolder(manager, capacity, 1000, 100);
+    for (int j = 0; j < actualAlertNum; j++)
+    {
+      String actualAlert = "dbFoo.partition" + j + ".latency";
+      AssertJUnit.assertEquals(holder.getHistory(ALERT, actualAlert).toFields(),
+          restored.getHistory(ALERT, actualAlert).toFields());
+    }
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testCheckpoint()
+  {
+    MockManager manager = new MockManager("TestCluster");
+    AlertHistoryHolder holder = new AlertHistoryHolder(manager, 10, 1000, 100);
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 20; i++)
+    {
+      holder.record(createAlertStatus(i, 3), now + i);
+    }
+    // checkpoint interval has not passed
+    AssertJUnit.assertFalse(holder.checkpoint(now));
+    AssertJUnit.assertTrue(holder.checkpoint(now + 1000));
+
+    // a new controller reads back the checkpoint
+    AlertHistoryHolder restored = new AlertHistoryHolder(manager, 10, 1000, 100);
+    for (int j = 0; j < 3; j++)
+    {
+      String actualAlert = "dbFoo.partition" + j + ".latency";
+      AlertHistoryBuffer expected = holder.getHistory(ALERT, actualAlert);
+      AlertHistoryBuffer history = restored.getHistory(ALERT, actualAlert);
+      AssertJUnit.assertEquals(10, history.size());
+      AssertJUnit.assertEquals(expected.toFields(), history.toFields());
+    }
+    Map<String, AlertHistoryBuffer.Window> windows = restored.getWindowsSince(ALERT, now + 15);
+    AssertJUnit.assertEquals(3, windows.size());
+    // values 15 + 1 to 19 + 1, fired
+    AlertHistoryBuffer.Window window = windows.get("dbFoo.partition1.latency");
+    AssertJUnit.assertEquals(5, window.getCount());
+    AssertJUnit.assertEquals(90.0, window.getValueSum());
+    AssertJUnit.assertEquals(5, window.getFiredCount());
+
+    // history of removed alerts is dropped
+    restored.record(new HashMap<String, Map<String, AlertValueAndStatus>>(), now + 20);
+    AssertJUnit.assertNull(restored.getHistory(ALERT, "dbFoo.partition0.latency"));
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testCheckpointAppendsNewEntries()
+  {
+    MockManager manager = new MockManager("TestCluster");
+    AlertHistoryHolder holder = new AlertHistoryHolder(manager, 10, 1000, 100);
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 4; i++)
+    {
+      holder.record(createAlertStatus(i, 2), now + i);
+    }
+    AssertJUnit.assertTrue(holder.checkpoint(now + 1000));
+    for (int i = 4; i < 7; i++)
+    {
+      holder.record(createAlertStatus(i, 2), now + i);
+    }
+    AssertJUnit.assertTrue(holder.checkpoint(now + 2000));
+    // nothing new, nothing written
+    AssertJUnit.assertTrue(holder.checkpoint(now + 3000));
+
+    // the second segment only has the 3 entries added since the first checkpoint
+    List<ZNRecord> segments = getSegments(manager);
+    AssertJUnit.assertEquals(2, segments.size());
+    Map<String, String> fields =
+        segments.get(1).getMapField(AlertHistoryHolder.getKey(ALERT,
+                                                               "dbFoo.partition1.latency"));
+    AssertJUnit.assertEquals("5,6,7", fields.get(AlertHistoryBuffer.VALUES_NAME));
+    AssertJUnit.assertEquals(now + 4 + ",1,1", fields.get(AlertHistoryBuffer.TIMES_NAME));
+    assertRestored(manager, holder, 10, 2);
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testCheckpointRemovesEvictedSegments()
+  {
+    MockManager manager = new MockManager("TestCluster");
+    AlertHistoryHolder holder = new AlertHistoryHolder(manager, 10, 1000, 100);
+    long now = System.currentTimeMillis();
+    for (int k = 0; k < 6; k++)
+    {
+      for (int i = k * 5; i < (k + 1) * 5; i++)
+      {
+        holder.record(createAlertStatus(i, 2), now + i);
+      }
+      AssertJUnit.assertTrue(holder.checkpoint(now + (k + 1) * 1000));
+    }
+
+    // the buffers hold the last 10 of 30 entries, in the last 2 segments
+    AssertJUnit.assertEquals(2, getSegments(manager).size());
+    assertRestored(manager, holder, 10, 2);
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testCheckpointSplitsSegments()
+  {
+    MockManager manager = new MockManager("TestCluster");
+    AlertHistoryHolder holder = new AlertHistoryHolder(manager, 100, 1000, 100);
+    // tiny segments, so one checkpoint needs several
+    holder._segmentSizeTarget = 256;
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 50; i++)
+    {
+      holder.record(createAlertStatus(i, 20), now + i * 1000);
+    }
+    AssertJUnit.assertTrue(holder.checkpoint(now + 1000));
+
+    List<ZNRecord> segments = getSegments(manager);
+    if (segments.size() <= 1)
+    {
+      AssertJUnit.fail("segment num: " + segments.size());
+    }
+    assertRestored(manager, holder, 100, 20);
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testMaxActualAlerts()
+  {
+    MockManager manager = new MockManager("TestCluster");
+    AlertHistoryHolder holder = new AlertHistoryHolder(manager, 10, 1000, 3);
+    long now = System.currentTimeMillis();
+
+    // partition2 is fired with value 9 + 2
+    AssertJUnit.assertFalse(holder.record(createAlertStatus(0, 3), now));
+    AssertJUnit.assertFalse(holder.record(createAlertStatus(1, 3), now + 1));
+    AssertJUnit.assertTrue(holder.record(createAlertStatus(9, 3), now + 2));
+    AssertJUnit.assertFalse(holder.record(createAlertStatus(9, 3), now + 3));
+
+    // only 3 actual alerts are tracked, fired changes of the others can't be told
+    AssertJUnit.assertTrue(holder.record(createAlertStatus(9, 5), now + 4));
+    AssertJUnit.assertEquals(3, holder.getWindowsSince(ALERT, 0).size());
+    AssertJUnit.assertNull(holder.getHistory(ALERT, "dbFoo.partition3.latency"));
+
+    // dropping an actual alert makes room for another
+    Map<String, Map<String, AlertValueAndStatus>> alertStatus = createAlertStatus(12, 5);
+    alertStatus.get(ALERT).remove("dbFoo.partition0.latency");
+    alertStatus.get(ALERT).remove("dbFoo.partition4.latency");
+    holder.record(alertStatus, now + 5);
+    AssertJUnit.assertNull(holder.getHistory(ALERT, "dbFoo.partition0.latency"));
+    AssertJUnit.assertEquals(1, holder.getHistory(ALERT, "dbFoo.partition3.latency").size());
+  }
+}
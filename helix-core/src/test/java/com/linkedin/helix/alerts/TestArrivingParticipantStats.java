@@ -15,8 +15,12 @@
  */
 package com.linkedin.helix.alerts;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.testng.AssertJUnit;
 import org.testng.annotations.BeforeMethod;
@@ -27,6 +31,7 @@ import com.linkedin.helix.Mocks.MockManager;
 import com.linkedin.helix.PropertyKey.Builder;
 import com.linkedin.helix.ZNRecord;
 import com.linkedin.helix.controller.stages.HealthDataCache;
+import com.linkedin.helix.model.PersistentStats;
 
 public class TestArrivingParticipantStats
 {
@@ -482,4 +487,134 @@ public class TestArrivingParticipantStats
     AssertJUnit.assertTrue(statRecordHasValue(rec, persistentStat, "0.0,10.0,20.0"));
     AssertJUnit.assertTrue(statRecordHasTimestamp(rec, persistentStat, "0.0,1.0,2.0"));
   }
+
+  // applying a batch of reports in parallel gives the same stats as one by one
+  @Test(groups = { "unitTest" })
+  public void testApplyStatsInParallel() throws Exception
+  {
+    String[] persistentStats =
+        { "window(3)(dbFoo.partition*.latency)",
+            "accumulate()(dbFoo.partition10.latency)", "decay(0.5)(dbBar.*.qps)",
+            "accumulate()(*.partition*.latency)" };
+    MockManager parallelManager = new MockManager(CLUSTER_NAME);
+    StatsHolder parallelHolder = new StatsHolder(parallelManager, new HealthDataCache());
+    for (String persistentStat : persistentStats)
+    {
+      // addStat() reloads persisted stats
+      _statsHolder.addStat(persistentStat);
+      _statsHolder.persistStats();
+      parallelHolder.addStat(persistentStat);
+      parallelHolder.persistStats();
+    }
+
+    List<Map<String, Map<String, String>>> reports =
+        new ArrayList<Map<String, Map<String, String>>>();
+    for (int i = 0; i < 20; i++)
+    {
+      Map<String, Map<String, String>> report = new HashMap<String, Map<String, String>>();
+      String time = String.valueOf(i % 7);
+      report.put("dbFoo.partition" + (i % 4 + 9) + ".latency", getStatFields("" + i, time));
+      report.put("dbFoo.partition10.latency", getStatFields("" + (i * 2), time));
+      report.put("dbBar.localhost_" + (i % 3) + ".qps", getStatFields("" + (i * 3), time));
+      reports.add(report);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try
+    {
+      _statsHolder.applyStats(reports, null);
+      parallelHolder.applyStats(reports, executor);
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+    _statsHolder.persistStats();
+    parallelHolder.persistStats();
+
+    Builder keyBuilder = _helixManager.getHelixDataAccessor().keyBuilder();
+    ZNRecord rec =
+        _helixManager.getHelixDataAccessor()
+                     .getProperty(keyBuilder.persistantStat())
+                     .getRecord();
+    ZNRecord parallelRec =
+        parallelManager.getHelixDataAccessor()
+                       .getProperty(keyBuilder.persistantStat())
+                       .getRecord();
+    AssertJUnit.assertTrue(statRecordContains(rec, "window(3)(dbFoo.partition12.latency)"));
+    AssertJUnit.assertTrue(statRecordContains(rec, "decay(0.5)(dbBar.localhost_2.qps)"));
+    AssertJUnit.assertEquals(rec.getMapFields(), parallelRec.getMapFields());
+  }
+
+  // only buckets with changed stats are written, reading assembles all buckets
+  @Test(groups = { "unitTest" })
+  public void testPersistChangedBucketsOnly() throws Exception
+  {
+    String persistentStat = "accumulate()(dbFoo.partition*.latency)";
+    _statsHolder.addStat(persistentStat);
+    for (int i = 0; i < 20; i++)
+    {
+      _statsHolder.applyStat("dbFoo.partition" + i + ".latency", getStatFields("1", "1"));
+    }
+    _statsHolder.persistStats();
+
+    // nothing changed
+    _statsHolder.formatChangedStats();
+    AssertJUnit.assertEquals(0,
+                             _statsHolder._statsWriter.write(PersistentStats.nodeName,
+                                                             _statsHolder._statMap));
+
+    _statsHolder.applyStat("dbFoo.partition3.latency", getStatFields("1", "2"));
+    _statsHolder.formatChangedStats();
+    AssertJUnit.assertEquals(1,
+                             _statsHolder._statsWriter.write(PersistentStats.nodeName,
+                                                             _statsHolder._statMap));
+
+    HelixDataAccessor accessor = _helixManager.getHelixDataAccessor();
+    Builder keyBuilder = accessor.keyBuilder();
+    ZNRecord rec = accessor.getProperty(keyBuilder.persistantStat()).getRecord();
+    AssertJUnit.assertEquals(21, rec.getMapFields().size());
+    AssertJUnit.assertTrue(statRecordHasValue(rec, "accumulate()(dbFoo.partition3.latency)", "2.0"));
+    AssertJUnit.assertTrue(statRecordHasValue(rec, "accumulate()(dbFoo.partition4.latency)", "1.0"));
+  }
+
+  // buckets double with the size of the stats, and a new writer continues with them
+  @Test(groups = { "unitTest" })
+  public void testGrowBuckets() throws Exception
+  {
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 3000; i++)
+    {
+      value.append('x');
+    }
+    Map<String, Map<String, String>> statMap = new HashMap<String, Map<String, String>>();
+    for (int i = 0; i < 2000; i++)
+    {
+      statMap.put("accumulate()(dbFoo.partition" + i + ".latency)",
+                  getStatFields(value.toString(), "1"));
+    }
+    int size = BucketizedRecordWriter.estimateSize(statMap);
+    AssertJUnit.assertTrue(size > BucketizedRecordWriter.DEFAULT_BUCKET_NUM
+        * BucketizedRecordWriter.BUCKET_SIZE_TARGET);
+
+    BucketizedRecordWriter writer = _statsHolder._statsWriter;
+    int bucketsWritten = writer.write(PersistentStats.nodeName, statMap);
+    int bucketNum = writer.getBucketNum();
+    AssertJUnit.assertEquals(bucketNum, bucketsWritten);
+    AssertJUnit.assertTrue(bucketNum > BucketizedRecordWriter.DEFAULT_BUCKET_NUM);
+    AssertJUnit.assertTrue((long) bucketNum * BucketizedRecordWriter.BUCKET_SIZE_TARGET >= size);
+
+    HelixDataAccessor accessor = _helixManager.getHelixDataAccessor();
+    Builder keyBuilder = accessor.keyBuilder();
+    PersistentStats persisted = accessor.getProperty(keyBuilder.persistantStat());
+    AssertJUnit.assertEquals(bucketNum, persisted.getBucketSize());
+    AssertJUnit.assertEquals(2000, persisted.getRecord().getMapFields().size());
+
+    BucketizedRecordWriter newWriter =
+        new BucketizedRecordWriter(accessor,
+                                   keyBuilder.persistantStat(),
+                                   BucketizedRecordWriter.DEFAULT_BUCKET_NUM);
+    newWriter.onRecordRead(persisted);
+    AssertJUnit.assertEquals(bucketNum, newWriter.getBucketNum());
+  }
 }
@@ -380,6 +380,37 @@ public class TestEvaluateAlerts {
   //test with window tuples where some windows are different lengths
   //anything else, look around at the code
 
+  @Test (groups = {"unitTest"})
+  public void testCompiledAlerts()
+  {
+    String alert = addWildcardAlert();
+    String expandAlert = addExpandWildcardAlert();
+    String incomingStatName = addArrivingSimpleStat();
+
+    CompiledAlerts compiledAlerts = _alertsHolder.getCompiledAlerts();
+    AssertJUnit.assertSame(compiledAlerts, _alertsHolder.getCompiledAlerts());
+    Map<String, Map<String, AlertValueAndStatus>> alertResult =
+        compiledAlerts.execute(_statsHolder.getStatsList());
+    AssertJUnit.assertTrue(alertResult.get(alert).get(incomingStatName).isFired());
+    AssertJUnit.assertTrue(alertResult.get(expandAlert).get(incomingStatName).isFired());
+
+    // stats unchanged, result is reused
+    Map<String, Map<String, AlertValueAndStatus>> alertResult2 =
+        compiledAlerts.execute(_statsHolder.getStatsList());
+    AssertJUnit.assertSame(alertResult.get(alert), alertResult2.get(alert));
+
+    // stat changed, alert is re-evaluated
+    _statsHolder.applyStat(incomingStatName, getStatFields("10", "1"));
+    alertResult2 = compiledAlerts.execute(_statsHolder.getStatsList());
+    AssertJUnit.assertNotSame(alertResult.get(alert), alertResult2.get(alert));
+    AssertJUnit.assertEquals("120.0",
+        alertResult2.get(alert).get(incomingStatName).getValueString());
+
+    // alerts changed, recompiled
+    addSimpleAlert();
+    AssertJUnit.assertNotSame(compiledAlerts, _alertsHolder.getCompiledAlerts());
+  }
+
   //next: review all older tests
   //next: actually write the fired alerts to ZK
 
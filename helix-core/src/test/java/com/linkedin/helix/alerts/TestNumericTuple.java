@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.alerts;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+public class TestNumericTuple {
+
+	@Test (groups = {"unitTest"})
+	public void testStringForm()
+	{
+		AssertJUnit.assertEquals(0, NumericTuple.fromString("").size());
+		AssertJUnit.assertNull(NumericTuple.fromString(null));
+
+		NumericTuple tup = NumericTuple.fromString("1,2.5,1332895048143");
+		AssertJUnit.assertEquals(3, tup.size());
+		AssertJUnit.assertEquals(2.5, tup.getElement(1));
+		AssertJUnit.assertEquals(1332895048143L, (long) tup.getElement(2));
+		AssertJUnit.assertEquals("1.0,2.5,1.332895048143E12", tup.toString());
+		AssertJUnit.assertEquals(tup.toString(), NumericTuple.fromString(tup.toString()).toString());
+
+		Tuple<String> strTup = new Tuple<String>();
+		strTup.add("3");
+		strTup.add("4,5");
+		AssertJUnit.assertEquals("3.0,4.0,5.0", NumericTuple.fromTuple(strTup).toString());
+	}
+
+	@Test (groups = {"unitTest"})
+	public void testWindowMerge()
+	{
+		WindowAggregator agg = new WindowAggregator();
+		NumericTuple currVal = NumericTuple.fromString("10,20");
+		NumericTuple currTime = NumericTuple.fromString("1,2");
+		agg.merge(currVal, NumericTuple.fromString("30,40"), currTime,
+				NumericTuple.fromString("3,4"), "3");
+		AssertJUnit.assertEquals("20.0,30.0,40.0", currVal.toString());
+		AssertJUnit.assertEquals("2.0,3.0,4.0", currTime.toString());
+
+		// stale new tuple is not applied
+		agg.merge(currVal, NumericTuple.fromString("50"), currTime,
+				NumericTuple.fromString("4"), "3");
+		AssertJUnit.assertEquals("20.0,30.0,40.0", currVal.toString());
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.alerts;
+
+import java.util.Set;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+public class TestStatNameIndex {
+
+	@Test (groups = {"unitTest"})
+	public void testMatch()
+	{
+		StatNameIndex<String> index = new StatNameIndex<String>();
+		String[] patterns = {"dbFoo.partition10.latency", "dbFoo.partition*.latency",
+				"dbFoo.partition*.put*", "dbFoo.*", "db*.partition1*.latency", "*bar.latency"};
+		for (String pattern : patterns) {
+			index.add(pattern, pattern);
+		}
+		AssertJUnit.assertEquals(patterns.length, index.size());
+
+		String[] stats = {"dbFoo.partition10.latency", "dbFoo.partition10.putCount",
+				"dbFoo.partition1.x.latency", "dbBar.latency", "foobar.latency", "dbFoo"};
+		for (String stat : stats) {
+			Set<String> matches = index.getWildcardMatches(stat);
+			// same as the regex match of ExpressionParser
+			for (String pattern : patterns) {
+				boolean expected = pattern.contains("*") && ExpressionParser.isIncomingStatWildcardMatch(
+						"accumulate()(" + pattern + ")", stat);
+				if (expected != matches.contains(pattern)) {
+					AssertJUnit.fail(stat + " vs " + pattern);
+				}
+			}
+		}
+
+		AssertJUnit.assertEquals(1, index.getExactMatches("dbFoo.partition10.latency").size());
+		AssertJUnit.assertEquals(0, index.getExactMatches("dbFoo.partition11.latency").size());
+
+		index.clear();
+		AssertJUnit.assertEquals(0, index.getWildcardMatches("dbFoo.partition10.latency").size());
+	}
+}
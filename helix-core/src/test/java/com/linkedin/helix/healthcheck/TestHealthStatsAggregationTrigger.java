@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.healthcheck;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import com.linkedin.helix.HelixConstants.ChangeType;
+import com.linkedin.helix.Mocks.MockManager;
+
+public class TestHealthStatsAggregationTrigger
+{
+  static class CountingAggregationTask extends HealthStatsAggregationTask
+  {
+    final AtomicInteger _runCount = new AtomicInteger();
+
+    CountingAggregationTask(int quietPeriod, int maxDelay, int idlePeriod)
+    {
+      super(new MockManager("TestCluster"), quietPeriod, maxDelay, idlePeriod);
+    }
+
+    @Override
+    public synchronized void run()
+    {
+      _runCount.incrementAndGet();
+    }
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testDueTime()
+  {
+    CountingAggregationTask task = new CountingAggregationTask(1000, 5000, 60000);
+    task._lastRunTime = 0;
+    // nothing reported, due once per idle period
+    AssertJUnit.assertEquals(60000, task.getDueTime());
+
+    task.markDirty("localhost_12918", 10000);
+    AssertJUnit.assertEquals(11000, task.getDueTime());
+    // a new report extends the quiet period
+    task.markDirty("localhost_12919", 10500);
+    AssertJUnit.assertEquals(11500, task.getDueTime());
+    // but not beyond the max delay since the first report
+    task.markDirty("localhost_12918", 14500);
+    AssertJUnit.assertEquals(15000, task.getDueTime());
+    AssertJUnit.assertEquals(2, task._dirtyInstances.size());
+
+    // no idle aggregation
+    task = new CountingAggregationTask(1000, 5000, 0);
+    AssertJUnit.assertEquals(Long.MAX_VALUE, task.getDueTime());
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testPrefetchChildren()
+  {
+    CountingAggregationTask task = new CountingAggregationTask(1000, 5000, 60000);
+    // reports are read by the pipeline, live instances are needed to observe reports
+    AssertJUnit.assertFalse(task.prefetchChildren(ChangeType.HEALTH));
+    AssertJUnit.assertTrue(task.prefetchChildren(ChangeType.LIVE_INSTANCE));
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testTrigger() throws Exception
+  {
+    CountingAggregationTask task = new CountingAggregationTask(200, 600, 0);
+    task.start();
+    try
+    {
+      Thread.sleep(500);
+      AssertJUnit.assertEquals(0, task._runCount.get());
+
+      // a burst of reports is aggregated once after it quiets down
+      for (int i = 0; i < 3; i++)
+      {
+        task.markDirty("localhost_" + i, System.currentTimeMillis());
+        Thread.sleep(50);
+      }
+      Thread.sleep(500);
+      AssertJUnit.assertEquals(1, task._runCount.get());
+
+      // reports that keep arriving are aggregated every max delay
+      long start = System.currentTimeMillis();
+      while (System.currentTimeMillis() - start < 1500)
+      {
+        task.markDirty("localhost_0", System.currentTimeMillis());
+        Thread.sleep(50);
+      }
+      int runCount = task._runCount.get();
+      if (runCount < 2 || runCount > 5)
+      {
+        AssertJUnit.fail("run count: " + runCount);
+      }
+    }
+    finally
+    {
+      task.stop();
+    }
+  }
+}
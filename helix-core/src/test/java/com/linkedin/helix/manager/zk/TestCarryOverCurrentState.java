@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.manager.zk;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.linkedin.helix.AccessOption;
+import com.linkedin.helix.InstanceType;
+import com.linkedin.helix.PropertyKey.Builder;
+import com.linkedin.helix.TestHelper;
+import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.ZNRecordBucketizer;
+import com.linkedin.helix.ZkUnitTestBase;
+import com.linkedin.helix.model.CurrentState;
+
+public class TestCarryOverCurrentState extends ZkUnitTestBase
+{
+  static class RecordingBaseDataAccessor extends ZkBaseDataAccessor<ZNRecord>
+  {
+    final List<List<String>> _removedPaths = new ArrayList<List<String>>();
+
+    public RecordingBaseDataAccessor(ZkClient zkClient)
+    {
+      super(zkClient);
+    }
+
+    @Override
+    public boolean[] remove(List<String> paths, int options)
+    {
+      _removedPaths.add(new ArrayList<String>(paths));
+      return super.remove(paths, options);
+    }
+  }
+
+  private CurrentState createCurrentState(String resourceName,
+                                          String sessionId,
+                                          String stateModelDef,
+                                          int partitionNb)
+  {
+    CurrentState curState = new CurrentState(resourceName);
+    curState.setSessionId(sessionId);
+    curState.setStateModelDefRef(stateModelDef);
+    for (int i = 0; i < partitionNb; i++)
+    {
+      curState.setState(resourceName + "_" + i, i == 0 ? "MASTER" : "SLAVE");
+    }
+    return curState;
+  }
+
+  private void setBucketizedCurrentState(ZkBaseDataAccessor<ZNRecord> baseAccessor,
+                                         String path,
+                                         CurrentState curState,
+                                         int bucketSize)
+  {
+    curState.setBucketSize(bucketSize);
+    ZNRecord metaRecord = new ZNRecord(curState.getId());
+    metaRecord.setSimpleFields(curState.getRecord().getSimpleFields());
+    baseAccessor.set(path, metaRecord, AccessOption.PERSISTENT);
+
+    Map<String, ZNRecord> buckets =
+        new ZNRecordBucketizer(bucketSize).bucketize(curState.getRecord());
+    for (String bucketName : buckets.keySet())
+    {
+      baseAccessor.set(path + "/" + bucketName,
+                       buckets.get(bucketName),
+                       AccessOption.PERSISTENT);
+    }
+  }
+
+  @Test
+  public void testCarryOverCurrentState() throws Exception
+  {
+    String clusterName = getShortClassName() + "_carryOver";
+    String instanceName = "localhost_12918";
+    System.out.println("START " + clusterName + " at "
+        + new Date(System.currentTimeMillis()));
+
+    TestHelper.setupCluster(clusterName, ZK_ADDR, 12918, // participant port
+                            "localhost", // participant name prefix
+                            "TestDB", // resource name prefix
+                            1, // resources
+                            4, // partitions per resource
+                            1, // number of nodes
+                            1, // replicas
+                            "MasterSlave",
+                            true); // do rebalance
+
+    ZkBaseDataAccessor<ZNRecord> baseAccessor = new ZkBaseDataAccessor<ZNRecord>(_gZkClient);
+    ZKHelixDataAccessor accessor = new ZKHelixDataAccessor(clusterName, baseAccessor);
+    Builder keyBuilder = accessor.keyBuilder();
+
+    // session_0 has a plain and a bucketized current state, session_1 has one whose
+    // state model def doesn't exist
+    accessor.setProperty(keyBuilder.currentState(instanceName, "session_0", "TestDB0"),
+                         createCurrentState("TestDB0", "session_0", "MasterSlave", 4));
+    setBucketizedCurrentState(baseAccessor,
+                              keyBuilder.currentState(instanceName, "session_0", "TestDB1")
+                                        .getPath(),
+                              createCurrentState("TestDB1", "session_0", "MasterSlave", 4),
+                              2);
+    accessor.setProperty(keyBuilder.currentState(instanceName, "session_1", "TestDB2"),
+                         createCurrentState("TestDB2", "session_1", "NoSuchModel", 2));
+
+    ZKHelixManager manager =
+        new ZKHelixManager(clusterName, instanceName, InstanceType.PARTICIPANT, ZK_ADDR);
+    manager.connect();
+    String sessionId = manager.getSessionId();
+
+    try
+    {
+      for (String resourceName : new String[] { "TestDB0", "TestDB1" })
+      {
+        CurrentState curState =
+            accessor.getProperty(keyBuilder.currentState(instanceName,
+                                                         sessionId,
+                                                         resourceName));
+        Assert.assertNotNull(curState, "Current state of " + resourceName
+            + " should be carried over");
+        Assert.assertEquals(curState.getSessionId(), sessionId);
+        Assert.assertEquals(curState.getPartitionStateMap().size(), 4);
+        for (String state : curState.getPartitionStateMap().values())
+        {
+          Assert.assertEquals(state, "OFFLINE");
+        }
+      }
+      Assert.assertNull(accessor.getProperty(keyBuilder.currentState(instanceName,
+                                                                     sessionId,
+                                                                     "TestDB2")));
+
+      // previous sessions are removed
+      List<String> sessionIds = accessor.getChildNames(keyBuilder.sessions(instanceName));
+      Assert.assertEquals(sessionIds.size(), 1);
+      Assert.assertEquals(sessionIds.get(0), sessionId);
+    }
+    finally
+    {
+      manager.disconnect();
+    }
+
+    System.out.println("END " + clusterName + " at "
+        + new Date(System.currentTimeMillis()));
+  }
+
+  @Test
+  public void testRemoveCurrentStatesLevelByLevel() throws Exception
+  {
+    String clusterName = getShortClassName() + "_remove";
+    String instanceName = "localhost_12918";
+    System.out.println("START " + clusterName + " at "
+        + new Date(System.currentTimeMillis()));
+
+    RecordingBaseDataAccessor baseAccessor = new RecordingBaseDataAccessor(_gZkClient);
+    ZKHelixDataAccessor accessor = new ZKHelixDataAccessor(clusterName, baseAccessor);
+    Builder keyBuilder = accessor.keyBuilder();
+
+    String bucketizedPath =
+        keyBuilder.currentState(instanceName, "session_0", "TestDB1").getPath();
+    baseAccessor.set(keyBuilder.currentState(instanceName, "session_0", "TestDB0")
+                               .getPath(),
+                     createCurrentState("TestDB0", "session_0", "MasterSlave", 2).getRecord(),
+                     AccessOption.PERSISTENT);
+    setBucketizedCurrentState(baseAccessor,
+                              bucketizedPath,
+                              createCurrentState("TestDB1", "session_0", "MasterSlave", 4),
+                              2);
+    baseAccessor.set(keyBuilder.currentState(instanceName, "session_1", "TestDB0")
+                               .getPath(),
+                     createCurrentState("TestDB0", "session_1", "MasterSlave", 2).getRecord(),
+                     AccessOption.PERSISTENT);
+
+    List<String> sessionPaths = new ArrayList<String>();
+    sessionPaths.add(keyBuilder.currentStates(instanceName, "session_0").getPath());
+    sessionPaths.add(keyBuilder.currentStates(instanceName, "session_1").getPath());
+
+    boolean[] success = ZKHelixManager.removeCurrentStates(baseAccessor, sessionPaths);
+    Assert.assertTrue(success[0]);
+    Assert.assertTrue(success[1]);
+    for (String sessionPath : sessionPaths)
+    {
+      Assert.assertFalse(_gZkClient.exists(sessionPath));
+    }
+
+    // buckets, then resources, then sessions; one batch per level
+    Assert.assertEquals(baseAccessor._removedPaths.size(), 3);
+    List<String> bucketPaths = baseAccessor._removedPaths.get(0);
+    Assert.assertEquals(bucketPaths.size(), 2);
+    for (String bucketPath : bucketPaths)
+    {
+      Assert.assertTrue(bucketPath.startsWith(bucketizedPath + "/"));
+    }
+    Assert.assertEquals(baseAccessor._removedPaths.get(1).size(), 3);
+    Assert.assertEquals(baseAccessor._removedPaths.get(2), sessionPaths);
+
+    System.out.println("END " + clusterName + " at "
+        + new Date(System.currentTimeMillis()));
+  }
+
+  @Test
+  public void testWaitForLiveInstanceGone() throws Exception
+  {
+    String path = "/" + getShortClassName() + "_wait/LIVEINSTANCES/localhost_12918";
+    System.out.println("START " + getShortClassName() + "_wait at "
+        + new Date(System.currentTimeMillis()));
+
+    // returns as soon as the node is deleted
+    _gZkClient.createPersistent(path, true);
+    final String deletePath = path;
+    Thread deleter = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          Thread.sleep(500);
+        }
+        catch (InterruptedException e)
+        {
+          return;
+        }
+        _gZkClient.delete(deletePath);
+      }
+    };
+    deleter.start();
+
+    long startTime = System.currentTimeMillis();
+    Assert.assertTrue(ZKHelixManager.waitForLiveInstanceGone(_gZkClient, path, 30000));
+    Assert.assertTrue(System.currentTimeMillis() - startTime < 30000);
+    deleter.join();
+
+    // returns immediately if the node doesn't exist
+    startTime = System.currentTimeMillis();
+    Assert.assertTrue(ZKHelixManager.waitForLiveInstanceGone(_gZkClient, path, 30000));
+    Assert.assertTrue(System.currentTimeMillis() - startTime < 30000);
+
+    // times out if the node is never deleted
+    _gZkClient.createPersistent(path, true);
+    startTime = System.currentTimeMillis();
+    Assert.assertFalse(ZKHelixManager.waitForLiveInstanceGone(_gZkClient, path, 500));
+    Assert.assertTrue(System.currentTimeMillis() - startTime >= 500);
+
+    System.out.println("END " + getShortClassName() + "_wait at "
+        + new Date(System.currentTimeMillis()));
+  }
+}
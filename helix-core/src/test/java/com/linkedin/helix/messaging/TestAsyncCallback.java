@@ -16,9 +16,14 @@
 package com.linkedin.helix.messaging;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
@@ -113,6 +118,230 @@ public class TestAsyncCallback
     System.out.println("END TestAsyncCallback at " + new Date(System.currentTimeMillis()));
   }
 
+  @Test()
+  public void testReplyFuture() throws Exception
+  {
+    int nMsgs = 3;
+    List<Message> messageSent = new ArrayList<Message>();
+    for (int i = 0; i < nMsgs; i++)
+    {
+      messageSent.add(new Message("Test", UUID.randomUUID().toString()));
+    }
+
+    // complete on all replies
+    AsyncCallbackSample callback = new AsyncCallbackSample();
+    callback.setMessagesSent(messageSent);
+    ReplyFuture future = new ReplyFuture(callback);
+    callback.setFuture(future);
+    future.setMessageCount(nMsgs);
+    final CountDownLatch listenerCalled = new CountDownLatch(1);
+    future.addListener(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        listenerCalled.countDown();
+      }
+    }, Executors.newSingleThreadExecutor());
+    callback.setTimeout(5000);
+    callback.startTimer();
+
+    for (int i = 0; i < nMsgs; i++)
+    {
+      AssertJUnit.assertFalse(future.isDone());
+      Message reply = new Message("TestReply", UUID.randomUUID().toString());
+      callback.onReply(reply);
+      AssertJUnit.assertSame(reply, future.pollReply(1, TimeUnit.SECONDS));
+    }
+    AssertJUnit.assertTrue(future.isDone());
+    AssertJUnit.assertEquals(nMsgs, future.get(1, TimeUnit.SECONDS).size());
+    AssertJUnit.assertNull(future.pollReply(10, TimeUnit.MILLISECONDS));
+    AssertJUnit.assertTrue(listenerCalled.await(1, TimeUnit.SECONDS));
+    AssertJUnit.assertFalse(future.isTimedOut());
+    AssertJUnit.assertEquals(0, callback._onTimeOutCalled);
+
+    // complete on timeout
+    callback = new AsyncCallbackSample();
+    callback.setMessagesSent(messageSent);
+    future = new ReplyFuture(callback);
+    callback.setFuture(future);
+    callback.setTimeout(200);
+    callback.startTimer();
+    callback.onReply(new Message("TestReply", UUID.randomUUID().toString()));
+    try
+    {
+      future.get(10, TimeUnit.MILLISECONDS);
+      AssertJUnit.fail("Should time out");
+    }
+    catch (TimeoutException e)
+    {
+      // OK
+    }
+    AssertJUnit.assertEquals(1, future.get().size());
+    AssertJUnit.assertTrue(future.isTimedOut());
+    AssertJUnit.assertEquals(1, callback._onTimeOutCalled);
+
+    // cancel
+    callback = new AsyncCallbackSample();
+    callback.setMessagesSent(messageSent);
+    future = new ReplyFuture(callback);
+    callback.setFuture(future);
+    AssertJUnit.assertTrue(future.cancel(false));
+    AssertJUnit.assertTrue(future.isDone());
+    AssertJUnit.assertTrue(future.isCancelled());
+    AssertJUnit.assertTrue(callback.isInterrupted());
+    AssertJUnit.assertFalse(future.cancel(false));
+  }
+
+  @Test()
+  public void testDuplicateReplies() throws Exception
+  {
+    int nMsgs = 3;
+    List<Message> messageSent = new ArrayList<Message>();
+    for (int i = 0; i < nMsgs; i++)
+    {
+      messageSent.add(new Message("Test", UUID.randomUUID().toString()));
+    }
+    final AsyncCallbackSample callback = new AsyncCallbackSample();
+    callback.setMessagesSent(messageSent);
+
+    // more replies than messages sent, from several threads
+    int nThreads = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < nThreads; i++)
+    {
+      Thread thread = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            start.await();
+          }
+          catch (InterruptedException e)
+          {
+            return;
+          }
+          for (int j = 0; j < 10; j++)
+          {
+            callback.onReply(new Message("TestReply", UUID.randomUUID().toString()));
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+
+    AssertJUnit.assertTrue(callback.isDone());
+    AssertJUnit.assertEquals(nMsgs, callback.getMessageReplied().size());
+    AssertJUnit.assertEquals(nMsgs, callback._onReplyMessageCalled);
+  }
+
+  @Test()
+  public void testConcurrentReplies() throws Exception
+  {
+    List<Message> messageSent = new ArrayList<Message>();
+    for (int i = 0; i < 2; i++)
+    {
+      messageSent.add(new Message("Test", UUID.randomUUID().toString()));
+    }
+
+    // the first reply stalls in onReplyMessage while the second one arrives
+    final CountDownLatch firstEntered = new CountDownLatch(1);
+    final CountDownLatch releaseFirst = new CountDownLatch(1);
+    final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+    final AsyncCallback callback = new AsyncCallback()
+    {
+      @Override
+      public void onTimeOut()
+      {
+      }
+
+      @Override
+      public void onReplyMessage(Message message)
+      {
+        if (message.getMsgId().equals("reply_0"))
+        {
+          firstEntered.countDown();
+          try
+          {
+            releaseFirst.await();
+          }
+          catch (InterruptedException e)
+          {
+            return;
+          }
+        }
+        processed.add(message.getMsgId());
+      }
+    };
+    callback.setMessagesSent(messageSent);
+    ReplyFuture future = new ReplyFuture(callback);
+    callback.setFuture(future);
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 2; i++)
+    {
+      final String replyId = "reply_" + i;
+      Thread thread = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          callback.onReply(new Message("TestReply", replyId));
+        }
+      };
+      threads.add(thread);
+    }
+    threads.get(0).start();
+    AssertJUnit.assertTrue(firstEntered.await(5, TimeUnit.SECONDS));
+    threads.get(1).start();
+
+    // the second reply can't complete the callback before the first one is processed
+    threads.get(1).join(200);
+    AssertJUnit.assertFalse(future.isDone());
+    AssertJUnit.assertFalse(callback.isDone());
+
+    releaseFirst.countDown();
+    List<Message> replies = future.get(5, TimeUnit.SECONDS);
+    // everything is processed by the time the future completes
+    AssertJUnit.assertEquals(2, processed.size());
+    AssertJUnit.assertEquals(2, replies.size());
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+  }
+
+  @Test()
+  public void testPurgeCancelledTimeouts() throws Exception
+  {
+    List<Message> messageSent = new ArrayList<Message>();
+    messageSent.add(new Message("Test", UUID.randomUUID().toString()));
+    for (int i = 0; i < AsyncCallback.PURGE_INTERVAL; i++)
+    {
+      AsyncCallbackSample callback = new AsyncCallbackSample();
+      callback.setMessagesSent(messageSent);
+      callback.setTimeout(3600 * 1000);
+      callback.startTimer();
+      callback.onReply(new Message("TestReply", UUID.randomUUID().toString()));
+      AssertJUnit.assertTrue(callback.isDone());
+    }
+    // tasks cancelled since the last purge are still queued
+    int queued = AsyncCallback.TIMEOUT_SCHEDULER.getQueue().size();
+    if (queued >= AsyncCallback.PURGE_INTERVAL)
+    {
+      AssertJUnit.fail("timeout tasks queued: " + queued);
+    }
+  }
+
   void sleep(int time)
   {
     try
@@ -121,4 +121,96 @@ public class TestAsyncCallbackSvc
     AssertJUnit.assertTrue(callback.isDone());
     AssertJUnit.assertTrue(callback._repliedMessageId.contains(msg.getMsgId()));
   }
+
+  @Test(groups =
+  { "unitTest" })
+  public void testDeliverLocally() throws Exception
+  {
+    AsyncCallbackService svc = new AsyncCallbackService();
+    TestAsyncCallback callback = new TestAsyncCallback();
+    String corrId = UUID.randomUUID().toString();
+    svc.registerAsyncCallback(corrId, callback);
+
+    List<Message> msgSent = new ArrayList<Message>();
+    msgSent.add(new Message("Test", UUID.randomUUID().toString()));
+    msgSent.add(new Message("Test", UUID.randomUUID().toString()));
+    callback.setMessagesSent(msgSent);
+
+    // reply of a callback not registered in this JVM
+    Message reply = new Message(svc.getMessageType(), UUID.randomUUID().toString());
+    reply.setCorrelationId(UUID.randomUUID().toString());
+    AssertJUnit.assertFalse(AsyncCallbackService.deliverLocally(reply));
+
+    reply = new Message(svc.getMessageType(), UUID.randomUUID().toString());
+    reply.setCorrelationId(corrId);
+    AssertJUnit.assertTrue(AsyncCallbackService.deliverLocally(reply));
+    AssertJUnit.assertFalse(callback.isDone());
+
+    Message reply2 = new Message(svc.getMessageType(), UUID.randomUUID().toString());
+    reply2.setCorrelationId(corrId);
+    AssertJUnit.assertTrue(AsyncCallbackService.deliverLocally(reply2));
+    AssertJUnit.assertTrue(callback.isDone());
+    AssertJUnit.assertTrue(callback._repliedMessageId.contains(reply.getMsgId()));
+    AssertJUnit.assertTrue(callback._repliedMessageId.contains(reply2.getMsgId()));
+
+    // finished callback is removed
+    Message reply3 = new Message(svc.getMessageType(), UUID.randomUUID().toString());
+    reply3.setCorrelationId(corrId);
+    AssertJUnit.assertFalse(AsyncCallbackService.deliverLocally(reply3));
+  }
+
+  @Test(groups =
+  { "unitTest" })
+  public void testLocalDeliveryCleanup() throws Exception
+  {
+    AsyncCallbackService svc = new AsyncCallbackService();
+    List<Message> msgSent = new ArrayList<Message>();
+    msgSent.add(new Message("Test", UUID.randomUUID().toString()));
+    msgSent.add(new Message("Test", UUID.randomUUID().toString()));
+
+    // timed out callback is removed
+    TestAsyncCallback callback = new TestAsyncCallback();
+    callback.setMessagesSent(msgSent);
+    callback.setTimeout(100);
+    String corrId = UUID.randomUUID().toString();
+    svc.registerAsyncCallback(corrId, callback);
+    callback.startTimer();
+    Thread.sleep(500);
+    AssertJUnit.assertTrue(callback.isTimedOut());
+    AssertJUnit.assertFalse(AsyncCallbackService.deliverLocally(newReply(svc, corrId)));
+
+    // cancelled callback is removed
+    callback = new TestAsyncCallback();
+    callback.setMessagesSent(msgSent);
+    corrId = UUID.randomUUID().toString();
+    svc.registerAsyncCallback(corrId, callback);
+    ReplyFuture future = new ReplyFuture(callback);
+    callback.setFuture(future);
+    AssertJUnit.assertTrue(future.cancel(false));
+    AssertJUnit.assertFalse(AsyncCallbackService.deliverLocally(newReply(svc, corrId)));
+
+    // pending callbacks take replies through zookeeper after reset
+    callback = new TestAsyncCallback();
+    callback.setMessagesSent(msgSent);
+    corrId = UUID.randomUUID().toString();
+    svc.registerAsyncCallback(corrId, callback);
+    svc.reset();
+    AssertJUnit.assertFalse(AsyncCallbackService.deliverLocally(newReply(svc, corrId)));
+
+    // no local delivery to a manager that is not connected
+    AsyncCallbackService disconnectedSvc = new AsyncCallbackService(new MockHelixManager());
+    callback = new TestAsyncCallback();
+    callback.setMessagesSent(msgSent);
+    corrId = UUID.randomUUID().toString();
+    disconnectedSvc.registerAsyncCallback(corrId, callback);
+    AssertJUnit.assertFalse(AsyncCallbackService.deliverLocally(newReply(svc, corrId)));
+    AssertJUnit.assertTrue(callback.getMessageReplied().isEmpty());
+  }
+
+  Message newReply(AsyncCallbackService svc, String corrId)
+  {
+    Message reply = new Message(svc.getMessageType(), UUID.randomUUID().toString());
+    reply.setCorrelationId(corrId);
+    return reply;
+  }
 }
@@ -17,6 +17,7 @@ package com.linkedin.helix.messaging;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.testng.AssertJUnit;
@@ -30,13 +31,14 @@ import com.linkedin.helix.InstanceType;
 import com.linkedin.helix.Mocks;
 import com.linkedin.helix.NotificationContext;
 import com.linkedin.helix.PropertyKey;
-import com.linkedin.helix.PropertyType;
+import com.linkedin.helix.PropertyKey.Builder;
 import com.linkedin.helix.ZNRecord;
 import com.linkedin.helix.messaging.DefaultMessagingService;
 import com.linkedin.helix.messaging.handling.HelixTaskResult;
 import com.linkedin.helix.messaging.handling.MessageHandler;
 import com.linkedin.helix.messaging.handling.MessageHandlerFactory;
 import com.linkedin.helix.model.ExternalView;
+import com.linkedin.helix.model.LiveInstance;
 import com.linkedin.helix.model.Message;
 import com.linkedin.helix.model.LiveInstance.LiveInstanceProperty;
 import com.linkedin.helix.tools.IdealStateCalculatorForStorageNode;
@@ -47,51 +49,43 @@ public class TestDefaultMessagingService
   {
     class MockDataAccessor extends Mocks.MockAccessor
     {
-      
+      int _readCount = 0;
+      String _failedInstance = null;
+
       @Override
-      public <T extends HelixProperty> T getProperty(PropertyKey key)
+      public <T extends HelixProperty> boolean[] setChildren(List<PropertyKey> keys,
+                                                             List<T> children)
       {
-        
-        PropertyType type = key.getType();
-        if(type == PropertyType.EXTERNALVIEW || type == PropertyType.IDEALSTATES)
+        boolean[] results = super.setChildren(keys, children);
+        for (int i = 0; i < keys.size(); i++)
         {
-          return (T) new ExternalView(_externalView);
+          Message message = (Message) children.get(i);
+          if (message.getTgtName().equals(_failedInstance))
+          {
+            results[i] = false;
+          }
         }
-        return null;
+        return results;
       }
 
       @Override
-      public <T extends HelixProperty> List<T> getChildValues(PropertyKey key)
+      public <T extends HelixProperty> List<T> getProperty(List<PropertyKey> keys)
       {
-        PropertyType type = key.getType();
-        List<T> result = new ArrayList<T>();
-        Class<? extends HelixProperty> clazz = key.getTypeClass();
-        if(type == PropertyType.EXTERNALVIEW || type == PropertyType.IDEALSTATES)
-        {
-          HelixProperty typedInstance = HelixProperty.convertToTypedInstance(clazz, _externalView);
-          result.add((T) typedInstance);
-          return result;
-        }
-        else if(type == PropertyType.LIVEINSTANCES)
-        {
-          return (List<T>) HelixProperty.convertToTypedList(clazz, _liveInstances);
-        }
-
-        return result;
+        _readCount += keys.size();
+        return super.getProperty(keys);
       }
     }
 
-    HelixDataAccessor _accessor = new MockDataAccessor();
+    MockDataAccessor _accessor = new MockDataAccessor();
     ZNRecord _externalView;
     List<String> _instances;
-    List<ZNRecord> _liveInstances;
     String _db = "DB";
     int _replicas = 3;
     int _partitions = 50;
 
     public MockHelixManager()
     {
-      _liveInstances = new ArrayList<ZNRecord>();
+      Builder keyBuilder = _accessor.keyBuilder();
       _instances = new ArrayList<String>();
       for(int i = 0;i<5; i++)
       {
@@ -100,11 +94,14 @@ public class TestDefaultMessagingService
         ZNRecord metaData = new ZNRecord(instance);
         metaData.setSimpleField(LiveInstanceProperty.SESSION_ID.toString(),
             UUID.randomUUID().toString());
-        _liveInstances.add(metaData);
+        _accessor.setProperty(keyBuilder.liveInstance(instance), new LiveInstance(metaData));
       }
       _externalView = IdealStateCalculatorForStorageNode.calculateIdealState(
           _instances, _partitions, _replicas, _db, "MASTER", "SLAVE");
-
+      _externalView.setVersion(1);
+      _externalView.setModifiedTime(System.currentTimeMillis());
+      _accessor.setProperty(keyBuilder.externalView(_db), new ExternalView(_externalView));
+      _accessor.setProperty(keyBuilder.idealStates(_db), new ExternalView(_externalView));
     }
 
     @Override
@@ -234,4 +231,159 @@ public class TestDefaultMessagingService
     recipientCriteria.setPartition("%");
     AssertJUnit.assertEquals(1, svc.send(recipientCriteria, template));
   }
+
+  @Test()
+  public void TestCriteriaEvaluator()
+  {
+    MockHelixManager manager = new MockHelixManager();
+    CriteriaEvaluator evaluator = new CriteriaEvaluator();
+
+    Criteria criteria = new Criteria();
+    criteria.setInstanceName("%");
+    criteria.setResource("DB");
+    criteria.setPartition("DB_1%");
+    criteria.setPartitionState("MASTER");
+    List<Map<String, String>> rows = evaluator.evaluateCriteria(criteria, manager);
+    // DB_1, DB_10 .. DB_19
+    AssertJUnit.assertEquals(11, rows.size());
+    for (Map<String, String> row : rows)
+    {
+      AssertJUnit.assertEquals("DB", row.get("resourceName"));
+      AssertJUnit.assertTrue(row.get("partitionName").startsWith("DB_1"));
+      AssertJUnit.assertEquals("MASTER", row.get("partitionState"));
+      AssertJUnit.assertEquals(manager._externalView.getMapField(row.get("partitionName"))
+                                                    .get(row.get("instanceName")),
+                               "MASTER");
+    }
+
+    // unselected fields are empty and rows are distinct
+    criteria = new Criteria();
+    criteria.setInstanceName("%");
+    criteria.setResource("%");
+    criteria.setPartitionState("SLAVE");
+    rows = evaluator.evaluateCriteria(criteria, manager);
+    AssertJUnit.assertEquals(5, rows.size());
+    for (Map<String, String> row : rows)
+    {
+      AssertJUnit.assertEquals("", row.get("partitionName"));
+      AssertJUnit.assertEquals("SLAVE", row.get("partitionState"));
+    }
+
+    // only live instances are selected
+    manager._accessor.removeProperty(manager._accessor.keyBuilder()
+                                                      .liveInstance("localhost_12918"));
+    criteria = new Criteria();
+    criteria.setInstanceName("localhost_1291%");
+    rows = evaluator.evaluateCriteria(criteria, manager);
+    AssertJUnit.assertEquals(1, rows.size());
+    AssertJUnit.assertEquals("localhost_12919", rows.get(0).get("instanceName"));
+
+    criteria.setResource("NotExist");
+    AssertJUnit.assertEquals(0, evaluator.evaluateCriteria(criteria, manager).size());
+  }
+
+  @Test()
+  public void TestCriteriaLikePattern()
+  {
+    MockHelixManager manager = new MockHelixManager();
+    CriteriaEvaluator evaluator = new CriteriaEvaluator();
+
+    // _ matches one character
+    Criteria criteria = new Criteria();
+    criteria.setResource("DB");
+    criteria.setPartition("DB_1_");
+    List<Map<String, String>> rows = evaluator.evaluateCriteria(criteria, manager);
+    // DB_10 .. DB_19
+    AssertJUnit.assertEquals(10, rows.size());
+    // DB_10 .. DB_49
+    criteria.setPartition("DB___");
+    AssertJUnit.assertEquals(40, evaluator.evaluateCriteria(criteria, manager).size());
+    criteria.setPartition("");
+    criteria.setInstanceName("localhost_1291_");
+    AssertJUnit.assertEquals(2, evaluator.evaluateCriteria(criteria, manager).size());
+    criteria.setInstanceName("localhost-1291%");
+    AssertJUnit.assertEquals(0, evaluator.evaluateCriteria(criteria, manager).size());
+
+    // * is not a wildcard
+    criteria = new Criteria();
+    criteria.setInstanceName("*");
+    criteria.setResource("DB");
+    AssertJUnit.assertEquals(0, evaluator.evaluateCriteria(criteria, manager).size());
+    criteria.setInstanceName("localhost_1291*");
+    AssertJUnit.assertEquals(0, evaluator.evaluateCriteria(criteria, manager).size());
+  }
+
+  @Test()
+  public void TestCriteriaEvaluatorCache()
+  {
+    MockHelixManager manager = new MockHelixManager();
+    CriteriaEvaluator evaluator = new CriteriaEvaluator();
+    Builder keyBuilder = manager._accessor.keyBuilder();
+
+    Criteria criteria = new Criteria();
+    criteria.setInstanceName("%");
+    criteria.setResource("%");
+    criteria.setPartition("DB_1");
+    criteria.setPartitionState("MASTER");
+    AssertJUnit.assertEquals(1, evaluator.evaluateCriteria(criteria, manager).size());
+    AssertJUnit.assertEquals(1, manager._accessor._readCount);
+
+    // unchanged external views are not read again
+    AssertJUnit.assertEquals(1, evaluator.evaluateCriteria(criteria, manager).size());
+    AssertJUnit.assertEquals(1, manager._accessor._readCount);
+
+    // a new version is read and re-indexed
+    ZNRecord externalView = new ZNRecord(manager._externalView);
+    externalView.getMapField("DB_1").clear();
+    externalView.setVersion(2);
+    manager._accessor.setProperty(keyBuilder.externalView("DB"), new ExternalView(externalView));
+    AssertJUnit.assertEquals(0, evaluator.evaluateCriteria(criteria, manager).size());
+    AssertJUnit.assertEquals(2, manager._accessor._readCount);
+
+    // removed external views are dropped
+    manager._accessor.removeProperty(keyBuilder.externalView("DB"));
+    AssertJUnit.assertEquals(0, evaluator.evaluateCriteria(criteria, manager).size());
+    AssertJUnit.assertEquals(2, manager._accessor._readCount);
+  }
+
+  @Test()
+  public void TestSendWithFailedWrites() throws Exception
+  {
+    MockHelixManager manager = new MockHelixManager();
+    manager._accessor._failedInstance = "localhost_12918";
+    DefaultMessagingService svc = new DefaultMessagingService(manager);
+
+    Message template = new Message("TestingMessageHandler", UUID.randomUUID().toString());
+    Criteria recipientCriteria = new Criteria();
+    recipientCriteria.setInstanceName("localhost_%");
+    recipientCriteria.setRecipientInstanceType(InstanceType.PARTICIPANT);
+    recipientCriteria.setResource("%");
+    recipientCriteria.setSelfExcluded(false);
+
+    // returns the number of messages generated
+    AssertJUnit.assertEquals(5, svc.send(recipientCriteria, template));
+
+    // replies are only expected for messages written
+    DefaultMessagingService.ReplyCollector callback =
+        new DefaultMessagingService.ReplyCollector();
+    MessageFanout.Progress progress = new MessageFanout.Progress();
+    ReplyFuture future =
+        svc.sendAsync(recipientCriteria,
+                      template,
+                      callback,
+                      -1,
+                      0,
+                      new MessageFanout(),
+                      progress);
+    AssertJUnit.assertEquals(4, future.getMessageCount());
+    AssertJUnit.assertEquals(4, progress.getSent());
+    AssertJUnit.assertEquals(1, progress.getFailed());
+    for (int i = 0; i < 4; i++)
+    {
+      AssertJUnit.assertFalse(future.isDone());
+      callback.onReply(new Message("TestReply", UUID.randomUUID().toString()));
+    }
+    AssertJUnit.assertTrue(future.isDone());
+    AssertJUnit.assertEquals(4, future.get().size());
+  }
 }
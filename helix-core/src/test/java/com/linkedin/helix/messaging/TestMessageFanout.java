@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import com.linkedin.helix.HelixProperty;
+import com.linkedin.helix.Mocks;
+import com.linkedin.helix.PropertyKey;
+import com.linkedin.helix.PropertyKey.Builder;
+import com.linkedin.helix.model.Message;
+
+public class TestMessageFanout
+{
+  class MockAccessor extends Mocks.MockAccessor
+  {
+    final List<Integer> _batchSizes = new ArrayList<Integer>();
+
+    @Override
+    public <T extends HelixProperty> boolean[] setChildren(List<PropertyKey> keys,
+                                                           List<T> children)
+    {
+      _batchSizes.add(keys.size());
+      boolean[] results = new boolean[keys.size()];
+      for (int i = 0; i < keys.size(); i++)
+      {
+        // fail messages to localhost_2
+        Message message = (Message) children.get(i);
+        results[i] = !message.getTgtName().equals("localhost_2");
+      }
+      return results;
+    }
+  }
+
+  static class SentCollector implements MessageFanout.CompletionListener
+  {
+    final CountDownLatch _done = new CountDownLatch(1);
+    volatile List<Message> _sentMessages;
+    volatile long _completeTime;
+
+    @Override
+    public void onComplete(List<Message> sentMessages)
+    {
+      _sentMessages = sentMessages;
+      _completeTime = System.currentTimeMillis();
+      _done.countDown();
+    }
+
+    List<Message> await() throws InterruptedException
+    {
+      AssertJUnit.assertTrue(_done.await(10, TimeUnit.SECONDS));
+      return _sentMessages;
+    }
+  }
+
+  @Test()
+  public void testFanout() throws Exception
+  {
+    MockAccessor accessor = new MockAccessor();
+    Builder keyBuilder = accessor.keyBuilder();
+    List<PropertyKey> keys = new ArrayList<PropertyKey>();
+    List<Message> messages = new ArrayList<Message>();
+    for (int i = 0; i < 3; i++)
+    {
+      String instanceName = "localhost_" + i;
+      for (int j = 0; j < 5; j++)
+      {
+        Message message = new Message("Test", UUID.randomUUID().toString());
+        message.setTgtName(instanceName);
+        keys.add(keyBuilder.message(instanceName, message.getId()));
+        messages.add(message);
+      }
+    }
+
+    // no rate limit, batches of 4
+    final List<Integer> progressSent = new ArrayList<Integer>();
+    MessageFanout fanout = new MessageFanout(4, 0, new MessageFanout.ProgressListener()
+    {
+      @Override
+      public void onProgress(MessageFanout.Progress progress)
+      {
+        progressSent.add(progress.getSent());
+      }
+    });
+    MessageFanout.Progress progress = new MessageFanout.Progress();
+    SentCollector collector = new SentCollector();
+    fanout.send(accessor, keys, messages, progress, collector);
+    // without a rate limit, all are written before send returns
+    AssertJUnit.assertEquals(0, collector._done.getCount());
+    List<Message> sent = collector.await();
+    AssertJUnit.assertEquals(10, sent.size());
+    AssertJUnit.assertEquals(15, progress.getTotal());
+    AssertJUnit.assertEquals(10, progress.getSent());
+    AssertJUnit.assertEquals(5, progress.getFailed());
+    AssertJUnit.assertEquals("[4, 4, 4, 3]", accessor._batchSizes.toString());
+    AssertJUnit.assertEquals(4, progressSent.size());
+    for (Message message : sent)
+    {
+      AssertJUnit.assertFalse(message.getTgtName().equals("localhost_2"));
+    }
+
+    // 2 messages per instance per second, only the first round is written on the
+    // calling thread
+    accessor._batchSizes.clear();
+    fanout = new MessageFanout(100, 2, null);
+    progress = new MessageFanout.Progress();
+    collector = new SentCollector();
+    long startTime = System.currentTimeMillis();
+    fanout.send(accessor, keys, messages, progress, collector);
+    AssertJUnit.assertTrue(System.currentTimeMillis() - startTime < 1000);
+    AssertJUnit.assertEquals(1, collector._done.getCount());
+    AssertJUnit.assertEquals(4, progress.getSent());
+    sent = collector.await();
+    AssertJUnit.assertEquals(10, sent.size());
+    AssertJUnit.assertEquals(10, progress.getSent());
+    AssertJUnit.assertEquals("[6, 6, 3]", accessor._batchSizes.toString());
+    AssertJUnit.assertTrue(collector._completeTime - startTime >= 2000);
+  }
+
+  @Test()
+  public void testInvalidMessage() throws Exception
+  {
+    MockAccessor accessor = new MockAccessor();
+    Builder keyBuilder = accessor.keyBuilder();
+    List<PropertyKey> keys = new ArrayList<PropertyKey>();
+    List<Message> messages = new ArrayList<Message>();
+
+    Message valid = new Message("Test", UUID.randomUUID().toString());
+    valid.setTgtName("localhost_0");
+    keys.add(keyBuilder.message("localhost_0", valid.getId()));
+    messages.add(valid);
+
+    // a state transition message without partition and states is invalid
+    Message invalid =
+        new Message(Message.MessageType.STATE_TRANSITION, UUID.randomUUID().toString());
+    invalid.setTgtName("localhost_0");
+    keys.add(keyBuilder.message("localhost_0", invalid.getId()));
+    messages.add(invalid);
+
+    MessageFanout.Progress progress = new MessageFanout.Progress();
+    SentCollector collector = new SentCollector();
+    new MessageFanout().send(accessor, keys, messages, progress, collector);
+    List<Message> sent = collector.await();
+    AssertJUnit.assertEquals(1, sent.size());
+    AssertJUnit.assertSame(valid, sent.get(0));
+    AssertJUnit.assertEquals(2, progress.getTotal());
+    AssertJUnit.assertEquals(1, progress.getSent());
+    AssertJUnit.assertEquals(1, progress.getFailed());
+    AssertJUnit.assertEquals("[1]", accessor._batchSizes.toString());
+  }
+}
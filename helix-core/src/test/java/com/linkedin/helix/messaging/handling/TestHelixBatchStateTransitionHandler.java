@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.messaging.handling;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.linkedin.helix.HelixConstants;
+import com.linkedin.helix.HelixDataAccessor;
+import com.linkedin.helix.Mocks.MockManager;
+import com.linkedin.helix.NotificationContext;
+import com.linkedin.helix.PropertyKey.Builder;
+import com.linkedin.helix.ZNRecordBucketizer;
+import com.linkedin.helix.model.CurrentState;
+import com.linkedin.helix.model.Message;
+import com.linkedin.helix.model.Message.MessageType;
+import com.linkedin.helix.participant.statemachine.StateModel;
+import com.linkedin.helix.participant.statemachine.StateModelFactory;
+import com.linkedin.helix.participant.statemachine.StateModelParser;
+import com.linkedin.helix.participant.statemachine.StateTransitionError;
+
+public class TestHelixBatchStateTransitionHandler
+{
+  public static class RollbackStateModel extends StateModel
+  {
+    boolean _rolledBack = false;
+
+    @Override
+    public void rollbackOnError(Message message,
+                                NotificationContext context,
+                                StateTransitionError error)
+    {
+      _rolledBack = true;
+    }
+  }
+
+  public static class BatchFactory extends StateModelFactory<RollbackStateModel>
+  {
+    final List<String> _failedPartitions = new ArrayList<String>();
+    boolean            _throwException   = false;
+    boolean            _allLocked        = true;
+
+    @Override
+    public RollbackStateModel createNewStateModel(String partitionName)
+    {
+      return new RollbackStateModel();
+    }
+
+    public Map<String, Boolean> onBecomeSlaveFromOffline(List<Message> messages,
+                                                         NotificationContext context)
+    {
+      for (StateModel stateModel : getStateModelMap().values())
+      {
+        _allLocked &= Thread.holdsLock(stateModel);
+      }
+
+      if (_throwException)
+      {
+        throw new IllegalStateException("batch transition failed");
+      }
+
+      Map<String, Boolean> results = new HashMap<String, Boolean>();
+      for (Message message : messages)
+      {
+        String partitionName = message.getPartitionName();
+        results.put(partitionName, !_failedPartitions.contains(partitionName));
+      }
+      return results;
+    }
+  }
+
+  private Message createGroupMessage(MockManager manager, List<String> partitionNames)
+  {
+    Message message = new Message(MessageType.STATE_TRANSITION, "group_msg");
+    message.setSrcName("cm-instance-0");
+    message.setTgtName(manager.getInstanceName());
+    message.setTgtSessionId(manager.getSessionId());
+    message.setFromState("OFFLINE");
+    message.setToState("SLAVE");
+    message.setResourceName("TestDB");
+    message.setPartitionName(partitionNames.get(0));
+    message.setStateModelDef("MasterSlave");
+    message.setStateModelFactoryName(HelixConstants.DEFAULT_STATE_MODEL_FACTORY);
+    message.setBucketSize(2);
+    message.setGroupMessageMode(true);
+    for (String partitionName : partitionNames)
+    {
+      message.addPartitionName(partitionName);
+    }
+    return message;
+  }
+
+  private HelixBatchStateTransitionHandler createHandler(BatchFactory factory,
+                                                         MockManager manager,
+                                                         Message message)
+  {
+    Method batchMethod =
+        new StateModelParser().getMethodForBatchTransition(BatchFactory.class,
+                                                           message.getFromState(),
+                                                           message.getToState());
+    Assert.assertNotNull(batchMethod);
+
+    Map<String, StateModel> stateModels = new LinkedHashMap<String, StateModel>();
+    for (String partitionName : message.getPartitionNames())
+    {
+      factory.addStateModel(partitionName, factory.createNewStateModel(partitionName));
+      stateModels.put(partitionName, factory.getStateModel(partitionName));
+    }
+    return new HelixBatchStateTransitionHandler(factory,
+                                                batchMethod,
+                                                stateModels,
+                                                message,
+                                                new NotificationContext(manager),
+                                                "OFFLINE",
+                                                new HelixTaskExecutor());
+  }
+
+  @Test()
+  public void testPartialFailure() throws Exception
+  {
+    MockManager manager = new MockManager("clusterName");
+    List<String> partitionNames = new ArrayList<String>();
+    for (int i = 0; i < 3; i++)
+    {
+      partitionNames.add("TestDB_" + i);
+    }
+    Message message = createGroupMessage(manager, partitionNames);
+    BatchFactory factory = new BatchFactory();
+    factory._failedPartitions.add("TestDB_1");
+
+    HelixTaskResult result = createHandler(factory, manager, message).handleMessage();
+
+    Assert.assertTrue(factory._allLocked);
+    Assert.assertFalse(result.isSucess());
+    Assert.assertEquals(result.getTaskResultMap().get("TestDB_0"), "SLAVE");
+    Assert.assertEquals(result.getTaskResultMap().get("TestDB_1"), "ERROR");
+    Assert.assertEquals(result.getTaskResultMap().get("TestDB_2"), "SLAVE");
+
+    Assert.assertEquals(factory.getStateModel("TestDB_0").getCurrentState(), "SLAVE");
+    Assert.assertFalse(factory.getStateModel("TestDB_0")._rolledBack);
+    Assert.assertEquals(factory.getStateModel("TestDB_1").getCurrentState(), "ERROR");
+    Assert.assertTrue(factory.getStateModel("TestDB_1")._rolledBack);
+
+    // TestDB_0 and TestDB_1 share a bucket, TestDB_2 goes to the next one
+    HelixDataAccessor dataAccessor = manager.getHelixDataAccessor();
+    Builder keyBuilder = dataAccessor.keyBuilder();
+    ZNRecordBucketizer bucketizer = new ZNRecordBucketizer(2);
+    String bucket0 = bucketizer.getBucketName("TestDB_0");
+    String bucket2 = bucketizer.getBucketName("TestDB_2");
+    Assert.assertFalse(bucket0.equals(bucket2));
+
+    CurrentState curState0 =
+        dataAccessor.getProperty(keyBuilder.currentState(manager.getInstanceName(),
+                                                         manager.getSessionId(),
+                                                         "TestDB",
+                                                         bucket0));
+    Assert.assertEquals(curState0.getPartitionStateMap().size(), 2);
+    Assert.assertEquals(curState0.getState("TestDB_0"), "SLAVE");
+    Assert.assertEquals(curState0.getState("TestDB_1"), "ERROR");
+    Assert.assertEquals(curState0.getBucketSize(), 2);
+
+    CurrentState curState2 =
+        dataAccessor.getProperty(keyBuilder.currentState(manager.getInstanceName(),
+                                                         manager.getSessionId(),
+                                                         "TestDB",
+                                                         bucket2));
+    Assert.assertEquals(curState2.getPartitionStateMap().size(), 1);
+    Assert.assertEquals(curState2.getState("TestDB_2"), "SLAVE");
+  }
+
+  @Test()
+  public void testBatchException() throws Exception
+  {
+    MockManager manager = new MockManager("clusterName");
+    List<String> partitionNames = new ArrayList<String>();
+    partitionNames.add("TestDB_0");
+    partitionNames.add("TestDB_1");
+    Message message = createGroupMessage(manager, partitionNames);
+    BatchFactory factory = new BatchFactory();
+    factory._throwException = true;
+
+    HelixTaskResult result = createHandler(factory, manager, message).handleMessage();
+
+    Assert.assertFalse(result.isSucess());
+    Assert.assertTrue(result.getException() instanceof IllegalStateException);
+    for (String partitionName : partitionNames)
+    {
+      Assert.assertEquals(result.getTaskResultMap().get(partitionName), "ERROR");
+      Assert.assertEquals(factory.getStateModel(partitionName).getCurrentState(), "ERROR");
+      Assert.assertTrue(factory.getStateModel(partitionName)._rolledBack);
+    }
+
+    HelixDataAccessor dataAccessor = manager.getHelixDataAccessor();
+    Builder keyBuilder = dataAccessor.keyBuilder();
+    String bucketName = new ZNRecordBucketizer(2).getBucketName("TestDB_0");
+    CurrentState curState =
+        dataAccessor.getProperty(keyBuilder.currentState(manager.getInstanceName(),
+                                                         manager.getSessionId(),
+                                                         "TestDB",
+                                                         bucketName));
+    Assert.assertEquals(curState.getState("TestDB_0"), "ERROR");
+    Assert.assertEquals(curState.getState("TestDB_1"), "ERROR");
+  }
+}
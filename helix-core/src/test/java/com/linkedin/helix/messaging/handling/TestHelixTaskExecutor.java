@@ -20,17 +20,31 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.testng.Assert;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
+import com.linkedin.helix.BaseDataAccessor;
+import com.linkedin.helix.HelixConstants;
+import com.linkedin.helix.HelixDataAccessor;
 import com.linkedin.helix.HelixException;
 import com.linkedin.helix.HelixManager;
+import com.linkedin.helix.HelixProperty;
 import com.linkedin.helix.Mocks;
 import com.linkedin.helix.NotificationContext;
+import com.linkedin.helix.PropertyKey.Builder;
+import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.model.CurrentState;
 import com.linkedin.helix.model.Message;
 import com.linkedin.helix.model.Message.MessageState;
+import com.linkedin.helix.model.Message.MessageType;
+import com.linkedin.helix.model.StateModelDefinition;
+import com.linkedin.helix.participant.statemachine.StateModel;
+import com.linkedin.helix.tools.StateModelConfigGenerator;
 
 public class TestHelixTaskExecutor
 {
@@ -581,4 +595,247 @@ public class TestHelixTaskExecutor
     AssertJUnit.assertTrue(executor._taskMap.size() == 0);
     
   }
+
+  @Test()
+  public void testConfigRemovedThreadpoolSize() throws InterruptedException
+  {
+    HelixTaskExecutor executor = new HelixTaskExecutor();
+    HelixManager manager = new MockClusterManager();
+
+    // registered with a configured size
+    TestMessageHandlerFactory factory = new TestMessageHandlerFactory();
+    executor.registerMessageHandlerFactory(factory.getMessageType(), factory, 8);
+    AssertJUnit.assertEquals(8, executor._threadpoolMap.get(factory.getMessageType())
+                                                       .getMaximumPoolSize());
+
+    // the mock manager has no config, as if the config is removed
+    NotificationContext context = new NotificationContext(manager);
+    context.setType(NotificationContext.Type.CALLBACK);
+    executor.onConfigChange(new ArrayList<HelixProperty>(), context);
+    AssertJUnit.assertEquals(HelixTaskExecutor.DEFAULT_PARALLEL_TASKS,
+                             executor._threadpoolMap.get(factory.getMessageType())
+                                                    .getMaximumPoolSize());
+    executor.shutDown();
+  }
+
+  @Test()
+  public void testWatchedConfigThreadpoolSize() throws InterruptedException
+  {
+    HelixTaskExecutor executor = new HelixTaskExecutor();
+    HelixManager manager = new MockClusterManager();
+    BaseDataAccessor<ZNRecord> baseAccessor =
+        manager.getHelixDataAccessor().getBaseDataAccessor();
+    Builder keyBuilder = manager.getHelixDataAccessor().keyBuilder();
+
+    TestMessageHandlerFactory factory = new TestMessageHandlerFactory();
+    String key = factory.getMessageType() + "." + HelixTaskExecutor.MAX_THREADS;
+    executor.registerMessageHandlerFactory(factory.getMessageType(), factory);
+
+    // participant config overrides the cluster config passed in
+    String participantConfigPath =
+        keyBuilder.instanceConfig(manager.getInstanceName()).getPath();
+    ZNRecord participantConfig = new ZNRecord(manager.getInstanceName());
+    participantConfig.setSimpleField(key, "12");
+    baseAccessor.set(participantConfigPath, participantConfig, 0);
+
+    ZNRecord clusterConfig = new ZNRecord(manager.getClusterName());
+    clusterConfig.setSimpleField(key, "8");
+    List<HelixProperty> configs = new ArrayList<HelixProperty>();
+    configs.add(new HelixProperty(clusterConfig));
+
+    NotificationContext context = new NotificationContext(manager);
+    context.setType(NotificationContext.Type.INIT);
+    executor.onConfigChange(configs, context);
+    AssertJUnit.assertEquals(12, executor._threadpoolMap.get(factory.getMessageType())
+                                                        .getMaximumPoolSize());
+
+    // participant config removed, the cluster config applies
+    executor.onConfigDataChange(participantConfigPath, null);
+    AssertJUnit.assertEquals(8, executor._threadpoolMap.get(factory.getMessageType())
+                                                       .getMaximumPoolSize());
+
+    // resource config is read when the resource is first seen and watched from then on
+    String resourceConfigPath = keyBuilder.resourceConfig("TestDB").getPath();
+    ZNRecord resourceConfig = new ZNRecord("TestDB");
+    resourceConfig.setSimpleField(HelixTaskExecutor.MAX_THREADS, "4");
+    baseAccessor.set(resourceConfigPath, resourceConfig, 0);
+    executor.checkResourceConfig("TestDB", manager);
+    String poolKey = HelixTaskExecutor.getResourceThreadpoolKey("TestDB");
+    AssertJUnit.assertEquals(4, executor._threadpoolMap.get(poolKey).getMaximumPoolSize());
+    AssertJUnit.assertEquals(resourceConfigPath, executor._resourceConfigWatches.get("TestDB"));
+
+    resourceConfig.setSimpleField(HelixTaskExecutor.MAX_THREADS, "6");
+    executor.onConfigDataChange(resourceConfigPath, resourceConfig);
+    AssertJUnit.assertEquals(6, executor._threadpoolMap.get(poolKey).getMaximumPoolSize());
+
+    // changes of resources not hosted are ignored
+    ZNRecord otherConfig = new ZNRecord("OtherDB");
+    otherConfig.setSimpleField(HelixTaskExecutor.MAX_THREADS, "6");
+    executor.onConfigDataChange(keyBuilder.resourceConfig("OtherDB").getPath(), otherConfig);
+    AssertJUnit.assertFalse(executor._resourceConfigWatches.containsKey("OtherDB"));
+    String otherPoolKey = HelixTaskExecutor.getResourceThreadpoolKey("OtherDB");
+    AssertJUnit.assertFalse(executor._threadpoolMap.containsKey(otherPoolKey));
+
+    executor.onConfigDataChange(resourceConfigPath, null);
+    AssertJUnit.assertFalse(executor._threadpoolMap.containsKey(poolKey));
+
+    context = new NotificationContext(manager);
+    context.setType(NotificationContext.Type.FINALIZE);
+    executor.onConfigChange(configs, context);
+    AssertJUnit.assertTrue(executor._resourceConfigWatches.isEmpty());
+    executor.shutDown();
+  }
+
+  public static class SessionMockManager extends Mocks.MockManager
+  {
+    volatile String _sessionId = "session_0";
+
+    @Override
+    public String getSessionId()
+    {
+      return _sessionId;
+    }
+  }
+
+  public static class SlowStateModel extends StateModel
+  {
+    final AtomicInteger _updating;
+
+    SlowStateModel(AtomicInteger updating)
+    {
+      _updating = updating;
+    }
+
+    public void onBecomeSlaveFromOffline(Message message, NotificationContext context)
+    {
+    }
+
+    @Override
+    public boolean updateState(String newState)
+    {
+      // widen the window between the session check and the state update
+      _updating.incrementAndGet();
+      try
+      {
+        Thread.sleep(1);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      finally
+      {
+        _updating.decrementAndGet();
+      }
+      return super.updateState(newState);
+    }
+  }
+
+  // resets state models like the state machine engine does on FINALIZE
+  class ResetStateModelFactory implements MessageHandlerFactory
+  {
+    final List<StateModel> _stateModels = new ArrayList<StateModel>();
+    final AtomicInteger _updating = new AtomicInteger(0);
+    volatile int _updatingOnReset = -1;
+
+    @Override
+    public MessageHandler createHandler(Message message, NotificationContext context)
+    {
+      return null;
+    }
+
+    @Override
+    public String getMessageType()
+    {
+      return MessageType.STATE_TRANSITION.toString();
+    }
+
+    @Override
+    public void reset()
+    {
+      _updatingOnReset = _updating.get();
+      for (StateModel stateModel : _stateModels)
+      {
+        stateModel.reset();
+        stateModel.updateState("OFFLINE");
+      }
+    }
+  }
+
+  // completions of the expired session either finish before the reset or are skipped
+  @Test()
+  public void testCompletionRaceWithFinalize() throws Exception
+  {
+    final SessionMockManager manager = new SessionMockManager();
+    HelixDataAccessor accessor = manager.getHelixDataAccessor();
+    accessor.setProperty(accessor.keyBuilder().stateModelDef("MasterSlave"),
+                         new StateModelDefinition(new StateModelConfigGenerator()
+                             .generateConfigForMasterSlave()));
+
+    HelixTaskExecutor executor = new HelixTaskExecutor();
+    ResetStateModelFactory factory = new ResetStateModelFactory();
+    executor.registerMessageHandlerFactory(factory.getMessageType(), factory);
+
+    int partitionNb = 400;
+    final List<HelixStateTransitionHandler> handlers =
+        new ArrayList<HelixStateTransitionHandler>();
+    for (int i = 0; i < partitionNb; i++)
+    {
+      String partitionName = "TestDB_" + i;
+      Message message = new Message(MessageType.STATE_TRANSITION, UUID.randomUUID().toString());
+      message.setSrcName("cm-instance-0");
+      message.setTgtName(manager.getInstanceName());
+      message.setTgtSessionId("session_0");
+      message.setFromState("OFFLINE");
+      message.setToState("SLAVE");
+      message.setPartitionName(partitionName);
+      message.setResourceName("TestDB");
+      message.setStateModelDef("MasterSlave");
+      message.setStateModelFactoryName(HelixConstants.DEFAULT_STATE_MODEL_FACTORY);
+
+      SlowStateModel stateModel = new SlowStateModel(factory._updating);
+      factory._stateModels.add(stateModel);
+      CurrentState currentStateDelta = new CurrentState("TestDB");
+      currentStateDelta.setState(partitionName, "OFFLINE");
+      handlers.add(new HelixStateTransitionHandler(stateModel,
+                                                   message,
+                                                   new NotificationContext(manager),
+                                                   currentStateDelta,
+                                                   executor));
+    }
+
+    final AtomicInteger completed = new AtomicInteger(0);
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    for (final HelixStateTransitionHandler handler : handlers)
+    {
+      pool.submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          handler.handleMessage();
+          completed.incrementAndGet();
+        }
+      });
+    }
+
+    // expire the session while completions are in flight
+    while (completed.get() < partitionNb / 4)
+    {
+      Thread.sleep(1);
+    }
+    manager._sessionId = "session_1";
+    NotificationContext context = new NotificationContext(manager);
+    context.setType(NotificationContext.Type.FINALIZE);
+    executor.onMessage(manager.getInstanceName(), new ArrayList<Message>(), context);
+
+    pool.shutdown();
+    AssertJUnit.assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+    AssertJUnit.assertEquals(0, factory._updatingOnReset);
+    for (StateModel stateModel : factory._stateModels)
+    {
+      AssertJUnit.assertEquals("OFFLINE", stateModel.getCurrentState());
+    }
+    executor.shutDown();
+  }
 }
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.messaging.handling;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.zookeeper.data.Stat;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.linkedin.helix.Mocks;
+import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.model.Message;
+import com.linkedin.helix.model.Message.MessageState;
+
+public class TestMessageInbox
+{
+  static class CountingBaseDataAccessor extends Mocks.MockBaseDataAccessor
+  {
+    int _nbOfReads = 0;
+
+    // bump the version on each write as zookeeper does
+    @Override
+    public boolean set(String path, ZNRecord record, int options)
+    {
+      ZNRecord prevRecord = get(path, null, 0);
+      ZNRecord newRecord = new ZNRecord(record);
+      newRecord.setVersion(prevRecord == null ? 0 : prevRecord.getVersion() + 1);
+      return super.set(path, newRecord, options);
+    }
+
+    @Override
+    public List<ZNRecord> get(List<String> paths, List<Stat> stats, int options)
+    {
+      _nbOfReads += paths.size();
+      List<ZNRecord> records = super.get(paths, stats, options);
+      if (stats != null)
+      {
+        stats.clear();
+        stats.addAll(Arrays.asList(getStats(paths, options)));
+      }
+      return records;
+    }
+  }
+
+  private CountingBaseDataAccessor createMessages(String path, int nbOfMessages)
+  {
+    CountingBaseDataAccessor baseAccessor = new CountingBaseDataAccessor();
+    for (int i = 0; i < nbOfMessages; i++)
+    {
+      Message message = new Message("TestType", "msg_" + i);
+      baseAccessor.set(path + "/" + message.getId(), message.getRecord(), 0);
+    }
+    return baseAccessor;
+  }
+
+  @Test()
+  public void testRefresh()
+  {
+    String path = "/cluster/INSTANCES/localhost_12918/MESSAGES";
+    CountingBaseDataAccessor baseAccessor = createMessages(path, 3);
+    MessageInbox inbox = new MessageInbox(path);
+
+    List<Message> messages = inbox.refresh(baseAccessor);
+    Assert.assertEquals(messages.size(), 3);
+    Assert.assertEquals(baseAccessor._nbOfReads, 3);
+
+    // take one message, it should not be returned or read again
+    Message message = messages.get(0);
+    message.setMsgState(MessageState.READ);
+    baseAccessor.set(path + "/" + message.getId(), message.getRecord(), 0);
+    inbox.onMessageTaken(message.getId(), true);
+    messages = inbox.refresh(baseAccessor);
+    Assert.assertEquals(messages.size(), 2);
+    Assert.assertEquals(baseAccessor._nbOfReads, 3, "Known messages should not be read again");
+
+    // add a new message and remove an old one
+    message = new Message("TestType", "msg_3");
+    baseAccessor.set(path + "/" + message.getId(), message.getRecord(), 0);
+    baseAccessor.remove(path + "/msg_1", 0);
+    messages = inbox.refresh(baseAccessor);
+    Assert.assertEquals(messages.size(), 2);
+    Assert.assertEquals(messages.get(0).getId(), "msg_2");
+    Assert.assertEquals(messages.get(1).getId(), "msg_3");
+    Assert.assertEquals(baseAccessor._nbOfReads, 4);
+  }
+
+  @Test()
+  public void testRewrittenMessage()
+  {
+    String path = "/cluster/INSTANCES/localhost_12918/MESSAGES";
+    CountingBaseDataAccessor baseAccessor = createMessages(path, 1);
+    MessageInbox inbox = new MessageInbox(path);
+
+    List<Message> messages = inbox.refresh(baseAccessor);
+    Assert.assertEquals(messages.size(), 1);
+    Message message = messages.get(0);
+    message.setMsgState(MessageState.READ);
+    baseAccessor.set(path + "/" + message.getId(), message.getRecord(), 0);
+    inbox.onMessageTaken(message.getId(), true);
+    Assert.assertEquals(inbox.refresh(baseAccessor).size(), 0);
+
+    // the sender rewrites the message znode with the same id
+    message = new Message("TestType", "msg_0");
+    message.setToState("MASTER");
+    baseAccessor.set(path + "/" + message.getId(), message.getRecord(), 0);
+    messages = inbox.refresh(baseAccessor);
+    Assert.assertEquals(messages.size(), 1);
+    Assert.assertEquals(messages.get(0).getToState(), "MASTER");
+    Assert.assertEquals(baseAccessor._nbOfReads, 2);
+  }
+
+  @Test()
+  public void testReturnedCopies()
+  {
+    String path = "/cluster/INSTANCES/localhost_12918/MESSAGES";
+    CountingBaseDataAccessor baseAccessor = createMessages(path, 1);
+    MessageInbox inbox = new MessageInbox(path);
+
+    // changes to a returned message don't reach the inbox
+    Message message = inbox.refresh(baseAccessor).get(0);
+    message.setMsgState(MessageState.READ);
+    message.setExecuteStartTimeStamp(1000);
+
+    List<Message> messages = inbox.refresh(baseAccessor);
+    Assert.assertEquals(messages.size(), 1);
+    Assert.assertEquals(messages.get(0).getMsgState(), MessageState.NEW);
+    Assert.assertFalse(messages.get(0).getExecuteStartTimeStamp() == 1000);
+    Assert.assertEquals(baseAccessor._nbOfReads, 1);
+  }
+
+  @Test()
+  public void testWriteFailure()
+  {
+    String path = "/cluster/INSTANCES/localhost_12918/MESSAGES";
+    CountingBaseDataAccessor baseAccessor = createMessages(path, 2);
+    MessageInbox inbox = new MessageInbox(path);
+
+    List<Message> messages = inbox.refresh(baseAccessor);
+    Assert.assertEquals(messages.size(), 2);
+
+    // msg_0 failed to be marked READ, it is read again and returned for retry
+    Message message = messages.get(1);
+    message.setMsgState(MessageState.READ);
+    baseAccessor.set(path + "/" + message.getId(), message.getRecord(), 0);
+    inbox.onMessageTaken("msg_0", false);
+    inbox.onMessageTaken("msg_1", true);
+    messages = inbox.refresh(baseAccessor);
+    Assert.assertEquals(messages.size(), 1);
+    Assert.assertEquals(messages.get(0).getId(), "msg_0");
+    Assert.assertEquals(baseAccessor._nbOfReads, 3);
+  }
+}
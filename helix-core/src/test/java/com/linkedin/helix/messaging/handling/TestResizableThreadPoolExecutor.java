@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.messaging.handling;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestResizableThreadPoolExecutor
+{
+  @Test
+  public void testResize() throws Exception
+  {
+    ResizableThreadPoolExecutor pool = new ResizableThreadPoolExecutor("TestPool", 2);
+    try
+    {
+      Assert.assertEquals(pool.getMaximumPoolSize(), 2);
+
+      pool.resize(5);
+      Assert.assertEquals(pool.getCorePoolSize(), 5);
+      Assert.assertEquals(pool.getMaximumPoolSize(), 5);
+
+      pool.resize(1);
+      Assert.assertEquals(pool.getCorePoolSize(), 1);
+      Assert.assertEquals(pool.getMaximumPoolSize(), 1);
+      Assert.assertTrue(pool.allowsCoreThreadTimeOut());
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testMonitor() throws Exception
+  {
+    ResizableThreadPoolExecutor pool = new ResizableThreadPoolExecutor("TestPool", 1);
+    try
+    {
+      final CountDownLatch release = new CountDownLatch(1);
+      Callable<Boolean> blockingTask = new Callable<Boolean>()
+      {
+        @Override
+        public Boolean call() throws Exception
+        {
+          return release.await(10, TimeUnit.SECONDS);
+        }
+      };
+
+      Future<Boolean> first = pool.submit(blockingTask);
+      Future<Boolean> second = pool.submit(blockingTask);
+
+      // the second task waits behind the first one
+      Thread.sleep(100);
+      Assert.assertEquals(pool.getMonitor().getActiveThreadCount(), 1);
+      Assert.assertEquals(pool.getMonitor().getQueueLength(), 1);
+      Assert.assertFalse(pool.isIdle());
+
+      release.countDown();
+      Assert.assertTrue(first.get());
+      Assert.assertTrue(second.get());
+
+      Assert.assertEquals(pool.getMonitor().getCompletedTaskCount(), 2);
+      Assert.assertTrue(pool.getMonitor().getMaxWaitTime() >= 100);
+      Assert.assertTrue(pool.getMonitor().get99WaitTime() >= 100);
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+}
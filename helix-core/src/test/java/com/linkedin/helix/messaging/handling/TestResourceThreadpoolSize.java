@@ -17,7 +17,7 @@ import com.linkedin.helix.tools.ClusterStateVerifier;
 public class TestResourceThreadpoolSize extends ZkStandAloneCMTestBase
 {
   @Test
-  public void TestThreadPoolSizeConfig()
+  public void TestThreadPoolSizeConfig() throws Exception
   {
     String instanceName = PARTICIPANT_PREFIX + "_" + (START_PORT + 0);
     HelixManager manager = _startCMResultMap.get(instanceName)._manager;
@@ -46,5 +46,20 @@ public class TestResourceThreadpoolSize extends ZkStandAloneCMTestBase
       Assert.assertTrue(executor.getCompletedTaskCount() > 0);
     }
     Assert.assertEquals(taskcount, 64 * 4);
+
+    // participants watch the configs of the resources they host
+    accessor.set(scope, HelixTaskExecutor.MAX_THREADS, ""+16);
+    for (int i = 0; i < NODE_NR; i++)
+    {
+      instanceName = PARTICIPANT_PREFIX + "_" + (START_PORT + i);
+      DefaultMessagingService svc = (DefaultMessagingService)(_startCMResultMap.get(instanceName)._manager.getMessagingService());
+      HelixTaskExecutor helixExecutor = svc.getExecutor();
+      ThreadPoolExecutor executor = (ThreadPoolExecutor)(helixExecutor._threadpoolMap.get(MessageType.STATE_TRANSITION + "." + "NextDB"));
+      for (int j = 0; j < 50 && executor.getMaximumPoolSize() != 16; j++)
+      {
+        Thread.sleep(100);
+      }
+      Assert.assertEquals(16, executor.getMaximumPoolSize());
+    }
   }
 }
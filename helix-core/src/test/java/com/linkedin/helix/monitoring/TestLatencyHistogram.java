@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.monitoring;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+public class TestLatencyHistogram
+{
+  static class FakeClockHistogram extends LatencyHistogram
+  {
+    long _now = 0;
+
+    FakeClockHistogram(long intervalMs, int intervalNum)
+    {
+      super(intervalMs, intervalNum);
+    }
+
+    @Override
+    protected long currentTimeMillis()
+    {
+      return _now;
+    }
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testBuckets()
+  {
+    for (long value = 0; value < 100000; value++)
+    {
+      long bucketValue = LatencyHistogram.getBucketValue(LatencyHistogram.getBucketIndex(value));
+      // within 1/16 of the value
+      if (Math.abs(bucketValue - value) > value / LatencyHistogram.SUB_BUCKET_NUM)
+      {
+        AssertJUnit.fail("value: " + value + ", bucket value: " + bucketValue);
+      }
+    }
+    AssertJUnit.assertEquals(LatencyHistogram.BUCKET_NUM - 1,
+        LatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testSnapshot()
+  {
+    FakeClockHistogram histogram = new FakeClockHistogram(1000, 5);
+    histogram._now = 500;
+    for (int i = 1; i <= 1000; i++)
+    {
+      histogram.record(i);
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+    AssertJUnit.assertEquals(1000, snapshot.getCount());
+    AssertJUnit.assertEquals(500500, snapshot.getSum());
+    AssertJUnit.assertEquals(500.5, snapshot.getMean());
+    AssertJUnit.assertEquals(1, snapshot.getMin());
+    AssertJUnit.assertEquals(1000, snapshot.getMax());
+
+    long p50 = snapshot.getPercentile(50);
+    long p99 = snapshot.getPercentile(99);
+    long p999 = snapshot.getPercentile(99.9);
+    if (Math.abs(p50 - 500) > 500 / LatencyHistogram.SUB_BUCKET_NUM
+        || Math.abs(p99 - 990) > 990 / LatencyHistogram.SUB_BUCKET_NUM
+        || Math.abs(p999 - 999) > 999 / LatencyHistogram.SUB_BUCKET_NUM)
+    {
+      AssertJUnit.fail("p50: " + p50 + ", p99: " + p99 + ", p999: " + p999);
+    }
+    AssertJUnit.assertEquals(1000, snapshot.getPercentile(100));
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testWindowExpiry()
+  {
+    FakeClockHistogram histogram = new FakeClockHistogram(1000, 5);
+    histogram._now = 0;
+    histogram.record(100);
+    histogram._now = 2500;
+    histogram.record(200);
+    histogram.record(300);
+
+    AssertJUnit.assertEquals(3, histogram.getSnapshot().getCount());
+    // only the current interval
+    AssertJUnit.assertEquals(2, histogram.getSnapshot(1000).getCount());
+    AssertJUnit.assertEquals(200, histogram.getSnapshot(1000).getMin());
+
+    // the first interval falls out of the ring
+    histogram._now = 5100;
+    LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+    AssertJUnit.assertEquals(2, snapshot.getCount());
+    AssertJUnit.assertEquals(200, snapshot.getMin());
+
+    // the slot of the first interval is reused
+    histogram.record(400);
+    snapshot = histogram.getSnapshot();
+    AssertJUnit.assertEquals(3, snapshot.getCount());
+    AssertJUnit.assertEquals(400, snapshot.getMax());
+
+    histogram._now = 10000;
+    AssertJUnit.assertEquals(0, histogram.getSnapshot().getCount());
+    AssertJUnit.assertEquals(0, histogram.getSnapshot().getPercentile(99));
+    AssertJUnit.assertEquals(4, histogram.getTotalCount());
+    AssertJUnit.assertEquals(1000, histogram.getTotalSum());
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testRateAndReset()
+  {
+    FakeClockHistogram histogram = new FakeClockHistogram(1000, 4);
+    histogram._now = 1500;
+    for (int i = 0; i < 150; i++)
+    {
+      histogram.record(10);
+    }
+    histogram._now = 3500;
+    for (int i = 0; i < 150; i++)
+    {
+      histogram.record(10);
+    }
+    // 300 values since the start of the oldest interval kept, from 1000 to 4000
+    histogram._now = 4000;
+    AssertJUnit.assertEquals(100.0, histogram.getSnapshot().getRate());
+
+    histogram.reset();
+    AssertJUnit.assertEquals(0, histogram.getSnapshot().getCount());
+    AssertJUnit.assertEquals(0.0, histogram.getSnapshot().getRate());
+    AssertJUnit.assertEquals(0, histogram.getTotalCount());
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testConcurrentRecord() throws Exception
+  {
+    final LatencyHistogram histogram = new LatencyHistogram(60 * 1000, 2);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          for (int j = 0; j < 10000; j++)
+          {
+            histogram.record(j);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+    AssertJUnit.assertEquals(80000, histogram.getTotalCount());
+    AssertJUnit.assertEquals(8L * 9999 * 10000 / 2, histogram.getTotalSum());
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.monitoring;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import com.linkedin.helix.monitoring.mbeans.ResourceMonitor;
+
+public class TestMetricsRegistry
+{
+  static class CountingSource implements MetricSource
+  {
+    final String _name;
+    int _collectCount = 0;
+
+    CountingSource(String name)
+    {
+      _name = name;
+    }
+
+    @Override
+    public String getSensorName()
+    {
+      return _name;
+    }
+
+    @Override
+    public void collectMetrics(Map<String, Number> metrics)
+    {
+      _collectCount++;
+      metrics.put("CollectCount", _collectCount);
+      metrics.put("Ratio", 0.5);
+    }
+  }
+
+  static class RecordingReporter implements MetricsReporter
+  {
+    List<MetricsSnapshot> _snapshots = new ArrayList<MetricsSnapshot>();
+
+    @Override
+    public void start()
+    {
+    }
+
+    @Override
+    public void report(MetricsSnapshot snapshot)
+    {
+      _snapshots.add(snapshot);
+    }
+
+    @Override
+    public void stop()
+    {
+    }
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testSnapshot()
+  {
+    MetricsRegistry registry = new MetricsRegistry();
+    CountingSource source = new CountingSource("TestSource");
+    registry.register(source);
+    registry.register(new ResourceMonitor("TestCluster", "TestDB"));
+    AssertJUnit.assertEquals(2, registry.getSourceCount());
+
+    RecordingReporter reporter1 = new RecordingReporter();
+    RecordingReporter reporter2 = new RecordingReporter();
+    registry.addReporter(reporter1);
+    registry.addReporter(reporter2);
+    registry.report();
+
+    // all reporters get the same snapshot, collected once
+    AssertJUnit.assertEquals(1, source._collectCount);
+    AssertJUnit.assertEquals(1, reporter1._snapshots.size());
+    MetricsSnapshot snapshot = reporter1._snapshots.get(0);
+    AssertJUnit.assertSame(snapshot, reporter2._snapshots.get(0));
+    AssertJUnit.assertEquals(6, snapshot.size());
+    AssertJUnit.assertEquals(1, snapshot.getMetrics("TestSource").get("CollectCount"));
+    AssertJUnit.assertEquals(0L,
+        snapshot.getMetrics("ResourceStatus_TestCluster_TestDB").get("PartitionGauge"));
+
+    // a source registered again under the same name is not removed by the old one
+    CountingSource newSource = new CountingSource("TestSource");
+    registry.register(newSource);
+    registry.unregister(source);
+    AssertJUnit.assertEquals(2, registry.getSourceCount());
+    registry.unregister(newSource);
+    AssertJUnit.assertEquals(1, registry.getSourceCount());
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testReporters() throws Exception
+  {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.register(new CountingSource("Test,Source"));
+
+    File csvFile = File.createTempFile("TestMetricsRegistry", ".csv");
+    csvFile.delete();
+    HttpMetricsReporter httpReporter = new HttpMetricsReporter(0);
+    registry.addReporter(new JmxMetricsReporter());
+    registry.addReporter(new CsvMetricsReporter(csvFile.getPath()));
+    registry.addReporter(httpReporter);
+    try
+    {
+      registry.report();
+      registry.report();
+
+      MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(JmxMetricsReporter.OBJECT_NAME);
+      AssertJUnit.assertEquals(2, beanServer.getAttribute(name, "Test,Source.CollectCount"));
+      AttributeList attributes =
+          beanServer.getAttributes(name, new String[] { "Test,Source.CollectCount",
+              "Test,Source.Ratio" });
+      AssertJUnit.assertEquals(2, attributes.size());
+
+      List<String> lines = new ArrayList<String>();
+      BufferedReader reader = new BufferedReader(new FileReader(csvFile));
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+        lines.add(line);
+      }
+      reader.close();
+      AssertJUnit.assertEquals(5, lines.size());
+      AssertJUnit.assertEquals(CsvMetricsReporter.HEADER, lines.get(0));
+      AssertJUnit.assertTrue(lines.get(3).endsWith(",\"Test,Source\",CollectCount,2"));
+
+      URL url = new URL("http://localhost:" + httpReporter.getPort() + HttpMetricsReporter.PATH);
+      reader = new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8"));
+      AssertJUnit.assertEquals("Test,Source.CollectCount 2", reader.readLine());
+      AssertJUnit.assertEquals("Test,Source.Ratio 0.5", reader.readLine());
+      AssertJUnit.assertNull(reader.readLine());
+      reader.close();
+    }
+    finally
+    {
+      registry.stopReporting();
+      csvFile.delete();
+    }
+    AssertJUnit.assertEquals(-1, httpReporter.getPort());
+    AssertJUnit.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+        new ObjectName(JmxMetricsReporter.OBJECT_NAME)));
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.participant.statemachine;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.linkedin.helix.NotificationContext;
+import com.linkedin.helix.model.Message;
+
+public class TestStateModelParser
+{
+  public static class DummyStateModel extends StateModel
+  {
+    public void onBecomeOnlineFromOffline(Message message, NotificationContext context)
+    {
+    }
+  }
+
+  public static class BatchStateModelFactory extends StateModelFactory<DummyStateModel>
+  {
+    @Override
+    public DummyStateModel createNewStateModel(String partitionName)
+    {
+      return new DummyStateModel();
+    }
+
+    public void onBecomeOnlineFromOffline(List<Message> messages,
+                                          NotificationContext context)
+    {
+    }
+
+    @Transition(from = "ONLINE", to = "OFFLINE")
+    public Map<String, Boolean> closePartitions(List<Message> messages,
+                                                NotificationContext context)
+    {
+      return null;
+    }
+
+    // per-partition signature is not a batch transition
+    public void onBecomeDroppedFromOffline(Message message, NotificationContext context)
+    {
+    }
+  }
+
+  @Test(groups = { "unitTest" })
+  public void testGetMethodForBatchTransition()
+  {
+    StateModelParser parser = new StateModelParser();
+
+    Method method =
+        parser.getMethodForBatchTransition(BatchStateModelFactory.class,
+                                           "OFFLINE",
+                                           "ONLINE");
+    Assert.assertNotNull(method);
+    Assert.assertEquals(method.getName(), "onBecomeOnlineFromOffline");
+
+    method =
+        parser.getMethodForBatchTransition(BatchStateModelFactory.class,
+                                           "ONLINE",
+                                           "OFFLINE");
+    Assert.assertNotNull(method);
+    Assert.assertEquals(method.getName(), "closePartitions");
+
+    Assert.assertNull(parser.getMethodForBatchTransition(BatchStateModelFactory.class,
+                                                         "OFFLINE",
+                                                         "DROPPED"));
+
+    // per-partition transitions are not affected
+    method =
+        parser.getMethodForTransition(DummyStateModel.class,
+                                      "OFFLINE",
+                                      "ONLINE",
+                                      new Class[] { Message.class,
+                                          NotificationContext.class });
+    Assert.assertNotNull(method);
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.linkedin.helix.NotificationContext;
+import com.linkedin.helix.NotificationContext.Type;
+import com.linkedin.helix.ZNRecord;
+import com.linkedin.helix.model.ExternalView;
+import com.linkedin.helix.model.InstanceConfig;
+
+/**
+ * Measures lookup throughput of RoutingTableProvider. Not run as part of the test suite;
+ * run main() with optional args: resourceNr partitionNr replicaNr instanceNr threadNr
+ * durationSec
+ */
+public class RoutingTableLookupBenchmark
+{
+  public static void main(String[] args) throws Exception
+  {
+    final int resourceNr = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+    final int partitionNr = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+    final int replicaNr = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    final int instanceNr = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+    final int threadNr = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+    final int durationSec = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+
+    final RoutingTableProvider provider = new RoutingTableProvider();
+    NotificationContext context = new NotificationContext(null);
+    context.setType(Type.CALLBACK);
+
+    List<InstanceConfig> configs = new ArrayList<InstanceConfig>();
+    for (int i = 0; i < instanceNr; i++)
+    {
+      InstanceConfig config = new InstanceConfig("localhost_" + (12918 + i));
+      config.setHostName("localhost");
+      config.setPort("" + (12918 + i));
+      configs.add(config);
+    }
+    provider.onConfigChange(configs, context);
+
+    final String[] resourceNames = new String[resourceNr];
+    final String[][] partitionNames = new String[resourceNr][partitionNr];
+    List<ExternalView> externalViews = new ArrayList<ExternalView>();
+    for (int i = 0; i < resourceNr; i++)
+    {
+      resourceNames[i] = "TestDB" + i;
+      ExternalView externalView = new ExternalView(resourceNames[i]);
+      for (int j = 0; j < partitionNr; j++)
+      {
+        partitionNames[i][j] = resourceNames[i] + "_" + j;
+        for (int k = 0; k < replicaNr; k++)
+        {
+          String instanceName = configs.get((i + j + k) % instanceNr).getId();
+          externalView.setState(partitionNames[i][j], instanceName, k == 0 ? "MASTER"
+              : "SLAVE");
+        }
+      }
+      externalViews.add(externalView);
+    }
+    provider.onExternalViewChange(externalViews, context);
+
+    final long endTime = System.currentTimeMillis() + durationSec * 1000L;
+    final long[] lookups = new long[threadNr];
+    Thread[] threads = new Thread[threadNr];
+    for (int t = 0; t < threadNr; t++)
+    {
+      final int threadIdx = t;
+      threads[t] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          long count = 0;
+          long hits = 0;
+          while (System.currentTimeMillis() < endTime)
+          {
+            for (int n = 0; n < 100000; n++)
+            {
+              int i = (int) ((count + n) % resourceNr);
+              int j = (int) ((count + n) % partitionNr);
+              if (provider.getInstance(resourceNames[i], partitionNames[i][j], "MASTER") != null)
+              {
+                hits++;
+              }
+            }
+            count += 100000;
+          }
+          lookups[threadIdx] = count;
+          if (hits == 0)
+          {
+            System.err.println("no routing entry found");
+          }
+        }
+      };
+      threads[t].start();
+    }
+
+    long total = 0;
+    for (int t = 0; t < threadNr; t++)
+    {
+      threads[t].join();
+      total += lookups[t];
+    }
+    System.out.println("resources: " + resourceNr + ", partitions: " + partitionNr
+        + ", replicas: " + replicaNr + ", threads: " + threadNr + ", lookups/sec: "
+        + (total / durationSec));
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.linkedin.helix.NotificationContext;
+import com.linkedin.helix.NotificationContext.Type;
+import com.linkedin.helix.model.ExternalView;
+import com.linkedin.helix.model.InstanceConfig;
+import com.linkedin.helix.spectator.KeyRouter.HashFunctionType;
+import com.linkedin.helix.tools.IdealCalculatorByConsistentHashing;
+
+public class TestKeyRouter
+{
+  @Test
+  public void testHashFunctions() throws Exception
+  {
+    byte[] key = "The quick brown fox jumps over the lazy dog".getBytes("UTF-8");
+    Assert.assertEquals(new MurmurKeyHashFunction().hash(key, 0, key.length), 0x2e4ff723);
+    Assert.assertEquals(new MurmurKeyHashFunction().hash(new byte[0], 0, 0), 0);
+    byte[] hello = "hello".getBytes("UTF-8");
+    Assert.assertEquals(new MurmurKeyHashFunction().hash(hello, 0, hello.length),
+                        0x248bfa47);
+
+    Assert.assertEquals(new FnvKeyHashFunction().hash(key, 0, key.length),
+                        new IdealCalculatorByConsistentHashing.FnvHash().hash(key));
+
+    // hash of a sub-array
+    byte[] padded = "xxhelloxx".getBytes("UTF-8");
+    Assert.assertEquals(new MurmurKeyHashFunction().hash(padded, 2, 5), 0x248bfa47);
+  }
+
+  @Test
+  public void testEncodeUtf8() throws Exception
+  {
+    String[] strs =
+        new String[] { "", "abc", "\u00e9t\u00e9", "\u4e2d\u6587", "\ud83d\ude00 smile" };
+    byte[] buffer = new byte[64];
+    for (String str : strs)
+    {
+      byte[] expected = str.getBytes("UTF-8");
+      int length = KeyRouter.encodeUtf8(str, buffer);
+      Assert.assertEquals(length, expected.length);
+      for (int i = 0; i < length; i++)
+      {
+        Assert.assertEquals(buffer[i], expected[i]);
+      }
+    }
+  }
+
+  @Test
+  public void testRouting() throws Exception
+  {
+    RoutingTableProvider provider = new RoutingTableProvider();
+    NotificationContext context = new NotificationContext(null);
+    context.setType(Type.CALLBACK);
+
+    List<InstanceConfig> configs = new ArrayList<InstanceConfig>();
+    for (int i = 0; i < 4; i++)
+    {
+      InstanceConfig config = new InstanceConfig("localhost_" + (12918 + i));
+      config.setHostName("localhost");
+      config.setPort("" + (12918 + i));
+      configs.add(config);
+    }
+    provider.onConfigChange(configs, context);
+
+    ExternalView externalView = new ExternalView("TestDB");
+    for (int i = 0; i < 16; i++)
+    {
+      externalView.setState("TestDB_" + i, configs.get(i % 4).getId(), "MASTER");
+    }
+    List<ExternalView> externalViews = new ArrayList<ExternalView>();
+    externalViews.add(externalView);
+    provider.onExternalViewChange(externalViews, context);
+
+    for (HashFunctionType type : HashFunctionType.values())
+    {
+      KeyRouter router = new KeyRouter(provider);
+      router.addResource("TestDB", 16, type);
+
+      int[] counts = new int[16];
+      for (int i = 0; i < 1000; i++)
+      {
+        String key = "key_" + i;
+        String partition = router.getPartition("TestDB", key);
+        Assert.assertEquals(router.getPartition("TestDB", key.getBytes("UTF-8")), partition);
+        counts[Integer.parseInt(partition.substring("TestDB_".length()))]++;
+
+        int partitionId = Integer.parseInt(partition.substring("TestDB_".length()));
+        InstanceConfig instance = router.getInstance("TestDB", key, "MASTER");
+        Assert.assertEquals(instance.getId(), configs.get(partitionId % 4).getId());
+      }
+
+      for (int count : counts)
+      {
+        Assert.assertTrue(count > 0, "keys are not spread over partitions by " + type);
+      }
+    }
+
+    KeyRouter router = new KeyRouter(provider);
+    Assert.assertNull(router.getPartition("TestDB", "key"));
+    Assert.assertNull(router.getInstance("TestDB", "key", "MASTER"));
+  }
+
+  @Test
+  public void testPartitionNameComparator()
+  {
+    KeyRouter.PartitionNameComparator comparator = new KeyRouter.PartitionNameComparator();
+    Assert.assertTrue(comparator.compare("TestDB_2", "TestDB_10") < 0);
+    Assert.assertTrue(comparator.compare("TestDB_10", "TestDB_2") > 0);
+    Assert.assertEquals(comparator.compare("TestDB_2", "TestDB_2"), 0);
+    Assert.assertTrue(comparator.compare("A_2", "B_1") < 0);
+  }
+}
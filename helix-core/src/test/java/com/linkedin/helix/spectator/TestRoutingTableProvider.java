@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.linkedin.helix.NotificationContext;
+import com.linkedin.helix.NotificationContext.Type;
+import com.linkedin.helix.model.ExternalView;
+import com.linkedin.helix.model.InstanceConfig;
+
+public class TestRoutingTableProvider
+{
+  @Test
+  public void testPruneNamePool() throws Exception
+  {
+    RoutingTableProvider provider = new RoutingTableProvider();
+    NotificationContext context = new NotificationContext(null);
+    context.setType(Type.CALLBACK);
+
+    List<InstanceConfig> configs = new ArrayList<InstanceConfig>();
+    InstanceConfig config = new InstanceConfig("localhost_12918");
+    config.setHostName("localhost");
+    config.setPort("12918");
+    configs.add(config);
+    provider.onConfigChange(configs, context);
+
+    // each round replaces the resource by a new one with new partitions
+    int maxPoolSize = 0;
+    for (int round = 0; round < 50; round++)
+    {
+      String resourceName = "TestDB" + round;
+      ExternalView externalView = new ExternalView(resourceName);
+      for (int i = 0; i < 200; i++)
+      {
+        externalView.setState(resourceName + "_" + i, config.getId(), "MASTER");
+      }
+      List<ExternalView> externalViews = new ArrayList<ExternalView>();
+      externalViews.add(externalView);
+      provider.onExternalViewChange(externalViews, context);
+
+      Assert.assertEquals(provider.getInstances(resourceName, "MASTER").size(), 1);
+      maxPoolSize = Math.max(maxPoolSize, provider.getNamePoolSize());
+    }
+
+    // pruned once it doubles, 1024 names at least
+    Assert.assertTrue(maxPoolSize <= 2 * 1024 + 203, "pool size: " + maxPoolSize);
+    Assert.assertEquals(provider.getInstances("TestDB0", "MASTER").size(), 0);
+    Assert.assertNotNull(provider.getInstance("TestDB49", "TestDB49_199", "MASTER"));
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2012 LinkedIn Inc <opensource@linkedin.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.linkedin.helix.spectator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.linkedin.helix.NotificationContext;
+import com.linkedin.helix.NotificationContext.Type;
+import com.linkedin.helix.model.ExternalView;
+import com.linkedin.helix.model.InstanceConfig;
+
+public class TestRoutingTableSnapshot
+{
+  private RoutingTableProvider createProvider()
+  {
+    RoutingTableProvider provider = new RoutingTableProvider();
+    NotificationContext context = new NotificationContext(null);
+    context.setType(Type.CALLBACK);
+
+    List<InstanceConfig> configs = new ArrayList<InstanceConfig>();
+    for (int i = 0; i < 4; i++)
+    {
+      InstanceConfig config = new InstanceConfig("localhost_" + (12918 + i));
+      config.setHostName("localhost");
+      config.setPort("" + (12918 + i));
+      configs.add(config);
+    }
+    provider.onConfigChange(configs, context);
+
+    ExternalView externalView = new ExternalView("TestDB");
+    for (int i = 0; i < 16; i++)
+    {
+      externalView.setState("TestDB_" + i, configs.get(i % 4).getId(), "MASTER");
+      externalView.setState("TestDB_" + i, configs.get((i + 1) % 4).getId(), "SLAVE");
+    }
+    List<ExternalView> externalViews = new ArrayList<ExternalView>();
+    externalViews.add(externalView);
+    provider.onExternalViewChange(externalViews, context);
+    return provider;
+  }
+
+  private File createSnapshotFile(RoutingTableProvider provider) throws IOException
+  {
+    File file = File.createTempFile("TestRoutingTableSnapshot", ".snapshot");
+    file.deleteOnExit();
+    provider.saveSnapshot(file);
+    return file;
+  }
+
+  private void assertNotReadable(File file)
+  {
+    try
+    {
+      RoutingTableSnapshot.read(file);
+      Assert.fail("snapshot " + file + " should not be readable");
+    }
+    catch (IOException e)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception
+  {
+    RoutingTableProvider provider = createProvider();
+    File file = createSnapshotFile(provider);
+    // replaces the previous snapshot, no temp file is left
+    provider.saveSnapshot(file);
+    Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+
+    RoutingTableProvider restored = new RoutingTableProvider();
+    Assert.assertTrue(restored.loadSnapshot(file));
+    for (int i = 0; i < 16; i++)
+    {
+      String partitionName = "TestDB_" + i;
+      for (String state : new String[] { "MASTER", "SLAVE" })
+      {
+        List<InstanceConfig> expected = provider.getInstances("TestDB", partitionName, state);
+        List<InstanceConfig> instances = restored.getInstances("TestDB", partitionName, state);
+        Assert.assertEquals(instances.size(), 1);
+        Assert.assertEquals(instances.get(0).getId(), expected.get(0).getId());
+        Assert.assertEquals(instances.get(0).getPort(), expected.get(0).getPort());
+      }
+    }
+  }
+
+  @Test
+  public void testCorruptedSnapshot() throws Exception
+  {
+    RoutingTableProvider provider = createProvider();
+    File file = createSnapshotFile(provider);
+    long length = file.length();
+
+    // a flipped byte in the content fails the CRC
+    RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+    raFile.seek(length / 2);
+    int b = raFile.read();
+    raFile.seek(length / 2);
+    raFile.write(b ^ 0xff);
+    raFile.close();
+    assertNotReadable(file);
+    Assert.assertFalse(new RoutingTableProvider().loadSnapshot(file));
+
+    // truncated
+    file = createSnapshotFile(provider);
+    raFile = new RandomAccessFile(file, "rw");
+    raFile.setLength(length - 10);
+    raFile.close();
+    assertNotReadable(file);
+    raFile = new RandomAccessFile(file, "rw");
+    raFile.setLength(8);
+    raFile.close();
+    assertNotReadable(file);
+  }
+
+  @Test
+  public void testInvalidCounts() throws Exception
+  {
+    // string tables and strings longer than the file, with a valid CRC
+    int[][] contents =
+        new int[][] { { Integer.MAX_VALUE }, { -1 }, { 1, Integer.MAX_VALUE },
+            { 1, -5 }, { 0, 1, 0 } };
+    for (int[] content : contents)
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      for (int value : content)
+      {
+        out.writeInt(value);
+      }
+      out.flush();
+      byte[] contentBytes = bytes.toByteArray();
+      CRC32 crc = new CRC32();
+      crc.update(contentBytes);
+
+      File file = File.createTempFile("TestRoutingTableSnapshot", ".snapshot");
+      file.deleteOnExit();
+      DataOutputStream fileOut = new DataOutputStream(new FileOutputStream(file));
+      fileOut.writeInt(0x48525453);
+      fileOut.writeInt(2);
+      fileOut.writeInt(contentBytes.length);
+      fileOut.writeInt((int) crc.getValue());
+      fileOut.write(contentBytes);
+      fileOut.close();
+      assertNotReadable(file);
+    }
+  }
+}